@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.record.CompressionDictionary;
+import org.apache.kafka.common.requests.DescribeConfigsRequest;
+import org.apache.kafka.common.requests.DescribeConfigsResponse;
+import org.apache.kafka.common.requests.Resource;
+import org.apache.kafka.common.requests.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the compression dictionaries of topics, which are set by the <code>compression.dictionary</code> topic config
+ * and fetched from the brokers with DescribeConfigs requests. The first dictionary listed for a topic is the active one
+ * used to compress new batches; all listed dictionaries are registered with {@link CompressionDictionary#register}
+ * so that batches written with them can be decompressed.
+ *
+ * The pattern is akin to the use of {@link Metadata} for topic metadata: the owner of the network client sends the
+ * requests built here and passes the responses back.
+ *
+ * NOTE: This class is intended for INTERNAL usage only within Kafka.
+ */
+public class CompressionDictionaries {
+    private static final Logger log = LoggerFactory.getLogger(CompressionDictionaries.class);
+
+    private final long refreshBackoffMs;
+    private final long maxAgeMs;
+    private final Map<String, CompressionDictionary> activeDictionaries = new HashMap<>();
+    private final Map<String, Long> lastRefreshMs = new HashMap<>();
+    private final Map<String, Set<Integer>> missingIds = new HashMap<>();
+    private final Set<String> pendingTopics = new HashSet<>();
+    private final Set<String> inFlightTopics = new HashSet<>();
+    private long lastFailedRequestMs = Long.MIN_VALUE;
+    private volatile boolean updatePending = false;
+    private volatile long nextRefreshMs = Long.MAX_VALUE;
+
+    /**
+     * @param refreshBackoffMs The minimum time between a failed request and the next attempt
+     * @param maxAgeMs The time after which the dictionaries of a topic are fetched again, so that newly trained
+     *                 dictionaries are picked up
+     */
+    public CompressionDictionaries(long refreshBackoffMs, long maxAgeMs) {
+        this.refreshBackoffMs = refreshBackoffMs;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Get the dictionary to compress new batches of the topic with. The first call for a topic schedules a fetch of
+     * its dictionaries, null is returned until it completes.
+     */
+    public synchronized CompressionDictionary activeDictionary(String topic) {
+        if (!lastRefreshMs.containsKey(topic) && !inFlightTopics.contains(topic) && pendingTopics.add(topic))
+            updatePending = true;
+        return activeDictionaries.get(topic);
+    }
+
+    /**
+     * Schedule a fetch of the topic's dictionaries since a batch was compressed with a dictionary which has not been
+     * registered.
+     *
+     * @return false if the topic's dictionaries have been fetched since the id was first reported as missing, which
+     *         means the dictionary is not known to the broker either
+     */
+    public synchronized boolean requestUpdate(String topic, int missingId) {
+        Set<Integer> ids = missingIds.get(topic);
+        if (ids == null) {
+            ids = new HashSet<>();
+            missingIds.put(topic, ids);
+        }
+        if (!ids.add(missingId) && !pendingTopics.contains(topic) && !inFlightTopics.contains(topic))
+            return false;
+        if (!inFlightTopics.contains(topic)) {
+            pendingTopics.add(topic);
+            updatePending = true;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether {@link #maybeNewRequest(long)} would return a request. This is cheap when no fetch is pending and
+     * no dictionaries are due for a refresh.
+     */
+    public boolean needsRequest(long now) {
+        if (!updatePending && now < nextRefreshMs)
+            return false;
+        synchronized (this) {
+            return inFlightTopics.isEmpty() && now >= lastFailedRequestMs + refreshBackoffMs
+                    && (!pendingTopics.isEmpty() || now >= nextRefreshMs);
+        }
+    }
+
+    /**
+     * Check whether a fetch of the topic's dictionaries is pending or in flight. This is cheap when no fetch is
+     * pending for any topic.
+     */
+    public boolean isUpdatePending(String topic) {
+        if (!updatePending)
+            return false;
+        synchronized (this) {
+            return pendingTopics.contains(topic) || inFlightTopics.contains(topic);
+        }
+    }
+
+    /**
+     * Build a request for the dictionaries of the topics which need to be fetched, marking them as in flight. Only
+     * one request is in flight at a time.
+     *
+     * @return The request, or null if there is nothing to fetch yet
+     */
+    public synchronized DescribeConfigsRequest.Builder maybeNewRequest(long now) {
+        if (!inFlightTopics.isEmpty() || now < lastFailedRequestMs + refreshBackoffMs)
+            return null;
+
+        if (now >= nextRefreshMs) {
+            for (Map.Entry<String, Long> entry : lastRefreshMs.entrySet()) {
+                if (now - entry.getValue() >= maxAgeMs)
+                    pendingTopics.add(entry.getKey());
+            }
+        }
+        if (pendingTopics.isEmpty())
+            return null;
+
+        Map<Resource, Collection<String>> resources = new HashMap<>(pendingTopics.size());
+        for (String topic : pendingTopics)
+            resources.put(new Resource(ResourceType.TOPIC, topic),
+                    Collections.singletonList(TopicConfig.COMPRESSION_DICTIONARY_CONFIG));
+        inFlightTopics.addAll(pendingTopics);
+        pendingTopics.clear();
+        updatePending = true;
+        return new DescribeConfigsRequest.Builder(resources);
+    }
+
+    /**
+     * Handle the response to the request built by {@link #maybeNewRequest(long)}.
+     */
+    public synchronized void handleResponse(ClientResponse response, long now) {
+        if (response.wasDisconnected() || response.versionMismatch() != null) {
+            log.debug("Failed to fetch compression dictionaries for topics {}, will retry", inFlightTopics);
+            handleFailure(now);
+            return;
+        }
+
+        DescribeConfigsResponse describeResponse = (DescribeConfigsResponse) response.responseBody();
+        for (Map.Entry<Resource, DescribeConfigsResponse.Config> entry : describeResponse.configs().entrySet()) {
+            String topic = entry.getKey().name();
+            DescribeConfigsResponse.Config config = entry.getValue();
+            List<CompressionDictionary> dictionaries = Collections.emptyList();
+            if (config.error().isFailure()) {
+                log.warn("Failed to fetch compression dictionaries for topic {}: {}", topic,
+                        config.error().messageWithFallback());
+            } else {
+                for (DescribeConfigsResponse.ConfigEntry configEntry : config.entries()) {
+                    if (TopicConfig.COMPRESSION_DICTIONARY_CONFIG.equals(configEntry.name()))
+                        dictionaries = parse(topic, configEntry.value());
+                }
+            }
+
+            List<CompressionDictionary> registered = new ArrayList<>(dictionaries.size());
+            for (CompressionDictionary dictionary : dictionaries) {
+                try {
+                    registered.add(CompressionDictionary.register(dictionary));
+                } catch (KafkaException e) {
+                    log.warn("Ignoring compression dictionary {} of topic {}", dictionary, topic, e);
+                }
+            }
+            if (registered.isEmpty())
+                activeDictionaries.remove(topic);
+            else
+                activeDictionaries.put(topic, registered.get(0));
+
+            inFlightTopics.remove(topic);
+            lastRefreshMs.put(topic, now);
+        }
+
+        // topics missing from the response are retried with the next request
+        pendingTopics.addAll(inFlightTopics);
+        inFlightTopics.clear();
+        updatePending = !pendingTopics.isEmpty();
+
+        long oldestRefreshMs = Long.MAX_VALUE;
+        for (long refreshMs : lastRefreshMs.values())
+            oldestRefreshMs = Math.min(oldestRefreshMs, refreshMs);
+        nextRefreshMs = maxAgeMs > Long.MAX_VALUE - oldestRefreshMs ? Long.MAX_VALUE : oldestRefreshMs + maxAgeMs;
+    }
+
+    public synchronized void handleFailure(long now) {
+        pendingTopics.addAll(inFlightTopics);
+        inFlightTopics.clear();
+        updatePending = !pendingTopics.isEmpty();
+        lastFailedRequestMs = now;
+    }
+
+    private static List<CompressionDictionary> parse(String topic, String value) {
+        if (value == null || value.trim().isEmpty())
+            return Collections.emptyList();
+        try {
+            return CompressionDictionary.parseAll(Arrays.asList(value.split(",")));
+        } catch (RuntimeException e) {
+            log.warn("Ignoring invalid compression dictionary config of topic {}", topic, e);
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest.PartitionData;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fetch session of a fetcher with one broker. It builds the fetch requests to the broker: a full request which
+ * creates a session, and then incremental requests which only contain the partitions which were added to the session
+ * or whose fetch parameters changed, and the partitions to remove from the session.
+ *
+ * When the broker does not support fetch sessions, or does not create one, every request is a full request. After a
+ * session error, or a failed request, the next request is a full request which creates a new session.
+ *
+ * This class is not thread-safe.
+ */
+public class FetchSessionHandler {
+    private static final Logger log = LoggerFactory.getLogger(FetchSessionHandler.class);
+
+    private final int node;
+
+    /**
+     * The metadata of the next fetch request
+     */
+    private FetchMetadata nextMetadata = FetchMetadata.INITIAL;
+
+    /**
+     * The partitions of the session and their fetch data, as of the last request
+     */
+    private LinkedHashMap<TopicPartition, PartitionData> sessionPartitions = new LinkedHashMap<>();
+
+    public FetchSessionHandler(int node) {
+        this.node = node;
+    }
+
+    /**
+     * The data of a fetch request built by a {@link Builder}
+     */
+    public static class FetchRequestData {
+        private final LinkedHashMap<TopicPartition, PartitionData> toSend;
+        private final List<TopicPartition> toForget;
+        private final Map<TopicPartition, PartitionData> sessionPartitions;
+        private final FetchMetadata metadata;
+
+        FetchRequestData(LinkedHashMap<TopicPartition, PartitionData> toSend, List<TopicPartition> toForget,
+                         Map<TopicPartition, PartitionData> sessionPartitions, FetchMetadata metadata) {
+            this.toSend = toSend;
+            this.toForget = toForget;
+            this.sessionPartitions = sessionPartitions;
+            this.metadata = metadata;
+        }
+
+        /**
+         * The partitions to send in the request, which are all the partitions of a full request
+         */
+        public LinkedHashMap<TopicPartition, PartitionData> toSend() {
+            return toSend;
+        }
+
+        /**
+         * The partitions to remove from the session, which are only set in an incremental request
+         */
+        public List<TopicPartition> toForget() {
+            return toForget;
+        }
+
+        /**
+         * All the partitions fetched by the request
+         */
+        public Map<TopicPartition, PartitionData> sessionPartitions() {
+            return sessionPartitions;
+        }
+
+        public FetchMetadata metadata() {
+            return metadata;
+        }
+
+        @Override
+        public String toString() {
+            if (metadata.isFull())
+                return "FullFetchRequest(" + toSend.keySet() + ")";
+            return "IncrementalFetchRequest(toSend=" + toSend.keySet() + ", toForget=" + toForget +
+                ", implied=" + sessionPartitions.keySet() + ")";
+        }
+    }
+
+    /**
+     * Builds the next fetch request of the session from the partitions which should be fetched
+     */
+    public class Builder {
+        private LinkedHashMap<TopicPartition, PartitionData> next = new LinkedHashMap<>();
+
+        public void add(TopicPartition topicPartition, PartitionData data) {
+            next.put(topicPartition, data);
+        }
+
+        public FetchRequestData build() {
+            if (nextMetadata.isFull()) {
+                sessionPartitions = next;
+                next = null;
+                return new FetchRequestData(new LinkedHashMap<>(sessionPartitions),
+                    Collections.<TopicPartition>emptyList(), Collections.unmodifiableMap(sessionPartitions), nextMetadata);
+            }
+
+            List<TopicPartition> removed = new ArrayList<>();
+            LinkedHashMap<TopicPartition, PartitionData> toSend = new LinkedHashMap<>();
+            for (Iterator<Map.Entry<TopicPartition, PartitionData>> iterator = sessionPartitions.entrySet().iterator();
+                 iterator.hasNext(); ) {
+                Map.Entry<TopicPartition, PartitionData> entry = iterator.next();
+                PartitionData nextData = next.remove(entry.getKey());
+                if (nextData == null) {
+                    removed.add(entry.getKey());
+                    iterator.remove();
+                } else if (!nextData.equals(entry.getValue())) {
+                    entry.setValue(nextData);
+                    toSend.put(entry.getKey(), nextData);
+                }
+            }
+            // the partitions which are left were added to the session
+            for (Map.Entry<TopicPartition, PartitionData> entry : next.entrySet()) {
+                sessionPartitions.put(entry.getKey(), entry.getValue());
+                toSend.put(entry.getKey(), entry.getValue());
+            }
+            next = null;
+            return new FetchRequestData(toSend, removed, Collections.unmodifiableMap(sessionPartitions), nextMetadata);
+        }
+    }
+
+    public Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Handle the response to the last request built by this handler.
+     *
+     * @return true if the response can be used, false if it did not match the request or had a session error
+     */
+    public boolean handleResponse(FetchResponse response) {
+        if (response.error() != Errors.NONE) {
+            log.info("Node {} was unable to process the fetch request with {}: {}.", node, nextMetadata, response.error());
+            if (response.error() == Errors.FETCH_SESSION_ID_NOT_FOUND)
+                nextMetadata = FetchMetadata.INITIAL;
+            else
+                nextMetadata = nextMetadata.nextCloseExisting();
+            return false;
+        }
+
+        if (nextMetadata.isFull()) {
+            if (!sessionPartitions.keySet().equals(response.responseData().keySet())) {
+                log.info("Ignoring the full fetch response from node {} with the partitions {}, since it does not " +
+                    "match the requested partitions {}", node, response.responseData().keySet(), sessionPartitions.keySet());
+                nextMetadata = FetchMetadata.INITIAL;
+                return false;
+            }
+            if (response.sessionId() == FetchMetadata.INVALID_SESSION_ID) {
+                log.debug("Node {} sent a full fetch response without a session", node);
+                nextMetadata = FetchMetadata.INITIAL;
+            } else {
+                log.debug("Node {} sent a full fetch response which created the session {}", node, response.sessionId());
+                nextMetadata = FetchMetadata.newIncremental(response.sessionId());
+            }
+        } else {
+            if (!sessionPartitions.keySet().containsAll(response.responseData().keySet())) {
+                log.info("Ignoring the incremental fetch response from node {} with the partitions {}, since they " +
+                    "are not all in the session {}", node, response.responseData().keySet(), sessionPartitions.keySet());
+                nextMetadata = nextMetadata.nextCloseExisting();
+                return false;
+            }
+            if (response.sessionId() == FetchMetadata.INVALID_SESSION_ID) {
+                log.debug("Node {} closed the fetch session {}", node, nextMetadata.sessionId());
+                nextMetadata = FetchMetadata.INITIAL;
+            } else {
+                nextMetadata = nextMetadata.nextIncremental();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Handle the failure of the last request built by this handler, after which the broker may or may not have
+     * processed the request, so the next request is a full request.
+     */
+    public void handleError(Throwable t) {
+        log.info("Error sending the fetch request with {} to node {}: {}.", nextMetadata, node, t.toString());
+        nextMetadata = nextMetadata.nextCloseExisting();
+    }
+
+    public int sessionId() {
+        return nextMetadata.sessionId();
+    }
+}
@@ -203,6 +203,15 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String CHECK_CRCS_CONFIG = "check.crcs";
     private static final String CHECK_CRCS_DOC = "Automatically check the CRC32 of the records consumed. This ensures no on-the-wire or on-disk corruption to the messages occurred. This check adds some overhead, so it may be disabled in cases seeking extreme performance.";
 
+    /**
+     * <code>fetch.parse.threads</code>
+     */
+    public static final String FETCH_PARSE_THREADS_CONFIG = "fetch.parse.threads";
+    private static final String FETCH_PARSE_THREADS_DOC = "The number of threads used to decompress and deserialize fetched records ahead of the calls to <code>poll</code>. "
+                                                          + "With the default of 0 records are parsed by the thread calling <code>poll</code>. Parse threads let "
+                                                          + "consumers of compressed topics use several cores, records are still returned in order within each "
+                                                          + "partition. The key and value deserializers must be thread safe when parse threads are used.";
+
     /** <code>key.deserializer</code> */
     public static final String KEY_DESERIALIZER_CLASS_CONFIG = "key.deserializer";
     public static final String KEY_DESERIALIZER_CLASS_DOC = "Deserializer class for key that implements the <code>Deserializer</code> interface.";
@@ -362,6 +371,12 @@ public class ConsumerConfig extends AbstractConfig {
                                         true,
                                         Importance.LOW,
                                         CHECK_CRCS_DOC)
+                                .define(FETCH_PARSE_THREADS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_PARSE_THREADS_DOC)
                                 .define(METRICS_SAMPLE_WINDOW_MS_CONFIG,
                                         Type.LONG,
                                         30000,
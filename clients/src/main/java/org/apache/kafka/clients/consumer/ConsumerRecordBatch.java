@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.AbstractIterator;
+
+import java.util.Iterator;
+
+/**
+ * A read-only view of a record batch fetched from a partition, as returned by {@link KafkaConsumer#pollBatches(long)}.
+ * <p>
+ * The batch references the buffer it was fetched into. For uncompressed batches the keys and values of its records
+ * are views of that buffer, and record headers are only parsed when {@link Record#headers()} is called, so records can
+ * be routed or filtered without copying them. Compressed batches are decompressed when they are iterated.
+ * <p>
+ * The first records of the batch may have been consumed before, for example if the consumer seeked to an offset within
+ * the batch. Iterating the batch only returns the records from {@link #firstOffset()} on.
+ */
+public class ConsumerRecordBatch implements Iterable<Record> {
+
+    private final TopicPartition topicPartition;
+    private final RecordBatch batch;
+    private final long firstOffset;
+
+    public ConsumerRecordBatch(TopicPartition topicPartition, RecordBatch batch, long firstOffset) {
+        this.topicPartition = topicPartition;
+        this.batch = batch;
+        this.firstOffset = firstOffset;
+    }
+
+    /**
+     * The partition the batch was fetched from
+     */
+    public TopicPartition topicPartition() {
+        return topicPartition;
+    }
+
+    /**
+     * The underlying batch, including any records before {@link #firstOffset()}
+     */
+    public RecordBatch batch() {
+        return batch;
+    }
+
+    /**
+     * The offset of the first record to consume, records of the batch with lower offsets are skipped by iteration
+     */
+    public long firstOffset() {
+        return firstOffset;
+    }
+
+    /**
+     * The offset following the batch, which is the position of the consumer after consuming it
+     */
+    public long nextOffset() {
+        return batch.nextOffset();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        final Iterator<Record> records = batch.iterator();
+        return new AbstractIterator<Record>() {
+            @Override
+            protected Record makeNext() {
+                while (records.hasNext()) {
+                    Record record = records.next();
+                    if (record.offset() >= firstOffset)
+                        return record;
+                }
+                return allDone();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumerRecordBatch(topicPartition=" + topicPartition +
+                ", firstOffset=" + firstOffset +
+                ", lastOffset=" + batch.lastOffset() +
+                ", sizeInBytes=" + batch.sizeInBytes() + ")";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.AbstractIterator;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A container that holds the list of {@link ConsumerRecordBatch} per partition returned by a
+ * {@link KafkaConsumer#pollBatches(long)} operation.
+ */
+public class ConsumerRecordBatches implements Iterable<ConsumerRecordBatch> {
+
+    public static final ConsumerRecordBatches EMPTY =
+            new ConsumerRecordBatches(Collections.<TopicPartition, List<ConsumerRecordBatch>>emptyMap());
+
+    private final Map<TopicPartition, List<ConsumerRecordBatch>> batches;
+
+    public ConsumerRecordBatches(Map<TopicPartition, List<ConsumerRecordBatch>> batches) {
+        this.batches = batches;
+    }
+
+    /**
+     * Get just the batches for the given partition
+     *
+     * @param partition The partition to get batches for
+     */
+    public List<ConsumerRecordBatch> batches(TopicPartition partition) {
+        List<ConsumerRecordBatch> partitionBatches = this.batches.get(partition);
+        if (partitionBatches == null)
+            return Collections.emptyList();
+        else
+            return Collections.unmodifiableList(partitionBatches);
+    }
+
+    /**
+     * Get the partitions which have batches contained in this set.
+     * @return the set of partitions with data in this set (may be empty if no data was returned)
+     */
+    public Set<TopicPartition> partitions() {
+        return Collections.unmodifiableSet(batches.keySet());
+    }
+
+    @Override
+    public Iterator<ConsumerRecordBatch> iterator() {
+        return new AbstractIterator<ConsumerRecordBatch>() {
+            private final Iterator<List<ConsumerRecordBatch>> partitions = batches.values().iterator();
+            private Iterator<ConsumerRecordBatch> current;
+
+            @Override
+            protected ConsumerRecordBatch makeNext() {
+                while (current == null || !current.hasNext()) {
+                    if (partitions.hasNext())
+                        current = partitions.next().iterator();
+                    else
+                        return allDone();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    public boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    public static ConsumerRecordBatches empty() {
+        return EMPTY;
+    }
+
+}
@@ -751,7 +751,8 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     metricsRegistry.fetcherMetrics,
                     this.time,
                     this.retryBackoffMs,
-                    isolationLevel);
+                    isolationLevel,
+                    config.getInt(ConsumerConfig.FETCH_PARSE_THREADS_CONFIG));
 
             config.logUnused();
             AppInfoParser.registerAppInfo(JMX_PREFIX, clientId);
@@ -1067,6 +1068,68 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         }
     }
 
+    /**
+     * Fetch data for the topics or partitions specified using one of the subscribe/assign APIs as read-only views of the
+     * fetched record batches. This is an alternative to {@link #poll(long)} for applications which process large
+     * numbers of records, for example to route or filter them by header, and want to avoid allocating a
+     * {@link ConsumerRecord} and deserialized key and value for each of them.
+     * <p>
+     * The batches reference the fetched data rather than copying it, see {@link ConsumerRecordBatch}. The key and value
+     * deserializers and the consumer interceptors are not used. The consumed position of a partition is advanced past
+     * the returned batches, and at most <code>max.poll.records</code> records are returned unless a single batch has
+     * more. Control batches and, with <code>read_committed</code> isolation, aborted batches are not returned. Calls to
+     * this method and {@link #poll(long)} can be mixed.
+     *
+     * @param timeout The time, in milliseconds, spent waiting in poll if data is not available in the buffer.
+     *            If 0, returns immediately with any batches that are available currently in the buffer, else returns
+     *            empty. Must not be negative.
+     * @return map of partition to batches since the last fetch for the subscribed list of topics and partitions
+     *
+     * @throws org.apache.kafka.clients.consumer.InvalidOffsetException if the offset for a partition or set of
+     *             partitions is undefined or out of range and no offset reset policy has been configured
+     * @throws org.apache.kafka.common.errors.WakeupException if {@link #wakeup()} is called before or while this
+     *             function is called
+     * @throws org.apache.kafka.common.errors.InterruptException if the calling thread is interrupted before or while
+     *             this function is called
+     * @throws org.apache.kafka.common.errors.AuthorizationException if caller lacks Read access to any of the subscribed
+     *             topics or to the configured groupId
+     * @throws org.apache.kafka.common.KafkaException for any other unrecoverable errors (e.g. invalid groupId or
+     *             session timeout, or corrupt record batches)
+     * @throws java.lang.IllegalArgumentException if the timeout value is negative
+     * @throws java.lang.IllegalStateException if the consumer is not subscribed to any topics or manually assigned any
+     *             partitions to consume from
+     */
+    public ConsumerRecordBatches pollBatches(long timeout) {
+        acquire();
+        try {
+            if (timeout < 0)
+                throw new IllegalArgumentException("Timeout must not be negative");
+
+            if (this.subscriptions.hasNoSubscriptionOrUserAssignment())
+                throw new IllegalStateException("Consumer is not subscribed to any topics or assigned any partitions");
+
+            // poll for new data until the timeout expires
+            long start = time.milliseconds();
+            long remaining = timeout;
+            do {
+                Map<TopicPartition, List<ConsumerRecordBatch>> batches = pollBatchesOnce(remaining);
+                if (!batches.isEmpty()) {
+                    // pipeline the next round of fetches as in poll(), the consumed position has already been updated
+                    if (fetcher.sendFetches() > 0 || client.hasPendingRequests())
+                        client.pollNoWakeup();
+                    return new ConsumerRecordBatches(batches);
+                }
+
+                long elapsed = time.milliseconds() - start;
+                remaining = timeout - elapsed;
+            } while (remaining > 0);
+
+            return ConsumerRecordBatches.empty();
+        } finally {
+            release();
+        }
+    }
+
     /**
      * Do one round of polling. In addition to checking for new data, this does any needed offset commits
      * (if auto-commit is enabled), and offset resets (if an offset reset policy is defined).
@@ -1074,6 +1137,36 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
      * @return The fetched records (may be empty)
      */
     private Map<TopicPartition, List<ConsumerRecord<K, V>>> pollOnce(long timeout) {
+        beginPollOnce(timeout);
+
+        // if data is available already, return it immediately
+        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
+        if (!records.isEmpty())
+            return records;
+
+        if (!awaitFetches(timeout))
+            return Collections.emptyMap();
+
+        return fetcher.fetchedRecords();
+    }
+
+    /**
+     * Do one round of polling as {@link #pollOnce(long)} does, returning the fetched data as batches.
+     */
+    private Map<TopicPartition, List<ConsumerRecordBatch>> pollBatchesOnce(long timeout) {
+        beginPollOnce(timeout);
+
+        Map<TopicPartition, List<ConsumerRecordBatch>> batches = fetcher.fetchedRecordBatches();
+        if (!batches.isEmpty())
+            return batches;
+
+        if (!awaitFetches(timeout))
+            return Collections.emptyMap();
+
+        return fetcher.fetchedRecordBatches();
+    }
+
+    private void beginPollOnce(long timeout) {
         client.maybeTriggerWakeup();
         coordinator.poll(time.milliseconds(), timeout);
 
@@ -1081,12 +1174,13 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         // don't know the offset for
         if (!subscriptions.hasAllFetchPositions())
             updateFetchPositions(this.subscriptions.missingFetchPositions());
+    }
 
-        // if data is available already, return it immediately
-        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
-        if (!records.isEmpty())
-            return records;
-
+    /**
+     * Send fetches and wait for their responses.
+     * @return false if the group needs to rebalance and no data should be returned
+     */
+    private boolean awaitFetches(long timeout) {
         // send any new fetches (won't resend pending fetches)
         fetcher.sendFetches();
 
@@ -1104,10 +1198,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
 
         // after the long poll, we should check whether the group needs to rebalance
         // prior to returning data so that the group can stabilize faster
-        if (coordinator.needRejoin())
-            return Collections.emptyMap();
-
-        return fetcher.fetchedRecords();
+        return !coordinator.needRejoin();
     }
 
     /**
@@ -17,9 +17,12 @@
 package org.apache.kafka.clients.consumer.internals;
 
 import org.apache.kafka.clients.ClientResponse;
+import org.apache.kafka.clients.FetchSessionHandler;
+import org.apache.kafka.clients.CompressionDictionaries;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecordBatch;
 import org.apache.kafka.clients.consumer.NoOffsetForPartitionException;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.clients.consumer.OffsetOutOfRangeException;
@@ -29,6 +32,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.InvalidMetadataException;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.RecordTooLargeException;
@@ -36,6 +40,7 @@ import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.apache.kafka.common.errors.UnknownCompressionDictionaryException;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.metrics.Metrics;
@@ -52,6 +57,7 @@ import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.requests.DescribeConfigsRequest;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.requests.IsolationLevel;
@@ -62,6 +68,7 @@ import org.apache.kafka.common.requests.MetadataResponse;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.ExtendedDeserializer;
 import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
@@ -69,6 +76,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -81,7 +89,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.emptyList;
@@ -108,12 +122,16 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
     private final SubscriptionState subscriptions;
     private final ConcurrentLinkedQueue<CompletedFetch> completedFetches;
     private final BufferSupplier decompressionBufferSupplier = BufferSupplier.create();
+    private final CompressionDictionaries compressionDictionaries;
+    // parses completed fetches ahead of the calls to fetchedRecords if parse threads are configured, null otherwise
+    private final ExecutorService parseExecutor;
 
     private final ExtendedDeserializer<K> keyDeserializer;
     private final ExtendedDeserializer<V> valueDeserializer;
     private final IsolationLevel isolationLevel;
 
     private PartitionRecords nextInLineRecords = null;
+    private final Map<Integer, FetchSessionHandler> sessionHandlers = new HashMap<>();
 
     public Fetcher(ConsumerNetworkClient client,
                    int minBytes,
@@ -130,7 +148,8 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                    FetcherMetricsRegistry metricsRegistry,
                    Time time,
                    long retryBackoffMs,
-                   IsolationLevel isolationLevel) {
+                   IsolationLevel isolationLevel,
+                   int parseThreads) {
         this.time = time;
         this.client = client;
         this.metadata = metadata;
@@ -147,6 +166,16 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         this.sensors = new FetchManagerMetrics(metrics, metricsRegistry);
         this.retryBackoffMs = retryBackoffMs;
         this.isolationLevel = isolationLevel;
+        // dictionaries are only fetched when a batch compressed with an unknown dictionary is encountered
+        this.compressionDictionaries = new CompressionDictionaries(retryBackoffMs, Long.MAX_VALUE);
+        this.parseExecutor = parseThreads > 0 ? Executors.newFixedThreadPool(parseThreads, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new KafkaThread("kafka-consumer-fetch-parser-" + threadIndex.getAndIncrement(), runnable, true);
+            }
+        }) : null;
 
         subscriptions.addListener(this);
     }
@@ -181,51 +210,55 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         return !completedFetches.isEmpty();
     }
 
-    private boolean matchesRequestedPartitions(FetchRequest.Builder request, FetchResponse response) {
-        Set<TopicPartition> requestedPartitions = request.fetchData().keySet();
-        Set<TopicPartition> fetchedPartitions = response.responseData().keySet();
-        return fetchedPartitions.equals(requestedPartitions);
-    }
-
     /**
      * Set-up a fetch request for any node that we have assigned partitions for which doesn't already have
      * an in-flight fetch or pending fetch data.
      * @return number of fetches sent
      */
     public int sendFetches() {
-        Map<Node, FetchRequest.Builder> fetchRequestMap = createFetchRequests();
-        for (Map.Entry<Node, FetchRequest.Builder> fetchEntry : fetchRequestMap.entrySet()) {
-            final FetchRequest.Builder request = fetchEntry.getValue();
+        maybeSendCompressionDictionaryRequest();
+
+        Map<Node, FetchSessionHandler.FetchRequestData> fetchRequestMap = createFetchRequests();
+        for (Map.Entry<Node, FetchSessionHandler.FetchRequestData> fetchEntry : fetchRequestMap.entrySet()) {
+            final FetchSessionHandler.FetchRequestData data = fetchEntry.getValue();
             final Node fetchTarget = fetchEntry.getKey();
+            final FetchRequest.Builder request = FetchRequest.Builder
+                    .forConsumer(this.maxWaitMs, this.minBytes, data.toSend(), isolationLevel)
+                    .setMaxBytes(this.maxBytes)
+                    .metadata(data.metadata())
+                    .toForget(data.toForget());
 
-            log.debug("Sending {} fetch for partitions {} to broker {}", isolationLevel, request.fetchData().keySet(),
-                    fetchTarget);
+            log.debug("Sending {} {} to broker {}", isolationLevel, data, fetchTarget);
             client.send(fetchTarget, request)
                     .addListener(new RequestFutureListener<ClientResponse>() {
                         @Override
                         public void onSuccess(ClientResponse resp) {
                             FetchResponse response = (FetchResponse) resp.responseBody();
-                            if (!matchesRequestedPartitions(request, response)) {
-                                // obviously we expect the broker to always send us valid responses, so this check
-                                // is mainly for test cases where mock fetch responses must be manually crafted.
-                                log.warn("Ignoring fetch response containing partitions {} since it does not match " +
-                                        "the requested partitions {}", response.responseData().keySet(),
-                                        request.fetchData().keySet());
+                            FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+                            if (handler == null) {
+                                log.error("Unable to find the fetch session of node {}; ignoring its fetch response",
+                                        fetchTarget.id());
                                 return;
                             }
+                            // obviously we expect the broker to always send us valid responses, so the partitions
+                            // are mainly checked for test cases where mock fetch responses must be manually crafted.
+                            if (!handler.handleResponse(response))
+                                return;
 
                             Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
                             FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions);
 
                             for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
                                 TopicPartition partition = entry.getKey();
-                                long fetchOffset = request.fetchData().get(partition).fetchOffset;
+                                long fetchOffset = data.sessionPartitions().get(partition).fetchOffset;
                                 FetchResponse.PartitionData fetchData = entry.getValue();
 
                                 log.debug("Fetch {} at offset {} for partition {} returned fetch data {}",
                                         isolationLevel, fetchOffset, partition, fetchData);
-                                completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator,
-                                        resp.requestHeader().apiVersion()));
+                                CompletedFetch completedFetch = new CompletedFetch(partition, fetchOffset, fetchData,
+                                        metricAggregator, resp.requestHeader().apiVersion());
+                                maybePreparse(completedFetch);
+                                completedFetches.add(completedFetch);
                             }
 
                             sensors.fetchLatency.record(resp.requestLatencyMs());
@@ -233,13 +266,76 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
                         @Override
                         public void onFailure(RuntimeException e) {
-                            log.debug("Fetch request {} to {} failed", request.fetchData(), fetchTarget, e);
+                            FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+                            if (handler != null)
+                                handler.handleError(e);
+                            log.debug("Fetch request {} to {} failed", data, fetchTarget, e);
                         }
                     });
         }
         return fetchRequestMap.size();
     }
 
+    /**
+     * Decompress and deserialize the records of the completed fetch on a parse thread, if there are any. The
+     * records are returned by fetchedRecords in the order of the completed fetches as usual, the parse threads only
+     * allow the records of several fetches to be parsed in parallel.
+     */
+    private void maybePreparse(CompletedFetch completedFetch) {
+        final FetchResponse.PartitionData partitionData = completedFetch.partitionData;
+        if (parseExecutor == null || partitionData.error != Errors.NONE || partitionData.records.sizeInBytes() == 0)
+            return;
+
+        // the parse threads do not share the cached decompression buffers of the consumer thread
+        final PartitionRecords partitionRecords = new PartitionRecords(completedFetch.partition, completedFetch,
+                partitionData.records.batches().iterator(), BufferSupplier.NO_CACHING);
+        completedFetch.preparsedRecords = parseExecutor.submit(new Callable<PartitionRecords>() {
+            @Override
+            public PartitionRecords call() {
+                partitionRecords.preparse();
+                return partitionRecords;
+            }
+        });
+    }
+
+    private PartitionRecords awaitPreparsedRecords(CompletedFetch completedFetch) {
+        try {
+            return completedFetch.preparsedRecords.get();
+        } catch (InterruptedException e) {
+            throw new InterruptException(e);
+        } catch (ExecutionException e) {
+            throw new KafkaException("Failed to parse fetched records of partition " + completedFetch.partition,
+                    e.getCause());
+        }
+    }
+
+    private void maybeSendCompressionDictionaryRequest() {
+        long now = time.milliseconds();
+        if (!compressionDictionaries.needsRequest(now))
+            return;
+        Node node = client.leastLoadedNode();
+        if (node == null)
+            return;
+        final DescribeConfigsRequest.Builder request = compressionDictionaries.maybeNewRequest(now);
+        if (request == null)
+            return;
+
+        log.debug("Sending compression dictionary request {} to broker {}", request, node);
+        client.send(node, request)
+                .addListener(new RequestFutureListener<ClientResponse>() {
+                    @Override
+                    public void onSuccess(ClientResponse resp) {
+                        compressionDictionaries.handleResponse(resp, time.milliseconds());
+                    }
+
+                    @Override
+                    public void onFailure(RuntimeException e) {
+                        log.debug("Compression dictionary request {} failed", request, e);
+                        compressionDictionaries.handleFailure(time.milliseconds());
+                    }
+                });
+    }
+
     /**
      * Lookup and set offsets for any partitions which are awaiting an explicit reset.
      * @param partitions the partitions to reset
@@ -551,7 +647,79 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         return fetched;
     }
 
+    /**
+     * Return the fetched record batches as views of the fetched data, empty the record buffer and update the consumed
+     * position. At most max.poll.records records are returned, unless the first batch alone has more.
+     *
+     * NOTE: returning empty batches guarantees the consumed position are NOT updated.
+     *
+     * @return The fetched batches per partition
+     * @throws OffsetOutOfRangeException If there is OffsetOutOfRange error in fetchResponse and
+     *         the defaultResetPolicy is NONE
+     */
+    public Map<TopicPartition, List<ConsumerRecordBatch>> fetchedRecordBatches() {
+        Map<TopicPartition, List<ConsumerRecordBatch>> fetched = new HashMap<>();
+        int recordsRemaining = maxPollRecords;
+
+        try {
+            while (recordsRemaining > 0) {
+                if (nextInLineRecords == null || nextInLineRecords.isFetched) {
+                    CompletedFetch completedFetch = completedFetches.peek();
+                    if (completedFetch == null) break;
+
+                    nextInLineRecords = parseCompletedFetch(completedFetch);
+                    completedFetches.poll();
+                } else {
+                    List<ConsumerRecordBatch> batches = emptyList();
+                    if (isNextInLine(nextInLineRecords)) {
+                        batches = nextInLineRecords.fetchBatches(recordsRemaining);
+                        updatePosition(nextInLineRecords);
+                    } else {
+                        nextInLineRecords.drain();
+                    }
+
+                    TopicPartition partition = nextInLineRecords.partition;
+                    if (!batches.isEmpty()) {
+                        List<ConsumerRecordBatch> currentBatches = fetched.get(partition);
+                        if (currentBatches == null) {
+                            fetched.put(partition, batches);
+                        } else {
+                            currentBatches.addAll(batches);
+                        }
+                        for (ConsumerRecordBatch batch : batches)
+                            recordsRemaining -= recordCount(batch);
+                    }
+                }
+            }
+        } catch (KafkaException e) {
+            if (fetched.isEmpty())
+                throw e;
+        }
+        return fetched;
+    }
+
+    private static int recordCount(ConsumerRecordBatch batch) {
+        long count = batch.batch().lastOffset() - batch.firstOffset() + 1;
+        Integer batchCount = batch.batch().countOrNull();
+        return (int) (batchCount == null ? count : Math.min(count, batchCount));
+    }
+
     private List<ConsumerRecord<K, V>> fetchRecords(PartitionRecords partitionRecords, int maxRecords) {
+        if (!isNextInLine(partitionRecords)) {
+            partitionRecords.drain();
+            return emptyList();
+        }
+
+        List<ConsumerRecord<K, V>> partRecords = partitionRecords.fetchRecords(maxRecords);
+        updatePosition(partitionRecords);
+        return partRecords;
+    }
+
+    /**
+     * Check whether the fetched records of the partition can be returned, which is the case if the partition is still
+     * assigned and fetchable and the records continue from the consumed position.
+     */
+    private boolean isNextInLine(PartitionRecords partitionRecords) {
         if (!subscriptions.isAssigned(partitionRecords.partition)) {
             // this can happen when a rebalance happened before fetched records are returned to the consumer's poll call
             log.debug("Not returning fetched records for partition {} since it is no longer assigned",
@@ -564,18 +732,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 log.debug("Not returning fetched records for assigned partition {} since it is no longer fetchable",
                         partitionRecords.partition);
             } else if (partitionRecords.nextFetchOffset == position) {
-                List<ConsumerRecord<K, V>> partRecords = partitionRecords.fetchRecords(maxRecords);
-
-                long nextOffset = partitionRecords.nextFetchOffset;
-                log.trace("Returning fetched records at offset {} for assigned partition {} and update " +
-                        "position to {}", position, partitionRecords.partition, nextOffset);
-                subscriptions.position(partitionRecords.partition, nextOffset);
-
-                Long partitionLag = subscriptions.partitionLag(partitionRecords.partition, isolationLevel);
-                if (partitionLag != null)
-                    this.sensors.recordPartitionLag(partitionRecords.partition, partitionLag);
-
-                return partRecords;
+                return true;
             } else {
                 // these records aren't next in line based on the last consumed position, ignore them
                 // they must be from an obsolete request
@@ -583,9 +740,18 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         partitionRecords.partition, partitionRecords.nextFetchOffset, position);
             }
         }
+        return false;
+    }
+
+    private void updatePosition(PartitionRecords partitionRecords) {
+        long nextOffset = partitionRecords.nextFetchOffset;
+        log.trace("Returning fetched records for assigned partition {} and update position to {}",
+                partitionRecords.partition, nextOffset);
+        subscriptions.position(partitionRecords.partition, nextOffset);
 
-        partitionRecords.drain();
-        return emptyList();
+        Long partitionLag = subscriptions.partitionLag(partitionRecords.partition, isolationLevel);
+        if (partitionLag != null)
+            this.sensors.recordPartitionLag(partitionRecords.partition, partitionLag);
     }
 
     /**
@@ -757,6 +923,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         for (CompletedFetch completedFetch : completedFetches) {
             exclude.add(completedFetch.partition);
         }
+        // wait for the dictionaries needed to decompress the partition's next batch before fetching it again
+        for (TopicPartition partition : fetchable) {
+            if (compressionDictionaries.isUpdatePending(partition.topic()))
+                exclude.add(partition);
+        }
         fetchable.removeAll(exclude);
         return fetchable;
     }
@@ -765,24 +936,29 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
      * Create fetch requests for all nodes for which we have assigned partitions
      * that have no existing requests in flight.
      */
-    private Map<Node, FetchRequest.Builder> createFetchRequests() {
+    private Map<Node, FetchSessionHandler.FetchRequestData> createFetchRequests() {
         // create the fetch info
         Cluster cluster = metadata.fetch();
-        Map<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> fetchable = new LinkedHashMap<>();
+        Map<Node, FetchSessionHandler.Builder> fetchable = new LinkedHashMap<>();
         for (TopicPartition partition : fetchablePartitions()) {
             Node node = cluster.leaderFor(partition);
             if (node == null) {
                 metadata.requestUpdate();
             } else if (!this.client.hasPendingRequests(node)) {
                 // if there is a leader and no in-flight requests, issue a new fetch
-                LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
-                if (fetch == null) {
-                    fetch = new LinkedHashMap<>();
-                    fetchable.put(node, fetch);
+                FetchSessionHandler.Builder builder = fetchable.get(node);
+                if (builder == null) {
+                    FetchSessionHandler handler = sessionHandlers.get(node.id());
+                    if (handler == null) {
+                        handler = new FetchSessionHandler(node.id());
+                        sessionHandlers.put(node.id(), handler);
+                    }
+                    builder = handler.newBuilder();
+                    fetchable.put(node, builder);
                 }
 
                 long position = this.subscriptions.position(partition);
-                fetch.put(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
+                builder.add(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
                         this.fetchSize));
                 log.debug("Added {} fetch request for partition {} at offset {} to node {}", isolationLevel,
                         partition, position, node);
@@ -792,14 +968,9 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         }
 
         // create the fetches
-        Map<Node, FetchRequest.Builder> requests = new HashMap<>();
-        for (Map.Entry<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> entry : fetchable.entrySet()) {
-            Node node = entry.getKey();
-            FetchRequest.Builder fetch = FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes,
-                    entry.getValue(), isolationLevel)
-                    .setMaxBytes(this.maxBytes);
-            requests.put(node, fetch);
-        }
+        Map<Node, FetchSessionHandler.FetchRequestData> requests = new LinkedHashMap<>();
+        for (Map.Entry<Node, FetchSessionHandler.Builder> entry : fetchable.entrySet())
+            requests.put(entry.getKey(), entry.getValue().build());
         return requests;
     }
 
@@ -831,7 +1002,10 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 log.trace("Preparing to read {} bytes of data for partition {} with offset {}",
                         partition.records.sizeInBytes(), tp, position);
                 Iterator<? extends RecordBatch> batches = partition.records.batches().iterator();
-                partitionRecords = new PartitionRecords(tp, completedFetch, batches);
+                if (completedFetch.preparsedRecords != null)
+                    partitionRecords = awaitPreparsedRecords(completedFetch);
+                else
+                    partitionRecords = new PartitionRecords(tp, completedFetch, batches, decompressionBufferSupplier);
 
                 if (!batches.hasNext() && partition.records.sizeInBytes() > 0) {
                     if (completedFetch.responseVersion < 3) {
@@ -886,8 +1060,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 throw new IllegalStateException("Unexpected error code " + error.code() + " while fetching data");
             }
         } finally {
-            if (partitionRecords == null)
+            if (partitionRecords == null) {
                 completedFetch.metricAggregator.record(tp, 0, 0);
+                if (completedFetch.preparsedRecords != null)
+                    completedFetch.preparsedRecords.cancel(false);
+            }
 
             if (error != Errors.NONE)
                 // we move the partition to the end if there was an error. This way, it's more likely that partitions for
@@ -944,9 +1121,10 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
     private class PartitionRecords {
         private final TopicPartition partition;
         private final CompletedFetch completedFetch;
-        private final Iterator<? extends RecordBatch> batches;
+        private final BufferSupplier bufferSupplier;
         private final Set<Long> abortedProducerIds;
-        private final PriorityQueue<FetchResponse.AbortedTransaction> abortedTransactions;
+        private Iterator<? extends RecordBatch> batches;
+        private PriorityQueue<FetchResponse.AbortedTransaction> abortedTransactions;
 
         private int recordsRead;
         private int bytesRead;
@@ -958,12 +1136,21 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         private Exception cachedRecordException = null;
         private boolean corruptLastRecord = false;
 
+        // state of records parsed ahead by a parse thread
+        private boolean preparsing = false;
+        private boolean preparsed = false;
+        private ArrayDeque<ConsumerRecord<K, V>> parsedRecords = null;
+        private long preparsedNextFetchOffset;
+        private RuntimeException preparseException = null;
+
         private PartitionRecords(TopicPartition partition,
                                  CompletedFetch completedFetch,
-                                 Iterator<? extends RecordBatch> batches) {
+                                 Iterator<? extends RecordBatch> batches,
+                                 BufferSupplier bufferSupplier) {
             this.partition = partition;
             this.completedFetch = completedFetch;
             this.batches = batches;
+            this.bufferSupplier = bufferSupplier;
             this.nextFetchOffset = completedFetch.fetchedOffset;
             this.abortedProducerIds = new HashSet<>();
             this.abortedTransactions = abortedTransactions(completedFetch.partitionData);
@@ -1025,32 +1212,21 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         // fetching the same batch repeatedly).
                         if (currentBatch != null)
                             nextFetchOffset = currentBatch.nextOffset();
-                        drain();
+                        // a parse thread leaves draining to the consumer thread
+                        if (!preparsing)
+                            drain();
                         return null;
                     }
 
                     currentBatch = batches.next();
                     maybeEnsureValid(currentBatch);
 
-                    if (isolationLevel == IsolationLevel.READ_COMMITTED && currentBatch.hasProducerId()) {
-                        // remove from the aborted transaction queue all aborted transactions which have begun
-                        // before the current batch's last offset and add the associated producerIds to the
-                        // aborted producer set
-                        consumeAbortedTransactionsUpTo(currentBatch.lastOffset());
-
-                        long producerId = currentBatch.producerId();
-                        if (containsAbortMarker(currentBatch)) {
-                            abortedProducerIds.remove(producerId);
-                        } else if (isBatchAborted(currentBatch)) {
-                            log.debug("Skipping aborted record batch from partition {} with producerId {} and " +
-                                          "offsets {} to {}",
-                                      partition, producerId, currentBatch.baseOffset(), currentBatch.lastOffset());
-                            nextFetchOffset = currentBatch.nextOffset();
-                            continue;
-                        }
+                    if (skipAbortedBatch(currentBatch)) {
+                        nextFetchOffset = currentBatch.nextOffset();
+                        continue;
                     }
 
-                    records = currentBatch.streamingIterator(decompressionBufferSupplier);
+                    records = currentBatch.streamingIterator(bufferSupplier);
                 } else {
                     Record record = records.next();
                     // skip any records out of range
@@ -1070,6 +1246,114 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             }
         }
 
+        /**
+         * Check whether the batch should be skipped as part of an aborted transaction, updating the aborted
+         * transactions with the batch.
+         */
+        private boolean skipAbortedBatch(RecordBatch batch) {
+            if (isolationLevel == IsolationLevel.READ_COMMITTED && batch.hasProducerId()) {
+                // remove from the aborted transaction queue all aborted transactions which have begun
+                // before the current batch's last offset and add the associated producerIds to the
+                // aborted producer set
+                consumeAbortedTransactionsUpTo(batch.lastOffset());
+
+                long producerId = batch.producerId();
+                if (containsAbortMarker(batch)) {
+                    abortedProducerIds.remove(producerId);
+                } else if (isBatchAborted(batch)) {
+                    log.debug("Skipping aborted record batch from partition {} with producerId {} and " +
+                                  "offsets {} to {}",
+                              partition, producerId, batch.baseOffset(), batch.lastOffset());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return the next batch with records to consume, skipping control batches, aborted batches and batches
+         * which were consumed before.
+         */
+        private RecordBatch nextFetchedBatch() {
+            while (batches.hasNext()) {
+                currentBatch = batches.next();
+                maybeEnsureValid(currentBatch);
+                // records are not validated individually, so validate the wrapper of the old message formats
+                if (checkCrcs && currentBatch.magic() < RecordBatch.MAGIC_VALUE_V2) {
+                    try {
+                        currentBatch.ensureValid();
+                    } catch (InvalidRecordException e) {
+                        throw new KafkaException("Record batch for partition " + partition + " at offset " +
+                                currentBatch.lastOffset() + " is invalid, cause: " + e.getMessage());
+                    }
+                }
+
+                // control batches are not returned to the user
+                if (skipAbortedBatch(currentBatch) || currentBatch.isControlBatch()
+                        || currentBatch.lastOffset() < nextFetchOffset) {
+                    nextFetchOffset = Math.max(nextFetchOffset, currentBatch.nextOffset());
+                    continue;
+                }
+                return currentBatch;
+            }
+            drain();
+            return null;
+        }
+
+        private List<ConsumerRecordBatch> fetchBatches(int maxRecords) {
+            // Error when fetching the next batch, we don't skip it silently
+            if (corruptLastRecord)
+                throw new KafkaException("Received exception when fetching the next record batch from " + partition
+                                             + ". If needed, please seek past the batch to "
+                                             + "continue consumption.", cachedRecordException);
+
+            if (isFetched)
+                return Collections.emptyList();
+
+            if (preparsed)
+                rewind();
+
+            List<ConsumerRecordBatch> fetched = new ArrayList<>();
+            int recordsRemaining = maxRecords;
+            try {
+                // return the rest of a batch which was partly returned by fetchRecords
+                if (records != null) {
+                    maybeCloseRecordStream();
+                    cachedRecordException = null;
+                    if (currentBatch.isControlBatch())
+                        nextFetchOffset = currentBatch.nextOffset();
+                    else if (nextFetchOffset <= currentBatch.lastOffset())
+                        recordsRemaining -= addBatch(fetched, currentBatch);
+                }
+
+                while (recordsRemaining > 0) {
+                    corruptLastRecord = true;
+                    RecordBatch batch = nextFetchedBatch();
+                    corruptLastRecord = false;
+                    if (batch == null)
+                        break;
+                    recordsRemaining -= addBatch(fetched, batch);
+                }
+            } catch (KafkaException e) {
+                cachedRecordException = e;
+                if (fetched.isEmpty())
+                    throw new KafkaException("Received exception when fetching the next record batch from " + partition
+                                                 + ". If needed, please seek past the batch to "
+                                                 + "continue consumption.", e);
+            }
+            return fetched;
+        }
+
+        private int addBatch(List<ConsumerRecordBatch> fetched, RecordBatch batch) {
+            ConsumerRecordBatch consumerBatch = new ConsumerRecordBatch(partition, batch, nextFetchOffset);
+            int count = recordCount(consumerBatch);
+            fetched.add(consumerBatch);
+            recordsRead += count;
+            bytesRead += batch.sizeInBytes();
+            nextFetchOffset = batch.nextOffset();
+            return count;
+        }
+
         private List<ConsumerRecord<K, V>> fetchRecords(int maxRecords) {
             // Error when fetching the next record before deserialization.
             if (corruptLastRecord)
@@ -1083,6 +1367,23 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             List<ConsumerRecord<K, V>> records = new ArrayList<>();
             try {
                 for (int i = 0; i < maxRecords; i++) {
+                    if (parsedRecords != null) {
+                        ConsumerRecord<K, V> record = parsedRecords.poll();
+                        if (record != null) {
+                            records.add(record);
+                            nextFetchOffset = record.offset() + 1;
+                            continue;
+                        }
+                        // continue where the parse thread stopped, failing as it did if it stopped with an error
+                        parsedRecords = null;
+                        nextFetchOffset = preparsedNextFetchOffset;
+                        if (preparseException != null) {
+                            RuntimeException e = preparseException;
+                            preparseException = null;
+                            throw e;
+                        }
+                    }
+
                     // Only move to next record if there was no exception in the last fetch. Otherwise we should
                     // use the last record to do deserialization again.
                     if (cachedRecordException == null) {
@@ -1104,6 +1405,21 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 cachedRecordException = se;
                 if (records.isEmpty())
                     throw se;
+            } catch (UnknownCompressionDictionaryException e) {
+                if (compressionDictionaries.requestUpdate(partition.topic(), e.dictionaryId())) {
+                    // the position is not advanced past the batch, so it is fetched again once the topic's
+                    // dictionaries have been fetched
+                    log.debug("Fetching compression dictionaries of topic {} to decompress the batch of partition {} " +
+                            "at offset {}", partition.topic(), partition, currentBatch.baseOffset());
+                    corruptLastRecord = false;
+                    drain();
+                } else {
+                    cachedRecordException = e;
+                    if (records.isEmpty())
+                        throw new KafkaException("Received exception when fetching the next record from " + partition
+                                                     + ". If needed, please seek past the record to "
+                                                     + "continue consumption.", e);
+                }
             } catch (KafkaException e) {
                 cachedRecordException = e;
                 if (records.isEmpty())
@@ -1114,6 +1430,55 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             return records;
         }
 
+        /**
+         * Parse the records on a parse thread, up to the first error. The state is left as fetchRecords would leave
+         * it when reaching the error, apart from the next fetch offset which is only advanced as the parsed records
+         * are returned by fetchRecords.
+         */
+        private void preparse() {
+            long startOffset = nextFetchOffset;
+            preparsing = true;
+            preparsed = true;
+            parsedRecords = new ArrayDeque<>();
+            try {
+                while (true) {
+                    corruptLastRecord = true;
+                    lastRecord = nextFetchedRecord();
+                    corruptLastRecord = false;
+                    if (lastRecord == null)
+                        break;
+                    parsedRecords.add(parseRecord(partition, currentBatch, lastRecord));
+                    recordsRead++;
+                    bytesRead += lastRecord.sizeInBytes();
+                    nextFetchOffset = lastRecord.offset() + 1;
+                }
+            } catch (RuntimeException e) {
+                preparseException = e;
+            } finally {
+                preparsing = false;
+                preparsedNextFetchOffset = nextFetchOffset;
+                nextFetchOffset = startOffset;
+            }
+        }
+
+        /**
+         * Read the fetched batches again from the start, continuing at the next fetch offset. This discards records
+         * parsed ahead by a parse thread, which consumed the batches.
+         */
+        private void rewind() {
+            maybeCloseRecordStream();
+            batches = completedFetch.partitionData.records.batches().iterator();
+            abortedProducerIds.clear();
+            abortedTransactions = abortedTransactions(completedFetch.partitionData);
+            currentBatch = null;
+            lastRecord = null;
+            cachedRecordException = null;
+            corruptLastRecord = false;
+            preparsed = false;
+            parsedRecords = null;
+            preparseException = null;
+        }
+
         private void consumeAbortedTransactionsUpTo(long offset) {
             if (abortedTransactions == null)
                 return;
@@ -1159,12 +1524,14 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         }
     }
 
-    private static class CompletedFetch {
+    private class CompletedFetch {
         private final TopicPartition partition;
         private final long fetchedOffset;
         private final FetchResponse.PartitionData partitionData;
         private final FetchResponseMetricAggregator metricAggregator;
         private final short responseVersion;
+        // set before the fetch is added to the completed fetches if its records are parsed on a parse thread
+        private Future<PartitionRecords> preparsedRecords;
 
         private CompletedFetch(TopicPartition partition,
                                long fetchedOffset,
@@ -1342,6 +1709,8 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
     public void close() {
         if (nextInLineRecords != null)
             nextInLineRecords.drain();
+        if (parseExecutor != null)
+            parseExecutor.shutdownNow();
         decompressionBufferSupplier.close();
     }
 
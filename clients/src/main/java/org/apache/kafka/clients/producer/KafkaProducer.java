@@ -18,12 +18,16 @@ package org.apache.kafka.clients.producer;
 
 import org.apache.kafka.clients.ApiVersions;
 import org.apache.kafka.clients.ClientUtils;
+import org.apache.kafka.clients.CompressionDictionaries;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.NetworkClient;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
 import org.apache.kafka.clients.producer.internals.Sender;
+import org.apache.kafka.clients.producer.internals.SerializationBuffer;
+import org.apache.kafka.clients.producer.internals.StickyPartitioner;
 import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.clients.producer.internals.TransactionalRequestResult;
 import org.apache.kafka.common.Cluster;
@@ -53,16 +57,21 @@ import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
 import org.apache.kafka.common.record.AbstractRecords;
 import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.serialization.DataOutputSerializer;
 import org.apache.kafka.common.serialization.ExtendedSerializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -244,6 +253,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final Time time;
     private final ExtendedSerializer<K> keySerializer;
     private final ExtendedSerializer<V> valueSerializer;
+    // the reused buffers of the serializers which write to an output, null for the other serializers
+    private final ThreadLocal<SerializationBuffer> keyBuffers;
+    private final ThreadLocal<SerializationBuffer> valueBuffers;
+    private final boolean partitionerUsesValue;
     private final ProducerConfig producerConfig;
     private final long maxBlockTimeMs;
     private final int requestTimeoutMs;
@@ -339,7 +352,12 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                 config.ignore(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG);
                 this.valueSerializer = ensureExtended(valueSerializer);
             }
-            
+            int batchSize = config.getInt(ProducerConfig.BATCH_SIZE_CONFIG);
+            this.keyBuffers = writesToOutput(this.keySerializer) ? serializationBuffers(batchSize) : null;
+            this.valueBuffers = writesToOutput(this.valueSerializer) ? serializationBuffers(batchSize) : null;
+            // the built-in partitioners only look at the key, so the value does not have to be copied out of its buffer
+            this.partitionerUsesValue = partitioner.getClass() != DefaultPartitioner.class &&
+                    partitioner.getClass() != StickyPartitioner.class;
 
             // load interceptors and make sure they get clientId
             userProvidedConfigs.put(ProducerConfig.CLIENT_ID_CONFIG, clientId);
@@ -359,9 +377,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             int retries = configureRetries(config, transactionManager != null);
             int maxInflightRequests = configureInflightRequests(config, transactionManager != null);
             short acks = configureAcks(config, transactionManager != null);
+            CompressionDictionaries compressionDictionaries = configureCompressionDictionaries(config, compressionType);
 
             this.apiVersions = new ApiVersions();
-            this.accumulator = new RecordAccumulator(config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
+            this.accumulator = new RecordAccumulator(batchSize,
                     this.totalMemorySize,
                     this.compressionType,
                     config.getLong(ProducerConfig.LINGER_MS_CONFIG),
@@ -369,7 +388,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     metrics,
                     time,
                     apiVersions,
-                    transactionManager);
+                    transactionManager,
+                    compressionDictionaries,
+                    config.getInt(ProducerConfig.BUFFER_POOL_STRIPES_CONFIG),
+                    config.getBoolean(ProducerConfig.BUFFER_MEMORY_DIRECT_ENABLE_CONFIG));
             List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(config.getList(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
             this.metadata.update(Cluster.bootstrap(addresses), Collections.<String>emptySet(), time.milliseconds());
             ChannelBuilder channelBuilder = ClientUtils.createChannelBuilder(config);
@@ -401,7 +423,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     this.requestTimeoutMs,
                     config.getLong(ProducerConfig.RETRY_BACKOFF_MS_CONFIG),
                     this.transactionManager,
-                    apiVersions);
+                    apiVersions,
+                    compressionDictionaries);
             String ioThreadName = "kafka-producer-network-thread" + (clientId.length() > 0 ? " | " + clientId : "");
             this.ioThread = new KafkaThread(ioThreadName, this.sender, true);
             this.ioThread.start();
@@ -451,6 +474,16 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         return transactionManager;
     }
 
+    private static CompressionDictionaries configureCompressionDictionaries(ProducerConfig config, CompressionType compressionType) {
+        if (!config.getBoolean(ProducerConfig.COMPRESSION_DICTIONARY_ENABLE_CONFIG))
+            return null;
+        if (compressionType != CompressionType.ZSTD)
+            throw new ConfigException("Must set " + ProducerConfig.COMPRESSION_TYPE_CONFIG + " to 'zstd' in order to use " +
+                    "compression dictionaries.");
+        return new CompressionDictionaries(config.getLong(ProducerConfig.RETRY_BACKOFF_MS_CONFIG),
+                config.getLong(ProducerConfig.METADATA_MAX_AGE_CONFIG));
+    }
+
     private static int configureRetries(ProducerConfig config, boolean idempotenceEnabled) {
         boolean userConfiguredRetries = false;
         if (config.originals().containsKey(ProducerConfig.RETRIES_CONFIG)) {
@@ -745,6 +778,72 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         return doSend(interceptedRecord, callback);
     }
 
+    /**
+     * Asynchronously send a batch of records to a partition with a single callback for all of them. This is meant for
+     * applications which already group their records by partition and send many of them: unlike
+     * {@link #send(ProducerRecord, Callback)} the records are not passed through the serializers, the partitioner or
+     * the interceptors, and the producer tracks one future for the whole batch rather than one per record.
+     * <p>
+     * The records are copied into a batch of their own, with the compression type and message format the producer
+     * uses, and the batch is retried like any other batch. With idempotence or transactions the batch gets its
+     * sequence number when it is sent, and in a transaction the partition is added to the transaction. Records
+     * without a timestamp get the current time, and the offsets of the given records are ignored. The batch is
+     * never split, so if the broker rejects it for being too large the send fails.
+     * <p>
+     * The returned future and the callback complete with the metadata of the first record of the batch. The other
+     * records have the offsets which follow it. Callbacks for batches and records sent to the same partition are
+     * executed in the order in which they were sent.
+     *
+     * @param partition The partition to send the records to
+     * @param records The records to send
+     * @param callback A user-supplied callback to execute when the batch has been acknowledged by the server (null
+     *        indicates no callback)
+     *
+     * @throws IllegalArgumentException if there are no records
+     * @throws IllegalStateException if a transactional.id has been configured and no transaction has been started
+     * @throws InterruptException If the thread is interrupted while blocked
+     * @throws TimeoutException If the time taken for fetching metadata or allocating memory for the batch has surpassed <code>max.block.ms</code>.
+     * @throws KafkaException If a Kafka related error occurs that does not belong to the public API exceptions.
+     */
+    public Future<RecordMetadata> sendBatch(TopicPartition partition, MemoryRecords records, Callback callback) {
+        try {
+            // first make sure the metadata for the topic is available
+            ClusterAndWaitTime clusterAndWaitTime = waitOnMetadata(partition.topic(), partition.partition(), maxBlockTimeMs);
+            long remainingWaitMs = Math.max(0, maxBlockTimeMs - clusterAndWaitTime.waitedOnMetadataMs);
+
+            int serializedSize = AbstractRecords.estimateSizeInBytes(apiVersions.maxUsableProduceMagic(), 0L,
+                    compressionType, records.records());
+            ensureValidRecordSize(serializedSize);
+            log.trace("Sending batch of {} bytes with callback {} to topic {} partition {}", records.sizeInBytes(),
+                    callback, partition.topic(), partition.partition());
+
+            if (transactionManager != null && transactionManager.isTransactional())
+                transactionManager.maybeAddPartitionToTransaction(partition);
+
+            RecordAccumulator.RecordAppendResult result = accumulator.appendBatch(partition, records, callback,
+                    remainingWaitMs);
+            // the batch is complete, so the sender may send it right away
+            this.sender.wakeup();
+            return result.future;
+        } catch (ApiException e) {
+            log.debug("Exception occurred during batch send:", e);
+            if (callback != null)
+                callback.onCompletion(null, e);
+            this.errors.record();
+            return new FutureFailure(e);
+        } catch (InterruptedException e) {
+            this.errors.record();
+            throw new InterruptException(e);
+        } catch (BufferExhaustedException e) {
+            this.errors.record();
+            this.metrics.sensor("buffer-exhausted-records").record();
+            throw e;
+        } catch (KafkaException e) {
+            this.errors.record();
+            throw e;
+        }
+    }
+
     /**
      * Implementation of asynchronously send a record to a topic.
      */
@@ -755,17 +854,17 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             ClusterAndWaitTime clusterAndWaitTime = waitOnMetadata(record.topic(), record.partition(), maxBlockTimeMs);
             long remainingWaitMs = Math.max(0, maxBlockTimeMs - clusterAndWaitTime.waitedOnMetadataMs);
             Cluster cluster = clusterAndWaitTime.cluster;
-            byte[] serializedKey;
+            ByteBuffer serializedKey;
             try {
-                serializedKey = keySerializer.serialize(record.topic(), record.headers(), record.key());
+                serializedKey = serialize(keySerializer, keyBuffers, record.topic(), record.headers(), record.key());
             } catch (ClassCastException cce) {
                 throw new SerializationException("Can't convert key of class " + record.key().getClass().getName() +
                         " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
                         " specified in key.serializer");
             }
-            byte[] serializedValue;
+            ByteBuffer serializedValue;
             try {
-                serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+                serializedValue = serialize(valueSerializer, valueBuffers, record.topic(), record.headers(), record.value());
             } catch (ClassCastException cce) {
                 throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
                         " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
@@ -786,10 +885,29 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             Callback interceptCallback = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
 
             if (transactionManager != null && transactionManager.isTransactional())
-                transactionManager.maybeAddPartitionToTransaction(tp);
+                transactionManager.failIfNotReadyForSend();
 
+            // a sticky partitioner moves records without a partition to another partition rather than start a new batch
+            boolean abortOnNewBatch = record.partition() == null && partitioner instanceof StickyPartitioner;
             RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey,
-                    serializedValue, headers, interceptCallback, remainingWaitMs);
+                    serializedValue, headers, interceptCallback, remainingWaitMs, abortOnNewBatch);
+            if (result.abortForNewBatch) {
+                int prevPartition = partition;
+                ((StickyPartitioner) partitioner).onNewBatch(record.topic(), cluster, prevPartition);
+                partition = partition(record, serializedKey, serializedValue, cluster);
+                tp = new TopicPartition(record.topic(), partition);
+                log.trace("Retrying append of record {} to topic {} partition {} instead of partition {}", record,
+                        record.topic(), partition, prevPartition);
+                interceptCallback = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
+                result = accumulator.append(tp, timestamp, serializedKey, serializedValue, headers, interceptCallback,
+                        remainingWaitMs, false);
+            }
+
+            // Add the partition to the transaction only once the record has been appended, since the sticky partitioner
+            // may have moved the record to another partition. The sender does not drain a partition before it is added.
+            if (transactionManager != null && transactionManager.isTransactional())
+                transactionManager.maybeAddPartitionToTransaction(tp);
+
             if (result.batchIsFull || result.newBatchCreated) {
                 log.trace("Waking up the sender since topic {} partition {} is either full or getting a new batch", record.topic(), partition);
                 this.sender.wakeup();
@@ -1077,12 +1195,51 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
      * if the record has partition returns the value otherwise
      * calls configured partitioner class to compute the partition.
      */
-    private int partition(ProducerRecord<K, V> record, byte[] serializedKey, byte[] serializedValue, Cluster cluster) {
+    private int partition(ProducerRecord<K, V> record, ByteBuffer serializedKey, ByteBuffer serializedValue, Cluster cluster) {
         Integer partition = record.partition();
-        return partition != null ?
-                partition :
-                partitioner.partition(
-                        record.topic(), record.key(), serializedKey, record.value(), serializedValue, cluster);
+        if (partition != null)
+            return partition;
+        byte[] keyBytes = toArray(serializedKey, keyBuffers != null);
+        byte[] valueBytes = partitionerUsesValue ? toArray(serializedValue, valueBuffers != null) : null;
+        return partitioner.partition(record.topic(), record.key(), keyBytes, record.value(), valueBytes, cluster);
+    }
+
+    /**
+     * Whether the serializer is used through {@link DataOutputSerializer}. Only classes which declare that interface
+     * themselves qualify: a subclass of a built-in serializer may override the other serialize methods, which the
+     * output path would bypass.
+     */
+    private static boolean writesToOutput(Serializer<?> serializer) {
+        return Arrays.asList(serializer.getClass().getInterfaces()).contains(DataOutputSerializer.class);
+    }
+
+    /**
+     * Serialize the data into the buffer of this thread if the serializer writes to an output, or else into an array
+     * of its own which is wrapped
+     */
+    private static <T> ByteBuffer serialize(ExtendedSerializer<T> serializer, ThreadLocal<SerializationBuffer> buffers,
+                                            String topic, Headers headers, T data) {
+        if (buffers != null)
+            return buffers.get().serialize((DataOutputSerializer<T>) serializer, topic, headers, data);
+        return Utils.wrapNullable(serializer.serialize(topic, headers, data));
+    }
+
+    /**
+     * The serialized data as an array, which is copied if it was serialized into a reused buffer
+     */
+    private static byte[] toArray(ByteBuffer serialized, boolean isReusedBuffer) {
+        if (serialized == null)
+            return null;
+        return isReusedBuffer ? Utils.toArray(serialized) : serialized.array();
+    }
+
+    private static ThreadLocal<SerializationBuffer> serializationBuffers(final int maxRetainedCapacity) {
+        return new ThreadLocal<SerializationBuffer>() {
+            @Override
+            protected SerializationBuffer initialValue() {
+                return new SerializationBuffer(maxRetainedCapacity);
+            }
+        };
     }
 
     private void throwIfNoTransactionManager() {
@@ -135,14 +135,33 @@ public class ProducerConfig extends AbstractConfig {
                                                     + "not all memory the producer uses is used for buffering. Some additional memory will be used for compression (if "
                                                     + "compression is enabled) as well as for maintaining in-flight requests.";
 
+    /** <code>buffer.pool.stripes</code> */
+    public static final String BUFFER_POOL_STRIPES_CONFIG = "buffer.pool.stripes";
+    private static final String BUFFER_POOL_STRIPES_DOC = "The number of free lists the buffer memory pool is split into. With the default of 1 all "
+                                                          + "buffer allocations and deallocations are serialized by a single lock. Higher values let many "
+                                                          + "application threads calling <code>send</code> allocate buffers without contending on a lock while "
+                                                          + "memory is available; a value around the number of sending threads is a reasonable choice. The "
+                                                          + "bound set by <code>" + BUFFER_MEMORY_CONFIG + "</code> and the blocking behaviour are unaffected.";
+
+    /** <code>buffer.memory.direct.enable</code> */
+    public static final String BUFFER_MEMORY_DIRECT_ENABLE_CONFIG = "buffer.memory.direct.enable";
+    private static final String BUFFER_MEMORY_DIRECT_ENABLE_DOC = "Whether batches are built in direct (off-heap) buffers rather than on the Java heap. "
+                                                                  + "The pooled buffers of <code>" + BATCH_SIZE_CONFIG + "</code> bytes then add up to "
+                                                                  + "<code>" + BUFFER_MEMORY_CONFIG + "</code> of native memory instead of long-lived heap "
+                                                                  + "objects the garbage collector has to scan and copy, and produce requests are written "
+                                                                  + "to the socket without an intermediate copy. The JVM's direct memory limit "
+                                                                  + "(<code>-XX:MaxDirectMemorySize</code>) must allow for it. Batches larger than "
+                                                                  + "<code>" + BATCH_SIZE_CONFIG + "</code> are still allocated on the heap.";
+
     /** <code>retry.backoff.ms</code> */
     public static final String RETRY_BACKOFF_MS_CONFIG = CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG;
 
     /** <code>compression.type</code> */
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     private static final String COMPRESSION_TYPE_DOC = "The compression type for all data generated by the producer. The default is none (i.e. no compression). Valid "
-                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, or <code>lz4</code>. "
-                                                       + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
+                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
+                                                       + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression). "
+                                                       + "<code>zstd</code> needs brokers with an <code>inter.broker.protocol.version</code> of 0.11.1 or later.";
 
     /** <code>metrics.sample.window.ms</code> */
     public static final String METRICS_SAMPLE_WINDOW_MS_CONFIG = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG;
@@ -208,6 +227,14 @@ public class ProducerConfig extends AbstractConfig {
                                                         + "are left at their defaults, we will override the default to be suitable. "
                                                         + "If the values are set to something incompatible with the idempotent producer, a ConfigException will be thrown.";
 
+    /** <code>compression.dictionary.enable</code> */
+    public static final String COMPRESSION_DICTIONARY_ENABLE_CONFIG = "compression.dictionary.enable";
+    public static final String COMPRESSION_DICTIONARY_ENABLE_DOC = "When set to 'true', the producer fetches the dictionaries in the <code>compression.dictionary</code> "
+                                                                   + "config of the topics it writes to and compresses batches with them. This can greatly improve the compression "
+                                                                   + "ratio of small records. Requires <code>" + COMPRESSION_TYPE_CONFIG + "</code> to be set to 'zstd' and permission "
+                                                                   + "to describe the configs of the topics. Batches created before a topic's dictionaries are fetched are compressed "
+                                                                   + "without a dictionary.";
+
     /** <code> transaction.timeout.ms </code> */
     public static final String TRANSACTION_TIMEOUT_CONFIG = "transaction.timeout.ms";
     public static final String TRANSACTION_TIMEOUT_DOC = "The maximum amount of time in ms that the transaction coordinator will wait for a transaction status update from the producer before proactively aborting the ongoing transaction." +
@@ -223,6 +250,8 @@ public class ProducerConfig extends AbstractConfig {
         CONFIG = new ConfigDef().define(BOOTSTRAP_SERVERS_CONFIG, Type.LIST, Importance.HIGH, CommonClientConfigs.BOOTSTRAP_SERVERS_DOC)
                                 .define(BUFFER_MEMORY_CONFIG, Type.LONG, 32 * 1024 * 1024L, atLeast(0L), Importance.HIGH, BUFFER_MEMORY_DOC)
                                 .define(RETRIES_CONFIG, Type.INT, 0, between(0, Integer.MAX_VALUE), Importance.HIGH, RETRIES_DOC)
+                                .define(BUFFER_POOL_STRIPES_CONFIG, Type.INT, 1, atLeast(1), Importance.LOW, BUFFER_POOL_STRIPES_DOC)
+                                .define(BUFFER_MEMORY_DIRECT_ENABLE_CONFIG, Type.BOOLEAN, false, Importance.LOW, BUFFER_MEMORY_DIRECT_ENABLE_DOC)
                                 .define(ACKS_CONFIG,
                                         Type.STRING,
                                         "1",
@@ -316,6 +345,11 @@ public class ProducerConfig extends AbstractConfig {
                                         false,
                                         Importance.LOW,
                                         ENABLE_IDEMPOTENCE_DOC)
+                                .define(COMPRESSION_DICTIONARY_ENABLE_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        COMPRESSION_DICTIONARY_ENABLE_DOC)
                                 .define(TRANSACTION_TIMEOUT_CONFIG,
                                         Type.INT,
                                         60000,
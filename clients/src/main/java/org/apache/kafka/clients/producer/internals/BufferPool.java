@@ -47,6 +47,7 @@ public class BufferPool {
 
     private final long totalMemory;
     private final int poolableSize;
+    private final boolean directBuffers;
     private final ReentrantLock lock;
     private final Deque<ByteBuffer> free;
     private final Deque<Condition> waiters;
@@ -66,7 +67,24 @@ public class BufferPool {
      * @param metricGrpName logical group name for metrics
      */
     public BufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
+        this(memory, poolableSize, false, metrics, time, metricGrpName);
+    }
+
+    /**
+     * Create a new buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The buffer size to cache in the free list rather than deallocating
+     * @param directBuffers Whether to allocate buffers of the poolable size outside of the Java heap. Other sizes are
+     *                      always allocated on the heap since they are not reused.
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public BufferPool(long memory, int poolableSize, boolean directBuffers, Metrics metrics, Time time,
+                      String metricGrpName) {
         this.poolableSize = poolableSize;
+        this.directBuffers = directBuffers;
         this.lock = new ReentrantLock();
         this.free = new ArrayDeque<>();
         this.waiters = new ArrayDeque<>();
@@ -135,7 +153,7 @@ public class BufferPool {
                         } finally {
                             long endWaitNs = time.nanoseconds();
                             timeNs = Math.max(0L, endWaitNs - startWaitNs);
-                            this.waitTime.record(timeNs, time.milliseconds());
+                            recordWaitTime(timeNs);
                         }
 
                         if (waitingTimeElapsed) {
@@ -185,8 +203,15 @@ public class BufferPool {
         }
     }
 
+    protected void recordWaitTime(long timeNs) {
+        this.waitTime.record(timeNs, time.milliseconds());
+    }
+
     // Protected for testing.
     protected ByteBuffer allocateByteBuffer(int size) {
+        // direct memory is only released by the garbage collector, so only use it for buffers that are pooled
+        if (directBuffers && size == poolableSize)
+            return ByteBuffer.allocateDirect(size);
         return ByteBuffer.allocate(size);
     }
 
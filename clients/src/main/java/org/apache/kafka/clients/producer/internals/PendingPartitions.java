@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The partitions which have batches in the {@link RecordAccumulator}, with the time at which each of them has to be
+ * checked again for whether it is ready to send and the node which leads it. This lets the sender look only at the
+ * partitions which may have become ready, that is whose batch has become full, whose linger or backoff time has passed
+ * or which were ready before but have not been drained, rather than at every partition the producer has written to.
+ *
+ * Checks are requested through {@link #checkAt(TopicPartition, long)} by the threads which add batches to a partition
+ * or fill them, which is thread safe. The requests are picked up by {@link #update()}. All other methods are only used
+ * by the sender thread. A partition is forgotten when it is found without batches; since the batch is added before the
+ * check is requested, a batch which is added concurrently always leads to the partition being tracked again.
+ */
+final class PendingPartitions {
+
+    private final ConcurrentLinkedQueue<Check> requested = new ConcurrentLinkedQueue<>();
+    private final Map<TopicPartition, Long> checkTimes = new HashMap<>();
+    private final PriorityQueue<Check> checks = new PriorityQueue<>();
+    private final Set<TopicPartition> sendable = new HashSet<>();
+    private final Set<TopicPartition> leaderless = new HashSet<>();
+    private final Map<Integer, LinkedHashSet<TopicPartition>> partitionsByNode = new HashMap<>();
+    private final Set<TopicPartition> unassigned = new HashSet<>();
+    private Cluster assignedCluster;
+
+    /**
+     * Request a check of the partition at the given time. This can be called by any thread.
+     */
+    void checkAt(TopicPartition tp, long timeMs) {
+        requested.add(new Check(tp, timeMs));
+    }
+
+    /**
+     * Track the partitions whose checks have been requested since the last update
+     */
+    void update() {
+        Check check;
+        while ((check = requested.poll()) != null) {
+            if (!checkTimes.containsKey(check.tp)) {
+                checkTimes.put(check.tp, Long.MAX_VALUE);
+                unassigned.add(check.tp);
+            }
+            schedule(check.tp, check.timeMs);
+        }
+    }
+
+    /**
+     * Check the partition at the given time, unless it is checked earlier already
+     */
+    void schedule(TopicPartition tp, long timeMs) {
+        Long checkTimeMs = checkTimes.get(tp);
+        if (checkTimeMs != null && timeMs < checkTimeMs) {
+            checkTimes.put(tp, timeMs);
+            checks.add(new Check(tp, timeMs));
+        }
+    }
+
+    /**
+     * Remove and return the partitions whose check is due
+     */
+    List<TopicPartition> due(long nowMs) {
+        List<TopicPartition> due = new ArrayList<>();
+        while (!checks.isEmpty() && checks.peek().timeMs <= nowMs) {
+            Check check = checks.poll();
+            // checks which were superseded by an earlier one or whose partition has been removed are skipped
+            Long checkTimeMs = checkTimes.get(check.tp);
+            if (checkTimeMs != null && checkTimeMs == check.timeMs) {
+                checkTimes.put(check.tp, Long.MAX_VALUE);
+                due.add(check.tp);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * The time of the next check, or Long.MAX_VALUE if no check is scheduled
+     */
+    long nextCheckTimeMs() {
+        Check check = checks.peek();
+        return check == null ? Long.MAX_VALUE : check.timeMs;
+    }
+
+    Set<TopicPartition> partitions() {
+        return checkTimes.keySet();
+    }
+
+    /**
+     * The partitions which were ready when they were last checked
+     */
+    Set<TopicPartition> sendable() {
+        return sendable;
+    }
+
+    void setSendable(TopicPartition tp, boolean isSendable) {
+        if (isSendable)
+            sendable.add(tp);
+        else
+            sendable.remove(tp);
+    }
+
+    /**
+     * The partitions whose leader was not known when they were last checked
+     */
+    Set<TopicPartition> leaderless() {
+        return leaderless;
+    }
+
+    void setLeaderless(TopicPartition tp, boolean isLeaderless) {
+        if (isLeaderless)
+            leaderless.add(tp);
+        else
+            leaderless.remove(tp);
+    }
+
+    /**
+     * The partitions led by the given node in the given cluster, with the ones which were drained least recently first
+     */
+    Set<TopicPartition> partitionsForNode(Cluster cluster, int nodeId) {
+        assign(cluster);
+        Set<TopicPartition> partitions = partitionsByNode.get(nodeId);
+        return partitions == null ? Collections.<TopicPartition>emptySet() : partitions;
+    }
+
+    /**
+     * Move a partition which has been drained behind the other partitions of its node
+     */
+    void drained(TopicPartition tp, int nodeId) {
+        LinkedHashSet<TopicPartition> partitions = partitionsByNode.get(nodeId);
+        if (partitions != null && partitions.remove(tp))
+            partitions.add(tp);
+    }
+
+    void remove(TopicPartition tp) {
+        if (checkTimes.remove(tp) != null) {
+            sendable.remove(tp);
+            leaderless.remove(tp);
+            if (!unassigned.remove(tp)) {
+                for (Set<TopicPartition> partitions : partitionsByNode.values()) {
+                    if (partitions.remove(tp))
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign the partitions to their leaders, all of them again if the cluster has changed
+     */
+    private void assign(Cluster cluster) {
+        if (cluster != assignedCluster) {
+            unassigned.addAll(checkTimes.keySet());
+            partitionsByNode.clear();
+            assignedCluster = cluster;
+        }
+        for (TopicPartition tp : unassigned) {
+            Node leader = cluster.leaderFor(tp);
+            // partitions without a leader are assigned again once the cluster changes
+            if (leader != null) {
+                LinkedHashSet<TopicPartition> partitions = partitionsByNode.get(leader.id());
+                if (partitions == null) {
+                    partitions = new LinkedHashSet<>();
+                    partitionsByNode.put(leader.id(), partitions);
+                }
+                partitions.add(tp);
+            }
+        }
+        unassigned.clear();
+    }
+
+    private static final class Check implements Comparable<Check> {
+        final TopicPartition tp;
+        final long timeMs;
+
+        Check(TopicPartition tp, long timeMs) {
+            this.tp = tp;
+            this.timeMs = timeMs;
+        }
+
+        @Override
+        public int compareTo(Check other) {
+            return Long.compare(timeMs, other.timeMs);
+        }
+    }
+
+}
@@ -50,7 +50,9 @@ import static org.apache.kafka.common.record.RecordBatch.NO_TIMESTAMP;
 /**
  * A batch of records that is or will be sent.
  *
- * This class is not thread safe and external synchronization must be used when modifying it
+ * Appending records and closing the batch for appends are synchronized on the batch, so that application threads can
+ * append to the open batch of a partition while the sender closes it. The rest of this class is not thread safe and
+ * external synchronization must be used when modifying it.
  */
 public final class ProducerBatch {
 
@@ -71,7 +73,7 @@ public final class ProducerBatch {
     int recordCount;
     int maxRecordSize;
     private long lastAttemptMs;
-    private long lastAppendTime;
+    private volatile long lastAppendTime;
     private long drainedMs;
     private String expiryErrorMessage;
     private boolean retry;
@@ -99,24 +101,82 @@ public final class ProducerBatch {
      *
      * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
      */
-    public FutureRecordMetadata tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, long now) {
-        if (!recordsBuilder.hasRoomFor(timestamp, key, value, headers)) {
+    public synchronized FutureRecordMetadata tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, long now) {
+        int keySize = key == null ? -1 : key.length;
+        int valueSize = value == null ? -1 : value.length;
+        if (!recordsBuilder.hasRoomFor(timestamp, keySize, valueSize, headers)) {
+            return null;
+        } else {
+            Long checksum = this.recordsBuilder.append(timestamp, key, value, headers);
+            return appended(timestamp, checksum, keySize, valueSize, headers, callback, now);
+        }
+    }
+
+    /**
+     * Append the record to the current record set and return the relative offset within that record set. The key and
+     * value are copied from their position to their limit, which are left unchanged, so the buffers can be reused
+     * once this returns.
+     *
+     * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
+     */
+    public synchronized FutureRecordMetadata tryAppend(long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers, Callback callback, long now) {
+        int keySize = key == null ? -1 : key.remaining();
+        int valueSize = value == null ? -1 : value.remaining();
+        if (!recordsBuilder.hasRoomFor(timestamp, keySize, valueSize, headers)) {
             return null;
         } else {
             Long checksum = this.recordsBuilder.append(timestamp, key, value, headers);
+            return appended(timestamp, checksum, keySize, valueSize, headers, callback, now);
+        }
+    }
+
+    private FutureRecordMetadata appended(long timestamp, Long checksum, int keySize, int valueSize, Header[] headers,
+                                          Callback callback, long now) {
+        this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
+                recordsBuilder.compressionType(), keySize, valueSize, headers));
+        this.lastAppendTime = now;
+        FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
+                                                               timestamp, checksum, keySize, valueSize);
+        // we have to keep every future returned to the users in case the batch needs to be
+        // split to several new batches and resent.
+        thunks.add(new Thunk(callback, future));
+        this.recordCount++;
+        return future;
+    }
+
+    /**
+     * Append all the records with a single future and callback, which complete with the metadata of the first record.
+     * This is only used for a batch of its own which holds the records sent by one call, so the batch is closed for
+     * further appends afterwards.
+     *
+     * @return The RecordSend corresponding to the first record
+     * @throws IllegalArgumentException if there are no records
+     */
+    public synchronized FutureRecordMetadata appendRecords(MemoryRecords records, Callback callback, long now) {
+        FutureRecordMetadata future = null;
+        for (Record record : records.records()) {
+            long timestamp = record.timestamp() == NO_TIMESTAMP ? now : record.timestamp();
+            Long checksum = this.recordsBuilder.append(timestamp, record.key(), record.value(), record.headers());
             this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
-                    recordsBuilder.compressionType(), key, value, headers));
-            this.lastAppendTime = now;
-            FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
-                                                                   timestamp, checksum,
-                                                                   key == null ? -1 : key.length,
-                                                                   value == null ? -1 : value.length);
-            // we have to keep every future returned to the users in case the batch needs to be
-            // split to several new batches and resent.
-            thunks.add(new Thunk(callback, future));
+                    recordsBuilder.compressionType(), record.key(), record.value(), record.headers()));
+            if (future == null)
+                future = new FutureRecordMetadata(this.produceFuture, this.recordCount, timestamp, checksum,
+                                                  record.keySize(), record.valueSize());
             this.recordCount++;
-            return future;
         }
+        if (future == null)
+            throw new IllegalArgumentException("Cannot send a batch without records to " + topicPartition);
+        this.lastAppendTime = now;
+        thunks.add(new Thunk(callback, future));
+        recordsBuilder.closeForRecordAppends();
+        return future;
+    }
+
+    /**
+     * Whether the records of this batch can be split into several batches, which needs a callback for every record
+     */
+    public boolean isSplittable() {
+        return recordCount > 1 && thunks.size() == recordCount;
     }
 
     /**
@@ -261,7 +321,7 @@ public final class ProducerBatch {
         // for the newly created batch. This will be set when the batch is dequeued for sending (which is consistent
         // with how normal batches are handled).
         MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic(), recordsBuilder.compressionType(),
-                TimestampType.CREATE_TIME, 0L);
+                recordsBuilder.compressionDictionary(), TimestampType.CREATE_TIME, 0L);
         return new ProducerBatch(topicPartition, builder, this.createdMs, true);
     }
 
@@ -370,6 +430,10 @@ public final class ProducerBatch {
         return recordsBuilder.compressionRatio();
     }
 
+    /**
+     * Whether the batch has no room for more records. This is read without the lock of the batch, so it may not
+     * reflect appends which are in progress.
+     */
     public boolean isFull() {
         return recordsBuilder.isFull();
     }
@@ -383,11 +447,11 @@ public final class ProducerBatch {
      * Release resources required for record appends (e.g. compression buffers). Once this method is called, it's only
      * possible to update the RecordBatch header.
      */
-    public void closeForRecordAppends() {
+    public synchronized void closeForRecordAppends() {
         recordsBuilder.closeForRecordAppends();
     }
 
-    public void close() {
+    public synchronized void close() {
         recordsBuilder.close();
         if (!recordsBuilder.isControlBatch()) {
             CompressionRatioEstimator.updateEstimation(topicPartition.topic(),
@@ -403,7 +467,7 @@ public final class ProducerBatch {
      * it is not safe to invoke the completion callbacks (e.g. because we are holding a lock,
      * {@link RecordAccumulator#abortBatches()}).
      */
-    public void abortRecordAppends() {
+    public synchronized void abortRecordAppends() {
         recordsBuilder.abort();
     }
 
@@ -17,11 +17,11 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.CompressionDictionaries;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.Node;
-import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.header.Header;
@@ -31,6 +31,7 @@ import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.CompressionDictionary;
 import org.apache.kafka.common.record.CompressionRatioEstimator;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.Record;
@@ -45,16 +46,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -64,6 +67,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * The accumulator uses a bounded amount of memory and append calls will block when that memory is exhausted, unless
  * this behavior is explicitly disabled.
+ * <p>
+ * The batches of a partition are kept in a concurrent deque. Appending a record to the open batch of a partition only
+ * locks that batch, and checking which partitions are ready does not lock at all. The deque itself is only locked to
+ * add or remove batches, that is when a new batch is created and when batches are drained, expired, re-enqueued or
+ * aborted. Batches are closed for appends before they leave the deque.
+ * <p>
+ * The sender does not scan every partition for batches to send. Whenever a batch is added to a partition or fills up,
+ * the partition is reported to {@link PendingPartitions} with the time at which it has to be checked, so that
+ * {@link #ready(Cluster, long)} only checks the partitions which may have become ready and {@link #drain(Cluster, Set,
+ * int, long)} only looks at the partitions of a node which have batches.
  */
 public final class RecordAccumulator {
 
@@ -81,10 +94,11 @@ public final class RecordAccumulator {
     private final ApiVersions apiVersions;
     private final ConcurrentMap<TopicPartition, Deque<ProducerBatch>> batches;
     private final IncompleteBatches incomplete;
+    private final PendingPartitions pending;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
-    private int drainIndex;
     private final TransactionManager transactionManager;
+    private final CompressionDictionaries compressionDictionaries;
 
     /**
      * Create a new record accumulator
@@ -112,7 +126,31 @@ public final class RecordAccumulator {
                              Time time,
                              ApiVersions apiVersions,
                              TransactionManager transactionManager) {
-        this.drainIndex = 0;
+        this(batchSize, totalSize, compression, lingerMs, retryBackoffMs, metrics, time, apiVersions,
+                transactionManager, null, 1, false);
+    }
+
+    /**
+     * Create a new record accumulator which compresses batches with the dictionaries of their topics
+     *
+     * @param compressionDictionaries The dictionaries of the topics written to, or null to compress without
+     *                                dictionaries. See the constructor above for the remaining parameters.
+     * @param bufferPoolStripes The number of free lists of the buffer pool, a {@link StripedBufferPool} is used if
+     *                          greater than one
+     * @param directBuffers Whether to allocate batch buffers outside of the Java heap
+     */
+    public RecordAccumulator(int batchSize,
+                             long totalSize,
+                             CompressionType compression,
+                             long lingerMs,
+                             long retryBackoffMs,
+                             Metrics metrics,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager,
+                             CompressionDictionaries compressionDictionaries,
+                             int bufferPoolStripes,
+                             boolean directBuffers) {
         this.closed = false;
         this.flushesInProgress = new AtomicInteger(0);
         this.appendsInProgress = new AtomicInteger(0);
@@ -122,12 +160,18 @@ public final class RecordAccumulator {
         this.retryBackoffMs = retryBackoffMs;
         this.batches = new CopyOnWriteMap<>();
         String metricGrpName = "producer-metrics";
-        this.free = new BufferPool(totalSize, batchSize, metrics, time, metricGrpName);
+        if (bufferPoolStripes > 1)
+            this.free = new StripedBufferPool(totalSize, batchSize, bufferPoolStripes, directBuffers, metrics, time,
+                    metricGrpName);
+        else
+            this.free = new BufferPool(totalSize, batchSize, directBuffers, metrics, time, metricGrpName);
         this.incomplete = new IncompleteBatches();
+        this.pending = new PendingPartitions();
         this.muted = new HashSet<>();
         this.time = time;
         this.apiVersions = apiVersions;
         this.transactionManager = transactionManager;
+        this.compressionDictionaries = compressionDictionaries;
         registerMetrics(metrics, metricGrpName);
     }
 
@@ -182,21 +226,66 @@ public final class RecordAccumulator {
                                      Header[] headers,
                                      Callback callback,
                                      long maxTimeToBlock) throws InterruptedException {
+        return append(tp, timestamp, key, value, headers, callback, maxTimeToBlock, false);
+    }
+
+    /**
+     * Add a record to the accumulator, return the append result. If the record does not fit in the last batch of the
+     * partition and abortOnNewBatch is set, the record is not appended and the result has abortForNewBatch set, so that
+     * the partitioner can choose another partition before a new batch is created.
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch Whether to return without appending rather than create a new batch
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     byte[] value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
+        return append(tp, timestamp, Utils.wrapNullable(key), Utils.wrapNullable(value), headers, callback,
+                maxTimeToBlock, abortOnNewBatch);
+    }
+
+    /**
+     * Add a record whose key and value are held in buffers to the accumulator, like
+     * {@link #append(TopicPartition, long, byte[], byte[], Header[], Callback, long, boolean)}. The key and value are
+     * copied from their position to their limit, which are left unchanged, so the buffers can be reused once this
+     * returns.
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     ByteBuffer key,
+                                     ByteBuffer value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
         ByteBuffer buffer = null;
         if (headers == null) headers = Record.EMPTY_HEADERS;
         try {
-            // check if we have an in-progress batch
+            // check if we have an in-progress batch, which does not need the lock of the deque
             Deque<ProducerBatch> dq = getOrCreateDeque(tp);
-            synchronized (dq) {
-                if (closed)
-                    throw new IllegalStateException("Cannot send after the producer is closed.");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
-                if (appendResult != null)
-                    return appendResult;
-            }
+            if (closed)
+                throw new IllegalStateException("Cannot send after the producer is closed.");
+            RecordAppendResult appendResult = tryAppend(tp, timestamp, key, value, headers, callback, dq);
+            if (appendResult != null)
+                return appendResult;
+
+            // the partitioner may prefer another partition over a new batch for this one
+            if (abortOnNewBatch)
+                return new RecordAppendResult(null, false, false, true);
 
             // we don't have an in-progress record batch try to allocate a new batch
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
@@ -208,23 +297,25 @@ public final class RecordAccumulator {
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
 
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
+                appendResult = tryAppend(tp, timestamp, key, value, headers, callback, dq);
                 if (appendResult != null) {
                     // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
                     return appendResult;
                 }
 
-                MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
+                MemoryRecordsBuilder recordsBuilder = recordsBuilder(tp, buffer, maxUsableMagic);
                 ProducerBatch batch = new ProducerBatch(tp, recordsBuilder, time.milliseconds());
                 FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, headers, callback, time.milliseconds()));
 
                 dq.addLast(batch);
                 incomplete.add(batch);
+                boolean batchIsFull = hasMultipleBatches(dq) || batch.isFull();
+                pending.checkAt(tp, batchIsFull ? batch.createdMs : lingerDeadlineMs(batch.createdMs));
 
                 // Don't deallocate this buffer in the finally block as it's being used in the record batch
                 buffer = null;
 
-                return new RecordAppendResult(future, dq.size() > 1 || batch.isFull(), true);
+                return new RecordAppendResult(future, batchIsFull, true);
             }
         } finally {
             if (buffer != null)
@@ -233,12 +324,67 @@ public final class RecordAccumulator {
         }
     }
 
-    private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic) {
+    /**
+     * Add the records of a batch which was built by the application to the accumulator, with a single callback for all
+     * of them. The records go to a new batch of their own, which is complete right away, so records which are
+     * appended later go to the next batch.
+     *
+     * @param tp The topic/partition to which the records are being sent
+     * @param records The records, whose offsets are ignored
+     * @param callback The user-supplied callback to execute when the batch is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @throws IllegalArgumentException if there are no records
+     */
+    public RecordAppendResult appendBatch(TopicPartition tp,
+                                          MemoryRecords records,
+                                          Callback callback,
+                                          long maxTimeToBlock) throws InterruptedException {
+        appendsInProgress.incrementAndGet();
+        ByteBuffer buffer = null;
+        try {
+            Deque<ProducerBatch> dq = getOrCreateDeque(tp);
+            if (closed)
+                throw new IllegalStateException("Cannot send after the producer is closed.");
+
+            byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
+            int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytes(maxUsableMagic, 0L, compression, records.records()));
+            log.trace("Allocating a new {} byte message buffer for a batch of records for topic {} partition {}", size, tp.topic(), tp.partition());
+            buffer = free.allocate(size, maxTimeToBlock);
+            // the batch is filled before the lock of the deque is taken, since no other thread can append to it
+            long now = time.milliseconds();
+            ProducerBatch batch = new ProducerBatch(tp, recordsBuilder(tp, buffer, maxUsableMagic), now);
+            FutureRecordMetadata future = batch.appendRecords(records, callback, now);
+            synchronized (dq) {
+                if (closed)
+                    throw new IllegalStateException("Cannot send after the producer is closed.");
+                dq.addLast(batch);
+                incomplete.add(batch);
+            }
+            pending.checkAt(tp, now);
+
+            // Don't deallocate this buffer in the finally block as it's being used in the record batch
+            buffer = null;
+
+            return new RecordAppendResult(future, true, true);
+        } finally {
+            if (buffer != null)
+                free.deallocate(buffer);
+            appendsInProgress.decrementAndGet();
+        }
+    }
+
+    private MemoryRecordsBuilder recordsBuilder(TopicPartition tp, ByteBuffer buffer, byte maxUsableMagic) {
         if (transactionManager != null && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
             throw new UnsupportedVersionException("Attempting to use idempotence with a broker which does not " +
                     "support the required message format (v2). The broker must be version 0.11 or later.");
         }
-        return MemoryRecords.builder(buffer, maxUsableMagic, compression, TimestampType.CREATE_TIME, 0L);
+        if (compression == CompressionType.ZSTD && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
+            throw new UnsupportedVersionException("Attempting to use ZStandard compression with a broker which does " +
+                    "not support the required message format (v2). The broker must be version 0.11 or later.");
+        }
+        CompressionDictionary dictionary = compressionDictionaries == null ? null
+                : compressionDictionaries.activeDictionary(tp.topic());
+        return MemoryRecords.builder(buffer, maxUsableMagic, compression, dictionary, TimestampType.CREATE_TIME, 0L);
     }
 
     /**
@@ -248,28 +394,54 @@ public final class RecordAccumulator {
      *  resources like compression buffers. The batch will be fully closed (ie. the record batch headers will be written
      *  and memory records built) in one of the following cases (whichever comes first): right before send,
      *  if it is expired, or when the producer is closed.
+     *
+     *  This is called without the lock of the deque: the last batch may be closed or removed from the deque
+     *  concurrently, in which case the append to it fails and a new batch is created.
      */
-    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, Deque<ProducerBatch> deque) {
+    private RecordAppendResult tryAppend(TopicPartition tp, long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers,
+                                         Callback callback, Deque<ProducerBatch> deque) {
         ProducerBatch last = deque.peekLast();
         if (last != null) {
-            FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, time.milliseconds());
-            if (future == null)
+            long now = time.milliseconds();
+            FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, now);
+            if (future == null) {
                 last.closeForRecordAppends();
-            else
-                return new RecordAppendResult(future, deque.size() > 1 || last.isFull(), false);
-
+            } else {
+                boolean lastIsFull = last.isFull();
+                // the batch may have become sendable before its linger time has passed
+                if (lastIsFull)
+                    pending.checkAt(tp, now);
+                return new RecordAppendResult(future, hasMultipleBatches(deque) || lastIsFull, false);
+            }
         }
         return null;
     }
 
+    /**
+     * The time at which a batch created at the given time has lingered long enough to be sent
+     */
+    private long lingerDeadlineMs(long createdMs) {
+        return lingerMs > Long.MAX_VALUE - createdMs ? Long.MAX_VALUE : createdMs + lingerMs;
+    }
+
+    /**
+     * Whether the deque has a batch besides the open one, without counting the batches of the concurrent deque
+     */
+    private static boolean hasMultipleBatches(Deque<ProducerBatch> deque) {
+        return deque.peekFirst() != deque.peekLast();
+    }
+
     /**
      * Get a list of batches which have been sitting in the accumulator too long and need to be expired.
      */
     public List<ProducerBatch> expiredBatches(int requestTimeout, long now) {
         List<ProducerBatch> expiredBatches = new ArrayList<>();
-        for (Map.Entry<TopicPartition, Deque<ProducerBatch>> entry : this.batches.entrySet()) {
-            Deque<ProducerBatch> dq = entry.getValue();
-            TopicPartition tp = entry.getKey();
+        // only the partitions which have batches are looked at
+        pending.update();
+        for (TopicPartition tp : pending.partitions()) {
+            Deque<ProducerBatch> dq = getDeque(tp);
+            if (dq == null)
+                continue;
             // We only check if the batch should be expired if the partition does not have a batch in flight.
             // This is to prevent later batches from being expired while an earlier batch is still in progress.
             // Note that `muted` is only ever populated if `max.in.flight.request.per.connection=1` so this protection
@@ -309,6 +481,7 @@ public final class RecordAccumulator {
         synchronized (deque) {
             deque.addFirst(batch);
         }
+        pending.checkAt(batch.topicPartition, now);
     }
 
     /**
@@ -332,6 +505,7 @@ public final class RecordAccumulator {
                 partitionDequeue.addFirst(batch);
             }
         }
+        pending.checkAt(bigBatch.topicPartition, time.milliseconds());
         return numSplitBatches;
     }
 
@@ -362,39 +536,64 @@ public final class RecordAccumulator {
         Set<String> unknownLeaderTopics = new HashSet<>();
 
         boolean exhausted = this.free.queued() > 0;
-        for (Map.Entry<TopicPartition, Deque<ProducerBatch>> entry : this.batches.entrySet()) {
-            TopicPartition part = entry.getKey();
-            Deque<ProducerBatch> deque = entry.getValue();
+        pending.update();
+        Collection<TopicPartition> candidates;
+        if (exhausted || closed || flushInProgress()) {
+            // every partition with batches is sendable
+            candidates = new ArrayList<>(pending.partitions());
+        } else {
+            // partitions which were not sendable or leaderless when they were last checked need no check until their
+            // batch becomes full, their linger or backoff time passes or they are unmuted
+            candidates = new LinkedHashSet<>(pending.due(nowMs));
+            candidates.addAll(pending.sendable());
+            candidates.addAll(pending.leaderless());
+        }
+
+        for (TopicPartition part : candidates) {
+            Deque<ProducerBatch> deque = getDeque(part);
+            // the deque is not locked here, a batch which is added or closed concurrently is seen by the next check
+            ProducerBatch batch = deque == null ? null : deque.peekFirst();
+            if (batch == null) {
+                pending.remove(part);
+                continue;
+            }
 
             Node leader = cluster.leaderFor(part);
-            synchronized (deque) {
-                if (leader == null && !deque.isEmpty()) {
-                    // This is a partition for which leader is not known, but messages are available to send.
-                    // Note that entries are currently not removed from batches when deque is empty.
-                    unknownLeaderTopics.add(part.topic());
-                } else if (!readyNodes.contains(leader) && !muted.contains(part)) {
-                    ProducerBatch batch = deque.peekFirst();
-                    if (batch != null) {
-                        long waitedTimeMs = batch.waitedTimeMs(nowMs);
-                        boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
-                        boolean full = deque.size() > 1 || batch.isFull();
-                        boolean expired = waitedTimeMs >= timeToWaitMs;
-                        boolean sendable = full || expired || exhausted || closed || flushInProgress();
-                        if (sendable && !backingOff) {
-                            readyNodes.add(leader);
-                        } else {
-                            long timeLeftMs = Math.max(timeToWaitMs - waitedTimeMs, 0);
-                            // Note that this results in a conservative estimate since an un-sendable partition may have
-                            // a leader that will later be found to have sendable data. However, this is good enough
-                            // since we'll just wake up and then sleep again for the remaining time.
-                            nextReadyCheckDelayMs = Math.min(timeLeftMs, nextReadyCheckDelayMs);
-                        }
+            pending.setLeaderless(part, leader == null);
+            if (leader == null) {
+                // This is a partition for which leader is not known, but messages are available to send.
+                unknownLeaderTopics.add(part.topic());
+            } else if (muted.contains(part)) {
+                // the partition is checked again once it is unmuted
+                pending.setSendable(part, false);
+            } else {
+                long waitedTimeMs = batch.waitedTimeMs(nowMs);
+                boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
+                long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
+                boolean full = batch != deque.peekLast() || batch.isFull();
+                boolean expired = waitedTimeMs >= timeToWaitMs;
+                boolean sendable = full || expired || exhausted || closed || flushInProgress();
+                pending.setSendable(part, sendable && !backingOff);
+                if (sendable && !backingOff) {
+                    readyNodes.add(leader);
+                } else {
+                    long timeLeftMs = Math.max(timeToWaitMs - waitedTimeMs, 0);
+                    pending.schedule(part, timeLeftMs > Long.MAX_VALUE - nowMs ? Long.MAX_VALUE : nowMs + timeLeftMs);
+                    if (!readyNodes.contains(leader)) {
+                        // Note that this results in a conservative estimate since an un-sendable partition may have
+                        // a leader that will later be found to have sendable data. However, this is good enough
+                        // since we'll just wake up and then sleep again for the remaining time.
+                        nextReadyCheckDelayMs = Math.min(timeLeftMs, nextReadyCheckDelayMs);
                     }
                 }
             }
         }
 
+        // partitions which have not been checked yet are checked once their time has come
+        long nextCheckTimeMs = pending.nextCheckTimeMs();
+        if (nextCheckTimeMs != Long.MAX_VALUE)
+            nextReadyCheckDelayMs = Math.min(Math.max(nextCheckTimeMs - nowMs, 0), nextReadyCheckDelayMs);
+
         return new ReadyCheckResult(readyNodes, nextReadyCheckDelayMs, unknownLeaderTopics);
     }
 
@@ -403,11 +602,8 @@ public final class RecordAccumulator {
      */
     public boolean hasUndrained() {
         for (Map.Entry<TopicPartition, Deque<ProducerBatch>> entry : this.batches.entrySet()) {
-            Deque<ProducerBatch> deque = entry.getValue();
-            synchronized (deque) {
-                if (!deque.isEmpty())
-                    return true;
-            }
+            if (!entry.getValue().isEmpty())
+                return true;
         }
         return false;
     }
@@ -429,16 +625,15 @@ public final class RecordAccumulator {
         if (nodes.isEmpty())
             return Collections.emptyMap();
 
+        pending.update();
         Map<Integer, List<ProducerBatch>> batches = new HashMap<>();
         for (Node node : nodes) {
             int size = 0;
-            List<PartitionInfo> parts = cluster.partitionsForNode(node.id());
+            // only the partitions which have batches are looked at, and to make starvation less likely the ones which
+            // were drained least recently come first
+            List<TopicPartition> parts = new ArrayList<>(pending.partitionsForNode(cluster, node.id()));
             List<ProducerBatch> ready = new ArrayList<>();
-            /* to make starvation less likely this loop doesn't start at 0 */
-            int start = drainIndex = drainIndex % parts.size();
-            do {
-                PartitionInfo part = parts.get(drainIndex);
-                TopicPartition tp = new TopicPartition(part.topic(), part.partition());
+            for (TopicPartition tp : parts) {
                 // Only proceed if the partition has no in-flight batches.
                 if (!muted.contains(tp)) {
                     Deque<ProducerBatch> deque = getDeque(tp);
@@ -449,27 +644,37 @@ public final class RecordAccumulator {
                                 boolean backoff = first.attempts() > 0 && first.waitedTimeMs(now) < retryBackoffMs;
                                 // Only drain the batch if it is not during backoff period.
                                 if (!backoff) {
+                                    ProducerIdAndEpoch producerIdAndEpoch = null;
+                                    boolean isTransactional = false;
+                                    if (transactionManager != null) {
+                                        if (!transactionManager.isSendToPartitionAllowed(tp))
+                                            break;
+
+                                        producerIdAndEpoch = transactionManager.producerIdAndEpoch();
+                                        if (!producerIdAndEpoch.isValid())
+                                            // we cannot send the batch until we have refreshed the producer id
+                                            break;
+
+                                        isTransactional = transactionManager.isTransactional();
+                                    }
+
+                                    // application threads append to the batch without the deque lock, so its size is
+                                    // only a snapshot until it is closed for appends
                                     if (size + first.sizeInBytes() > maxSize && !ready.isEmpty()) {
                                         // there is a rare case that a single batch size is larger than the request size due
                                         // to compression; in this case we will still eventually send this batch in a single
                                         // request
                                         break;
                                     } else {
-                                        ProducerIdAndEpoch producerIdAndEpoch = null;
-                                        boolean isTransactional = false;
-                                        if (transactionManager != null) {
-                                            if (!transactionManager.isSendToPartitionAllowed(tp))
-                                                break;
-
-                                            producerIdAndEpoch = transactionManager.producerIdAndEpoch();
-                                            if (!producerIdAndEpoch.isValid())
-                                                // we cannot send the batch until we have refreshed the producer id
-                                                break;
-
-                                            isTransactional = transactionManager.isTransactional();
-                                        }
-
                                         ProducerBatch batch = deque.pollFirst();
+                                        // stop the appends before the final size is checked and the producer state is set
+                                        batch.closeForRecordAppends();
+                                        if (size + batch.sizeInBytes() > maxSize && !ready.isEmpty()) {
+                                            // records appended since the snapshot made it too large; it is closed, so it
+                                            // goes back first and is sent in the next request
+                                            deque.addFirst(batch);
+                                            break;
+                                        }
                                         if (producerIdAndEpoch != null && !batch.inRetry()) {
                                             // If the batch is in retry, then we should not change the producer id and
                                             // sequence number, since this may introduce duplicates. In particular,
@@ -486,14 +691,16 @@ public final class RecordAccumulator {
                                         size += batch.sizeInBytes();
                                         ready.add(batch);
                                         batch.drained(now);
+                                        // the next batch of the partition, if any, is checked by the next ready check
+                                        pending.drained(tp, node.id());
+                                        pending.schedule(tp, now);
                                     }
                                 }
                             }
                         }
                     }
                 }
-                this.drainIndex = (this.drainIndex + 1) % parts.size();
-            } while (start != drainIndex);
+            }
             batches.put(node.id(), ready);
         }
         return batches;
@@ -510,7 +717,7 @@ public final class RecordAccumulator {
         Deque<ProducerBatch> d = this.batches.get(tp);
         if (d != null)
             return d;
-        d = new ArrayDeque<>();
+        d = new ConcurrentLinkedDeque<>();
         Deque<ProducerBatch> previous = this.batches.putIfAbsent(tp, d);
         if (previous == null)
             return d;
@@ -651,6 +858,7 @@ public final class RecordAccumulator {
 
     public void unmutePartition(TopicPartition tp) {
         muted.remove(tp);
+        pending.checkAt(tp, time.milliseconds());
     }
 
     /**
@@ -667,11 +875,18 @@ public final class RecordAccumulator {
         public final FutureRecordMetadata future;
         public final boolean batchIsFull;
         public final boolean newBatchCreated;
+        public final boolean abortForNewBatch;
 
         public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated) {
+            this(future, batchIsFull, newBatchCreated, false);
+        }
+
+        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated,
+                                  boolean abortForNewBatch) {
             this.future = future;
             this.batchIsFull = batchIsFull;
             this.newBatchCreated = newBatchCreated;
+            this.abortForNewBatch = abortForNewBatch;
         }
     }
 
@@ -19,6 +19,7 @@ package org.apache.kafka.clients.producer.internals;
 import org.apache.kafka.clients.ApiVersions;
 import org.apache.kafka.clients.ClientRequest;
 import org.apache.kafka.clients.ClientResponse;
+import org.apache.kafka.clients.CompressionDictionaries;
 import org.apache.kafka.clients.KafkaClient;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.NetworkClientUtils;
@@ -49,6 +50,7 @@ import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.requests.AbstractRequest;
+import org.apache.kafka.common.requests.DescribeConfigsRequest;
 import org.apache.kafka.common.requests.InitProducerIdRequest;
 import org.apache.kafka.common.requests.InitProducerIdResponse;
 import org.apache.kafka.common.requests.ProduceRequest;
@@ -121,6 +123,9 @@ public class Sender implements Runnable {
     /* all the state related to transactions, in particular the producer id, producer epoch, and sequence numbers */
     private final TransactionManager transactionManager;
 
+    /* the compression dictionaries of the topics written to, null if dictionaries are not used */
+    private final CompressionDictionaries compressionDictionaries;
+
     public Sender(KafkaClient client,
                   Metadata metadata,
                   RecordAccumulator accumulator,
@@ -134,6 +139,24 @@ public class Sender implements Runnable {
                   long retryBackoffMs,
                   TransactionManager transactionManager,
                   ApiVersions apiVersions) {
+        this(client, metadata, accumulator, guaranteeMessageOrder, maxRequestSize, acks, retries, metrics, time,
+                requestTimeout, retryBackoffMs, transactionManager, apiVersions, null);
+    }
+
+    public Sender(KafkaClient client,
+                  Metadata metadata,
+                  RecordAccumulator accumulator,
+                  boolean guaranteeMessageOrder,
+                  int maxRequestSize,
+                  short acks,
+                  int retries,
+                  Metrics metrics,
+                  Time time,
+                  int requestTimeout,
+                  long retryBackoffMs,
+                  TransactionManager transactionManager,
+                  ApiVersions apiVersions,
+                  CompressionDictionaries compressionDictionaries) {
         this.client = client;
         this.accumulator = accumulator;
         this.metadata = metadata;
@@ -148,6 +171,7 @@ public class Sender implements Runnable {
         this.retryBackoffMs = retryBackoffMs;
         this.apiVersions = apiVersions;
         this.transactionManager = transactionManager;
+        this.compressionDictionaries = compressionDictionaries;
     }
 
     /**
@@ -220,10 +244,33 @@ public class Sender implements Runnable {
             }
         }
 
+        if (compressionDictionaries != null)
+            maybeSendCompressionDictionaryRequest(now);
+
         long pollTimeout = sendProducerData(now);
         client.poll(pollTimeout, now);
     }
 
+    private void maybeSendCompressionDictionaryRequest(long now) {
+        if (!compressionDictionaries.needsRequest(now))
+            return;
+        Node node = client.leastLoadedNode(now);
+        if (node == null || !client.ready(node, now))
+            return;
+        DescribeConfigsRequest.Builder requestBuilder = compressionDictionaries.maybeNewRequest(now);
+        if (requestBuilder == null)
+            return;
+
+        RequestCompletionHandler callback = new RequestCompletionHandler() {
+            public void onComplete(ClientResponse response) {
+                compressionDictionaries.handleResponse(response, time.milliseconds());
+            }
+        };
+        ClientRequest clientRequest = client.newClientRequest(node.idString(), requestBuilder, now, true, callback);
+        client.send(clientRequest, now);
+        log.debug("Sent compression dictionary request to {}: {}", node, requestBuilder);
+    }
+
     private long sendProducerData(long now) {
         Cluster cluster = metadata.fetch();
         // get the list of partitions with data ready to send
@@ -494,7 +541,7 @@ public class Sender implements Runnable {
     private void completeBatch(ProducerBatch batch, ProduceResponse.PartitionResponse response, long correlationId,
                                long now) {
         Errors error = response.error;
-        if (error == Errors.MESSAGE_TOO_LARGE && batch.recordCount > 1 &&
+        if (error == Errors.MESSAGE_TOO_LARGE && batch.isSplittable() &&
                 (batch.magic() >= RecordBatch.MAGIC_VALUE_V2 || batch.isCompressed())) {
             // If the batch is too large, we split the batch and send the split batches again. We do not decrement
             // the retry attempts in this case.
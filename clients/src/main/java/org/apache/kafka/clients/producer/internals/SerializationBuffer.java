@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.DataOutputSerializer;
+import org.apache.kafka.common.utils.ByteBufferDataOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer which a {@link DataOutputSerializer} writes the key or the value of a record to, so that the producer does
+ * not allocate a byte array for every record it sends. The buffer is reused for the records sent by one thread, since
+ * a record is copied into its batch before the thread serializes the next one. A buffer which has grown beyond its
+ * maximum retained capacity for a large record is replaced by a new one for the next record, so that it does not hold
+ * on to that memory.
+ *
+ * This class is not thread safe.
+ */
+public final class SerializationBuffer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxRetainedCapacity;
+    private ByteBufferDataOutput out;
+
+    public SerializationBuffer(int maxRetainedCapacity) {
+        this.maxRetainedCapacity = Math.max(maxRetainedCapacity, INITIAL_CAPACITY);
+        allocate();
+    }
+
+    /**
+     * Serialize the data into this buffer, replacing the data which was serialized into it before
+     *
+     * @return The buffer holding the serialized data from its position to its limit, which is only valid until the
+     *         next call, or null if the data is serialized as null
+     */
+    public <T> ByteBuffer serialize(DataOutputSerializer<T> serializer, String topic, Headers headers, T data) {
+        if (out.buffer().capacity() > maxRetainedCapacity)
+            allocate();
+        else
+            out.buffer().clear();
+
+        try {
+            if (!serializer.serialize(topic, headers, data, out))
+                return null;
+        } catch (IOException e) {
+            // writing to the buffer itself does not fail, so this comes from the serializer
+            throw new SerializationException("Error when serializing data of topic " + topic, e);
+        }
+        ByteBuffer buffer = out.buffer();
+        buffer.flip();
+        return buffer;
+    }
+
+    int capacity() {
+        return out.buffer().capacity();
+    }
+
+    private void allocate() {
+        out = new ByteBufferDataOutput(INITIAL_CAPACITY);
+    }
+
+}
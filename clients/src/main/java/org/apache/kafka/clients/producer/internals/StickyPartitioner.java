@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * A partitioning strategy which fills batches for records without keys:
+ * <ul>
+ * <li>If a partition is specified in the record, use it
+ * <li>If no partition is specified but a key is present choose a partition based on a hash of the key
+ * <li>If no partition or key is present use the sticky partition of the topic, which is changed to another random
+ * available partition whenever a new batch is about to be created for it, that is once its batch is full or sent
+ * </ul>
+ * Records without keys are then sent in fewer, fuller batches than with the round-robin of the
+ * {@link DefaultPartitioner}, while their partitions are still balanced over time.
+ */
+public class StickyPartitioner implements Partitioner {
+
+    private final ConcurrentMap<String, Integer> stickyPartitions = new ConcurrentHashMap<>();
+
+    public void configure(Map<String, ?> configs) {}
+
+    /**
+     * Compute the partition for the given record.
+     *
+     * @param topic The topic name
+     * @param key The key to partition on (or null if no key)
+     * @param keyBytes serialized key to partition on (or null if no key)
+     * @param value The value to partition on or null
+     * @param valueBytes serialized value to partition on or null
+     * @param cluster The current cluster metadata
+     */
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        if (keyBytes == null) {
+            Integer partition = stickyPartitions.get(topic);
+            return partition != null ? partition : nextPartition(topic, cluster, -1);
+        }
+        // hash the keyBytes to choose a partition
+        int numPartitions = cluster.partitionsForTopic(topic).size();
+        return Utils.toPositive(Utils.murmur2(keyBytes)) % numPartitions;
+    }
+
+    /**
+     * Called by the producer when a record without a key would start a new batch for the sticky partition of its topic,
+     * so that the record and the ones after it go to another partition.
+     *
+     * @param topic The topic name
+     * @param cluster The current cluster metadata
+     * @param prevPartition The partition which would have got a new batch
+     */
+    public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
+        nextPartition(topic, cluster, prevPartition);
+    }
+
+    private int nextPartition(String topic, Cluster cluster, int prevPartition) {
+        Integer oldPartition = stickyPartitions.get(topic);
+        // another thread may have changed the sticky partition already
+        if (oldPartition != null && oldPartition != prevPartition)
+            return oldPartition;
+
+        int newPartition;
+        List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+        if (availablePartitions.isEmpty()) {
+            // no partitions are available, give a non-available partition
+            newPartition = Utils.toPositive(ThreadLocalRandom.current().nextInt()) % cluster.partitionsForTopic(topic).size();
+        } else if (availablePartitions.size() == 1) {
+            newPartition = availablePartitions.get(0).partition();
+        } else {
+            do {
+                int random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
+                newPartition = availablePartitions.get(random % availablePartitions.size()).partition();
+            } while (oldPartition != null && newPartition == oldPartition);
+        }
+
+        if (oldPartition == null)
+            stickyPartitions.putIfAbsent(topic, newPartition);
+        else
+            stickyPartitions.replace(topic, oldPartition, newPartition);
+        return stickyPartitions.get(topic);
+    }
+
+    public void close() {}
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link BufferPool} which avoids a global lock while memory is available. Pooled buffers are kept in several
+ * lock-free free lists (stripes) selected by thread, and unallocated memory is tracked with an atomic counter, so
+ * concurrent allocations and deallocations of the poolable size rarely touch the same memory location.
+ * <p>
+ * The memory bound and blocking semantics are the same as those of {@link BufferPool}. Once a thread has to block, all
+ * later allocations queue behind it and memory is handed out in arrival order, as in {@link BufferPool}. The ordering
+ * is only approximate for allocations racing with the first thread to block.
+ */
+public class StripedBufferPool extends BufferPool {
+
+    private final int poolableSize;
+    private final List<Deque<ByteBuffer>> free;
+    /** This memory is accounted for separately from the poolable buffers in free. */
+    private final AtomicLong availableMemory;
+    private final AtomicInteger queued;
+    private final ReentrantLock lock;
+    private final Deque<Condition> waiters;
+    private final Time time;
+
+    /**
+     * Create a new striped buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The buffer size to cache in the free lists rather than deallocating
+     * @param stripes The number of free lists to spread pooled buffers over
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public StripedBufferPool(long memory, int poolableSize, int stripes, Metrics metrics, Time time, String metricGrpName) {
+        this(memory, poolableSize, stripes, false, metrics, time, metricGrpName);
+    }
+
+    /**
+     * Create a new striped buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The buffer size to cache in the free lists rather than deallocating
+     * @param stripes The number of free lists to spread pooled buffers over
+     * @param directBuffers Whether to allocate buffers of the poolable size outside of the Java heap
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public StripedBufferPool(long memory, int poolableSize, int stripes, boolean directBuffers, Metrics metrics,
+                             Time time, String metricGrpName) {
+        super(memory, poolableSize, directBuffers, metrics, time, metricGrpName);
+        if (stripes < 1)
+            throw new IllegalArgumentException("The number of stripes must be positive, but was " + stripes);
+        this.poolableSize = poolableSize;
+        this.free = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++)
+            this.free.add(new ConcurrentLinkedDeque<ByteBuffer>());
+        this.availableMemory = new AtomicLong(memory);
+        this.queued = new AtomicInteger(0);
+        this.lock = new ReentrantLock();
+        this.waiters = new ArrayDeque<>();
+        this.time = time;
+    }
+
+    @Override
+    public ByteBuffer allocate(int size, long maxTimeToBlockMs) throws InterruptedException {
+        if (size > totalMemory())
+            throw new IllegalArgumentException("Attempt to allocate " + size
+                                               + " bytes, but there is a hard limit of "
+                                               + totalMemory()
+                                               + " on memory allocations.");
+
+        // only take the fast path if nobody is blocked, otherwise we could starve the waiting threads
+        if (queued.get() == 0) {
+            if (size == poolableSize) {
+                ByteBuffer buffer = pollFree();
+                if (buffer != null)
+                    return buffer;
+            }
+            if (reserve(size, size) == size)
+                return allocateByteBuffer(size);
+        }
+        return allocateBlocking(size, maxTimeToBlockMs);
+    }
+
+    private ByteBuffer allocateBlocking(int size, long maxTimeToBlockMs) throws InterruptedException {
+        lock.lock();
+        try {
+            int accumulated = 0;
+            ByteBuffer buffer = null;
+            boolean hasError = true;
+            Condition moreMemory = lock.newCondition();
+            // deallocations check the queue size after releasing memory, and we check for memory after joining the
+            // queue, so either we see the released memory or the deallocating thread signals us
+            queued.incrementAndGet();
+            waiters.addLast(moreMemory);
+            try {
+                long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
+                while (true) {
+                    // only the longest waiting thread takes memory, so that large requests are not starved
+                    if (waiters.peekFirst() == moreMemory) {
+                        if (accumulated == 0 && size == poolableSize) {
+                            buffer = pollFree();
+                            if (buffer != null)
+                                break;
+                        }
+                        accumulated += reserve(size - accumulated, 1);
+                        if (accumulated == size)
+                            break;
+                    }
+
+                    long startWaitNs = time.nanoseconds();
+                    long timeNs;
+                    boolean waitingTimeElapsed;
+                    try {
+                        waitingTimeElapsed = !moreMemory.await(remainingTimeToBlockNs, TimeUnit.NANOSECONDS);
+                    } finally {
+                        long endWaitNs = time.nanoseconds();
+                        timeNs = Math.max(0L, endWaitNs - startWaitNs);
+                        recordWaitTime(timeNs);
+                    }
+
+                    if (waitingTimeElapsed) {
+                        throw new TimeoutException("Failed to allocate memory within the configured max blocking time " + maxTimeToBlockMs + " ms.");
+                    }
+
+                    remainingTimeToBlockNs -= timeNs;
+                }
+
+                if (buffer == null)
+                    buffer = allocateByteBuffer(size);
+                hasError = false;
+                return buffer;
+            } finally {
+                // When this loop was not able to successfully terminate don't loose available memory
+                if (hasError)
+                    availableMemory.addAndGet(accumulated);
+                waiters.remove(moreMemory);
+                queued.decrementAndGet();
+            }
+        } finally {
+            // signal any additional waiters if there is more memory left over for them
+            try {
+                if (!waiters.isEmpty() && (availableMemory.get() > 0 || freeSize() > 0))
+                    waiters.peekFirst().signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserve up to the given number of bytes of unallocated memory, deallocating pooled buffers if needed.
+     *
+     * @param size The number of bytes wanted
+     * @param minSize The minimum number of bytes to reserve, nothing is reserved if less is available
+     * @return The number of bytes reserved
+     */
+    private int reserve(int size, int minSize) {
+        while (true) {
+            long available = availableMemory.get();
+            if (available < size) {
+                ByteBuffer pooled = pollFree();
+                if (pooled != null) {
+                    availableMemory.addAndGet(pooled.capacity());
+                    continue;
+                }
+                if (available < minSize)
+                    return 0;
+            }
+            int got = (int) Math.min(size, available);
+            if (availableMemory.compareAndSet(available, available - got))
+                return got;
+        }
+    }
+
+    /**
+     * Take a pooled buffer, preferring the free list of the current thread's stripe.
+     */
+    private ByteBuffer pollFree() {
+        int stripes = free.size();
+        int start = stripe();
+        for (int i = 0; i < stripes; i++) {
+            ByteBuffer buffer = free.get((start + i) % stripes).pollFirst();
+            if (buffer != null)
+                return buffer;
+        }
+        return null;
+    }
+
+    private int stripe() {
+        return (int) (Thread.currentThread().getId() % free.size());
+    }
+
+    @Override
+    public void deallocate(ByteBuffer buffer, int size) {
+        if (size == this.poolableSize && size == buffer.capacity()) {
+            buffer.clear();
+            free.get(stripe()).addFirst(buffer);
+        } else {
+            availableMemory.addAndGet(size);
+        }
+
+        if (queued.get() > 0) {
+            lock.lock();
+            try {
+                Condition moreMem = waiters.peekFirst();
+                if (moreMem != null)
+                    moreMem.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public long availableMemory() {
+        return availableMemory.get() + freeSize() * (long) this.poolableSize;
+    }
+
+    @Override
+    protected int freeSize() {
+        int size = 0;
+        for (Deque<ByteBuffer> stripe : free)
+            size += stripe.size();
+        return size;
+    }
+
+    @Override
+    public long unallocatedMemory() {
+        return availableMemory.get();
+    }
+
+    @Override
+    public int queued() {
+        return queued.get();
+    }
+
+    @Override
+    Deque<Condition> waiters() {
+        return this.waiters;
+    }
+}
@@ -138,10 +138,18 @@ public class TopicConfig {
 
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     public static final String COMPRESSION_TYPE_DOC = "Specify the final compression type for a given topic. " +
-        "This configuration accepts the standard compression codecs ('gzip', 'snappy', lz4). It additionally " +
+        "This configuration accepts the standard compression codecs ('gzip', 'snappy', 'lz4', 'zstd'). It additionally " +
         "accepts 'uncompressed' which is equivalent to no compression; and 'producer' which means retain the " +
         "original compression codec set by the producer.";
 
+    public static final String COMPRESSION_DICTIONARY_CONFIG = "compression.dictionary";
+    public static final String COMPRESSION_DICTIONARY_DOC = "A list of base64 encoded ZStandard dictionaries trained " +
+        "on sample records of this topic. The first dictionary is used to compress batches written with 'zstd' " +
+        "compression, both by producers with <code>compression.dictionary.enable</code> set and by the broker when " +
+        "it recompresses. The remaining dictionaries are kept so that batches compressed with a previously active " +
+        "dictionary can still be read. Clients fetch the dictionaries with a DescribeConfigs request, so they need " +
+        "permission to describe the topic's configs.";
+
     public static final String PREALLOCATE_CONFIG = "preallocate";
     public static final String PREALLOCATE_DOC = "True if we should preallocate the file on disk when " +
         "creating a new log segment.";
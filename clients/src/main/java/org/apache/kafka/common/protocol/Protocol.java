@@ -238,8 +238,47 @@ public class Protocol {
                                                                 newThrottleTimeField());
     public static final Schema PRODUCE_RESPONSE_V3 = PRODUCE_RESPONSE_V2;
 
-    public static final Schema[] PRODUCE_REQUEST = {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3};
-    public static final Schema[] PRODUCE_RESPONSE = {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3};
+    // The V4 produce request and response are the same as V3. The version only keeps the numbering of the later versions
+    // in line with other clients of the protocol.
+    public static final Schema PRODUCE_REQUEST_V4 = PRODUCE_REQUEST_V3;
+    public static final Schema PRODUCE_RESPONSE_V4 = PRODUCE_RESPONSE_V3;
+
+    // PRODUCE_RESPONSE_V5 added the log start offset of the partition. The V5 request is the same as V4.
+    public static final Schema PRODUCE_REQUEST_V5 = PRODUCE_REQUEST_V4;
+    public static final Schema PRODUCE_RESPONSE_V5 = new Schema(
+            new Field("responses", new ArrayOf(new Schema(
+                    new Field("topic", STRING),
+                    new Field("partition_responses", new ArrayOf(new Schema(
+                            new Field("partition", INT32),
+                            new Field("error_code", INT16),
+                            new Field("base_offset", INT64),
+                            new Field("log_append_time",
+                                    INT64,
+                                    "The timestamp returned by broker after appending the messages. " +
+                                    "If CreateTime is used for the topic, the timestamp will be -1. " +
+                                    "If LogAppendTime is used for the topic, the timestamp will be " +
+                                    "the broker local time when the messages are appended."),
+                            new Field("log_start_offset",
+                                    INT64,
+                                    "The start offset of the log at the time this produce response was created"))))))),
+            newThrottleTimeField());
+
+    // The V6 produce request and response are the same as V5. From version 6 the broker sends a throttled response right
+    // away and stops reading requests from the connection for the throttle time, instead of delaying the response, so
+    // that clients which back off for the throttle time on their own are not throttled twice.
+    public static final Schema PRODUCE_REQUEST_V6 = PRODUCE_REQUEST_V5;
+    public static final Schema PRODUCE_RESPONSE_V6 = PRODUCE_RESPONSE_V5;
+
+    // The V7 produce request and response are the same as V6. The version is bumped up to indicate that the client
+    // supports ZStandard compression. The broker rejects ZStandard compressed batches in older versions with the
+    // UNSUPPORTED_COMPRESSION_TYPE error code.
+    public static final Schema PRODUCE_REQUEST_V7 = PRODUCE_REQUEST_V6;
+    public static final Schema PRODUCE_RESPONSE_V7 = PRODUCE_RESPONSE_V6;
+
+    public static final Schema[] PRODUCE_REQUEST = {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3,
+        PRODUCE_REQUEST_V4, PRODUCE_REQUEST_V5, PRODUCE_REQUEST_V6, PRODUCE_REQUEST_V7};
+    public static final Schema[] PRODUCE_RESPONSE = {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3,
+        PRODUCE_RESPONSE_V4, PRODUCE_RESPONSE_V5, PRODUCE_RESPONSE_V6, PRODUCE_RESPONSE_V7};
 
     /* Offset commit api */
     public static final Schema OFFSET_COMMIT_REQUEST_PARTITION_V0 = new Schema(new Field("partition",
@@ -666,6 +705,118 @@ public class Protocol {
                     new ArrayOf(FETCH_REQUEST_TOPIC_V5),
                     "Topics to fetch in the order provided."));
 
+    // The V6 fetch request is the same as V5. The version only keeps the numbering in line with other clients of the
+    // protocol, so fetch sessions start at V7.
+    public static final Schema FETCH_REQUEST_V6 = FETCH_REQUEST_V5;
+
+    public static final Schema FETCH_REQUEST_FORGOTTEN_TOPIC_V7 = new Schema(
+            new Field("topic", STRING, "Topic to remove from the fetch session."),
+            new Field("partitions", new ArrayOf(INT32), "Partitions to remove from the fetch session."));
+
+    // FETCH_REQUEST_V7 added fetch sessions: the session_id and epoch fields, and the list of partitions to remove from
+    // the session. An incremental fetch request only contains the partitions whose fetch parameters changed.
+    public static final Schema FETCH_REQUEST_V7 = new Schema(
+            new Field("replica_id",
+                    INT32,
+                    "Broker id of the follower. For normal consumers, use -1."),
+            new Field("max_wait_time",
+                    INT32,
+                    "Maximum time in ms to wait for the response."),
+            new Field("min_bytes",
+                    INT32,
+                    "Minimum bytes to accumulate in the response."),
+            new Field("max_bytes",
+                    INT32,
+                    "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                    "if the first message in the first non-empty partition of the fetch is larger than this " +
+                    "value, the message will still be returned to ensure that progress can be made."),
+            new Field("isolation_level",
+                    INT8,
+                    "This setting controls the visibility of transactional records. Using READ_UNCOMMITTED " +
+                    "(isolation_level = 0) makes all records visible. With READ_COMMITTED (isolation_level = 1), " +
+                     "non-transactional and COMMITTED transactional records are visible. To be more concrete, " +
+                     "READ_COMMITTED returns all data from offsets smaller than the current LSO (last stable offset), " +
+                     "and enables the inclusion of the list of aborted transactions in the result, which allows " +
+                     "consumers to discard ABORTED transactional records"),
+            new Field("session_id",
+                    INT32,
+                    "The fetch session ID, or 0 to fetch without a session or to create a new one."),
+            new Field("epoch",
+                    INT32,
+                    "The fetch session epoch. 0 creates a new session, -1 closes the session, and the following " +
+                    "requests of a session use the epochs 1, 2, 3 and so on."),
+            new Field("topics",
+                    new ArrayOf(FETCH_REQUEST_TOPIC_V5),
+                    "Topics to fetch in the order provided."),
+            new Field("forgotten_topics_data",
+                    new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V7),
+                    "Partitions to remove from the fetch session, in an incremental fetch request."));
+
+    // The V8 fetch request is the same as V7. From version 8 the broker sends a throttled response right away and stops
+    // reading requests from the connection for the throttle time, instead of delaying the response, so that clients
+    // which back off for the throttle time on their own are not throttled twice.
+    public static final Schema FETCH_REQUEST_V8 = FETCH_REQUEST_V7;
+
+    public static final Schema FETCH_REQUEST_PARTITION_V9 = new Schema(
+            new Field("partition", INT32, "Topic partition id."),
+            new Field("current_leader_epoch",
+                    INT32,
+                    "The current leader epoch of the partition as known by the fetcher, or -1 if it is unknown."),
+            new Field("fetch_offset", INT64, "Message offset."),
+            new Field("log_start_offset",
+                    INT64,
+                    "Earliest available offset of the follower replica. " +
+                    "The field is only used when request is sent by follower. "),
+            new Field("max_bytes", INT32, "Maximum bytes to fetch."));
+
+    public static final Schema FETCH_REQUEST_TOPIC_V9 = new Schema(
+            new Field("topic", STRING, "Topic to fetch."),
+            new Field("partitions", new ArrayOf(FETCH_REQUEST_PARTITION_V9), "Partitions to fetch."));
+
+    // FETCH_REQUEST_V9 added the current leader epoch of each partition. The broker fails the fetch of a partition with
+    // FENCED_LEADER_EPOCH if the epoch is older than its leader epoch, and with UNKNOWN_LEADER_EPOCH if it is newer.
+    public static final Schema FETCH_REQUEST_V9 = new Schema(
+            new Field("replica_id",
+                    INT32,
+                    "Broker id of the follower. For normal consumers, use -1."),
+            new Field("max_wait_time",
+                    INT32,
+                    "Maximum time in ms to wait for the response."),
+            new Field("min_bytes",
+                    INT32,
+                    "Minimum bytes to accumulate in the response."),
+            new Field("max_bytes",
+                    INT32,
+                    "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                    "if the first message in the first non-empty partition of the fetch is larger than this " +
+                    "value, the message will still be returned to ensure that progress can be made."),
+            new Field("isolation_level",
+                    INT8,
+                    "This setting controls the visibility of transactional records. Using READ_UNCOMMITTED " +
+                    "(isolation_level = 0) makes all records visible. With READ_COMMITTED (isolation_level = 1), " +
+                     "non-transactional and COMMITTED transactional records are visible. To be more concrete, " +
+                     "READ_COMMITTED returns all data from offsets smaller than the current LSO (last stable offset), " +
+                     "and enables the inclusion of the list of aborted transactions in the result, which allows " +
+                     "consumers to discard ABORTED transactional records"),
+            new Field("session_id",
+                    INT32,
+                    "The fetch session ID, or 0 to fetch without a session or to create a new one."),
+            new Field("epoch",
+                    INT32,
+                    "The fetch session epoch. 0 creates a new session, -1 closes the session, and the following " +
+                    "requests of a session use the epochs 1, 2, 3 and so on."),
+            new Field("topics",
+                    new ArrayOf(FETCH_REQUEST_TOPIC_V9),
+                    "Topics to fetch in the order provided."),
+            new Field("forgotten_topics_data",
+                    new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V7),
+                    "Partitions to remove from the fetch session, in an incremental fetch request."));
+
+    // The V10 fetch request is the same as V9. The version is bumped up to indicate that the client supports
+    // ZStandard compression. The broker returns the UNSUPPORTED_COMPRESSION_TYPE error code instead of ZStandard
+    // compressed batches to consumers which fetch with older versions.
+    public static final Schema FETCH_REQUEST_V10 = FETCH_REQUEST_V9;
+
     public static final Schema FETCH_RESPONSE_PARTITION_HEADER_V0 = new Schema(new Field("partition",
                                                                                          INT32,
                                                                                          "Topic partition id."),
@@ -759,8 +910,26 @@ public class Protocol {
             newThrottleTimeField(),
             new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V5)));
 
-    public static final Schema[] FETCH_REQUEST = {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4, FETCH_REQUEST_V5};
-    public static final Schema[] FETCH_RESPONSE = {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5};
+    // The V6 fetch response is the same as V5, see FETCH_REQUEST_V6.
+    public static final Schema FETCH_RESPONSE_V6 = FETCH_RESPONSE_V5;
+
+    // FETCH_RESPONSE_V7 added the error code of the fetch session and its id. An incremental fetch response only
+    // contains the partitions with new data, errors or changed offsets.
+    public static final Schema FETCH_RESPONSE_V7 = new Schema(
+            newThrottleTimeField(),
+            new Field("error_code", INT16, "The error code of the fetch session, or 0 if there was no error."),
+            new Field("session_id", INT32, "The fetch session ID, or 0 if the fetch has no session."),
+            new Field("responses", new ArrayOf(FETCH_RESPONSE_TOPIC_V5)));
+
+    // The V8, V9 and V10 fetch responses are the same as V7, see the fetch requests of these versions.
+    public static final Schema FETCH_RESPONSE_V8 = FETCH_RESPONSE_V7;
+    public static final Schema FETCH_RESPONSE_V9 = FETCH_RESPONSE_V8;
+    public static final Schema FETCH_RESPONSE_V10 = FETCH_RESPONSE_V9;
+
+    public static final Schema[] FETCH_REQUEST = {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4, FETCH_REQUEST_V5, FETCH_REQUEST_V6, FETCH_REQUEST_V7,
+        FETCH_REQUEST_V8, FETCH_REQUEST_V9, FETCH_REQUEST_V10};
+    public static final Schema[] FETCH_RESPONSE = {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5, FETCH_RESPONSE_V6, FETCH_RESPONSE_V7,
+        FETCH_RESPONSE_V8, FETCH_RESPONSE_V9, FETCH_RESPONSE_V10};
 
     /* List groups api */
     public static final Schema LIST_GROUPS_REQUEST_V0 = new Schema();
@@ -16,10 +16,13 @@
  */
 package org.apache.kafka.common.protocol.types;
 
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Records;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A record that can be serialized and deserialized according to a pre-defined schema
@@ -265,6 +268,89 @@ public class Struct {
         this.schema.write(buffer, this);
     }
 
+    /**
+     * Write this struct to a sequence of buffers which reference, rather than copy, the buffers of any direct
+     * {@link MemoryRecords}. The remaining fields are written to a single heap buffer which the returned buffers are
+     * slices of. Writing the result to a channel then avoids the copy of the records the JDK makes for heap buffers.
+     */
+    public List<ByteBuffer> writeToBuffers() {
+        ByteBuffer heapBuffer = ByteBuffer.allocate(sizeOf() - directRecordsSize(schema, this));
+        BufferSequence sequence = new BufferSequence(heapBuffer);
+        write(schema, this, sequence);
+        sequence.endSegment();
+        return sequence.buffers;
+    }
+
+    private static int directRecordsSize(Type type, Object value) {
+        if (value == null)
+            return 0;
+        int size = 0;
+        if (type instanceof Schema) {
+            Schema schema = (Schema) type;
+            Struct struct = (Struct) value;
+            for (int i = 0; i < schema.numFields(); i++) {
+                Field field = schema.get(i);
+                size += directRecordsSize(field.type, struct.get(field));
+            }
+        } else if (type instanceof ArrayOf) {
+            Type elementType = ((ArrayOf) type).type();
+            for (Object element : (Object[]) value)
+                size += directRecordsSize(elementType, element);
+        } else if (type == Type.RECORDS && isDirect(value)) {
+            size += ((MemoryRecords) value).sizeInBytes();
+        }
+        return size;
+    }
+
+    private static void write(Type type, Object value, BufferSequence sequence) {
+        ByteBuffer heapBuffer = sequence.heapBuffer;
+        if (type instanceof Schema) {
+            Schema schema = (Schema) type;
+            Struct struct = (Struct) value;
+            for (int i = 0; i < schema.numFields(); i++) {
+                Field field = schema.get(i);
+                write(field.type, field.type.validate(struct.get(field)), sequence);
+            }
+        } else if (type instanceof ArrayOf && value != null) {
+            Type elementType = ((ArrayOf) type).type();
+            Object[] elements = (Object[]) value;
+            heapBuffer.putInt(elements.length);
+            for (Object element : elements)
+                write(elementType, element, sequence);
+        } else if (type == Type.RECORDS && isDirect(value)) {
+            ByteBuffer records = ((MemoryRecords) value).buffer();
+            heapBuffer.putInt(records.remaining());
+            sequence.endSegment();
+            sequence.buffers.add(records);
+        } else {
+            type.write(heapBuffer, value);
+        }
+    }
+
+    private static boolean isDirect(Object records) {
+        return records instanceof MemoryRecords && ((MemoryRecords) records).buffer().isDirect();
+    }
+
+    private static class BufferSequence {
+        private final ByteBuffer heapBuffer;
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private int segmentStart = 0;
+
+        private BufferSequence(ByteBuffer heapBuffer) {
+            this.heapBuffer = heapBuffer;
+        }
+
+        private void endSegment() {
+            if (heapBuffer.position() == segmentStart)
+                return;
+            ByteBuffer segment = heapBuffer.duplicate();
+            segment.limit(heapBuffer.position());
+            segment.position(segmentStart);
+            buffers.add(segment.slice());
+            segmentStart = heapBuffer.position();
+        }
+    }
+
     /**
      * Ensure the user doesn't try to access fields from the wrong schema
      *
@@ -18,7 +18,6 @@ package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.utils.AbstractIterator;
-import org.apache.kafka.common.utils.Utils;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -85,7 +84,7 @@ public abstract class AbstractRecords implements Records {
                     baseOffset = batch.baseOffset();
                 else
                     baseOffset = records.get(0).offset();
-                totalSizeEstimate += estimateSizeInBytes(toMagic, baseOffset, batch.compressionType(), records);
+                totalSizeEstimate += estimateSizeInBytes(toMagic, baseOffset, convertedCompressionType(toMagic, batch), records);
                 recordBatchAndRecordsList.add(new RecordBatchAndRecords(batch, records, baseOffset));
             }
         }
@@ -111,7 +110,7 @@ public abstract class AbstractRecords implements Records {
         final TimestampType timestampType = batch.timestampType();
         long logAppendTime = timestampType == TimestampType.LOG_APPEND_TIME ? batch.maxTimestamp() : RecordBatch.NO_TIMESTAMP;
 
-        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, batch.compressionType(),
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, convertedCompressionType(magic, batch),
                 timestampType, recordBatchAndRecords.baseOffset, logAppendTime);
         for (Record record : recordBatchAndRecords.records)
             builder.append(record);
@@ -120,6 +119,16 @@ public abstract class AbstractRecords implements Records {
         return builder.buffer();
     }
 
+    /**
+     * The compression type to use for a batch converted to the given magic. ZStandard compression is only defined
+     * for magic v2 and above, so such batches are written uncompressed in the older formats.
+     */
+    private static CompressionType convertedCompressionType(byte toMagic, RecordBatch batch) {
+        if (toMagic < RecordBatch.MAGIC_VALUE_V2 && batch.compressionType() == CompressionType.ZSTD)
+            return CompressionType.NONE;
+        return batch.compressionType();
+    }
+
     /**
      * Get an iterator over the deep records.
      * @return An iterator over the records
@@ -185,7 +194,23 @@ public abstract class AbstractRecords implements Records {
      * an estimate because it does not take into account overhead from the compression algorithm.
      */
     public static int estimateSizeInBytesUpperBound(byte magic, CompressionType compressionType, byte[] key, byte[] value, Header[] headers) {
-        return estimateSizeInBytesUpperBound(magic, compressionType, Utils.wrapNullable(key), Utils.wrapNullable(value), headers);
+        return estimateSizeInBytesUpperBound(magic, compressionType, key == null ? -1 : key.length,
+                value == null ? -1 : value.length, headers);
+    }
+
+    /**
+     * Get an upper bound estimate on the batch size needed to hold a record with a key and value of the given sizes,
+     * which are -1 for a null key or value. This is only an estimate because it does not take into account overhead
+     * from the compression algorithm.
+     */
+    public static int estimateSizeInBytesUpperBound(byte magic, CompressionType compressionType, int keySize, int valueSize, Header[] headers) {
+        if (magic >= RecordBatch.MAGIC_VALUE_V2)
+            return DefaultRecordBatch.estimateBatchSizeUpperBound(keySize, valueSize, headers);
+        int recordSize = LegacyRecord.recordSize(magic, Math.max(keySize, 0), Math.max(valueSize, 0));
+        if (compressionType != CompressionType.NONE)
+            return Records.LOG_OVERHEAD + LegacyRecord.recordOverhead(magic) + recordSize;
+        else
+            return Records.LOG_OVERHEAD + recordSize;
     }
 
     /**
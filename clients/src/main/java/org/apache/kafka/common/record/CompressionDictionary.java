@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.UnknownCompressionDictionaryException;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A trained ZStandard compression dictionary. Small records compress poorly on their own since the codec has little
+ * history to draw on; a dictionary trained on sample records of a topic primes the codec with that history.
+ *
+ * ZStandard frames record the id of the dictionary they were compressed with, so a batch can be decompressed by
+ * anyone who has registered the dictionary with that id. Dictionaries are registered process wide. Clients never
+ * unregister them, since batches written with an older dictionary may still be read long after a topic moves on to a
+ * newly trained one. The broker unregisters the dictionaries of a log config once no log uses that config anymore; a
+ * dictionary stays registered until every registration of it has been undone.
+ */
+public final class CompressionDictionary {
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final ConcurrentMap<Integer, CompressionDictionary> DICTIONARIES = new ConcurrentHashMap<>();
+    // the number of times each registered dictionary has been registered, guarded by the lock of this map
+    private static final Map<Integer, Integer> REGISTRATIONS = new HashMap<>();
+
+    private final int id;
+    private final byte[] bytes;
+
+    private CompressionDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Parse a dictionary produced by the ZStandard dictionary trainer. Raw content dictionaries are rejected since
+     * they do not carry an id and could not be identified when decompressing.
+     */
+    public static CompressionDictionary parse(byte[] bytes) {
+        if (bytes.length < 8)
+            throw new IllegalArgumentException("Compression dictionary is too short: " + bytes.length + " bytes");
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Compression dictionary does not have a ZStandard dictionary header");
+        int id = header.getInt(4);
+        if (id == 0)
+            throw new IllegalArgumentException("Compression dictionary must have a non-zero dictionary id");
+        return new CompressionDictionary(id, bytes);
+    }
+
+    /**
+     * Parse a list of base64 encoded dictionaries, as found in the <code>compression.dictionary</code> topic config.
+     */
+    public static List<CompressionDictionary> parseAll(List<String> encodedDictionaries) {
+        if (encodedDictionaries == null || encodedDictionaries.isEmpty())
+            return Collections.emptyList();
+        List<CompressionDictionary> dictionaries = new ArrayList<>(encodedDictionaries.size());
+        for (String encoded : encodedDictionaries)
+            dictionaries.add(parse(DatatypeConverter.parseBase64Binary(encoded.trim())));
+        return dictionaries;
+    }
+
+    /**
+     * Register a dictionary so that batches compressed with it can be decompressed.
+     *
+     * @return The registered instance, which is the given one unless an identical dictionary was already registered
+     * @throws KafkaException If a different dictionary has already been registered with the same id
+     */
+    public static CompressionDictionary register(CompressionDictionary dictionary) {
+        synchronized (REGISTRATIONS) {
+            CompressionDictionary existing = DICTIONARIES.putIfAbsent(dictionary.id, dictionary);
+            if (existing != null && existing != dictionary && !Arrays.equals(existing.bytes, dictionary.bytes))
+                throw new KafkaException("A different compression dictionary is already registered with id " +
+                        (dictionary.id & 0xFFFFFFFFL));
+            Integer registrations = REGISTRATIONS.get(dictionary.id);
+            REGISTRATIONS.put(dictionary.id, registrations == null ? 1 : registrations + 1);
+            return existing == null ? dictionary : existing;
+        }
+    }
+
+    /**
+     * Undo one registration of a dictionary. The dictionary is removed once all its registrations have been undone,
+     * after which batches compressed with it can no longer be decompressed.
+     *
+     * @throws IllegalStateException If the dictionary is not registered
+     */
+    public static void unregister(CompressionDictionary dictionary) {
+        synchronized (REGISTRATIONS) {
+            CompressionDictionary existing = DICTIONARIES.get(dictionary.id);
+            if (existing == null || (existing != dictionary && !Arrays.equals(existing.bytes, dictionary.bytes)))
+                throw new IllegalStateException("Compression dictionary " + dictionary + " is not registered");
+            int registrations = REGISTRATIONS.get(dictionary.id);
+            if (registrations == 1) {
+                REGISTRATIONS.remove(dictionary.id);
+                DICTIONARIES.remove(dictionary.id);
+            } else {
+                REGISTRATIONS.put(dictionary.id, registrations - 1);
+            }
+        }
+    }
+
+    /**
+     * Get the registered dictionary with the given id.
+     *
+     * @throws UnknownCompressionDictionaryException If no dictionary has been registered with the id
+     */
+    public static CompressionDictionary forId(int id) {
+        CompressionDictionary dictionary = DICTIONARIES.get(id);
+        if (dictionary == null)
+            throw new UnknownCompressionDictionaryException(id);
+        return dictionary;
+    }
+
+    /**
+     * Read the dictionary id from the header of the ZStandard frame starting at the buffer's position without
+     * modifying the buffer. Returns 0 if the frame was compressed without a dictionary.
+     */
+    static int frameDictionaryId(ByteBuffer buffer) {
+        ByteBuffer frame = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (frame.remaining() < 6 || frame.getInt() != FRAME_MAGIC)
+            return 0;
+
+        byte descriptor = frame.get();
+        int dictionaryIdSize = descriptor & 0x03;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        if (!singleSegment)
+            frame.get(); // window descriptor
+
+        switch (dictionaryIdSize) {
+            case 0:
+                return 0;
+            case 1:
+                return frame.remaining() < 1 ? 0 : frame.get() & 0xFF;
+            case 2:
+                return frame.remaining() < 2 ? 0 : frame.getShort() & 0xFFFF;
+            default:
+                return frame.remaining() < 4 ? 0 : frame.getInt();
+        }
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionDictionary(id=" + (id & 0xFFFFFFFFL) + ", size=" + bytes.length + ")";
+    }
+}
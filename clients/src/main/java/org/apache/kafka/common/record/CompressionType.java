@@ -20,6 +20,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.utils.ByteBufferInputStream;
 import org.apache.kafka.common.utils.ByteBufferOutputStream;
 
+import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.invoke.MethodHandle;
@@ -105,6 +106,41 @@ public enum CompressionType {
                 throw new KafkaException(e);
             }
         }
+    },
+
+    ZSTD(4, "zstd", 1.0f) {
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion) {
+            return wrapForOutput(buffer, messageVersion, null);
+        }
+
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, CompressionDictionary dictionary) {
+            try {
+                OutputStream out = (OutputStream) ZstdConstructors.OUTPUT.invoke(buffer);
+                if (dictionary != null)
+                    ZstdConstructors.OUTPUT_SET_DICT.invoke(out, dictionary.bytes());
+                return out;
+            } catch (Throwable e) {
+                throw new KafkaException(e);
+            }
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
+            // resolve the dictionary first so that an unknown id is reported as such rather than as a corrupt frame
+            int dictionaryId = CompressionDictionary.frameDictionaryId(buffer);
+            CompressionDictionary dictionary = dictionaryId == 0 ? null : CompressionDictionary.forId(dictionaryId);
+            try {
+                InputStream in = (InputStream) ZstdConstructors.INPUT.invoke(new ByteBufferInputStream(buffer));
+                if (dictionary != null)
+                    ZstdConstructors.INPUT_SET_DICT.invoke(in, dictionary.bytes());
+                // Record fields are read a few bytes at a time, buffer them to avoid a JNI call per read
+                return new BufferedInputStream(in, 16 * 1024);
+            } catch (Throwable e) {
+                throw new KafkaException(e);
+            }
+        }
     };
 
     public final int id;
@@ -127,6 +163,18 @@ public enum CompressionType {
      */
     public abstract OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion);
 
+    /**
+     * Wrap bufferStream with an OutputStream that will compress data with this CompressionType, priming the codec
+     * with the given dictionary. Only {@link #ZSTD} supports dictionaries.
+     *
+     * @param dictionary The dictionary to compress with, or null to compress without one
+     */
+    public OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion, CompressionDictionary dictionary) {
+        if (dictionary != null)
+            throw new IllegalArgumentException("Compression type " + name + " does not support compression dictionaries");
+        return wrapForOutput(bufferStream, messageVersion);
+    }
+
     /**
      * Wrap buffer with an InputStream that will decompress data with this CompressionType.
      *
@@ -148,6 +196,8 @@ public enum CompressionType {
                 return SNAPPY;
             case 3:
                 return LZ4;
+            case 4:
+                return ZSTD;
             default:
                 throw new IllegalArgumentException("Unknown compression type id: " + id);
         }
@@ -162,6 +212,8 @@ public enum CompressionType {
             return SNAPPY;
         else if (LZ4.name.equals(name))
             return LZ4;
+        else if (ZSTD.name.equals(name))
+            return ZSTD;
         else
             throw new IllegalArgumentException("Unknown compression name: " + name);
     }
@@ -169,7 +221,7 @@ public enum CompressionType {
     // We should only have a runtime dependency on compression algorithms in case the native libraries don't support
     // some platforms.
     //
-    // For Snappy, we dynamically load the classes and rely on the initialization-on-demand holder idiom to ensure
+    // For Snappy and Zstd, we dynamically load the classes and rely on the initialization-on-demand holder idiom to ensure
     // they're only loaded if used.
     //
     // For LZ4 we are using org.apache.kafka classes, which should always be in the classpath, and would not trigger
@@ -182,6 +234,17 @@ public enum CompressionType {
                 MethodType.methodType(void.class, OutputStream.class));
     }
 
+    private static class ZstdConstructors {
+        static final MethodHandle INPUT = findConstructor("com.github.luben.zstd.ZstdInputStream",
+                MethodType.methodType(void.class, InputStream.class));
+        static final MethodHandle OUTPUT = findConstructor("com.github.luben.zstd.ZstdOutputStream",
+                MethodType.methodType(void.class, OutputStream.class));
+        static final MethodHandle INPUT_SET_DICT = findVirtual("com.github.luben.zstd.ZstdInputStream", "setDict",
+                byte[].class);
+        static final MethodHandle OUTPUT_SET_DICT = findVirtual("com.github.luben.zstd.ZstdOutputStream", "setDict",
+                byte[].class);
+    }
+
     private static MethodHandle findConstructor(String className, MethodType methodType) {
         try {
             return MethodHandles.publicLookup().findConstructor(Class.forName(className), methodType);
@@ -190,4 +253,14 @@ public enum CompressionType {
         }
     }
 
+    // a method that returns the instance it is invoked on, for builder-style setters
+    private static MethodHandle findVirtual(String className, String methodName, Class<?>... parameterTypes) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            return MethodHandles.publicLookup().findVirtual(clazz, methodName, MethodType.methodType(clazz, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
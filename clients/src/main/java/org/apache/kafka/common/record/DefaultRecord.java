@@ -75,7 +75,10 @@ public class DefaultRecord implements Record {
     private final int sequence;
     private final ByteBuffer key;
     private final ByteBuffer value;
-    private final Header[] headers;
+    // the serialized headers are only parsed when first accessed
+    private final ByteBuffer headersBuffer;
+    private final int numHeaders;
+    private Header[] headers;
 
     private DefaultRecord(int sizeInBytes,
                           byte attributes,
@@ -84,7 +87,8 @@ public class DefaultRecord implements Record {
                           int sequence,
                           ByteBuffer key,
                           ByteBuffer value,
-                          Header[] headers) {
+                          ByteBuffer headersBuffer,
+                          int numHeaders) {
         this.sizeInBytes = sizeInBytes;
         this.attributes = attributes;
         this.offset = offset;
@@ -92,7 +96,8 @@ public class DefaultRecord implements Record {
         this.sequence = sequence;
         this.key = key;
         this.value = value;
-        this.headers = headers;
+        this.headersBuffer = headersBuffer;
+        this.numHeaders = numHeaders;
     }
 
     @Override
@@ -166,6 +171,8 @@ public class DefaultRecord implements Record {
 
     @Override
     public Header[] headers() {
+        if (headers == null)
+            headers = numHeaders == 0 ? Record.EMPTY_HEADERS : readHeaders(headersBuffer.duplicate(), numHeaders);
         return headers;
     }
 
@@ -213,9 +220,8 @@ public class DefaultRecord implements Record {
             if (headerKey == null)
                 throw new IllegalArgumentException("Invalid null header key found in headers");
 
-            byte[] utf8Bytes = Utils.utf8(headerKey);
-            ByteUtils.writeVarint(utf8Bytes.length, out);
-            out.write(utf8Bytes);
+            ByteUtils.writeVarint(Utils.utf8Length(headerKey), out);
+            Utils.writeUtf8(out, headerKey);
 
             byte[] headerValue = header.value();
             if (headerValue == null) {
@@ -268,7 +274,7 @@ public class DefaultRecord implements Record {
                 sequence == that.sequence &&
                 (key == null ? that.key == null : key.equals(that.key)) &&
                 (value == null ? that.value == null : value.equals(that.value)) &&
-                Arrays.equals(headers, that.headers);
+                Arrays.equals(headers(), that.headers());
     }
 
     @Override
@@ -280,7 +286,7 @@ public class DefaultRecord implements Record {
         result = 31 * result + sequence;
         result = 31 * result + (key != null ? key.hashCode() : 0);
         result = 31 * result + (value != null ? value.hashCode() : 0);
-        result = 31 * result + Arrays.hashCode(headers);
+        result = 31 * result + Arrays.hashCode(headers());
         return result;
     }
 
@@ -352,23 +358,42 @@ public class DefaultRecord implements Record {
             if (numHeaders < 0)
                 throw new InvalidRecordException("Found invalid number of record headers " + numHeaders);
 
-            final Header[] headers;
-            if (numHeaders == 0)
-                headers = Record.EMPTY_HEADERS;
-            else
-                headers = readHeaders(buffer, numHeaders);
+            ByteBuffer headersBuffer = null;
+            if (numHeaders > 0) {
+                int headersStart = buffer.position();
+                headersBuffer = buffer.slice();
+                skipHeaders(buffer, numHeaders);
+                headersBuffer.limit(buffer.position() - headersStart);
+            }
 
             // validate whether we have read all header bytes in the current record
             if (buffer.position() - recordStart != sizeOfBodyInBytes)
                 throw new InvalidRecordException("Invalid record size: expected to read " + sizeOfBodyInBytes +
                         " bytes in record payload, but instead read " + (buffer.position() - recordStart));
 
-            return new DefaultRecord(sizeInBytes, attributes, offset, timestamp, sequence, key, value, headers);
+            return new DefaultRecord(sizeInBytes, attributes, offset, timestamp, sequence, key, value, headersBuffer,
+                    numHeaders);
         } catch (BufferUnderflowException | IllegalArgumentException e) {
             throw new InvalidRecordException("Found invalid record structure", e);
         }
     }
 
+    /**
+     * Advance the buffer past the headers, checking their structure without parsing them.
+     */
+    private static void skipHeaders(ByteBuffer buffer, int numHeaders) {
+        for (int i = 0; i < numHeaders; i++) {
+            int headerKeySize = ByteUtils.readVarint(buffer);
+            if (headerKeySize < 0)
+                throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
+            buffer.position(buffer.position() + headerKeySize);
+
+            int headerValueSize = ByteUtils.readVarint(buffer);
+            if (headerValueSize >= 0)
+                buffer.position(buffer.position() + headerValueSize);
+        }
+    }
+
     private static Header[] readHeaders(ByteBuffer buffer, int numHeaders) {
         Header[] headers = new Header[numHeaders];
         for (int i = 0; i < numHeaders; i++) {
@@ -471,6 +496,10 @@ public class DefaultRecord implements Record {
     static int recordSizeUpperBound(ByteBuffer key, ByteBuffer value, Header[] headers) {
         int keySize = key == null ? -1 : key.remaining();
         int valueSize = value == null ? -1 : value.remaining();
+        return recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
+    static int recordSizeUpperBound(int keySize, int valueSize, Header[] headers) {
         return MAX_RECORD_OVERHEAD + sizeOf(keySize, valueSize, headers);
     }
 
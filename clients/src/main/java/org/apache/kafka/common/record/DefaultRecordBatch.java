@@ -523,6 +523,10 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(key, value, headers);
     }
 
+    static int estimateBatchSizeUpperBound(int keySize, int valueSize, Header[] headers) {
+        return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
     static int incrementSequence(int baseSequence, int increment) {
         if (baseSequence > Integer.MAX_VALUE - increment)
             return increment - (Integer.MAX_VALUE - baseSequence) - 1;
@@ -41,6 +41,7 @@ public class MemoryRecordsBuilder {
 
     private final TimestampType timestampType;
     private final CompressionType compressionType;
+    private final CompressionDictionary compressionDictionary;
     // Used to append records, may compress data on the fly
     private final DataOutputStream appendStream;
     // Used to hold a reference to the underlying ByteBuffer so that we can write the record batch header and access
@@ -67,7 +68,8 @@ public class MemoryRecordsBuilder {
     private float actualCompressionRatio = 1;
     private long maxTimestamp = RecordBatch.NO_TIMESTAMP;
     private long offsetOfMaxTimestamp = -1;
-    private Long lastOffset = null;
+    // kept unboxed, since it is updated on every append; it is -1 until the first record is appended
+    private long lastOffset = -1;
     private Long firstTimestamp = null;
 
     private MemoryRecords builtRecords;
@@ -86,6 +88,24 @@ public class MemoryRecordsBuilder {
                                 boolean isControlBatch,
                                 int partitionLeaderEpoch,
                                 int writeLimit) {
+        this(bufferStream, magic, compressionType, null, timestampType, baseOffset, logAppendTime, producerId,
+                producerEpoch, baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit);
+    }
+
+    public MemoryRecordsBuilder(ByteBufferOutputStream bufferStream,
+                                byte magic,
+                                CompressionType compressionType,
+                                CompressionDictionary compressionDictionary,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit) {
         if (magic > RecordBatch.MAGIC_VALUE_V0 && timestampType == TimestampType.NO_TIMESTAMP_TYPE)
             throw new IllegalArgumentException("TimestampType must be set for magic >= 0");
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
@@ -93,11 +113,14 @@ public class MemoryRecordsBuilder {
                 throw new IllegalArgumentException("Transactional records are not supported for magic " + magic);
             if (isControlBatch)
                 throw new IllegalArgumentException("Control records are not supported for magic " + magic);
+            if (compressionType == CompressionType.ZSTD)
+                throw new IllegalArgumentException("ZStandard compression is not supported for magic " + magic);
         }
 
         this.magic = magic;
         this.timestampType = timestampType;
         this.compressionType = compressionType;
+        this.compressionDictionary = compressionDictionary;
         this.baseOffset = baseOffset;
         this.logAppendTime = logAppendTime;
         this.numRecords = 0;
@@ -123,7 +146,8 @@ public class MemoryRecordsBuilder {
         }
 
         this.bufferStream = bufferStream;
-        this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic));
+        this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic,
+                compressionDictionary));
     }
 
     /**
@@ -159,9 +183,34 @@ public class MemoryRecordsBuilder {
                                 boolean isControlBatch,
                                 int partitionLeaderEpoch,
                                 int writeLimit) {
-        this(new ByteBufferOutputStream(buffer), magic, compressionType, timestampType, baseOffset, logAppendTime,
-                producerId, producerEpoch, baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch,
-                writeLimit);
+        this(buffer, magic, compressionType, null, timestampType, baseOffset, logAppendTime, producerId, producerEpoch,
+                baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit);
+    }
+
+    /**
+     * Construct a new builder which compresses with the given dictionary. See the constructor above for the
+     * remaining parameters.
+     *
+     * @param compressionDictionary The dictionary to compress with, or null if none should be used. Only supported
+     *                              with {@link CompressionType#ZSTD}.
+     */
+    public MemoryRecordsBuilder(ByteBuffer buffer,
+                                byte magic,
+                                CompressionType compressionType,
+                                CompressionDictionary compressionDictionary,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit) {
+        this(new ByteBufferOutputStream(buffer), magic, compressionType, compressionDictionary, timestampType,
+                baseOffset, logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, isControlBatch,
+                partitionLeaderEpoch, writeLimit);
     }
 
     public ByteBuffer buffer() {
@@ -180,6 +229,10 @@ public class MemoryRecordsBuilder {
         return compressionType;
     }
 
+    public CompressionDictionary compressionDictionary() {
+        return compressionDictionary;
+    }
+
     public boolean isControlBatch() {
         return isControlBatch;
     }
@@ -374,7 +427,7 @@ public class MemoryRecordsBuilder {
             if (isControlRecord != isControlBatch)
                 throw new IllegalArgumentException("Control records can only be appended to control batches");
 
-            if (lastOffset != null && offset <= lastOffset)
+            if (lastOffset >= 0 && offset <= lastOffset)
                 throw new IllegalArgumentException(String.format("Illegal offset %s following previous offset %s " +
                         "(Offsets must increase monotonically).", offset, lastOffset));
 
@@ -681,7 +734,7 @@ public class MemoryRecordsBuilder {
      * appended, then this returns true.
      */
     public boolean hasRoomFor(long timestamp, byte[] key, byte[] value, Header[] headers) {
-        return hasRoomFor(timestamp, wrapNullable(key), wrapNullable(value), headers);
+        return hasRoomFor(timestamp, key == null ? -1 : key.length, value == null ? -1 : value.length, headers);
     }
 
     /**
@@ -693,6 +746,14 @@ public class MemoryRecordsBuilder {
      * re-allocation in the underlying byte buffer stream.
      */
     public boolean hasRoomFor(long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers) {
+        return hasRoomFor(timestamp, key == null ? -1 : key.remaining(), value == null ? -1 : value.remaining(), headers);
+    }
+
+    /**
+     * Check if we have room for a new record with a key and value of the given sizes, which are -1 for a null key or
+     * value. If no records have been appended, then this returns true.
+     */
+    public boolean hasRoomFor(long timestamp, int keySize, int valueSize, Header[] headers) {
         if (isFull())
             return false;
 
@@ -702,11 +763,11 @@ public class MemoryRecordsBuilder {
 
         final int recordSize;
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
-            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, key, value);
+            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, Math.max(keySize, 0), Math.max(valueSize, 0));
         } else {
-            int nextOffsetDelta = lastOffset == null ? 0 : (int) (lastOffset - baseOffset + 1);
+            int nextOffsetDelta = lastOffset < 0 ? 0 : (int) (lastOffset - baseOffset + 1);
             long timestampDelta = firstTimestamp == null ? 0 : timestamp - firstTimestamp;
-            recordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, key, value, headers);
+            recordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, keySize, valueSize, headers);
         }
 
         // Be conservative and not take compression of the new record into consideration.
@@ -732,7 +793,7 @@ public class MemoryRecordsBuilder {
     }
 
     private long nextSequentialOffset() {
-        return lastOffset == null ? baseOffset : lastOffset + 1;
+        return lastOffset < 0 ? baseOffset : lastOffset + 1;
     }
 
     public static class RecordsInfo {
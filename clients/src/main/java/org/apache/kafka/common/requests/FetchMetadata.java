@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.requests;
+
+/**
+ * The fetch session of a fetch request: its session ID and epoch.
+ *
+ * <ul>
+ *     <li>A full fetch request lists every partition of the fetch. With the initial epoch it creates a new session,
+ *     closing the session with the given ID if there is one. With the final epoch it does not create a session.</li>
+ *     <li>An incremental fetch request of a session only lists the partitions which were added to the session or
+ *     whose fetch parameters changed, and the partitions to remove from the session. Its epoch is the next epoch of
+ *     the session.</li>
+ * </ul>
+ */
+public class FetchMetadata {
+    public static final int INVALID_SESSION_ID = 0;
+
+    public static final int INITIAL_EPOCH = 0;
+
+    public static final int FINAL_EPOCH = -1;
+
+    /**
+     * The metadata of a full fetch request which creates a new session.
+     */
+    public static final FetchMetadata INITIAL = new FetchMetadata(INVALID_SESSION_ID, INITIAL_EPOCH);
+
+    /**
+     * The metadata of a full fetch request without a session, which is what older fetch request versions send.
+     */
+    public static final FetchMetadata LEGACY = new FetchMetadata(INVALID_SESSION_ID, FINAL_EPOCH);
+
+    private final int sessionId;
+    private final int epoch;
+
+    public FetchMetadata(int sessionId, int epoch) {
+        this.sessionId = sessionId;
+        this.epoch = epoch;
+    }
+
+    /**
+     * The epoch which follows the given epoch, skipping the initial and final epochs when the epoch wraps around.
+     */
+    public static int nextEpoch(int epoch) {
+        if (epoch < 0)
+            return FINAL_EPOCH;
+        else if (epoch == Integer.MAX_VALUE)
+            return 1;
+        else
+            return epoch + 1;
+    }
+
+    /**
+     * The metadata of the first incremental fetch request of a session which was just created.
+     */
+    public static FetchMetadata newIncremental(int sessionId) {
+        return new FetchMetadata(sessionId, nextEpoch(INITIAL_EPOCH));
+    }
+
+    public int sessionId() {
+        return sessionId;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    public boolean isFull() {
+        return epoch == INITIAL_EPOCH || epoch == FINAL_EPOCH;
+    }
+
+    /**
+     * The metadata of the next incremental fetch request of this session.
+     */
+    public FetchMetadata nextIncremental() {
+        return new FetchMetadata(sessionId, nextEpoch(epoch));
+    }
+
+    /**
+     * The metadata of a full fetch request which closes this session and creates a new one.
+     */
+    public FetchMetadata nextCloseExisting() {
+        return new FetchMetadata(sessionId, INITIAL_EPOCH);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        FetchMetadata that = (FetchMetadata) o;
+        return sessionId == that.sessionId && epoch == that.epoch;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * sessionId + epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "(sessionId=" + (sessionId == INVALID_SESSION_ID ? "INVALID" : String.valueOf(sessionId)) +
+                ", epoch=" + (epoch == INITIAL_EPOCH ? "INITIAL" : epoch == FINAL_EPOCH ? "FINAL" : String.valueOf(epoch)) +
+                ")";
+    }
+}
@@ -17,13 +17,16 @@
 package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.Struct;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,9 @@ public class FetchRequest extends AbstractRequest {
     private static final String MIN_BYTES_KEY_NAME = "min_bytes";
     private static final String ISOLATION_LEVEL_KEY_NAME = "isolation_level";
     private static final String TOPICS_KEY_NAME = "topics";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
+    private static final String EPOCH_KEY_NAME = "epoch";
+    private static final String FORGOTTEN_TOPICS_DATA_KEY_NAME = "forgotten_topics_data";
 
     // request and partition level name
     private static final String MAX_BYTES_KEY_NAME = "max_bytes";
@@ -47,6 +53,7 @@ public class FetchRequest extends AbstractRequest {
     private static final String PARTITION_KEY_NAME = "partition";
     private static final String FETCH_OFFSET_KEY_NAME = "fetch_offset";
     private static final String LOG_START_OFFSET_KEY_NAME = "log_start_offset";
+    private static final String CURRENT_LEADER_EPOCH_KEY_NAME = "current_leader_epoch";
 
     // default values for older versions where a request level limit did not exist
     public static final int DEFAULT_RESPONSE_MAX_BYTES = Integer.MAX_VALUE;
@@ -58,21 +65,53 @@ public class FetchRequest extends AbstractRequest {
     private final int maxBytes;
     private final IsolationLevel isolationLevel;
     private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
+    private final List<TopicPartition> toForget;
+    private final FetchMetadata metadata;
 
     public static final class PartitionData {
         public final long fetchOffset;
         public final long logStartOffset;
         public final int maxBytes;
+        public final int currentLeaderEpoch;
 
         public PartitionData(long fetchOffset, long logStartOffset, int maxBytes) {
+            this(fetchOffset, logStartOffset, maxBytes, RecordBatch.NO_PARTITION_LEADER_EPOCH);
+        }
+
+        /**
+         * @param currentLeaderEpoch the leader epoch of the partition known by the fetcher, sent from version 9, or
+         *                           {@link RecordBatch#NO_PARTITION_LEADER_EPOCH} if it is unknown
+         */
+        public PartitionData(long fetchOffset, long logStartOffset, int maxBytes, int currentLeaderEpoch) {
             this.fetchOffset = fetchOffset;
             this.logStartOffset = logStartOffset;
             this.maxBytes = maxBytes;
+            this.currentLeaderEpoch = currentLeaderEpoch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            PartitionData that = (PartitionData) o;
+            return fetchOffset == that.fetchOffset && logStartOffset == that.logStartOffset && maxBytes == that.maxBytes
+                && currentLeaderEpoch == that.currentLeaderEpoch;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (fetchOffset ^ (fetchOffset >>> 32));
+            result = 31 * result + (int) (logStartOffset ^ (logStartOffset >>> 32));
+            result = 31 * result + maxBytes;
+            return 31 * result + currentLeaderEpoch;
         }
 
         @Override
         public String toString() {
-            return "(offset=" + fetchOffset + ", logStartOffset=" + logStartOffset + ", maxBytes=" + maxBytes + ")";
+            return "(offset=" + fetchOffset + ", logStartOffset=" + logStartOffset + ", maxBytes=" + maxBytes +
+                ", currentLeaderEpoch=" + currentLeaderEpoch + ")";
         }
     }
 
@@ -106,6 +145,8 @@ public class FetchRequest extends AbstractRequest {
         private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
         private final IsolationLevel isolationLevel;
         private int maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
+        private FetchMetadata metadata = FetchMetadata.LEGACY;
+        private List<TopicPartition> toForget = Collections.<TopicPartition>emptyList();
 
         public static Builder forConsumer(int maxWait, int minBytes, LinkedHashMap<TopicPartition, PartitionData> fetchData) {
             return new Builder(null, CONSUMER_REPLICA_ID, maxWait, minBytes, fetchData, IsolationLevel.READ_UNCOMMITTED);
@@ -139,13 +180,35 @@ public class FetchRequest extends AbstractRequest {
             return this;
         }
 
+        public Builder metadata(FetchMetadata metadata) {
+            this.metadata = metadata;
+            return this;
+        }
+
+        /**
+         * Set the partitions to remove from the fetch session of an incremental fetch request
+         */
+        public Builder toForget(List<TopicPartition> toForget) {
+            this.toForget = toForget;
+            return this;
+        }
+
         @Override
         public FetchRequest build(short version) {
             if (version < 3) {
                 maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
             }
 
-            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel);
+            FetchMetadata metadata = this.metadata;
+            if (version < 7) {
+                // incremental requests are only sent once the broker returned a session, which needs version 7
+                if (!metadata.isFull())
+                    throw new UnsupportedVersionException("The broker does not support incremental fetch requests");
+                metadata = FetchMetadata.LEGACY;
+            }
+
+            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel,
+                toForget, metadata);
         }
 
         @Override
@@ -157,13 +220,17 @@ public class FetchRequest extends AbstractRequest {
                     append(", minBytes=").append(minBytes).
                     append(", maxBytes=").append(maxBytes).
                     append(", fetchData=").append(fetchData).
+                    append(", isolationLevel=").append(isolationLevel).
+                    append(", toForget=").append(toForget).
+                    append(", metadata=").append(metadata).
                     append(")");
             return bld.toString();
         }
     }
 
     private FetchRequest(short version, int replicaId, int maxWait, int minBytes, int maxBytes,
-                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel) {
+                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel,
+                         List<TopicPartition> toForget, FetchMetadata metadata) {
         super(version);
         this.replicaId = replicaId;
         this.maxWait = maxWait;
@@ -171,6 +238,8 @@ public class FetchRequest extends AbstractRequest {
         this.maxBytes = maxBytes;
         this.fetchData = fetchData;
         this.isolationLevel = isolationLevel;
+        this.toForget = toForget;
+        this.metadata = metadata;
     }
 
     public FetchRequest(Struct struct, short version) {
@@ -199,14 +268,37 @@ public class FetchRequest extends AbstractRequest {
                 int maxBytes = partitionResponse.getInt(MAX_BYTES_KEY_NAME);
                 long logStartOffset = partitionResponse.hasField(LOG_START_OFFSET_KEY_NAME) ?
                     partitionResponse.getLong(LOG_START_OFFSET_KEY_NAME) : INVALID_LOG_START_OFFSET;
-                PartitionData partitionData = new PartitionData(offset, logStartOffset, maxBytes);
+                int currentLeaderEpoch = partitionResponse.hasField(CURRENT_LEADER_EPOCH_KEY_NAME) ?
+                    partitionResponse.getInt(CURRENT_LEADER_EPOCH_KEY_NAME) : RecordBatch.NO_PARTITION_LEADER_EPOCH;
+                PartitionData partitionData = new PartitionData(offset, logStartOffset, maxBytes, currentLeaderEpoch);
                 fetchData.put(new TopicPartition(topic, partition), partitionData);
             }
         }
+
+        toForget = new ArrayList<>();
+        if (struct.hasField(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+            for (Object forgottenTopicObj : struct.getArray(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+                Struct forgottenTopic = (Struct) forgottenTopicObj;
+                String topic = forgottenTopic.getString(TOPIC_KEY_NAME);
+                for (Object partition : forgottenTopic.getArray(PARTITIONS_KEY_NAME))
+                    toForget.add(new TopicPartition(topic, (Integer) partition));
+            }
+        }
+
+        if (struct.hasField(SESSION_ID_KEY_NAME))
+            metadata = new FetchMetadata(struct.getInt(SESSION_ID_KEY_NAME), struct.getInt(EPOCH_KEY_NAME));
+        else
+            metadata = FetchMetadata.LEGACY;
     }
 
     @Override
     public AbstractResponse getErrorResponse(int throttleTimeMs, Throwable e) {
+        // an incremental fetch request does not list every partition of the session, so only a request level error
+        // tells the fetcher that none of them were fetched
+        if (!metadata.isFull())
+            return new FetchResponse(Errors.forException(e), new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(),
+                throttleTimeMs, metadata.sessionId());
+
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
 
         for (Map.Entry<TopicPartition, PartitionData> entry: fetchData.entrySet()) {
@@ -246,6 +338,14 @@ public class FetchRequest extends AbstractRequest {
         return isolationLevel;
     }
 
+    public List<TopicPartition> toForget() {
+        return toForget;
+    }
+
+    public FetchMetadata metadata() {
+        return metadata;
+    }
+
     public static FetchRequest parse(ByteBuffer buffer, short version) {
         return new FetchRequest(ApiKeys.FETCH.parseRequest(version, buffer), version);
     }
@@ -262,6 +362,10 @@ public class FetchRequest extends AbstractRequest {
             struct.set(MAX_BYTES_KEY_NAME, maxBytes);
         if (struct.hasField(ISOLATION_LEVEL_KEY_NAME))
             struct.set(ISOLATION_LEVEL_KEY_NAME, isolationLevel.id());
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            struct.set(SESSION_ID_KEY_NAME, metadata.sessionId());
+            struct.set(EPOCH_KEY_NAME, metadata.epoch());
+        }
 
         List<Struct> topicArray = new ArrayList<>();
         for (TopicAndPartitionData<PartitionData> topicEntry : topicsData) {
@@ -272,6 +376,8 @@ public class FetchRequest extends AbstractRequest {
                 PartitionData fetchPartitionData = partitionEntry.getValue();
                 Struct partitionData = topicData.instance(PARTITIONS_KEY_NAME);
                 partitionData.set(PARTITION_KEY_NAME, partitionEntry.getKey());
+                if (partitionData.hasField(CURRENT_LEADER_EPOCH_KEY_NAME))
+                    partitionData.set(CURRENT_LEADER_EPOCH_KEY_NAME, fetchPartitionData.currentLeaderEpoch);
                 partitionData.set(FETCH_OFFSET_KEY_NAME, fetchPartitionData.fetchOffset);
                 if (partitionData.hasField(LOG_START_OFFSET_KEY_NAME))
                     partitionData.set(LOG_START_OFFSET_KEY_NAME, fetchPartitionData.logStartOffset);
@@ -282,6 +388,26 @@ public class FetchRequest extends AbstractRequest {
             topicArray.add(topicData);
         }
         struct.set(TOPICS_KEY_NAME, topicArray.toArray());
+
+        if (struct.hasField(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+            Map<String, List<Integer>> forgottenTopics = new LinkedHashMap<>();
+            for (TopicPartition tp : toForget) {
+                List<Integer> partitions = forgottenTopics.get(tp.topic());
+                if (partitions == null) {
+                    partitions = new ArrayList<>();
+                    forgottenTopics.put(tp.topic(), partitions);
+                }
+                partitions.add(tp.partition());
+            }
+            List<Struct> forgottenTopicArray = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> entry : forgottenTopics.entrySet()) {
+                Struct forgottenTopic = struct.instance(FORGOTTEN_TOPICS_DATA_KEY_NAME);
+                forgottenTopic.set(TOPIC_KEY_NAME, entry.getKey());
+                forgottenTopic.set(PARTITIONS_KEY_NAME, entry.getValue().toArray());
+                forgottenTopicArray.add(forgottenTopic);
+            }
+            struct.set(FORGOTTEN_TOPICS_DATA_KEY_NAME, forgottenTopicArray.toArray());
+        }
         return struct;
     }
 }
@@ -39,6 +39,7 @@ import java.util.Map;
 public class FetchResponse extends AbstractResponse {
 
     private static final String RESPONSES_KEY_NAME = "responses";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
 
     // topic level field names
     private static final String TOPIC_KEY_NAME = "topic";
@@ -64,7 +65,12 @@ public class FetchResponse extends AbstractResponse {
     public static final long INVALID_LOG_START_OFFSET = -1L;
 
     /**
-     * Possible error codes:
+     * Possible error codes of the fetch session:
+     *
+     *  FETCH_SESSION_ID_NOT_FOUND (70)
+     *  INVALID_FETCH_SESSION_EPOCH (71)
+     *
+     * Possible error codes of the partitions:
      *
      *  OFFSET_OUT_OF_RANGE (1)
      *  UNKNOWN_TOPIC_OR_PARTITION (3)
@@ -73,8 +79,10 @@ public class FetchResponse extends AbstractResponse {
      *  UNKNOWN (-1)
      */
 
+    private final Errors error;
     private final LinkedHashMap<TopicPartition, PartitionData> responseData;
     private final int throttleTimeMs;
+    private final int sessionId;
 
     public static final class AbortedTransaction {
         public final long producerId;
@@ -182,8 +190,26 @@ public class FetchResponse extends AbstractResponse {
      * @param throttleTimeMs Time in milliseconds the response was throttled
      */
     public FetchResponse(LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs) {
+        this(Errors.NONE, responseData, throttleTimeMs, FetchMetadata.INVALID_SESSION_ID);
+    }
+
+    /**
+     * Constructor for a response of a fetch session, from version 7.
+     *
+     * An incremental fetch response only contains the partitions of the session with new data, errors, or offsets
+     * which changed since the previous response of the session.
+     *
+     * @param error the error of the fetch session, which means that none of the partitions were fetched
+     * @param responseData fetched data grouped by topic-partition
+     * @param throttleTimeMs Time in milliseconds the response was throttled
+     * @param sessionId the id of the fetch session, or {@link FetchMetadata#INVALID_SESSION_ID} if there is none
+     */
+    public FetchResponse(Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs,
+                         int sessionId) {
+        this.error = error;
         this.responseData = responseData;
         this.throttleTimeMs = throttleTimeMs;
+        this.sessionId = sessionId;
     }
 
     public FetchResponse(Struct struct) {
@@ -227,11 +253,13 @@ public class FetchResponse extends AbstractResponse {
         }
         this.responseData = responseData;
         this.throttleTimeMs = struct.hasField(THROTTLE_TIME_KEY_NAME) ? struct.getInt(THROTTLE_TIME_KEY_NAME) : DEFAULT_THROTTLE_TIME;
+        this.error = struct.hasField(ERROR_CODE_KEY_NAME) ? Errors.forCode(struct.getShort(ERROR_CODE_KEY_NAME)) : Errors.NONE;
+        this.sessionId = struct.hasField(SESSION_ID_KEY_NAME) ? struct.getInt(SESSION_ID_KEY_NAME) : FetchMetadata.INVALID_SESSION_ID;
     }
 
     @Override
     public Struct toStruct(short version) {
-        return toStruct(version, responseData, throttleTimeMs);
+        return toStruct(version, error, responseData, throttleTimeMs, sessionId);
     }
 
     @Override
@@ -254,10 +282,18 @@ public class FetchResponse extends AbstractResponse {
         return new MultiSend(dest, sends);
     }
 
+    public Errors error() {
+        return error;
+    }
+
     public LinkedHashMap<TopicPartition, PartitionData> responseData() {
         return responseData;
     }
 
+    public int sessionId() {
+        return sessionId;
+    }
+
     public int throttleTimeMs() {
         return this.throttleTimeMs;
     }
@@ -269,7 +305,15 @@ public class FetchResponse extends AbstractResponse {
     private static void addResponseData(Struct struct, int throttleTimeMs, String dest, List<Send> sends) {
         Object[] allTopicData = struct.getArray(RESPONSES_KEY_NAME);
 
-        if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            ByteBuffer buffer = ByteBuffer.allocate(14);
+            buffer.putInt(throttleTimeMs);
+            buffer.putShort(struct.getShort(ERROR_CODE_KEY_NAME));
+            buffer.putInt(struct.getInt(SESSION_ID_KEY_NAME));
+            buffer.putInt(allTopicData.length);
+            buffer.rewind();
+            sends.add(new ByteBufferSend(dest, buffer));
+        } else if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
             ByteBuffer buffer = ByteBuffer.allocate(8);
             buffer.putInt(throttleTimeMs);
             buffer.putInt(allTopicData.length);
@@ -316,7 +360,8 @@ public class FetchResponse extends AbstractResponse {
         sends.add(new RecordsSend(dest, records));
     }
 
-    private static Struct toStruct(short version, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTime) {
+    private static Struct toStruct(short version, Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData,
+                                   int throttleTime, int sessionId) {
         Struct struct = new Struct(ApiKeys.FETCH.responseSchema(version));
         List<FetchRequest.TopicAndPartitionData<PartitionData>> topicsData = FetchRequest.TopicAndPartitionData.batchByTopic(responseData);
         List<Struct> topicArray = new ArrayList<>();
@@ -362,12 +407,16 @@ public class FetchResponse extends AbstractResponse {
 
         if (struct.hasField(THROTTLE_TIME_KEY_NAME))
             struct.set(THROTTLE_TIME_KEY_NAME, throttleTime);
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            struct.set(ERROR_CODE_KEY_NAME, error.code());
+            struct.set(SESSION_ID_KEY_NAME, sessionId);
+        }
 
         return struct;
     }
 
     public static int sizeOf(short version, LinkedHashMap<TopicPartition, PartitionData> responseData) {
-        return 4 + toStruct(version, responseData, 0).sizeOf();
+        return 4 + toStruct(version, Errors.NONE, responseData, 0, FetchMetadata.INVALID_SESSION_ID).sizeOf();
     }
 
 }
@@ -20,8 +20,11 @@ import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.errors.InvalidMetadataException;
+import org.apache.kafka.common.network.ByteBufferSend;
+import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.types.Schema;
 import org.apache.kafka.common.protocol.types.Struct;
 import org.apache.kafka.common.utils.Utils;
 
@@ -384,6 +387,40 @@ public class MetadataResponse extends AbstractResponse {
         }
     }
 
+    /**
+     * Serialize the body of this response, so that it can be sent to several clients with
+     * {@link #toSend(String, short, ResponseHeader, ByteBuffer, int)}
+     */
+    public ByteBuffer serializeBody(short version) {
+        Struct struct = toStruct(version);
+        ByteBuffer buffer = ByteBuffer.allocate(struct.sizeOf());
+        struct.writeTo(buffer);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Create a send of a response body serialized by {@link #serializeBody(short)}, replacing its throttle time.
+     * The body is not copied, nor modified, so it can be shared by concurrent sends.
+     */
+    public static Send toSend(String destination, short version, ResponseHeader responseHeader, ByteBuffer body,
+                              int throttleTimeMs) {
+        Struct headerStruct = responseHeader.toStruct();
+        Schema schema = ApiKeys.METADATA.responseSchema(version);
+        // the throttle time is the first field of the versions which have it
+        boolean hasThrottleTime = schema.numFields() > 0 && schema.get(0).name.equals(THROTTLE_TIME_KEY_NAME);
+        int prefixSize = hasThrottleTime ? 4 : 0;
+        ByteBuffer sizeAndHeader = ByteBuffer.allocate(4 + headerStruct.sizeOf() + prefixSize);
+        sizeAndHeader.putInt(headerStruct.sizeOf() + body.remaining());
+        headerStruct.writeTo(sizeAndHeader);
+        if (hasThrottleTime)
+            sizeAndHeader.putInt(throttleTimeMs);
+        sizeAndHeader.rewind();
+        ByteBuffer rest = body.duplicate();
+        rest.position(rest.position() + prefixSize);
+        return new ByteBufferSend(destination, sizeAndHeader, rest);
+    }
+
     @Override
     protected Struct toStruct(short version) {
         Struct struct = new Struct(ApiKeys.METADATA.responseSchema(version));
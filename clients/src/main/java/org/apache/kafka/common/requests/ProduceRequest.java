@@ -18,9 +18,12 @@ package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.kafka.common.network.ByteBufferSend;
+import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.RecordBatch;
@@ -62,7 +65,8 @@ public class ProduceRequest extends AbstractRequest {
                        int timeout,
                        Map<TopicPartition, MemoryRecords> partitionRecords,
                        String transactionalId) {
-            super(ApiKeys.PRODUCE, (short) (magic == RecordBatch.MAGIC_VALUE_V2 ? 3 : 2));
+            // message format v2 is sent with the latest version which both the client and the broker support
+            super(ApiKeys.PRODUCE, magic == RecordBatch.MAGIC_VALUE_V2 ? null : Short.valueOf((short) 2));
             this.magic = magic;
             this.acks = acks;
             this.timeout = timeout;
@@ -82,6 +86,17 @@ public class ProduceRequest extends AbstractRequest {
             if (version < 2)
                 throw new UnsupportedVersionException("ProduceRequest versions older than 2 are not supported.");
 
+            if (version < 7) {
+                for (MemoryRecords records : partitionRecords.values()) {
+                    for (RecordBatch batch : records.batches()) {
+                        if (batch.compressionType() == CompressionType.ZSTD)
+                            throw new UnsupportedVersionException("Produce requests with ZStandard compressed batches " +
+                                    "need version 7, but the broker only supports version " + version + ". The broker " +
+                                    "must be upgraded in order to use ZStandard compression.");
+                    }
+                }
+            }
+
             return new ProduceRequest(version, acks, timeout, partitionRecords, transactionalId);
         }
 
@@ -211,6 +226,33 @@ public class ProduceRequest extends AbstractRequest {
         return struct;
     }
 
+    /**
+     * If any of the records are in direct buffers, as with producers using direct buffer memory, build a send which
+     * references them rather than serializing the request to a single heap buffer. The records are then written to
+     * the socket without being copied.
+     */
+    @Override
+    public Send toSend(String destination, RequestHeader header) {
+        boolean hasDirectRecords = false;
+        for (MemoryRecords records : partitionRecordsOrFail().values())
+            hasDirectRecords |= records.buffer().isDirect();
+        if (!hasDirectRecords)
+            return super.toSend(destination, header);
+
+        Struct headerStruct = header.toStruct();
+        Struct bodyStruct = toStruct();
+        List<ByteBuffer> bodyBuffers = bodyStruct.writeToBuffers();
+        ByteBuffer[] buffers = new ByteBuffer[bodyBuffers.size() + 1];
+        ByteBuffer sizeAndHeader = ByteBuffer.allocate(4 + headerStruct.sizeOf());
+        sizeAndHeader.putInt(headerStruct.sizeOf() + bodyStruct.sizeOf());
+        headerStruct.writeTo(sizeAndHeader);
+        sizeAndHeader.rewind();
+        buffers[0] = sizeAndHeader;
+        for (int i = 0; i < bodyBuffers.size(); i++)
+            buffers[i + 1] = bodyBuffers.get(i);
+        return new ByteBufferSend(destination, buffers);
+    }
+
     @Override
     public String toString(boolean verbose) {
         // Use the same format as `Struct.toString()`
@@ -246,6 +288,10 @@ public class ProduceRequest extends AbstractRequest {
             case 1:
             case 2:
             case 3:
+            case 4:
+            case 5:
+            case 6:
+            case 7:
                 return new ProduceResponse(responseMap, throttleTimeMs);
             default:
                 throw new IllegalArgumentException(String.format("Version %d is not valid. Valid versions for %s are 0 to %d",
@@ -307,6 +353,10 @@ public class ProduceRequest extends AbstractRequest {
                 return RecordBatch.MAGIC_VALUE_V1;
 
             case 3:
+            case 4:
+            case 5:
+            case 6:
+            case 7:
                 return RecordBatch.MAGIC_VALUE_V2;
 
             default:
@@ -63,10 +63,12 @@ public class ProduceResponse extends AbstractResponse {
      * INVALID_PRODUCER_EPOCH (47)
      * CLUSTER_AUTHORIZATION_FAILED (31)
      * TRANSACTIONAL_ID_AUTHORIZATION_FAILED (53)
+     * UNSUPPORTED_COMPRESSION_TYPE (76)
      */
 
     private static final String BASE_OFFSET_KEY_NAME = "base_offset";
     private static final String LOG_APPEND_TIME_KEY_NAME = "log_append_time";
+    private static final String LOG_START_OFFSET_KEY_NAME = "log_start_offset";
 
     private final Map<TopicPartition, PartitionResponse> responses;
     private final int throttleTime;
@@ -103,8 +105,10 @@ public class ProduceResponse extends AbstractResponse {
                 Errors error = Errors.forCode(partRespStruct.getShort(ERROR_CODE_KEY_NAME));
                 long offset = partRespStruct.getLong(BASE_OFFSET_KEY_NAME);
                 long logAppendTime = partRespStruct.getLong(LOG_APPEND_TIME_KEY_NAME);
+                long logStartOffset = partRespStruct.hasField(LOG_START_OFFSET_KEY_NAME) ?
+                    partRespStruct.getLong(LOG_START_OFFSET_KEY_NAME) : INVALID_OFFSET;
                 TopicPartition tp = new TopicPartition(topic, partition);
-                responses.put(tp, new PartitionResponse(error, offset, logAppendTime));
+                responses.put(tp, new PartitionResponse(error, offset, logAppendTime, logStartOffset));
             }
         }
         this.throttleTime = struct.getInt(THROTTLE_TIME_KEY_NAME);
@@ -128,6 +132,8 @@ public class ProduceResponse extends AbstractResponse {
                         .set(BASE_OFFSET_KEY_NAME, part.baseOffset);
                 if (partStruct.hasField(LOG_APPEND_TIME_KEY_NAME))
                     partStruct.set(LOG_APPEND_TIME_KEY_NAME, part.logAppendTime);
+                if (partStruct.hasField(LOG_START_OFFSET_KEY_NAME))
+                    partStruct.set(LOG_START_OFFSET_KEY_NAME, part.logStartOffset);
                 partitionArray.add(partStruct);
             }
             topicData.set(PARTITION_RESPONSES_KEY_NAME, partitionArray.toArray());
@@ -152,15 +158,21 @@ public class ProduceResponse extends AbstractResponse {
         public Errors error;
         public long baseOffset;
         public long logAppendTime;
+        public long logStartOffset;
 
         public PartitionResponse(Errors error) {
-            this(error, INVALID_OFFSET, RecordBatch.NO_TIMESTAMP);
+            this(error, INVALID_OFFSET, RecordBatch.NO_TIMESTAMP, INVALID_OFFSET);
         }
 
         public PartitionResponse(Errors error, long baseOffset, long logAppendTime) {
+            this(error, baseOffset, logAppendTime, INVALID_OFFSET);
+        }
+
+        public PartitionResponse(Errors error, long baseOffset, long logAppendTime, long logStartOffset) {
             this.error = error;
             this.baseOffset = baseOffset;
             this.logAppendTime = logAppendTime;
+            this.logStartOffset = logStartOffset;
         }
 
         @Override
@@ -173,6 +185,8 @@ public class ProduceResponse extends AbstractResponse {
             b.append(baseOffset);
             b.append(",logAppendTime: ");
             b.append(logAppendTime);
+            b.append(",logStartOffset: ");
+            b.append(logStartOffset);
             b.append('}');
             return b.toString();
         }
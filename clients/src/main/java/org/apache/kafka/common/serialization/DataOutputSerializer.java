@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Serializer which can write the serialized data to an output rather than return it in a byte array of its own. The
+ * producer passes an output which it reuses for the records sent by a thread, so that it does not allocate a byte
+ * array for every key and value it sends.
+ *
+ * Both ways of serializing the data must produce the same bytes. The producer only uses the output when the class of
+ * the serializer declares this interface itself, so a subclass which overrides the other serialize methods has to
+ * declare it again, and override this method accordingly, to keep writing to the output.
+ *
+ * @param <T> Type to be serialized from.
+ */
+public interface DataOutputSerializer<T> extends ExtendedSerializer<T> {
+
+    /**
+     * Write the serialized form of {@code data} to the output. Nothing must be written for data which is serialized
+     * as null.
+     *
+     * @param topic topic associated with data
+     * @param headers headers associated with the record
+     * @param data typed data
+     * @param out the output to write the serialized bytes to
+     * @return false if the data is serialized as null, true otherwise
+     */
+    boolean serialize(String topic, Headers headers, T data, DataOutput out) throws IOException;
+}
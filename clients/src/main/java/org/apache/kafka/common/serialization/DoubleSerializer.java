@@ -16,9 +16,13 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-public class DoubleSerializer implements Serializer<Double> {
+public class DoubleSerializer implements DataOutputSerializer<Double> {
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
@@ -43,6 +47,20 @@ public class DoubleSerializer implements Serializer<Double> {
         };
     }
 
+    @Override
+    public byte[] serialize(String topic, Headers headers, Double data) {
+        return serialize(topic, data);
+    }
+
+    @Override
+    public boolean serialize(String topic, Headers headers, Double data, DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        out.writeLong(Double.doubleToLongBits(data));
+        return true;
+    }
+
     @Override
     public void close() {
         // nothing to do
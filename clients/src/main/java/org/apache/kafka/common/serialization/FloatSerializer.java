@@ -16,9 +16,13 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-public class FloatSerializer implements Serializer<Float> {
+public class FloatSerializer implements DataOutputSerializer<Float> {
 
     @Override
     public void configure(final Map<String, ?> configs, final boolean isKey) {
@@ -39,6 +43,20 @@ public class FloatSerializer implements Serializer<Float> {
         };
     }
 
+    @Override
+    public byte[] serialize(final String topic, final Headers headers, final Float data) {
+        return serialize(topic, data);
+    }
+
+    @Override
+    public boolean serialize(final String topic, final Headers headers, final Float data, final DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        out.writeInt(Float.floatToRawIntBits(data));
+        return true;
+    }
+
     @Override
     public void close() {
         // nothing to do
@@ -16,9 +16,13 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-public class IntegerSerializer implements Serializer<Integer> {
+public class IntegerSerializer implements DataOutputSerializer<Integer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -36,6 +40,18 @@ public class IntegerSerializer implements Serializer<Integer> {
         };
     }
 
+    public byte[] serialize(String topic, Headers headers, Integer data) {
+        return serialize(topic, data);
+    }
+
+    public boolean serialize(String topic, Headers headers, Integer data, DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        out.writeInt(data);
+        return true;
+    }
+
     public void close() {
         // nothing to do
     }
@@ -16,9 +16,13 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-public class LongSerializer implements Serializer<Long> {
+public class LongSerializer implements DataOutputSerializer<Long> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -40,6 +44,18 @@ public class LongSerializer implements Serializer<Long> {
         };
     }
 
+    public byte[] serialize(String topic, Headers headers, Long data) {
+        return serialize(topic, data);
+    }
+
+    public boolean serialize(String topic, Headers headers, Long data, DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        out.writeLong(data);
+        return true;
+    }
+
     public void close() {
         // nothing to do
     }
@@ -16,9 +16,13 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-public class ShortSerializer implements Serializer<Short> {
+public class ShortSerializer implements DataOutputSerializer<Short> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -34,6 +38,18 @@ public class ShortSerializer implements Serializer<Short> {
         };
     }
 
+    public byte[] serialize(String topic, Headers headers, Short data) {
+        return serialize(topic, data);
+    }
+
+    public boolean serialize(String topic, Headers headers, Short data, DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        out.writeShort(data);
+        return true;
+    }
+
     public void close() {
         // nothing to do
     }
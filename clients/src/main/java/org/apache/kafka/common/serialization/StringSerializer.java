@@ -17,7 +17,11 @@
 package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.utils.Utils;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
@@ -25,8 +29,9 @@ import java.util.Map;
  *  String encoding defaults to UTF8 and can be customized by setting the property key.serializer.encoding,
  *  value.serializer.encoding or serializer.encoding. The first two take precedence over the last.
  */
-public class StringSerializer implements Serializer<String> {
+public class StringSerializer implements DataOutputSerializer<String> {
     private String encoding = "UTF8";
+    private boolean isUtf8 = true;
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
@@ -34,8 +39,10 @@ public class StringSerializer implements Serializer<String> {
         Object encodingValue = configs.get(propertyName);
         if (encodingValue == null)
             encodingValue = configs.get("serializer.encoding");
-        if (encodingValue != null && encodingValue instanceof String)
+        if (encodingValue != null && encodingValue instanceof String) {
             encoding = (String) encodingValue;
+            isUtf8 = encoding.equalsIgnoreCase("UTF8") || encoding.equalsIgnoreCase("UTF-8");
+        }
     }
 
     @Override
@@ -50,6 +57,24 @@ public class StringSerializer implements Serializer<String> {
         }
     }
 
+    @Override
+    public byte[] serialize(String topic, Headers headers, String data) {
+        return serialize(topic, data);
+    }
+
+    @Override
+    public boolean serialize(String topic, Headers headers, String data, DataOutput out) throws IOException {
+        if (data == null)
+            return false;
+
+        // UTF8 is encoded straight to the output, other encodings go through a byte array
+        if (isUtf8)
+            Utils.writeUtf8(out, data);
+        else
+            out.write(serialize(topic, data));
+        return true;
+    }
+
     @Override
     public void close() {
         // nothing to do
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import java.io.DataOutput;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ByteBufferOutputStream} which is also a {@link DataOutput}, writing primitives and strings straight to the
+ * underlying ByteBuffer. Unlike a {@link java.io.DataOutputStream} wrapping the stream, it does not write multi-byte
+ * values a byte at a time through synchronized methods, and it does not count the bytes written.
+ *
+ * This class is not thread safe.
+ */
+public class ByteBufferDataOutput extends ByteBufferOutputStream implements DataOutput {
+
+    public ByteBufferDataOutput(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    public ByteBufferDataOutput(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) {
+        ensureRemaining(2);
+        buffer().putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) {
+        ensureRemaining(2);
+        buffer().putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) {
+        ensureRemaining(4);
+        buffer().putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) {
+        ensureRemaining(8);
+        buffer().putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        ensureRemaining(4);
+        buffer().putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) {
+        ensureRemaining(8);
+        buffer().putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) {
+        int len = s.length();
+        ensureRemaining(len);
+        ByteBuffer buffer = buffer();
+        for (int i = 0; i < len; i++)
+            buffer.put((byte) s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s) {
+        int len = s.length();
+        ensureRemaining(2 * len);
+        ByteBuffer buffer = buffer();
+        for (int i = 0; i < len; i++)
+            buffer.putChar(s.charAt(i));
+    }
+
+    /**
+     * Write the modified UTF-8 encoding of a string prefixed by its length, as {@link java.io.DataOutputStream} does
+     */
+    @Override
+    public void writeUTF(String s) throws UTFDataFormatException {
+        int len = s.length();
+        int utfLength = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x0001 && ch <= 0x007F)
+                utfLength++;
+            else if (ch <= 0x07FF)
+                utfLength += 2;
+            else
+                utfLength += 3;
+        }
+        if (utfLength > 65535)
+            throw new UTFDataFormatException("Encoded string too long: " + utfLength + " bytes");
+
+        ensureRemaining(2 + utfLength);
+        ByteBuffer buffer = buffer();
+        buffer.putShort((short) utfLength);
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x0001 && ch <= 0x007F) {
+                buffer.put((byte) ch);
+            } else if (ch <= 0x07FF) {
+                buffer.put((byte) (0xC0 | (ch >> 6)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (ch >> 12)));
+                buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Write the UTF8-encoding of a string, which is {@link Utils#utf8Length(CharSequence)} bytes long, straight to
+     * the buffer. The length is only computed when the buffer may not have room for the longest encoding of the string.
+     */
+    public void writeUtf8(CharSequence s) {
+        // a char takes at most 3 bytes, a surrogate pair of chars takes 4
+        long maxLength = 3L * s.length();
+        if (maxLength > remaining())
+            ensureRemaining(Utils.utf8Length(s));
+        Utils.writeUtf8(buffer(), s);
+    }
+
+}
@@ -30,6 +30,8 @@ import java.util.zip.Checksum;
  */
 public final class Checksums {
 
+    private static final int UPDATE_CHUNK_SIZE = 4096;
+
     private Checksums() {
     }
 
@@ -41,9 +43,17 @@ public final class Checksums {
         if (buffer.hasArray()) {
             checksum.update(buffer.array(), buffer.position() + buffer.arrayOffset() + offset, length);
         } else {
-            int start = buffer.position() + offset;
-            for (int i = start; i < start + length; i++)
-                checksum.update(buffer.get(i));
+            // copy direct buffers out in chunks, updating byte by byte is much slower for the JDK implementations
+            ByteBuffer source = buffer.duplicate();
+            source.position(buffer.position() + offset);
+            byte[] chunk = new byte[Math.min(length, UPDATE_CHUNK_SIZE)];
+            int remaining = length;
+            while (remaining > 0) {
+                int chunkLength = Math.min(remaining, chunk.length);
+                source.get(chunk, 0, chunkLength);
+                checksum.update(chunk, 0, chunkLength);
+                remaining -= chunkLength;
+            }
         }
     }
     
@@ -183,9 +183,14 @@ public class Utils {
                 count++;
             } else if (ch <= 0x7FF) {
                 count += 2;
-            } else if (Character.isHighSurrogate(ch)) {
-                count += 4;
-                ++i;
+            } else if (Character.isSurrogate(ch)) {
+                if (isSurrogatePair(s, i)) {
+                    count += 4;
+                    ++i;
+                } else {
+                    // encoded as '?' like String.getBytes() does
+                    count++;
+                }
             } else {
                 count += 3;
             }
@@ -193,6 +198,82 @@ public class Utils {
         return count;
     }
 
+    /**
+     * Write the UTF8-encoding of a string, which is {@link #utf8Length(CharSequence)} bytes long, without encoding it
+     * into a byte array first
+     *
+     * @param out The output to write to
+     * @param s The string to encode
+     */
+    public static void writeUtf8(DataOutput out, CharSequence s) throws IOException {
+        if (out instanceof ByteBufferDataOutput) {
+            ((ByteBufferDataOutput) out).writeUtf8(s);
+            return;
+        }
+
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch <= 0x7F) {
+                out.write(ch);
+            } else if (ch <= 0x7FF) {
+                out.write(0xC0 | (ch >> 6));
+                out.write(0x80 | (ch & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                if (isSurrogatePair(s, i)) {
+                    int codePoint = Character.toCodePoint(ch, s.charAt(++i));
+                    out.write(0xF0 | (codePoint >> 18));
+                    out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                    out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                    out.write(0x80 | (codePoint & 0x3F));
+                } else {
+                    out.write('?');
+                }
+            } else {
+                out.write(0xE0 | (ch >> 12));
+                out.write(0x80 | ((ch >> 6) & 0x3F));
+                out.write(0x80 | (ch & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Write the UTF8-encoding of a string, which is {@link #utf8Length(CharSequence)} bytes long, to a buffer from its
+     * current position
+     *
+     * @param buffer The buffer to write to, which must have room for the encoded string
+     * @param s The string to encode
+     */
+    public static void writeUtf8(ByteBuffer buffer, CharSequence s) {
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch <= 0x7F) {
+                buffer.put((byte) ch);
+            } else if (ch <= 0x7FF) {
+                buffer.put((byte) (0xC0 | (ch >> 6)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isSurrogate(ch)) {
+                if (isSurrogatePair(s, i)) {
+                    int codePoint = Character.toCodePoint(ch, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (ch >> 12)));
+                buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(CharSequence s, int index) {
+        return Character.isHighSurrogate(s.charAt(index)) && index + 1 < s.length() &&
+                Character.isLowSurrogate(s.charAt(index + 1));
+    }
+
     /**
      * Read the given byte buffer from its current position to its limit into a byte array.
      * @param buffer The buffer to read from
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.ApiError;
+import org.apache.kafka.common.requests.DescribeConfigsRequest;
+import org.apache.kafka.common.requests.DescribeConfigsResponse;
+import org.apache.kafka.common.requests.Resource;
+import org.apache.kafka.common.requests.ResourceType;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionDictionariesTest {
+
+    private static final long REFRESH_BACKOFF_MS = 100;
+    private static final long MAX_AGE_MS = 1000;
+
+    private final CompressionDictionaries dictionaries = new CompressionDictionaries(REFRESH_BACKOFF_MS, MAX_AGE_MS);
+
+    @Test
+    public void testFirstUseSchedulesFetch() {
+        assertFalse(dictionaries.needsRequest(0));
+        assertNull(dictionaries.activeDictionary("foo"));
+        assertTrue(dictionaries.isUpdatePending("foo"));
+        assertFalse(dictionaries.isUpdatePending("bar"));
+        assertTrue(dictionaries.needsRequest(0));
+
+        DescribeConfigsRequest.Builder request = dictionaries.maybeNewRequest(0);
+        assertNotNull(request);
+        assertEquals(Collections.singleton("foo"), topics(request));
+        // only one request is in flight at a time
+        assertFalse(dictionaries.needsRequest(0));
+        assertNull(dictionaries.maybeNewRequest(0));
+        assertTrue(dictionaries.isUpdatePending("foo"));
+
+        dictionaries.handleResponse(response(Collections.singletonMap("foo", "")), 10);
+        assertFalse(dictionaries.isUpdatePending("foo"));
+        assertNull(dictionaries.activeDictionary("foo"));
+        assertFalse(dictionaries.needsRequest(10));
+    }
+
+    @Test
+    public void testRefreshAfterMaxAge() {
+        dictionaries.activeDictionary("foo");
+        dictionaries.maybeNewRequest(0);
+        dictionaries.handleResponse(response(Collections.singletonMap("foo", "")), 0);
+
+        assertFalse(dictionaries.needsRequest(MAX_AGE_MS - 1));
+        assertTrue(dictionaries.needsRequest(MAX_AGE_MS));
+        assertEquals(Collections.singleton("foo"), topics(dictionaries.maybeNewRequest(MAX_AGE_MS)));
+    }
+
+    @Test
+    public void testBackoffAfterFailure() {
+        dictionaries.activeDictionary("foo");
+        dictionaries.maybeNewRequest(0);
+        dictionaries.handleFailure(0);
+
+        assertTrue(dictionaries.isUpdatePending("foo"));
+        assertFalse(dictionaries.needsRequest(REFRESH_BACKOFF_MS - 1));
+        assertNull(dictionaries.maybeNewRequest(REFRESH_BACKOFF_MS - 1));
+        assertTrue(dictionaries.needsRequest(REFRESH_BACKOFF_MS));
+        assertEquals(Collections.singleton("foo"), topics(dictionaries.maybeNewRequest(REFRESH_BACKOFF_MS)));
+    }
+
+    @Test
+    public void testRequestUpdateForMissingDictionary() {
+        assertTrue(dictionaries.requestUpdate("foo", 42));
+        assertTrue(dictionaries.isUpdatePending("foo"));
+        // reported again before the fetch completed
+        assertTrue(dictionaries.requestUpdate("foo", 42));
+
+        dictionaries.maybeNewRequest(0);
+        dictionaries.handleResponse(response(Collections.singletonMap("foo", "")), 0);
+
+        // the fetched dictionaries did not include the id, so there is no point in fetching again
+        assertFalse(dictionaries.requestUpdate("foo", 42));
+        assertFalse(dictionaries.isUpdatePending("foo"));
+        assertTrue(dictionaries.requestUpdate("foo", 43));
+    }
+
+    @Test
+    public void testTopicsMissingFromResponseAreRetried() {
+        dictionaries.activeDictionary("foo");
+        dictionaries.activeDictionary("bar");
+        dictionaries.maybeNewRequest(0);
+        dictionaries.handleResponse(response(Collections.singletonMap("foo", "")), 0);
+
+        assertFalse(dictionaries.isUpdatePending("foo"));
+        assertTrue(dictionaries.isUpdatePending("bar"));
+        assertEquals(Collections.singleton("bar"), topics(dictionaries.maybeNewRequest(0)));
+    }
+
+    @Test
+    public void testInvalidDictionaryIsIgnored() {
+        dictionaries.activeDictionary("foo");
+        dictionaries.maybeNewRequest(0);
+        dictionaries.handleResponse(response(Collections.singletonMap("foo", "bm90IGEgZGljdGlvbmFyeQ==")), 0);
+        assertNull(dictionaries.activeDictionary("foo"));
+        assertFalse(dictionaries.isUpdatePending("foo"));
+    }
+
+    private static Set<String> topics(DescribeConfigsRequest.Builder request) {
+        Set<String> topics = new HashSet<>();
+        for (Resource resource : request.build((short) 0).resources())
+            topics.add(resource.name());
+        return topics;
+    }
+
+    private static ClientResponse response(Map<String, String> dictionaryConfigs) {
+        Map<Resource, DescribeConfigsResponse.Config> configs = new HashMap<>();
+        for (Map.Entry<String, String> entry : dictionaryConfigs.entrySet()) {
+            Collection<DescribeConfigsResponse.ConfigEntry> entries = Collections.singleton(
+                    new DescribeConfigsResponse.ConfigEntry(TopicConfig.COMPRESSION_DICTIONARY_CONFIG, entry.getValue(),
+                            false, true, false));
+            configs.put(new Resource(ResourceType.TOPIC, entry.getKey()),
+                    new DescribeConfigsResponse.Config(new ApiError(Errors.NONE, null), entries));
+        }
+        return new ClientResponse(null, null, "0", 0, 0, false, null, new DescribeConfigsResponse(0, configs));
+    }
+
+}
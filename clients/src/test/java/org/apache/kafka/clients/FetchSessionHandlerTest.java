@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FetchSessionHandlerTest {
+
+    private final TopicPartition tp0 = new TopicPartition("foo", 0);
+    private final TopicPartition tp1 = new TopicPartition("foo", 1);
+    private final TopicPartition tp2 = new TopicPartition("bar", 0);
+
+    @Test
+    public void testIncrementalFetches() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.add(tp1, partitionData(10));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertEquals(Arrays.asList(tp0, tp1), Arrays.asList(data.toSend().keySet().toArray()));
+        assertTrue(data.toForget().isEmpty());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123, tp0, tp1)));
+        assertEquals(123, handler.sessionId());
+
+        // only the partition whose offset changed and the new partition are sent
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(5));
+        builder.add(tp1, partitionData(10));
+        builder.add(tp2, partitionData(0));
+        data = builder.build();
+        assertEquals(new FetchMetadata(123, 1), data.metadata());
+        assertEquals(Arrays.asList(tp0, tp2), Arrays.asList(data.toSend().keySet().toArray()));
+        assertEquals(5L, data.toSend().get(tp0).fetchOffset);
+        assertTrue(data.toForget().isEmpty());
+        assertEquals(3, data.sessionPartitions().size());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123, tp0)));
+
+        // the partition which is no longer fetched is forgotten
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(5));
+        builder.add(tp2, partitionData(0));
+        data = builder.build();
+        assertEquals(new FetchMetadata(123, 2), data.metadata());
+        assertTrue(data.toSend().isEmpty());
+        assertEquals(Collections.singletonList(tp1), data.toForget());
+        assertEquals(2, data.sessionPartitions().size());
+    }
+
+    @Test
+    public void testFullFetchesWithoutSession() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.build();
+        assertTrue(handler.handleResponse(response(Errors.NONE, FetchMetadata.INVALID_SESSION_ID, tp0)));
+
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertEquals(Collections.singleton(tp0), data.toSend().keySet());
+    }
+
+    @Test
+    public void testSessionErrors() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.build();
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123, tp0)));
+
+        // an invalid epoch closes the session with the next full request
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.build();
+        assertFalse(handler.handleResponse(response(Errors.INVALID_FETCH_SESSION_EPOCH, FetchMetadata.INVALID_SESSION_ID)));
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(new FetchMetadata(123, FetchMetadata.INITIAL_EPOCH), data.metadata());
+        assertEquals(Collections.singleton(tp0), data.toSend().keySet());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 456, tp0)));
+
+        // a session which is not found is not closed again
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.build();
+        assertFalse(handler.handleResponse(response(Errors.FETCH_SESSION_ID_NOT_FOUND, FetchMetadata.INVALID_SESSION_ID)));
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        assertEquals(FetchMetadata.INITIAL, builder.build().metadata());
+
+        // a full response which does not match the request is ignored
+        assertFalse(handler.handleResponse(response(Errors.NONE, 789, tp1)));
+        assertEquals(FetchMetadata.INVALID_SESSION_ID, handler.sessionId());
+    }
+
+    @Test
+    public void testErrorClosesSession() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        builder.build();
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123, tp0)));
+
+        handler.handleError(new RuntimeException());
+        builder = handler.newBuilder();
+        builder.add(tp0, partitionData(0));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertTrue(data.metadata().isFull());
+        assertEquals(123, data.metadata().sessionId());
+        assertEquals(Collections.singleton(tp0), data.toSend().keySet());
+    }
+
+    private static FetchRequest.PartitionData partitionData(long fetchOffset) {
+        return new FetchRequest.PartitionData(fetchOffset, 0L, 1024);
+    }
+
+    private static FetchResponse response(Errors error, int sessionId, TopicPartition... partitions) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        for (TopicPartition tp : partitions)
+            responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 10L, 10L, 0L, null, MemoryRecords.EMPTY));
+        return new FetchResponse(error, responseData, 0, sessionId);
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.kafka.clients.NetworkClient;
 import org.apache.kafka.clients.NodeApiVersions;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecordBatch;
 import org.apache.kafka.clients.consumer.NoOffsetForPartitionException;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
@@ -531,6 +532,199 @@ public class FetcherTest {
         assertEquals(5, records.get(1).offset());
     }
 
+    @Test
+    public void testFetchRecordBatches() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), 2);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(this.records.buffer());
+        buffer.put(this.nextRecords.buffer());
+        buffer.flip();
+
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 1);
+        client.prepareResponse(fetchResponse(tp1, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+
+        // the first batch is returned as a whole even though it has more records than max.poll.records
+        List<ConsumerRecordBatch> batches = fetcher.fetchedRecordBatches().get(tp1);
+        assertEquals(1, batches.size());
+        assertEquals(4L, subscriptions.position(tp1).longValue());
+        ConsumerRecordBatch batch = batches.get(0);
+        assertEquals(tp1, batch.topicPartition());
+        assertEquals(1L, batch.firstOffset());
+        assertEquals(4L, batch.nextOffset());
+        long offset = 1;
+        for (Record record : batch) {
+            assertEquals(offset, record.offset());
+            assertEquals(ByteBuffer.wrap(("value-" + offset).getBytes()), record.value());
+            offset++;
+        }
+        assertEquals(4L, offset);
+
+        batches = fetcher.fetchedRecordBatches().get(tp1);
+        assertEquals(1, batches.size());
+        assertEquals(6L, subscriptions.position(tp1).longValue());
+        assertEquals(4L, batches.get(0).firstOffset());
+    }
+
+    @Test
+    public void testFetchRecordBatchesAfterFetchedRecords() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), 2);
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 1);
+        client.prepareResponse(fetchResponse(tp1, this.records, Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+
+        assertEquals(2, fetcher.fetchedRecords().get(tp1).size());
+        assertEquals(3L, subscriptions.position(tp1).longValue());
+
+        // the rest of the partly consumed batch
+        List<ConsumerRecordBatch> batches = fetcher.fetchedRecordBatches().get(tp1);
+        assertEquals(1, batches.size());
+        assertEquals(3L, batches.get(0).firstOffset());
+        Iterator<Record> iterator = batches.get(0).iterator();
+        assertEquals(3L, iterator.next().offset());
+        assertFalse(iterator.hasNext());
+        assertEquals(4L, subscriptions.position(tp1).longValue());
+    }
+
+    @Test
+    public void testFetchRecordBatchesIgnoresControlBatches() {
+        subscriptions.assignFromUser(singleton(tp1));
+        subscriptions.seek(tp1, 0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MemoryRecordsBuilder builder = MemoryRecords.idempotentBuilder(buffer, CompressionType.NONE, 0L, 1L,
+                (short) 0, 0);
+        builder.append(0L, "key".getBytes(), null);
+        builder.close();
+        MemoryRecords.writeEndTransactionalMarker(buffer, 1L, time.milliseconds(), 0, 1L, (short) 0,
+                new EndTransactionMarker(ControlRecordType.ABORT, 0));
+        buffer.flip();
+
+        client.prepareResponse(fetchResponse(tp1, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+
+        List<ConsumerRecordBatch> batches = fetcher.fetchedRecordBatches().get(tp1);
+        assertEquals(1, batches.size());
+        assertFalse(batches.get(0).batch().isControlBatch());
+        assertEquals(2L, subscriptions.position(tp1).longValue());
+    }
+
+    @Test
+    public void testFetchWithParseThreads() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), 2, IsolationLevel.READ_UNCOMMITTED, 2);
+        try {
+            subscriptions.assignFromUser(Utils.mkSet(tp1, tp2));
+            subscriptions.seek(tp1, 0);
+            subscriptions.seek(tp2, 0);
+
+            LinkedHashMap<TopicPartition, FetchResponse.PartitionData> partitions = new LinkedHashMap<>();
+            partitions.put(tp1, new FetchResponse.PartitionData(Errors.NONE, 100L,
+                    FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, gzipRecords(0L, 3)));
+            partitions.put(tp2, new FetchResponse.PartitionData(Errors.NONE, 100L,
+                    FetchResponse.INVALID_LAST_STABLE_OFFSET, 0L, null, gzipRecords(0L, 4)));
+            client.prepareResponse(new FetchResponse(partitions, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            Map<TopicPartition, List<Long>> offsets = new HashMap<>();
+            offsets.put(tp1, new ArrayList<Long>());
+            offsets.put(tp2, new ArrayList<Long>());
+            Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> fetched;
+            do {
+                fetched = fetcher.fetchedRecords();
+                int count = 0;
+                for (Map.Entry<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> entry : fetched.entrySet()) {
+                    for (ConsumerRecord<byte[], byte[]> record : entry.getValue()) {
+                        assertEquals("value-" + record.offset(), new String(record.value(), StandardCharsets.UTF_8));
+                        offsets.get(entry.getKey()).add(record.offset());
+                        count++;
+                    }
+                }
+                assertTrue(count <= 2);
+            } while (!fetched.isEmpty());
+            assertEquals(Arrays.asList(0L, 1L, 2L), offsets.get(tp1));
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L), offsets.get(tp2));
+            assertEquals(3L, subscriptions.position(tp1).longValue());
+            assertEquals(4L, subscriptions.position(tp2).longValue());
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testParseThreadsRaiseSerializationErrorsInOrder() {
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                if (new String(data, StandardCharsets.UTF_8).equals("value-1"))
+                    throw new SerializationException();
+                return data;
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer,
+                Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, 1);
+        try {
+            subscriptions.assignFromUser(singleton(tp1));
+            subscriptions.seek(tp1, 0);
+            client.prepareResponse(fetchResponse(tp1, gzipRecords(0L, 3), Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            // the records before the error are returned first
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp1);
+            assertEquals(1, records.size());
+            assertEquals(1L, subscriptions.position(tp1).longValue());
+            for (int i = 0; i < 2; i++) {
+                try {
+                    fetcher.fetchedRecords();
+                    fail("fetchedRecords should have raised");
+                } catch (SerializationException e) {
+                    assertEquals(1L, subscriptions.position(tp1).longValue());
+                }
+            }
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testFetchRecordBatchesWithParseThreads() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), 2, IsolationLevel.READ_UNCOMMITTED, 1);
+        try {
+            subscriptions.assignFromUser(singleton(tp1));
+            subscriptions.seek(tp1, 0);
+            client.prepareResponse(fetchResponse(tp1, gzipRecords(0L, 3), Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            assertEquals(2, fetcher.fetchedRecords().get(tp1).size());
+            // the parse thread consumed the batches, which are read again from the position
+            List<ConsumerRecordBatch> batches = fetcher.fetchedRecordBatches().get(tp1);
+            assertEquals(1, batches.size());
+            Iterator<Record> iterator = batches.get(0).iterator();
+            assertEquals(2L, iterator.next().offset());
+            assertFalse(iterator.hasNext());
+            assertEquals(3L, subscriptions.position(tp1).longValue());
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    private MemoryRecords gzipRecords(long baseOffset, int count) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.GZIP,
+                TimestampType.CREATE_TIME, baseOffset);
+        for (int i = 0; i < count; i++)
+            builder.append(0L, "key".getBytes(), ("value-" + (baseOffset + i)).getBytes());
+        return builder.build();
+    }
+
     /**
      * Test the scenario where a partition with fetched but not consumed records (i.e. max.poll.records is
      * less than the number of fetched records) is unassigned and a different partition is assigned. This is a
@@ -2017,6 +2211,17 @@ public class FetcherTest {
                                                Deserializer<V> valueDeserializer,
                                                int maxPollRecords,
                                                IsolationLevel isolationLevel) {
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, maxPollRecords,
+                isolationLevel, 0);
+    }
+
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               IsolationLevel isolationLevel,
+                                               int parseThreads) {
         return new Fetcher<>(consumerClient,
                 minBytes,
                 maxBytes,
@@ -2032,7 +2237,8 @@ public class FetcherTest {
                 metricsRegistry,
                 time,
                 retryBackoffMs,
-                isolationLevel);
+                isolationLevel,
+                parseThreads);
     }
 
     private <T> List<Long> collectRecordOffsets(List<ConsumerRecord<T, T>> records) {
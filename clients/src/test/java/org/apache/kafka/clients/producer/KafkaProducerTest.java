@@ -57,6 +57,8 @@ import java.util.Map;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -484,4 +486,21 @@ public class KafkaProducerTest {
             // expected
         }
     }
+
+    @Test
+    public void testSerializationBuffersOnlyForDeclaredDataOutputSerializers() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9000");
+        // a subclass overriding serialize(topic, data) must keep being called, not bypassed by the reused buffers
+        StringSerializer subclass = new StringSerializer() {
+            @Override
+            public byte[] serialize(String topic, String data) {
+                return super.serialize(topic, "prefix-" + data);
+            }
+        };
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(props, new StringSerializer(), subclass)) {
+            assertNotNull(MemberModifier.field(KafkaProducer.class, "keyBuffers").get(producer));
+            assertNull(MemberModifier.field(KafkaProducer.class, "valueBuffers").get(producer));
+        }
+    }
 }
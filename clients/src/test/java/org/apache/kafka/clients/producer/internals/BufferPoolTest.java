@@ -49,6 +49,7 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.anyString;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -99,6 +100,18 @@ public class BufferPoolTest {
     /**
      * Test that we cannot try to allocate more memory then we have in the whole pool
      */
+    @Test
+    public void testDirectBuffers() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(4 * size, size, true, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        assertTrue("Poolable buffers should be direct", buffer.isDirect());
+        pool.deallocate(buffer);
+        assertTrue("Pooled buffers should be reused", buffer == pool.allocate(size, maxBlockTimeMs));
+        ByteBuffer large = pool.allocate(2 * size, maxBlockTimeMs);
+        assertFalse("Buffers which are not pooled should stay on the heap", large.isDirect());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testCantAllocateMoreMemoryThanWeHave() throws Exception {
         BufferPool pool = new BufferPool(1024, 512, metrics, time, metricGroup);
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PendingPartitionsTest {
+    private final String topic = "test";
+    private final Node node0 = new Node(0, "localhost", 1111);
+    private final Node node1 = new Node(1, "localhost", 1112);
+    private final TopicPartition tp0 = new TopicPartition(topic, 0);
+    private final TopicPartition tp1 = new TopicPartition(topic, 1);
+    private final TopicPartition tp2 = new TopicPartition(topic, 2);
+    private final PendingPartitions pending = new PendingPartitions();
+
+    @Test
+    public void testChecksAreDueInTimeOrder() {
+        pending.checkAt(tp0, 30L);
+        pending.checkAt(tp1, 10L);
+        pending.checkAt(tp2, 20L);
+        assertTrue(pending.due(30L).isEmpty());
+
+        pending.update();
+        assertEquals(10L, pending.nextCheckTimeMs());
+        assertEquals(asList(tp1, tp2), pending.due(25L));
+        assertEquals(30L, pending.nextCheckTimeMs());
+        assertEquals(Collections.singletonList(tp0), pending.due(30L));
+        assertEquals(Long.MAX_VALUE, pending.nextCheckTimeMs());
+        assertEquals(3, pending.partitions().size());
+    }
+
+    @Test
+    public void testEarlierCheckSupersedesLaterOne() {
+        pending.checkAt(tp0, 100L);
+        pending.update();
+        pending.schedule(tp0, 10L);
+        pending.schedule(tp0, 50L);
+        assertEquals(Collections.singletonList(tp0), pending.due(10L));
+        // the check at 100 was superseded
+        assertTrue(pending.due(100L).isEmpty());
+    }
+
+    @Test
+    public void testRemovedPartitionIsNotChecked() {
+        pending.checkAt(tp0, 10L);
+        pending.checkAt(tp1, 10L);
+        pending.update();
+        pending.setSendable(tp0, true);
+        pending.remove(tp0);
+        assertEquals(Collections.singletonList(tp1), pending.due(10L));
+        assertTrue(pending.sendable().isEmpty());
+
+        // scheduling a partition which is not tracked does nothing until a check is requested
+        pending.schedule(tp0, 20L);
+        assertTrue(pending.due(20L).isEmpty());
+        pending.checkAt(tp0, 20L);
+        pending.update();
+        assertEquals(Collections.singletonList(tp0), pending.due(20L));
+    }
+
+    @Test
+    public void testPartitionsForNode() {
+        Cluster cluster = cluster(node0, node1, null);
+        pending.checkAt(tp0, 0L);
+        pending.checkAt(tp1, 0L);
+        pending.checkAt(tp2, 0L);
+        pending.update();
+        assertEquals(Collections.singletonList(tp0), new ArrayList<>(pending.partitionsForNode(cluster, node0.id())));
+        assertEquals(Collections.singletonList(tp1), new ArrayList<>(pending.partitionsForNode(cluster, node1.id())));
+
+        // the leaders are looked up again when the cluster changes
+        cluster = cluster(node0, node0, node0);
+        assertEquals(new HashSet<>(asList(tp0, tp1, tp2)), pending.partitionsForNode(cluster, node0.id()));
+        assertTrue(pending.partitionsForNode(cluster, node1.id()).isEmpty());
+
+        // drained partitions move behind the others
+        pending.drained(tp0, node0.id());
+        pending.drained(tp1, node0.id());
+        assertEquals(asList(tp2, tp0, tp1), new ArrayList<>(pending.partitionsForNode(cluster, node0.id())));
+        pending.remove(tp2);
+        assertEquals(asList(tp0, tp1), new ArrayList<>(pending.partitionsForNode(cluster, node0.id())));
+    }
+
+    private Cluster cluster(Node leader0, Node leader1, Node leader2) {
+        Node[] nodes = new Node[] {node0, node1};
+        return new Cluster(null, asList(node0, node1),
+                asList(new PartitionInfo(topic, 0, leader0, nodes, nodes),
+                        new PartitionInfo(topic, 1, leader1, nodes, nodes),
+                        new PartitionInfo(topic, 2, leader2, nodes, nodes)),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+}
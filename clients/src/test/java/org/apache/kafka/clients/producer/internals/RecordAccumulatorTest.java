@@ -36,6 +36,7 @@ import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
 import org.apache.kafka.common.utils.MockTime;
@@ -62,6 +63,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -137,6 +139,95 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAbortOnNewBatch() throws Exception {
+        int batchSize = 1025;
+        RecordAccumulator accum = new RecordAccumulator(batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10L * batchSize,
+                CompressionType.NONE, 10L, 100L, metrics, time, new ApiVersions(), null);
+
+        // no batch exists yet, so nothing is appended
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertNull(result.future);
+        assertTrue(accum.batches().get(tp1).isEmpty());
+
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false);
+        int appends = expectedNumAppends(batchSize);
+        for (int i = 1; i < appends; i++) {
+            result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+            assertFalse(result.abortForNewBatch);
+            assertNotNull(result.future);
+        }
+
+        // the batch is full, so the record would start a new batch
+        result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertEquals(1, accum.batches().get(tp1).size());
+        assertEquals("No buffer should be allocated for the aborted batch",
+                10L * batchSize - (batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD), accum.bufferPoolAvailableMemory());
+    }
+
+    @Test
+    public void testAppendBatch() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L, 100L, metrics,
+                time, new ApiVersions(), null);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.GZIP, new SimpleRecord(5L, key, value),
+                new SimpleRecord(6L, key, value), new SimpleRecord(7L, key, value));
+        RecordAccumulator.RecordAppendResult result = accum.appendBatch(tp1, records, null, maxBlockTimeMs);
+        assertTrue(result.batchIsFull);
+
+        // later records do not join the batch of the records which were sent together
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        assertEquals(3, accum.batches().get(tp1).size());
+        assertEquals("Our partition's leader should be ready", Collections.singleton(node1),
+                accum.ready(cluster, time.milliseconds()).readyNodes);
+
+        // one batch of the partition is drained at a time
+        accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        ProducerBatch batch = batches.get(0);
+        assertEquals(3, batch.recordCount);
+        assertFalse(batch.isSplittable());
+        long expectedTimestamp = 5L;
+        for (Record record : batch.records().records()) {
+            assertEquals(expectedTimestamp++, record.timestamp());
+            assertEquals(ByteBuffer.wrap(value), record.value());
+        }
+        assertEquals(8L, expectedTimestamp);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendEmptyBatch() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L, 100L, metrics,
+                time, new ApiVersions(), null);
+        accum.appendBatch(tp1, MemoryRecords.EMPTY, null, maxBlockTimeMs);
+    }
+
+    @Test
+    public void testDirectBuffers() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.GZIP, 0L, 100L, metrics, time, new ApiVersions(), null, null, 1, true);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+        assertEquals(1, batches.size());
+
+        MemoryRecords records = batches.get(0).records();
+        assertTrue("Batches should be built in direct buffers", records.buffer().isDirect());
+        int count = 0;
+        for (MutableRecordBatch batch : records.batches()) {
+            batch.ensureValid();
+            for (Record record : batch) {
+                assertEquals("Values should match", ByteBuffer.wrap(value), record.value());
+                count++;
+            }
+        }
+        assertEquals(2, count);
+    }
+
     @Test
     public void testAppendLargeCompressed() throws Exception {
         testAppendLarge(CompressionType.GZIP);
@@ -246,6 +337,30 @@ public class RecordAccumulatorTest {
         assertEquals("But due to size bound only one partition should have been retrieved", 1, batches.size());
     }
 
+    @Test
+    public void testBatchLeftByPartialDrainStaysOpen() throws Exception {
+        long lingerMs = 10L;
+        RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.NONE, lingerMs, 100L, metrics, time, new ApiVersions(), null);
+        for (TopicPartition tp : asList(tp1, tp2))
+            accum.append(tp, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        time.sleep(lingerMs);
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), msgSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD,
+                time.milliseconds()).get(node1.id());
+        assertEquals("Due to size bound only one partition should have been retrieved", 1, batches.size());
+
+        // the batch of the other partition was not drained, so it still takes appends
+        TopicPartition undrained = batches.get(0).topicPartition.equals(tp1) ? tp2 : tp1;
+        RecordAccumulator.RecordAppendResult result = accum.append(undrained, 0L, key, value, Record.EMPTY_HEADERS, null,
+                maxBlockTimeMs);
+        assertFalse("The record should have been appended to the undrained batch", result.newBatchCreated);
+        batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).recordCount);
+    }
+
     @SuppressWarnings("unused")
     @Test
     public void testStressfulSituation() throws Exception {
@@ -289,6 +404,59 @@ public class RecordAccumulatorTest {
     }
 
 
+    @Test
+    public void testConcurrentAppendsToOnePartition() throws Exception {
+        final int numThreads = 8;
+        final int msgs = 5000;
+        final RecordAccumulator accum = new RecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024,
+                CompressionType.NONE, 0L, 100L, metrics, time, new ApiVersions(), null);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < msgs; i++) {
+                        try {
+                            byte[] value = ByteBuffer.allocate(8).putInt(thread).putInt(i).array();
+                            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+
+        // the records of every thread must be drained in the order in which they were appended
+        int[] next = new int[numThreads];
+        int read = 0;
+        while (read < numThreads * msgs) {
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<ProducerBatch> batches = accum.drain(cluster, nodes, 5 * 1024, 0).get(node1.id());
+            if (batches != null) {
+                for (ProducerBatch batch : batches) {
+                    int count = 0;
+                    for (Record record : batch.records().records()) {
+                        ByteBuffer value = record.value();
+                        int thread = value.getInt();
+                        assertEquals(next[thread]++, value.getInt());
+                        count++;
+                    }
+                    assertEquals(batch.recordCount, count);
+                    read += count;
+                    accum.deallocate(batch);
+                }
+            }
+        }
+
+        for (Thread t : threads)
+            t.join();
+        assertFalse(accum.hasUndrained());
+        assertEquals(10 * 1024, accum.bufferPoolAvailableMemory());
+    }
+
     @Test
     public void testNextReadyCheckDelay() throws Exception {
         // Next check time will use lingerMs since this test won't trigger any retries/backoff
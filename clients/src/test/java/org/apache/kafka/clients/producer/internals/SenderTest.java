@@ -46,6 +46,7 @@ import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.requests.AbstractRequest;
 import org.apache.kafka.common.requests.AddPartitionsToTxnResponse;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
@@ -605,6 +606,61 @@ public class SenderTest {
         assertEquals((long) transactionManager.sequenceNumber(tp0), 1L);
     }
 
+    @Test
+    public void testSequenceNumberIncrementForBatchAppend() throws Exception {
+        final long producerId = 343434L;
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setProducerIdAndEpoch(new ProducerIdAndEpoch(producerId, (short) 0));
+        setupWithTransactionState(transactionManager);
+        client.setNode(new Node(1, "localhost", 33343));
+
+        final AtomicInteger callbacks = new AtomicInteger();
+        Callback callback = new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                callbacks.incrementAndGet();
+            }
+        };
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("a".getBytes()),
+                new SimpleRecord("b".getBytes()), new SimpleRecord("c".getBytes()));
+        Future<RecordMetadata> responseFuture = accumulator.appendBatch(tp0, records, callback, MAX_BLOCK_TIMEOUT).future;
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                if (body instanceof ProduceRequest) {
+                    ProduceRequest request = (ProduceRequest) body;
+                    RecordBatch batch = request.partitionRecordsOrFail().get(tp0).batches().iterator().next();
+                    assertEquals(0, batch.baseSequence());
+                    assertEquals(2, batch.lastSequence());
+                    assertEquals(producerId, batch.producerId());
+                    return true;
+                }
+                return false;
+            }
+        }, produceResponse(tp0, 100, Errors.NONE, 0));
+
+        sender.run(time.milliseconds());  // connect.
+        sender.run(time.milliseconds());  // send.
+        sender.run(time.milliseconds());  // receive response
+        assertTrue(responseFuture.isDone());
+        assertEquals(100L, responseFuture.get().offset());
+        assertEquals(1, callbacks.get());
+        assertEquals((long) transactionManager.sequenceNumber(tp0), 3L);
+    }
+
+    @Test
+    public void testBatchAppendIsNotSplit() throws Exception {
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("a".getBytes()),
+                new SimpleRecord("b".getBytes()));
+        Future<RecordMetadata> future = accumulator.appendBatch(tp0, records, null, MAX_BLOCK_TIMEOUT).future;
+        sender.run(time.milliseconds()); // connect
+        sender.run(time.milliseconds()); // send produce request
+        client.respond(produceResponse(tp0, -1, Errors.MESSAGE_TOO_LARGE, 0));
+        sender.run(time.milliseconds());
+        completedWithError(future, Errors.MESSAGE_TOO_LARGE);
+        assertFalse(accumulator.hasUndrained());
+    }
+
     @Test
     public void testAbortRetryWhenProducerIdChanges() throws InterruptedException {
         final long producerId = 343434L;
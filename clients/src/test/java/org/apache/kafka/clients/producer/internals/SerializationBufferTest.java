@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.Test;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SerializationBufferTest {
+    private final String topic = "test";
+    private final Headers headers = new RecordHeaders();
+    private final StringSerializer serializer = new StringSerializer();
+
+    @Test
+    public void testBufferIsReused() {
+        SerializationBuffer buffer = new SerializationBuffer(1024);
+        ByteBuffer first = buffer.serialize(serializer, topic, headers, "first value");
+        assertEquals("first value", Utils.utf8(first, first.remaining()));
+
+        ByteBuffer second = buffer.serialize(serializer, topic, headers, "second");
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals("second", Utils.utf8(second, second.remaining()));
+    }
+
+    @Test
+    public void testNullData() {
+        SerializationBuffer buffer = new SerializationBuffer(1024);
+        assertNull(buffer.serialize(serializer, topic, headers, null));
+        ByteBuffer serialized = buffer.serialize(serializer, topic, headers, "value");
+        assertEquals("value", Utils.utf8(serialized, serialized.remaining()));
+    }
+
+    @Test
+    public void testLargeBufferIsNotRetained() {
+        SerializationBuffer buffer = new SerializationBuffer(1024);
+        int initialCapacity = buffer.capacity();
+        String large = new String(new char[5000]).replace('\0', 'x');
+        ByteBuffer serialized = buffer.serialize(serializer, topic, headers, large);
+        assertEquals(large, Utils.utf8(serialized, serialized.remaining()));
+        assertTrue(buffer.capacity() >= large.length());
+
+        serialized = buffer.serialize(serializer, topic, headers, "small");
+        assertEquals("small", Utils.utf8(serialized, serialized.remaining()));
+        assertEquals(initialCapacity, buffer.capacity());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testSerializerIOException() {
+        SerializationBuffer buffer = new SerializationBuffer(1024);
+        buffer.serialize(new StringSerializer() {
+            @Override
+            public boolean serialize(String topic, Headers headers, String data, DataOutput out) throws IOException {
+                throw new IOException("failed");
+            }
+        }, topic, headers, "value");
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StickyPartitionerTest {
+    private byte[] keyBytes = "key".getBytes();
+    private StickyPartitioner partitioner = new StickyPartitioner();
+    private Node node0 = new Node(0, "localhost", 99);
+    private Node node1 = new Node(1, "localhost", 100);
+    private Node node2 = new Node(2, "localhost", 101);
+    private Node[] nodes = new Node[] {node0, node1, node2};
+    private String topic = "test";
+    // Intentionally make the partition list not in partition order to test the edge cases.
+    private List<PartitionInfo> partitions = asList(new PartitionInfo(topic, 1, null, nodes, nodes),
+                                                    new PartitionInfo(topic, 2, node1, nodes, nodes),
+                                                    new PartitionInfo(topic, 0, node0, nodes, nodes));
+    private Cluster cluster = new Cluster("clusterId", asList(node0, node1, node2), partitions,
+            Collections.<String>emptySet(), Collections.<String>emptySet());
+
+    @Test
+    public void testKeyPartitionIsStable() {
+        int partition = partitioner.partition(topic, null, keyBytes, null, null, cluster);
+        partitioner.onNewBatch(topic, cluster, partition);
+        assertEquals("Same key should yield same partition", partition, partitioner.partition(topic, null, keyBytes, null, null, cluster));
+    }
+
+    @Test
+    public void testStickyPartitionUntilNewBatch() {
+        int partition = partitioner.partition(topic, null, null, null, null, cluster);
+        assertTrue("We should never choose a leader-less partition", partition == 0 || partition == 2);
+        for (int i = 0; i < 100; i++)
+            assertEquals(partition, partitioner.partition(topic, null, null, null, null, cluster));
+
+        partitioner.onNewBatch(topic, cluster, partition);
+        int nextPartition = partitioner.partition(topic, null, null, null, null, cluster);
+        assertNotEquals("A new batch should move the sticky partition", partition, nextPartition);
+        assertTrue("We should never choose a leader-less partition", nextPartition == 0 || nextPartition == 2);
+    }
+
+    @Test
+    public void testNewBatchForStalePartitionIsIgnored() {
+        int partition = partitioner.partition(topic, null, null, null, null, cluster);
+        partitioner.onNewBatch(topic, cluster, partition);
+        int nextPartition = partitioner.partition(topic, null, null, null, null, cluster);
+
+        // another thread saw the new batch of the old partition as well
+        partitioner.onNewBatch(topic, cluster, partition);
+        assertEquals(nextPartition, partitioner.partition(topic, null, null, null, null, cluster));
+    }
+
+    @Test
+    public void testStickyPartitionPerTopic() {
+        final String topicA = "topicA";
+        final String topicB = "topicB";
+
+        List<PartitionInfo> allPartitions = asList(new PartitionInfo(topicA, 0, node0, nodes, nodes),
+                new PartitionInfo(topicA, 1, node1, nodes, nodes),
+                new PartitionInfo(topicA, 2, node2, nodes, nodes),
+                new PartitionInfo(topicB, 0, node0, nodes, nodes)
+                );
+        Cluster testCluster = new Cluster("clusterId", asList(node0, node1, node2), allPartitions,
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+
+        int partitionA = partitioner.partition(topicA, null, null, null, null, testCluster);
+        assertEquals(0, partitioner.partition(topicB, null, null, null, null, testCluster));
+        partitioner.onNewBatch(topicB, testCluster, 0);
+        assertEquals(0, partitioner.partition(topicB, null, null, null, null, testCluster));
+        assertEquals(partitionA, partitioner.partition(topicA, null, null, null, null, testCluster));
+
+        // every partition is used over many batches
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int partition = partitioner.partition(topicA, null, null, null, null, testCluster);
+            used.add(partition);
+            partitioner.onNewBatch(topicA, testCluster, partition);
+        }
+        assertEquals(3, used.size());
+    }
+}
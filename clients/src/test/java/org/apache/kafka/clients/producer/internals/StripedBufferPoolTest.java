@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StripedBufferPoolTest {
+    private final MockTime time = new MockTime();
+    private final Metrics metrics = new Metrics(time);
+    private final long maxBlockTimeMs = 2000;
+    private final String metricGroup = "TestMetrics";
+
+    @After
+    public void teardown() {
+        this.metrics.close();
+    }
+
+    @Test
+    public void testSimple() throws Exception {
+        long totalMemory = 64 * 1024;
+        int size = 1024;
+        StripedBufferPool pool = new StripedBufferPool(totalMemory, size, 4, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        assertEquals("Buffer size should equal requested size.", size, buffer.limit());
+        assertEquals("Unallocated memory should have shrunk", totalMemory - size, pool.unallocatedMemory());
+        assertEquals("Available memory should have shrunk", totalMemory - size, pool.availableMemory());
+        buffer.putInt(1);
+        buffer.flip();
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("But now some is on the free list", totalMemory - size, pool.unallocatedMemory());
+        buffer = pool.allocate(size, maxBlockTimeMs);
+        assertEquals("Recycled buffer should be cleared.", 0, buffer.position());
+        assertEquals("Recycled buffer should be cleared.", buffer.capacity(), buffer.limit());
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("Still a single buffer on the free list", totalMemory - size, pool.unallocatedMemory());
+        buffer = pool.allocate(2 * size, maxBlockTimeMs);
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("Non-standard size didn't go to the free list.", totalMemory - size, pool.unallocatedMemory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCantAllocateMoreMemoryThanWeHave() throws Exception {
+        StripedBufferPool pool = new StripedBufferPool(1024, 512, 4, metrics, time, metricGroup);
+        pool.allocate(1025, maxBlockTimeMs);
+    }
+
+    /**
+     * Buffers pooled by other threads, and so on other stripes, are released to satisfy a larger allocation
+     */
+    @Test
+    public void testPooledBuffersOfOtherStripesAreReleased() throws Exception {
+        final StripedBufferPool pool = new StripedBufferPool(4, 1, 4, metrics, time, metricGroup);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        pool.deallocate(pool.allocate(1, maxBlockTimeMs));
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4, pool.availableMemory());
+        ByteBuffer buffer = pool.allocate(4, maxBlockTimeMs);
+        assertEquals(4, buffer.capacity());
+        assertEquals(0, pool.availableMemory());
+        assertEquals(0, pool.freeSize());
+    }
+
+    @Test
+    public void testDelayedAllocation() throws Exception {
+        StripedBufferPool pool = new StripedBufferPool(5 * 1024, 1024, 4, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(1024, maxBlockTimeMs);
+        CountDownLatch doDealloc = asyncDeallocate(pool, buffer);
+        CountDownLatch allocation = asyncAllocate(pool, 5 * 1024);
+        assertEquals("Allocation shouldn't have happened yet, waiting on memory.", 1L, allocation.getCount());
+        doDealloc.countDown(); // return the memory
+        assertTrue("Allocation should succeed soon after de-allocation", allocation.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Allocations which could be satisfied queue behind a blocked thread rather than starving it
+     */
+    @Test
+    public void testAllocationsQueueBehindWaiter() throws Exception {
+        StripedBufferPool pool = new StripedBufferPool(2, 1, 4, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(1, maxBlockTimeMs);
+        CountDownLatch large = asyncAllocate(pool, 2);
+        waitForQueued(pool, 1);
+
+        CountDownLatch small = asyncAllocate(pool, 1);
+        waitForQueued(pool, 2);
+        assertEquals(1L, large.getCount());
+        assertEquals(1L, small.getCount());
+
+        pool.deallocate(buffer);
+        assertTrue("The waiting allocation should be served first", large.await(1, TimeUnit.SECONDS));
+        assertEquals(1L, small.getCount());
+    }
+
+    @Test
+    public void testCleanupMemoryAvailabilityWaiterOnBlockTimeout() throws Exception {
+        StripedBufferPool pool = new StripedBufferPool(2, 1, 4, metrics, time, metricGroup);
+        pool.allocate(1, maxBlockTimeMs);
+        try {
+            pool.allocate(2, 1);
+            fail("The buffer allocated more memory than its maximum value 2");
+        } catch (TimeoutException e) {
+            // this is good
+        }
+        assertEquals(0, pool.queued());
+        assertTrue(pool.waiters().isEmpty());
+        assertEquals(1, pool.availableMemory());
+    }
+
+    @Test
+    public void testStressfulSituation() throws Exception {
+        int numThreads = 10;
+        final int iterations = 50000;
+        final int poolableSize = 1024;
+        final long totalMemory = numThreads / 2 * poolableSize;
+        final StripedBufferPool pool = new StripedBufferPool(totalMemory, poolableSize, 4, metrics, time, metricGroup);
+        List<BufferPoolTest.StressTestThread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++)
+            threads.add(new BufferPoolTest.StressTestThread(pool, iterations));
+        for (BufferPoolTest.StressTestThread thread : threads)
+            thread.start();
+        for (BufferPoolTest.StressTestThread thread : threads)
+            thread.join();
+        for (BufferPoolTest.StressTestThread thread : threads)
+            assertTrue("Thread should have completed all iterations successfully.", thread.success.get());
+        assertEquals(totalMemory, pool.availableMemory());
+        assertFalse(pool.queued() > 0);
+    }
+
+    private void waitForQueued(StripedBufferPool pool, int queued) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + maxBlockTimeMs;
+        while (pool.queued() < queued) {
+            if (System.currentTimeMillis() > deadlineMs)
+                fail("Allocation did not block");
+            Thread.sleep(5);
+        }
+    }
+
+    private CountDownLatch asyncDeallocate(final StripedBufferPool pool, final ByteBuffer buffer) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                pool.deallocate(buffer);
+            }
+        };
+        thread.start();
+        return latch;
+    }
+
+    private CountDownLatch asyncAllocate(final StripedBufferPool pool, final int size) {
+        final CountDownLatch completed = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    pool.allocate(size, maxBlockTimeMs);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    completed.countDown();
+                }
+            }
+        };
+        thread.start();
+        return completed;
+    }
+}
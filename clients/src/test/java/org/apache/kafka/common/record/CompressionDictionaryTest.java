@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.UnknownCompressionDictionaryException;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionDictionaryTest {
+
+    @Test
+    public void testParseAll() {
+        CompressionDictionary dictionary = trainDictionary(1);
+        String encoded = DatatypeConverter.printBase64Binary(dictionary.bytes());
+        List<CompressionDictionary> parsed = CompressionDictionary.parseAll(Arrays.asList(" " + encoded + " "));
+        assertEquals(1, parsed.size());
+        assertEquals(dictionary.id(), parsed.get(0).id());
+        assertTrue(Arrays.equals(dictionary.bytes(), parsed.get(0).bytes()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsRawContentDictionary() {
+        CompressionDictionary.parse(Utils.utf8("not a trained dictionary"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsZeroDictionaryId() {
+        byte[] bytes = trainDictionary(2).bytes().clone();
+        Arrays.fill(bytes, 4, 8, (byte) 0);
+        CompressionDictionary.parse(bytes);
+    }
+
+    @Test
+    public void testRegisterReturnsExistingIdenticalDictionary() {
+        CompressionDictionary dictionary = trainDictionary(3);
+        CompressionDictionary registered = CompressionDictionary.register(dictionary);
+        CompressionDictionary copy = CompressionDictionary.parse(dictionary.bytes().clone());
+        assertSame(registered, CompressionDictionary.register(copy));
+        assertSame(registered, CompressionDictionary.forId(dictionary.id()));
+    }
+
+    @Test(expected = KafkaException.class)
+    public void testRegisterRejectsDifferentDictionaryWithSameId() {
+        CompressionDictionary dictionary = CompressionDictionary.register(trainDictionary(4));
+        byte[] bytes = dictionary.bytes().clone();
+        bytes[bytes.length - 1]++;
+        CompressionDictionary.register(CompressionDictionary.parse(bytes));
+    }
+
+    @Test
+    public void testUnregisterAfterEveryRegistration() {
+        CompressionDictionary dictionary = trainDictionary(9);
+        CompressionDictionary.register(dictionary);
+        CompressionDictionary.register(CompressionDictionary.parse(dictionary.bytes().clone()));
+
+        CompressionDictionary.unregister(dictionary);
+        assertSame(dictionary, CompressionDictionary.forId(dictionary.id()));
+        CompressionDictionary.unregister(dictionary);
+        try {
+            CompressionDictionary.forId(dictionary.id());
+            fail("Expected UnknownCompressionDictionaryException");
+        } catch (UnknownCompressionDictionaryException e) {
+            assertEquals(dictionary.id(), e.dictionaryId());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnregisterUnknownDictionary() {
+        CompressionDictionary.unregister(trainDictionary(10));
+    }
+
+    @Test
+    public void testRoundTripWithDictionary() {
+        CompressionDictionary dictionary = CompressionDictionary.register(trainDictionary(5));
+        MemoryRecords withDictionary = buildRecords(dictionary, 5);
+        MemoryRecords withoutDictionary = buildRecords(null, 5);
+        assertTrue("Dictionary compression should be more compact for small records",
+                withDictionary.sizeInBytes() < withoutDictionary.sizeInBytes());
+
+        Random random = new Random(5);
+        for (Record record : withDictionary.records())
+            assertEquals(sample(random), Utils.utf8(record.value(), record.valueSize()));
+    }
+
+    @Test
+    public void testUnknownDictionary() {
+        // trained but never registered, as on a client which has not fetched the topic's dictionaries yet
+        CompressionDictionary dictionary = trainDictionary(6);
+        MemoryRecords records = buildRecords(dictionary, 6);
+        try {
+            records.records().iterator().next();
+            fail("Expected UnknownCompressionDictionaryException");
+        } catch (UnknownCompressionDictionaryException e) {
+            assertEquals(dictionary.id(), e.dictionaryId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDictionaryNotSupportedByOtherCodecs() {
+        CompressionType.GZIP.wrapForOutput(new ByteBufferOutputStream(64), RecordBatch.MAGIC_VALUE_V2,
+                trainDictionary(7));
+    }
+
+    @Test
+    public void testFrameDictionaryId() throws IOException {
+        CompressionDictionary dictionary = CompressionDictionary.register(trainDictionary(8));
+        ByteBuffer withDictionary = compress(dictionary);
+        assertEquals(dictionary.id(), CompressionDictionary.frameDictionaryId(withDictionary));
+        assertEquals(0, CompressionDictionary.frameDictionaryId(compress(null)));
+        assertEquals(0, CompressionDictionary.frameDictionaryId(ByteBuffer.allocate(2)));
+    }
+
+    private static ByteBuffer compress(CompressionDictionary dictionary) throws IOException {
+        ByteBufferOutputStream output = new ByteBufferOutputStream(256);
+        OutputStream stream = CompressionType.ZSTD.wrapForOutput(output, RecordBatch.MAGIC_VALUE_V2, dictionary);
+        stream.write(Utils.utf8(sample(new Random(0))));
+        stream.close();
+        ByteBuffer buffer = output.buffer();
+        buffer.flip();
+        return buffer;
+    }
+
+    private static MemoryRecords buildRecords(CompressionDictionary dictionary, long seed) {
+        Random random = new Random(seed);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2,
+                CompressionType.ZSTD, dictionary, TimestampType.CREATE_TIME, 0L);
+        for (int i = 0; i < 3; i++)
+            builder.append(0L, null, Utils.utf8(sample(random)));
+        return builder.build();
+    }
+
+    private static CompressionDictionary trainDictionary(long seed) {
+        Random random = new Random(seed);
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 4096);
+        for (int i = 0; i < 2000; i++)
+            trainer.addSample(Utils.utf8(sample(random)));
+        return CompressionDictionary.parse(trainer.trainSamples());
+    }
+
+    private static String sample(Random random) {
+        return "{\"user\":\"user-" + random.nextInt(1000) + "\",\"event\":\"page_view\",\"page\":\"/products/" +
+                random.nextInt(100) + "\",\"referrer\":\"https://www.example.com/search\"}";
+    }
+
+}
@@ -261,7 +261,8 @@ public class FileLogInputStreamTest {
         List<Object[]> values = new ArrayList<>();
         for (byte magic : asList(MAGIC_VALUE_V0, MAGIC_VALUE_V1, MAGIC_VALUE_V2))
             for (CompressionType type: CompressionType.values())
-                values.add(new Object[] {magic, type});
+                if (type != CompressionType.ZSTD || magic >= MAGIC_VALUE_V2)
+                    values.add(new Object[] {magic, type});
         return values;
     }
 }
@@ -32,6 +32,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 @RunWith(value = Parameterized.class)
 public class MemoryRecordsBuilderTest {
@@ -46,6 +47,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testWriteEmptyRecordSet() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -129,6 +132,24 @@ public class MemoryRecordsBuilderTest {
                 0L, 0L, pid, epoch, sequence, false, true, RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity());
     }
 
+    @Test
+    public void testZStdCompressionNotAllowedMagicV0V1() {
+        assumeTrue(compressionType == CompressionType.ZSTD);
+
+        for (byte magic : Arrays.asList(RecordBatch.MAGIC_VALUE_V0, RecordBatch.MAGIC_VALUE_V1)) {
+            ByteBuffer buffer = ByteBuffer.allocate(128);
+            buffer.position(bufferOffset);
+            try {
+                new MemoryRecordsBuilder(buffer, magic, compressionType, TimestampType.CREATE_TIME, 0L, 0L,
+                        RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+                        RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity());
+                fail("Expected IllegalArgumentException for magic " + magic);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testWriteTransactionalWithInvalidPID() {
         ByteBuffer buffer = ByteBuffer.allocate(128);
@@ -201,6 +222,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testCompressionRateV0() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -232,6 +255,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testCompressionRateV1() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -263,6 +288,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void buildUsingLogAppendTime() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -292,6 +319,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void buildUsingCreateTime() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -325,6 +354,8 @@ public class MemoryRecordsBuilderTest {
     public void testAppendedChecksumConsistency() {
         ByteBuffer buffer = ByteBuffer.allocate(512);
         for (byte magic : Arrays.asList(RecordBatch.MAGIC_VALUE_V0, RecordBatch.MAGIC_VALUE_V1, RecordBatch.MAGIC_VALUE_V2)) {
+            if (compressionType == CompressionType.ZSTD && magic < RecordBatch.MAGIC_VALUE_V2)
+                continue;
             MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, magic, compressionType,
                     TimestampType.CREATE_TIME, 0L, LegacyRecord.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID,
                     RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
@@ -367,6 +398,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void writePastLimit() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(64);
         buffer.position(bufferOffset);
 
@@ -396,6 +429,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test(expected = IllegalArgumentException.class)
     public void testAppendAtInvalidOffset() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -435,7 +470,8 @@ public class MemoryRecordsBuilderTest {
         Records records = MemoryRecords.readableRecords(buffer).downConvert(RecordBatch.MAGIC_VALUE_V1, 0);
 
         List<? extends RecordBatch> batches = Utils.toList(records.batches().iterator());
-        if (compressionType != CompressionType.NONE) {
+        // ZStandard batches are written uncompressed when down-converted
+        if (compressionType != CompressionType.NONE && compressionType != CompressionType.ZSTD) {
             assertEquals(2, batches.size());
             assertEquals(TimestampType.LOG_APPEND_TIME, batches.get(0).timestampType());
             assertEquals(TimestampType.CREATE_TIME, batches.get(1).timestampType());
@@ -455,6 +491,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void convertToV1WithMixedV0AndV2Data() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(512);
         MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V0,
                 compressionType, TimestampType.NO_TIMESTAMP_TYPE, 0L);
@@ -524,6 +562,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnBuildWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -541,6 +581,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldResetBufferToInitialPositionOnAbort() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -554,6 +596,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnCloseWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -571,6 +615,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnAppendWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -586,6 +632,10 @@ public class MemoryRecordsBuilderTest {
         }
     }
 
+    private void assumeAtLeastV2OrNotZstd(byte magic) {
+        assumeTrue(compressionType != CompressionType.ZSTD || magic >= RecordBatch.MAGIC_VALUE_V2);
+    }
+
     @Parameterized.Parameters(name = "bufferOffset={0}, compression={1}")
     public static Collection<Object[]> data() {
         List<Object[]> values = new ArrayList<>();
@@ -18,16 +18,24 @@
 package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.kafka.common.network.Send;
+import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.SimpleRecord;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ProduceRequestTest {
 
@@ -83,6 +91,54 @@ public class ProduceRequestTest {
 
     }
 
+    @Test
+    public void testToSendWithDirectRecords() throws Exception {
+        MemoryRecords heapRecords = MemoryRecords.withRecords(CompressionType.NONE, simpleRecord);
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(heapRecords.sizeInBytes());
+        directBuffer.put(heapRecords.buffer());
+        directBuffer.flip();
+        Map<TopicPartition, MemoryRecords> partitionRecords = new LinkedHashMap<>();
+        partitionRecords.put(new TopicPartition("topic", 0), MemoryRecords.readableRecords(directBuffer));
+        partitionRecords.put(new TopicPartition("topic", 1), heapRecords);
+        partitionRecords.put(new TopicPartition("other", 0), MemoryRecords.readableRecords(directBuffer.duplicate()));
+        ProduceRequest request = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, (short) -1, 10,
+                partitionRecords).build();
+        RequestHeader header = new RequestHeader(ApiKeys.PRODUCE.id, request.version(), "client", 5);
+
+        Send send = request.toSend("1", header);
+        ByteBufferChannel channel = new ByteBufferChannel(send.size());
+        send.writeTo(channel);
+        channel.close();
+        assertTrue(send.completed());
+
+        // the same bytes as a request serialized to a single buffer
+        ByteBuffer serialized = request.serialize(header);
+        ByteBuffer expected = ByteBuffer.allocate(4 + serialized.remaining());
+        expected.putInt(serialized.remaining());
+        expected.put(serialized);
+        expected.flip();
+        assertEquals(expected, channel.buffer());
+    }
+
+    @Test
+    public void testZStdCompressionNeedsVersion7() {
+        MemoryRecords memoryRecords = MemoryRecords.withRecords(CompressionType.ZSTD, simpleRecord);
+        ProduceRequest.Builder builder = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, (short) -1, 10,
+                Collections.singletonMap(new TopicPartition("topic", 1), memoryRecords));
+        try {
+            builder.build((short) 6);
+            fail("Expected UnsupportedVersionException for ZStandard compressed batches in produce request version 6");
+        } catch (UnsupportedVersionException e) {
+            // expected
+        }
+
+        ProduceRequest request = builder.build((short) 7);
+        assertEquals(7, request.version());
+        // the broker parses older versions too, so that it can reject the partitions with UNSUPPORTED_COMPRESSION_TYPE
+        ProduceRequest parsed = new ProduceRequest(request.toStruct(), (short) 6);
+        assertEquals(request.partitionRecordsOrFail(), parsed.partitionRecordsOrFail());
+    }
+
     private ProduceRequest createNonIdempotentNonTransactionalRecords() {
         final MemoryRecords memoryRecords = MemoryRecords.withRecords(CompressionType.NONE,
                                                                       simpleRecord);
@@ -52,6 +52,7 @@ import org.apache.kafka.common.resource.ResourceType;
 import org.apache.kafka.common.utils.Utils;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
@@ -137,7 +138,10 @@ public class RequestResponseTest {
         checkErrorResponse(createProduceRequest(2), new UnknownServerException());
         checkRequest(createProduceRequest(3));
         checkErrorResponse(createProduceRequest(3), new UnknownServerException());
+        checkRequest(createProduceRequest(7));
+        checkErrorResponse(createProduceRequest(7), new UnknownServerException());
         checkResponse(createProduceResponse(), 2);
+        checkResponse(createProduceResponse(), 5);
         checkRequest(createStopReplicaRequest(true));
         checkRequest(createStopReplicaRequest(false));
         checkErrorResponse(createStopReplicaRequest(true), new UnknownServerException());
@@ -469,6 +473,33 @@ public class RequestResponseTest {
         assertEquals(responseData, deserialized.responseData());
     }
 
+    @Test
+    public void testSerializedMetadataResponseBodySend() throws Exception {
+        MetadataResponse response = createMetadataResponse();
+        for (short version = 0; version <= ApiKeys.METADATA.latestVersion(); version++) {
+            ByteBuffer body = response.serializeBody(version);
+            RequestHeader header = new RequestHeader(ApiKeys.METADATA.id, version, "client", 15);
+            MetadataResponse throttled = new MetadataResponse(100, new ArrayList<>(response.brokers()),
+                    response.clusterId(), MetadataResponse.NO_CONTROLLER_ID, new ArrayList<>(response.topicMetadata()));
+
+            ByteBuffer expected = writeSend(throttled.toSend("1", header));
+            ByteBuffer actual = writeSend(MetadataResponse.toSend("1", version, header.toResponseHeader(), body, 100));
+            assertEquals(expected, actual);
+            // the serialized body is shared, so sending it must not change it
+            assertEquals(response.serializeBody(version), body);
+        }
+    }
+
+    private ByteBuffer writeSend(Send send) throws IOException {
+        ByteBufferChannel channel = new ByteBufferChannel(send.size());
+        while (!send.completed())
+            send.writeTo(channel);
+        channel.close();
+        ByteBuffer buffer = channel.buffer();
+        buffer.rewind();
+        return buffer;
+    }
+
     @Test
     public void verifyFetchResponseFullWrite() throws Exception {
         FetchResponse fetchResponse = createFetchResponse();
@@ -546,6 +577,64 @@ public class RequestResponseTest {
         assertEquals(request.isolationLevel(), deserialized.isolationLevel());
     }
 
+    @Test
+    public void testIncrementalFetchRequestAndResponse() throws Exception {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 0L, 1000000));
+        FetchRequest request = FetchRequest.Builder.forConsumer(100, 100000, fetchData)
+            .metadata(new FetchMetadata(123, 7))
+            .toForget(Collections.singletonList(new TopicPartition("test2", 0)))
+            .build((short) 7);
+        FetchRequest deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals(new FetchMetadata(123, 7), deserialized.metadata());
+        assertEquals(fetchData, deserialized.fetchData());
+        assertEquals(Collections.singletonList(new TopicPartition("test2", 0)), deserialized.toForget());
+
+        FetchResponse errorResponse = (FetchResponse) request.getErrorResponse(new UnknownServerException());
+        assertEquals(Errors.UNKNOWN, errorResponse.error());
+        assertEquals(123, errorResponse.sessionId());
+        assertTrue(errorResponse.responseData().isEmpty());
+
+        FetchResponse response = new FetchResponse(Errors.NONE, createFetchResponse().responseData(), 10, 123);
+        FetchResponse deserializedResponse = (FetchResponse) deserialize(response, response.toStruct((short) 7), (short) 7);
+        assertEquals(Errors.NONE, deserializedResponse.error());
+        assertEquals(123, deserializedResponse.sessionId());
+        assertEquals(response.responseData().keySet(), deserializedResponse.responseData().keySet());
+    }
+
+    @Test(expected = UnsupportedVersionException.class)
+    public void testIncrementalFetchRequestOldVersion() {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        FetchRequest.Builder.forConsumer(100, 100000, fetchData).metadata(new FetchMetadata(123, 7)).build((short) 6);
+    }
+
+    @Test
+    public void testFetchRequestCurrentLeaderEpoch() throws Exception {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 0L, 1000000, 5));
+        FetchRequest request = FetchRequest.Builder.forConsumer(100, 100000, fetchData).build((short) 9);
+        FetchRequest deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals(fetchData, deserialized.fetchData());
+
+        request = FetchRequest.Builder.forConsumer(100, 100000, fetchData).build((short) 8);
+        deserialized = (FetchRequest) deserialize(request, request.toStruct(), request.version());
+        assertEquals(RecordBatch.NO_PARTITION_LEADER_EPOCH,
+            deserialized.fetchData().get(new TopicPartition("test1", 0)).currentLeaderEpoch);
+    }
+
+    @Test
+    public void testProduceResponseLogStartOffset() throws Exception {
+        TopicPartition tp = new TopicPartition("test", 0);
+        ProduceResponse response = new ProduceResponse(Collections.singletonMap(tp,
+            new ProduceResponse.PartitionResponse(Errors.NONE, 10000, RecordBatch.NO_TIMESTAMP, 100)), 0);
+
+        ProduceResponse deserialized = (ProduceResponse) deserialize(response, response.toStruct((short) 5), (short) 5);
+        assertEquals(100, deserialized.responses().get(tp).logStartOffset);
+
+        deserialized = (ProduceResponse) deserialize(response, response.toStruct((short) 4), (short) 4);
+        assertEquals(ProduceResponse.INVALID_OFFSET, deserialized.responses().get(tp).logStartOffset);
+    }
+
     @Test
     public void testJoinGroupRequestVersion0RebalanceTimeout() throws Exception {
         final short version = 0;
@@ -20,6 +20,9 @@ import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.utils.Bytes;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -29,6 +32,7 @@ import java.util.Map;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class SerializationTest {
@@ -76,6 +80,39 @@ public class SerializationTest {
         }
     }
 
+    @Test
+    public void dataOutputSerializersShouldWriteSerializedBytes() throws IOException {
+        for (Map.Entry<Class<Object>, List<Object>> test : testData.entrySet()) {
+            try (Serde<Object> serde = Serdes.serdeFrom(test.getKey())) {
+                if (!(serde.serializer() instanceof DataOutputSerializer))
+                    continue;
+                DataOutputSerializer<Object> serializer = (DataOutputSerializer<Object>) serde.serializer();
+                for (Object value : test.getValue())
+                    assertWritesSerializedBytes(serializer, value);
+                assertWritesSerializedBytes(serializer, null);
+            }
+        }
+    }
+
+    @Test
+    public void stringDataOutputSerializerShouldSupportDifferentEncodings() throws IOException {
+        for (String encoding : Arrays.asList("UTF8", "UTF-8", "UTF-16")) {
+            try (Serde<String> serde = getStringSerde(encoding)) {
+                DataOutputSerializer<String> serializer = (DataOutputSerializer<String>) serde.serializer();
+                assertWritesSerializedBytes(serializer, "my string");
+                assertWritesSerializedBytes(serializer, "A\u00ea\u00f1\u00fcC \u20ac \ud83d\ude00");
+            }
+        }
+    }
+
+    private <T> void assertWritesSerializedBytes(DataOutputSerializer<T> serializer, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean written = serializer.serialize(topic, null, value, new DataOutputStream(bytes));
+        byte[] serialized = serializer.serialize(topic, value);
+        assertEquals("Should write a value only for non-null serialized data", serialized != null, written);
+        assertArrayEquals(serialized == null ? new byte[0] : serialized, bytes.toByteArray());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSerdeFromUnknown() {
         Serdes.serdeFrom(DummyClass.class);
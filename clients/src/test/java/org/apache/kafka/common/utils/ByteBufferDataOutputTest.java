@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ByteBufferDataOutputTest {
+
+    @Test
+    public void testWritesLikeDataOutputStream() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writeAll(new DataOutputStream(expected));
+
+        // starts small so that every kind of write has to expand the buffer at some point
+        ByteBufferDataOutput output = new ByteBufferDataOutput(ByteBuffer.allocate(3));
+        writeAll(output);
+
+        ByteBuffer buffer = output.buffer();
+        buffer.flip();
+        assertArrayEquals(expected.toByteArray(), Utils.toArray(buffer));
+    }
+
+    @Test(expected = UTFDataFormatException.class)
+    public void testWriteUTFTooLong() throws IOException {
+        new ByteBufferDataOutput(16).writeUTF(new String(new char[65536]).replace('\0', 'x'));
+    }
+
+    private void writeAll(DataOutput out) throws IOException {
+        out.write(7);
+        out.write(new byte[] {1, 2, 3});
+        out.write(new byte[] {4, 5, 6, 7}, 1, 2);
+        out.writeBoolean(true);
+        out.writeBoolean(false);
+        out.writeByte(-1);
+        out.writeShort(-12345);
+        out.writeChar('\u20ac');
+        out.writeInt(Integer.MIN_VALUE);
+        out.writeLong(Long.MAX_VALUE);
+        out.writeFloat(1.5f);
+        out.writeDouble(-2.25);
+        out.writeBytes("bytes\u00ea");
+        out.writeChars("chars\u00ea");
+        out.writeUTF("utf \u0000 \u00ea \u20ac \ud83d\ude00");
+    }
+
+}
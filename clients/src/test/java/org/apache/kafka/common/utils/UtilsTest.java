@@ -21,6 +21,7 @@ import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -160,6 +161,30 @@ public class UtilsTest {
         assertEquals(utf8String, Utils.utf8(utf8Bytes));
     }
 
+    @Test
+    public void testWriteUtf8() throws IOException {
+        String[] strings = {"", "ascii", "A\u00ea\u00f1\u00fcC", "\u20ac\u4e2d", "\ud83d\ude00 pair",
+            "lone \ud83d high", "lone \ude00 low", "trailing \ud83d"};
+        for (String s : strings) {
+            byte[] utf8Bytes = s.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Utils.writeUtf8(new DataOutputStream(bytes), s);
+            assertArrayEquals(utf8Bytes, bytes.toByteArray());
+            assertEquals(utf8Bytes.length, Utils.utf8Length(s));
+
+            ByteBuffer buffer = ByteBuffer.allocate(utf8Bytes.length);
+            Utils.writeUtf8(buffer, s);
+            assertArrayEquals(utf8Bytes, buffer.array());
+
+            // a small output has to grow, so the length is computed before encoding into it
+            ByteBufferDataOutput output = new ByteBufferDataOutput(1);
+            Utils.writeUtf8(output, s);
+            ByteBuffer written = output.buffer();
+            written.flip();
+            assertArrayEquals(utf8Bytes, Utils.toArray(written));
+        }
+    }
+
     @Test
     public void utf8ByteBufferSerde() {
         doTestUtf8ByteBuffer(ByteBuffer.allocate(20));
@@ -69,7 +69,12 @@ object ApiVersion {
     "0.11.0-IV1" -> KAFKA_0_11_0_IV1,
     // Introduced leader epoch fetches to the replica fetcher via KIP-101
     "0.11.0-IV2" -> KAFKA_0_11_0_IV2,
-    "0.11.0" -> KAFKA_0_11_0_IV2
+    "0.11.0" -> KAFKA_0_11_0_IV2,
+    // introduced FetchRequest v7 with fetch sessions for incremental fetches in KIP-227
+    "0.11.1-IV0" -> KAFKA_0_11_1_IV0,
+    // introduced ZStandard compression with ProduceRequest v7 and FetchRequest v10 in KIP-110
+    "0.11.1-IV1" -> KAFKA_0_11_1_IV1,
+    "0.11.1" -> KAFKA_0_11_1_IV1
   )
 
   private val versionPattern = "\\.".r
@@ -171,3 +176,15 @@ case object KAFKA_0_11_0_IV2 extends ApiVersion {
   val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
   val id: Int = 12
 }
+
+case object KAFKA_0_11_1_IV0 extends ApiVersion {
+  val version: String = "0.11.1-IV0"
+  val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
+  val id: Int = 13
+}
+
+case object KAFKA_0_11_1_IV1 extends ApiVersion {
+  val version: String = "0.11.1-IV1"
+  val messageFormatVersion: Byte = RecordBatch.MAGIC_VALUE_V2
+  val id: Int = 14
+}
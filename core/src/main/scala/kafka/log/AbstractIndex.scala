@@ -44,6 +44,10 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
   protected val lock = new ReentrantLock
 
+  /* whether reads take the lock, so that the index can be unmapped while it may be read, see [[unmap]] */
+  @volatile
+  private var readsLocked = false
+
   @volatile
   protected var mmap: MappedByteBuffer = {
     val newlyCreated = file.createNewFile()
@@ -158,6 +162,27 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
     file.delete()
   }
 
+  /**
+   * Make reads of this index take its lock from now on, so that [[unmap]] waits for the reads in progress
+   */
+  private[log] def lockReads(): Unit = readsLocked = true
+
+  /**
+   * Forcefully unmap this index without touching its file, after flushing it. The index must not be used afterwards.
+   * Reads that were started before [[lockReads]] was called are not waited for.
+   */
+  private[log] def unmap(): Unit = {
+    inLock(lock) {
+      // the index may have been deleted, which unmaps it too
+      if (mmap != null) {
+        mmap.force()
+        CoreUtils.swallow(forceUnmap(mmap))
+        // Accessing unmapped mmap crashes JVM by SEGV, a read which still gets here fails in maybeLock instead
+        mmap = null
+      }
+    }
+  }
+
   /**
    * Trim this segment to fit just the valid entries, deleting all trailing unwritten bytes from
    * the file.
@@ -215,16 +240,20 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
   }
 
   /**
-   * Execute the given function in a lock only if we are running on windows. We do this
+   * Execute the given function in a lock only if we are running on windows or reads have been locked. We do this
    * because Windows won't let us resize a file while it is mmapped. As a result we have to force unmap it
-   * and this requires synchronizing reads.
+   * and this requires synchronizing reads. The same goes for an index which may be unmapped when it is unloaded.
    */
   protected def maybeLock[T](lock: Lock)(fun: => T): T = {
-    if (OperatingSystem.IS_WINDOWS)
+    val locked = OperatingSystem.IS_WINDOWS || readsLocked
+    if (locked)
       lock.lock()
-    try fun
-    finally {
-      if (OperatingSystem.IS_WINDOWS)
+    try {
+      if (locked && mmap == null)
+        throw new IllegalStateException(s"Index ${file.getAbsolutePath} has been unmapped")
+      fun
+    } finally {
+      if (locked)
         lock.unlock()
     }
   }
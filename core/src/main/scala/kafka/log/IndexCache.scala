@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.util
+import java.util.concurrent.TimeUnit
+
+import com.yammer.metrics.core.Gauge
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.threadsafe
+
+/**
+ * The loaded indexes of inactive log segments, owned by the [[LogManager]]. When more than `maxLoadedIndexes` of them
+ * are loaded, indexes which have not been used recently are unloaded and they are loaded again from their files when
+ * they are next used.
+ *
+ * Using a loaded index only sets a flag on the index, so reads never take the lock of the cache. The cache approximates
+ * least recently used eviction with a clock: it looks at the indexes in the order they were loaded, gives an index
+ * which has been used since it was last looked at a second chance and unloads the first one which has not.
+ *
+ * Unloading an index unmaps it, so that the broker does not keep the mappings of the indexes it has unloaded until
+ * they are garbage collected. Reads of an evictable index take the lock of the index, which unmapping it waits for.
+ *
+ * @param maxLoadedIndexes The maximum number of evictable indexes to keep loaded
+ */
+@threadsafe
+class IndexCache(val maxLoadedIndexes: Int) extends KafkaMetricsGroup {
+
+  /* the loaded evictable indexes, in the order the clock looks at them */
+  private val loaded = new util.LinkedHashMap[LazyIndex[_], java.lang.Boolean]
+
+  private val missRate = newMeter("IndexCacheMissesPerSec", "misses", TimeUnit.SECONDS)
+  newGauge("LoadedIndexes", new Gauge[Int] { def value = loadedIndexes })
+
+  def loadedIndexes: Int = loaded synchronized loaded.size
+
+  def misses: Long = missRate.count
+
+  /**
+   * Record the loading of an evictable index, unloading indexes which have not been used recently if there are too many
+   */
+  private[log] def miss(index: LazyIndex[_]): Unit = {
+    missRate.mark()
+    add(index)
+  }
+
+  /**
+   * Add an index which has become evictable while it was loaded
+   */
+  private[log] def add(index: LazyIndex[_]): Unit = {
+    // indexes are unloaded outside of the lock of the cache, so that they never hold both locks
+    evict(index).foreach(_.unload())
+  }
+
+  private[log] def remove(index: LazyIndex[_]): Unit = loaded synchronized loaded.remove(index)
+
+  /**
+   * Unregister the metrics of this cache, so that a new cache can register them
+   */
+  def shutdown(): Unit = {
+    removeMetric("IndexCacheMissesPerSec")
+    removeMetric("LoadedIndexes")
+  }
+
+  /**
+   * Add the index and take the indexes which have not been used recently out of the cache. The index which was just
+   * added is never evicted, since the caller is about to use it.
+   */
+  private def evict(index: LazyIndex[_]): Seq[LazyIndex[_]] = loaded synchronized {
+    loaded.put(index, java.lang.Boolean.TRUE)
+    val evicted = Seq.newBuilder[LazyIndex[_]]
+    // every index is given at most one second chance, so this stops after two turns of the clock
+    while (loaded.size > math.max(maxLoadedIndexes, 1)) {
+      val next = loaded.keySet.iterator.next()
+      loaded.remove(next)
+      if (next.eq(index) || next.clearUsed())
+        loaded.put(next, java.lang.Boolean.TRUE)
+      else
+        evicted += next
+    }
+    evicted.result()
+  }
+
+}
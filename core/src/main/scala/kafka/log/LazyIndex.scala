@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.utils.CoreUtils.inLock
+import kafka.utils.threadsafe
+import org.apache.kafka.common.utils.Utils
+
+/**
+ * An index whose file is only memory mapped when the index is used for the first time. Most segments of a log are
+ * never read after the broker starts, so this avoids mapping every index of every log on startup.
+ *
+ * Renaming, deleting, flushing and closing an index which has not been loaded only touch its file.
+ *
+ * Once an index will not be written to again, because its segment is no longer the active segment and the index has
+ * been trimmed, it can be made evictable. Evictable indexes are unloaded by an [[IndexCache]] when they have not been
+ * used recently. Reads of an evictable index should go through [[read]], which loads the index again if it is unloaded
+ * while it is being read.
+ *
+ * @param _file The index file
+ * @param loadIndex Create the index from its file
+ * @param reloadable Whether the index can be loaded again after it has been unloaded
+ */
+@threadsafe
+class LazyIndex[T <: AbstractIndex[_, _]] private (@volatile private var _file: File, loadIndex: File => T,
+                                                   reloadable: Boolean) {
+
+  private val lock = new ReentrantLock
+
+  @volatile private var index: Option[T] = None
+
+  /* the cache which may unload the index, if it is evictable */
+  @volatile private var cache: Option[IndexCache] = None
+
+  /* whether the loaded index has been used since the index cache last looked at it */
+  @volatile private var used = false
+
+  def file: File = index.map(_.file).getOrElse(_file)
+
+  def file_=(f: File): Unit = inLock(lock) {
+    index match {
+      case Some(idx) => idx.file = f
+      case None => _file = f
+    }
+  }
+
+  def isLoaded: Boolean = index.isDefined
+
+  /**
+   * The index, memory mapping its file if it has not been loaded yet
+   */
+  def get: T = index match {
+    case Some(idx) =>
+      // only write the flag when it changes, so that concurrent reads do not contend on it
+      if (!used && cache.isDefined)
+        used = true
+      idx
+    case None =>
+      var loadedInto: Option[IndexCache] = None
+      val idx = inLock(lock) {
+        index match {
+          case Some(idx) => idx
+          case None =>
+            val idx = loadIndex(_file)
+            if (cache.isDefined)
+              idx.lockReads()
+            index = Some(idx)
+            loadedInto = cache
+            idx
+        }
+      }
+      loadedInto.foreach(_.miss(this))
+      idx
+  }
+
+  /**
+   * Read the index. If the index cache unloads the index before the read takes the lock of the index, the read fails
+   * on the unmapped index and is run again against the index loaded again from its file.
+   */
+  def read[R](fun: T => R): R = {
+    var result: Option[R] = None
+    while (result.isEmpty) {
+      val idx = get
+      try result = Some(fun(idx))
+      catch {
+        // the index was unloaded during the read, the next iteration loads it again
+        case _: IllegalStateException if !index.exists(_ eq idx) =>
+      }
+    }
+    result.get
+  }
+
+  def isEvictable: Boolean = cache.isDefined
+
+  /**
+   * Clear the flag which records that the index has been used, returning whether it was set
+   */
+  private[log] def clearUsed(): Boolean = {
+    val wasUsed = used
+    if (wasUsed)
+      used = false
+    wasUsed
+  }
+
+  /**
+   * Let the index cache unload this index when it has not been used recently. The index must not be written to
+   * until it is pinned again. This does nothing for an index which was wrapped after it had been loaded.
+   */
+  def makeEvictable(indexCache: IndexCache): Unit = {
+    if (reloadable) {
+      val wasLoaded = inLock(lock) {
+        cache = Some(indexCache)
+        index.foreach(_.lockReads())
+        index.isDefined
+      }
+      if (wasLoaded)
+        indexCache.add(this)
+    }
+  }
+
+  /**
+   * Stop the index cache from unloading this index, before it is written to
+   */
+  def pin(): Unit = {
+    val previous = inLock(lock) {
+      val previous = cache
+      cache = None
+      previous
+    }
+    previous.foreach(_.remove(this))
+  }
+
+  /**
+   * Unmap and drop the loaded index if it is still evictable
+   */
+  private[log] def unload(): Unit = inLock(lock) {
+    if (cache.isDefined) {
+      // drop the index before unmapping it, so that a read which fails on the unmapped index knows to load it again
+      val unloaded = index
+      index = None
+      used = false
+      unloaded.foreach(_.unmap())
+    }
+  }
+
+  /**
+   * Rename the file that backs this index
+   *
+   * @throws java.io.IOException if rename fails
+   */
+  def renameTo(f: File): Unit = inLock(lock) {
+    index match {
+      case Some(idx) => idx.renameTo(f)
+      case None =>
+        try Utils.atomicMoveWithFallback(_file.toPath, f.toPath)
+        finally _file = f
+    }
+  }
+
+  def flush(): Unit = index.foreach(_.flush())
+
+  def close(): Unit = {
+    pin()
+    inLock(lock) {
+      index.foreach(_.close())
+    }
+  }
+
+  /**
+   * Delete the index file
+   */
+  def delete(): Boolean = {
+    pin()
+    inLock(lock) {
+      index match {
+        case Some(idx) => idx.delete()
+        case None => _file.delete()
+      }
+    }
+  }
+
+}
+
+object LazyIndex {
+
+  def forOffset(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true): LazyIndex[OffsetIndex] =
+    new LazyIndex(file, file => new OffsetIndex(file, baseOffset, maxIndexSize, writable), reloadable = true)
+
+  def forTime(file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true): LazyIndex[TimeIndex] =
+    new LazyIndex(file, file => new TimeIndex(file, baseOffset, maxIndexSize, writable), reloadable = true)
+
+  /**
+   * Wrap an index which has already been loaded. The index is never unloaded.
+   */
+  def loaded[T <: AbstractIndex[_, _]](index: T): LazyIndex[T] = {
+    val lazyIndex = new LazyIndex[T](index.file, _ => index, reloadable = false)
+    lazyIndex.get
+    lazyIndex
+  }
+
+}
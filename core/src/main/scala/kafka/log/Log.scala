@@ -21,7 +21,7 @@ import java.io.{File, IOException}
 import java.nio.file.Files
 import java.text.NumberFormat
 import java.util.concurrent.atomic._
-import java.util.concurrent.{ConcurrentNavigableMap, ConcurrentSkipListMap, TimeUnit}
+import java.util.concurrent.{Callable, ConcurrentNavigableMap, ConcurrentSkipListMap, ExecutionException, Executors, ThreadFactory, TimeUnit}
 
 import kafka.api.KAFKA_0_10_0_IV0
 import kafka.common._
@@ -35,8 +35,9 @@ import org.apache.kafka.common.requests.{IsolationLevel, ListOffsetRequest}
 import scala.collection.JavaConverters._
 import scala.collection.mutable.{ArrayBuffer, ListBuffer}
 import scala.collection.{Seq, mutable}
+import scala.util.{Failure, Try}
 import com.yammer.metrics.core.Gauge
-import org.apache.kafka.common.utils.{Time, Utils}
+import org.apache.kafka.common.utils.{KafkaThread, Time, Utils}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, NoCompressionCodec}
 import kafka.server.checkpoints.{LeaderEpochCheckpointFile, LeaderEpochFile}
 import kafka.server.epoch.{LeaderEpochCache, LeaderEpochFileCache}
@@ -47,7 +48,7 @@ import java.lang.{Long => JLong}
 import java.util.regex.Pattern
 
 object LogAppendInfo {
-  val UnknownLogAppendInfo = LogAppendInfo(-1, -1, RecordBatch.NO_TIMESTAMP, -1L, RecordBatch.NO_TIMESTAMP,
+  val UnknownLogAppendInfo = LogAppendInfo(-1, -1, RecordBatch.NO_TIMESTAMP, -1L, RecordBatch.NO_TIMESTAMP, -1L,
     NoCompressionCodec, NoCompressionCodec, -1, -1, offsetsMonotonic = false)
 }
 
@@ -60,6 +61,7 @@ object LogAppendInfo {
  * @param maxTimestamp The maximum timestamp of the message set.
  * @param offsetOfMaxTimestamp The offset of the message with the maximum timestamp.
  * @param logAppendTime The log append time (if used) of the message set, otherwise Message.NoTimestamp
+ * @param logStartOffset The start offset of the log at the time of this append
  * @param sourceCodec The source codec used in the message set (send by the producer)
  * @param targetCodec The target codec of the message set(after applying the broker compression configuration if any)
  * @param shallowCount The number of shallow messages
@@ -71,6 +73,7 @@ case class LogAppendInfo(var firstOffset: Long,
                          var maxTimestamp: Long,
                          var offsetOfMaxTimestamp: Long,
                          var logAppendTime: Long,
+                         var logStartOffset: Long,
                          sourceCodec: CompressionCodec,
                          targetCodec: CompressionCodec,
                          shallowCount: Int,
@@ -124,6 +127,10 @@ case class CompletedTxn(producerId: Long, firstOffset: Long, lastOffset: Long, i
  * @param time The time instance used for checking the clock
  * @param maxProducerIdExpirationMs The maximum amount of time to wait before a producer id is considered expired
  * @param producerIdExpirationCheckIntervalMs How often to check for producer ids which need to be expired
+ * @param recoveryThreads The number of threads used to validate the unflushed segments of this log and rebuild their
+ *                        indexes after an unclean shutdown
+ * @param logFlusher Flushes the previous segment in the background when a segment is rolled, if defined
+ * @param indexCache Unloads the indexes of inactive segments which have not been used recently, if defined
  */
 @threadsafe
 class Log(@volatile var dir: File,
@@ -136,7 +143,10 @@ class Log(@volatile var dir: File,
           val maxProducerIdExpirationMs: Int,
           val producerIdExpirationCheckIntervalMs: Int,
           val topicPartition: TopicPartition,
-          val producerStateManager: ProducerStateManager) extends Logging with KafkaMetricsGroup {
+          val producerStateManager: ProducerStateManager,
+          val recoveryThreads: Int = 1,
+          logFlusher: Option[LogFlusher] = None,
+          private[log] val indexCache: Option[IndexCache] = None) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
@@ -305,12 +315,16 @@ class Log(@volatile var dir: File,
 
         if (indexFileExists) {
           try {
-            segment.index.sanityCheck()
             // Resize the time index file to 0 if it is newly created.
             if (!timeIndexFileExists)
               segment.timeIndex.resize(0)
-            segment.timeIndex.sanityCheck()
-            segment.txnIndex.sanityCheck()
+            // the indexes were flushed before a clean shutdown, so we only check them after a crash rather than
+            // memory mapping the indexes of every segment on startup
+            if (!hasCleanShutdownFile) {
+              segment.index.sanityCheck()
+              segment.timeIndex.sanityCheck()
+              segment.txnIndex.sanityCheck()
+            }
           } catch {
             case e: java.lang.IllegalArgumentException =>
               warn(s"Found a corrupted index file due to ${e.getMessage}}. deleting ${timeIndexFile.getAbsolutePath}, " +
@@ -329,7 +343,13 @@ class Log(@volatile var dir: File,
     }
   }
 
-  private def recoverSegment(segment: LogSegment, leaderEpochCache: Option[LeaderEpochCache] = None): Int = lock synchronized {
+  /**
+   * Recover the given segment and replay it into the producer state and the leader epoch cache. The segments of the
+   * log must be recovered in order. If the indexes of the segment have already been rebuilt by
+   * [[recoverIndexesConcurrently]], only the producer state is recovered and no bytes are truncated.
+   */
+  private def recoverSegment(segment: LogSegment, leaderEpochCache: Option[LeaderEpochCache] = None,
+                             indexesRecovered: Boolean = false): Int = lock synchronized {
     val stateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
     stateManager.truncateAndReload(logStartOffset, segment.baseOffset, time.milliseconds)
     logSegments(stateManager.mapEndOffset, segment.baseOffset).foreach { segment =>
@@ -339,7 +359,13 @@ class Log(@volatile var dir: File,
         loadProducersFromLog(stateManager, fetchDataInfo.records)
     }
     stateManager.updateMapEndOffset(segment.baseOffset)
-    val bytesTruncated = segment.recover(stateManager, leaderEpochCache)
+
+    val bytesTruncated =
+      if (indexesRecovered) {
+        segment.recoverProducerState(stateManager, leaderEpochCache)
+        0
+      } else
+        segment.recover(stateManager, leaderEpochCache)
 
     // once we have recovered the segment's data, take a snapshot to ensure that we won't
     // need to reload the same segment again while recovering another segment.
@@ -347,6 +373,38 @@ class Log(@volatile var dir: File,
     bytesTruncated
   }
 
+  /**
+   * Validate the given segments and rebuild their indexes on up to `recoveryThreads` threads. The outcome of each
+   * segment is returned in the order of the segments, so that a failure only surfaces once the segments before it
+   * have been replayed. Returns None if a single thread would be used, in which case each segment is recovered in a
+   * single pass by [[recoverSegment]].
+   */
+  private def recoverIndexesConcurrently(segments: Seq[LogSegment]): Option[Iterator[Try[Int]]] = {
+    val numThreads = math.min(recoveryThreads, segments.size)
+    if (numThreads <= 1)
+      None
+    else {
+      info(s"Recovering the indexes of ${segments.size} unflushed segments of log $name on $numThreads threads.")
+      val threadId = new AtomicInteger(1)
+      val pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+        def newThread(runnable: Runnable): Thread =
+          new KafkaThread("kafka-log-recovery-" + name + "-" + threadId.getAndIncrement(), runnable, true)
+      })
+      try {
+        val futures = segments.map { segment =>
+          pool.submit(new Callable[Int] {
+            def call(): Int = segment.recoverIndexes()
+          })
+        }
+        Some(futures.map { future =>
+          Try(future.get).recoverWith { case e: ExecutionException => Failure(e.getCause) }
+        }.iterator)
+      } finally {
+        pool.shutdownNow()
+      }
+    }
+  }
+
   private def completeSwapOperations(swapFiles: Set[File]): Unit = {
     for (swapFile <- swapFiles) {
       val logFile = new File(CoreUtils.replaceSuffix(swapFile.getPath, SwapFileSuffix, ""))
@@ -404,6 +462,14 @@ class Log(@volatile var dir: File,
       activeSegment.index.resize(config.maxIndexSize)
       activeSegment.timeIndex.resize(config.maxIndexSize)
     }
+
+    // the indexes of the inactive segments are not written to anymore, so they can be unloaded when unused
+    indexCache.foreach { cache =>
+      logSegments.foreach { segment =>
+        if (segment ne activeSegment)
+          segment.makeIndexesEvictable(cache)
+      }
+    }
   }
 
   private def updateLogEndOffset(messageOffset: Long) {
@@ -417,14 +483,24 @@ class Log(@volatile var dir: File,
       return
     }
 
-    // okay we need to actually recovery this log
-    val unflushed = logSegments(this.recoveryPoint, Long.MaxValue).iterator
+    // okay we need to actually recovery this log. The segments are validated and their indexes rebuilt concurrently,
+    // then their batches are replayed into the producer state in order.
+    val unflushedSegments = logSegments(this.recoveryPoint, Long.MaxValue).toBuffer
+    val recoveredIndexes = recoverIndexesConcurrently(unflushedSegments)
+    val unflushed = unflushedSegments.iterator
     while(unflushed.hasNext) {
       val segment = unflushed.next
       info("Recovering unflushed segment %d in log %s.".format(segment.baseOffset, name))
       val truncatedBytes =
         try {
-          recoverSegment(segment, Some(leaderEpochCache))
+          recoveredIndexes match {
+            case Some(recovered) =>
+              val bytesTruncated = recovered.next().get
+              recoverSegment(segment, Some(leaderEpochCache), indexesRecovered = true)
+              bytesTruncated
+            case None =>
+              recoverSegment(segment, Some(leaderEpochCache))
+          }
         } catch {
           case _: InvalidOffsetException =>
             val startOffset = segment.baseOffset
@@ -602,7 +678,8 @@ class Log(@volatile var dir: File,
               config.messageTimestampType,
               config.messageTimestampDifferenceMaxMs,
               leaderEpoch,
-              isFromClient)
+              isFromClient,
+              config.compressionDictionaries.headOption)
           } catch {
             case e: IOException => throw new KafkaException("Error in validating messages while appending to log '%s'".format(name), e)
           }
@@ -697,6 +774,8 @@ class Log(@volatile var dir: File,
         trace("Appended message set to log %s with first offset: %d, next offset: %d, and messages: %s"
           .format(this.name, appendInfo.firstOffset, nextOffsetMetadata.messageOffset, validRecords))
 
+        // flush.messages asks for the messages to be on disk before they are acknowledged, so this flush is not
+        // left to the log flusher
         if (unflushedMessages >= config.flushInterval)
           flush()
 
@@ -843,8 +922,8 @@ class Log(@volatile var dir: File,
 
     // Apply broker-side compression if any
     val targetCodec = BrokerCompressionCodec.getTargetCompressionCodec(config.compressionType, sourceCodec)
-    LogAppendInfo(firstOffset, lastOffset, maxTimestamp, offsetOfMaxTimestamp, RecordBatch.NO_TIMESTAMP, sourceCodec,
-      targetCodec, shallowMessageCount, validBytesCount, monotonic)
+    LogAppendInfo(firstOffset, lastOffset, maxTimestamp, offsetOfMaxTimestamp, RecordBatch.NO_TIMESTAMP, logStartOffset,
+      sourceCodec, targetCodec, shallowMessageCount, validBytesCount, monotonic)
   }
 
   private def updateProducers(batch: RecordBatch,
@@ -1253,6 +1332,7 @@ class Log(@volatile var dir: File,
           seg.index.trimToValidSize()
           seg.timeIndex.trimToValidSize()
           seg.log.trim()
+          indexCache.foreach(seg.makeIndexesEvictable)
         }
       }
 
@@ -1280,7 +1360,10 @@ class Log(@volatile var dir: File,
       // The next offset should not change.
       updateLogEndOffset(nextOffsetMetadata.messageOffset)
       // schedule an asynchronous flush of the old segment
-      scheduler.schedule("flush-log", () => flush(newOffset), delay = 0L)
+      logFlusher match {
+        case Some(flusher) => flusher.requestFlush(this, newOffset)
+        case None => scheduler.schedule("flush-log", () => flush(newOffset), delay = 0L)
+      }
 
       info("Rolled new log segment for '" + name + "' in %.0f ms.".format((System.nanoTime - start) / (1000.0*1000.0)))
 
@@ -1603,11 +1686,14 @@ object Log {
             brokerTopicStats: BrokerTopicStats,
             time: Time = Time.SYSTEM,
             maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-            producerIdExpirationCheckIntervalMs: Int = 10 * 60 * 1000): Log = {
+            producerIdExpirationCheckIntervalMs: Int = 10 * 60 * 1000,
+            recoveryThreads: Int = 1,
+            logFlusher: Option[LogFlusher] = None,
+            indexCache: Option[IndexCache] = None): Log = {
     val topicPartition = Log.parseTopicPartitionName(dir)
     val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
     new Log(dir, config, logStartOffset, recoveryPoint, scheduler, brokerTopicStats, time, maxProducerIdExpirationMs,
-      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager)
+      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, recoveryThreads, logFlusher, indexCache)
   }
 
   /**
@@ -20,20 +20,22 @@ package kafka.log
 import java.io.File
 import java.nio._
 import java.util.Date
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, ExecutionException, Executors, ThreadFactory, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
 
 import com.yammer.metrics.core.Gauge
 import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.utils._
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.Time
+import org.apache.kafka.common.utils.{Time, Utils}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter.BatchRetention
 
 import scala.collection.mutable
 import scala.collection.JavaConverters._
+import scala.util.{Failure, Try}
 
 /**
  * The cleaner is responsible for removing obsolete records from logs which have the "compact" retention strategy.
@@ -56,7 +58,9 @@ import scala.collection.JavaConverters._
  * To avoid segments shrinking to very small sizes with repeated cleanings we implement a rule by which if we will merge successive segments when
  * doing a cleaning if their log and index size are less than the maximum log and index size prior to the clean beginning.
  * 
- * Cleaned segments are swapped into the log as they become available.
+ * Cleaned segments are swapped into the log as they become available. The groups of segments only share the read-only
+ * offset map, so each cleaner thread can recopy several groups of the same log at once with extra group threads. This
+ * lets a single large log be cleaned faster than one thread could recopy it.
  * 
  * One nuance that the cleaner must handle is log truncation. If a log is truncated while it is being cleaned the cleaning of that log is aborted.
  * 
@@ -213,12 +217,15 @@ class LogCleaner(val config: CleanerConfig,
     val cleaner = new Cleaner(id = threadId,
                               offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt, 
                                                               hashAlgorithm = config.hashAlgorithm),
-                              ioBufferSize = config.ioBufferSize / config.numThreads / 2,
+                              ioBufferSize = config.ioBufferSize / config.numThreads / config.numGroupThreads / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
                               time = time,
-                              checkDone = checkDone)
+                              checkDone = checkDone,
+                              groupThreads = config.numGroupThreads,
+                              onRecopyStarted = cleanerManager.recopyStarted,
+                              onGroupRecopied = cleanerManager.groupRecopied)
     
     @volatile var lastStats: CleanerStats = new CleanerStats()
     private val backOffWaitLatch = new CountDownLatch(1)
@@ -240,6 +247,7 @@ class LogCleaner(val config: CleanerConfig,
     	 initiateShutdown()
     	 backOffWaitLatch.countDown()
     	 awaitShutdown()
+    	 cleaner.shutdown()
      }
      
     /**
@@ -318,6 +326,9 @@ class LogCleaner(val config: CleanerConfig,
  * @param throttler The throttler instance to use for limiting I/O rate.
  * @param time The time instance
  * @param checkDone Check if the cleaning for a partition is finished or aborted.
+ * @param groupThreads The number of threads recopying the segment groups of a log, including the thread calling clean
+ * @param onRecopyStarted Called with the number of segment groups of a log and their size before they are recopied
+ * @param onGroupRecopied Called with the size of each segment group once it has been recopied
  */
 private[log] class Cleaner(val id: Int,
                            val offsetMap: OffsetMap,
@@ -326,7 +337,10 @@ private[log] class Cleaner(val id: Int,
                            dupBufferLoadFactor: Double,
                            throttler: Throttler,
                            time: Time,
-                           checkDone: (TopicPartition) => Unit) extends Logging {
+                           checkDone: (TopicPartition) => Unit,
+                           groupThreads: Int = 1,
+                           onRecopyStarted: (TopicPartition, Int, Long) => Unit = (_, _, _) => (),
+                           onGroupRecopied: (TopicPartition, Long) => Unit = (_, _) => ()) extends Logging {
   
   override val loggerName = classOf[LogCleaner].getName
 
@@ -341,6 +355,22 @@ private[log] class Cleaner(val id: Int,
   private val decompressionBufferSupplier = BufferSupplier.create();
 
   require(offsetMap.slots * dupBufferLoadFactor > 1, "offset map is too small to fit in even a single message, so log cleaning will never make progress. You can increase log.cleaner.dedupe.buffer.size or decrease log.cleaner.threads")
+  require(groupThreads >= 1, "The number of group threads must be at least 1")
+
+  /* the cleaners recopying segment groups on the group threads, each with its own i/o buffers */
+  private val groupCleaners = (1 until groupThreads).map { _ =>
+    new Cleaner(id, offsetMap, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+  }
+
+  private val groupExecutor =
+    if (groupCleaners.isEmpty) None
+    else {
+      val groupThreadId = new AtomicInteger(1)
+      Some(Executors.newFixedThreadPool(groupCleaners.size, new ThreadFactory() {
+        def newThread(runnable: Runnable): Thread =
+          Utils.newThread("kafka-log-cleaner-thread-" + id + "-group-" + groupThreadId.getAndIncrement(), runnable, true)
+      }))
+    }
 
   /**
    * Clean the given log
@@ -381,8 +411,9 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizonMs), new Date(deleteHorizonMs)))
-    for (group <- groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize, log.config.maxIndexSize, cleanable.firstUncleanableOffset))
-      cleanSegments(log, group, offsetMap, deleteHorizonMs, stats)
+    val groups = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize, log.config.maxIndexSize, cleanable.firstUncleanableOffset)
+    onRecopyStarted(log.topicPartition, groups.size, groups.map(groupSize).sum)
+    cleanGroups(log, groups, deleteHorizonMs, stats)
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -392,6 +423,59 @@ private[log] class Cleaner(val id: Int,
     (endOffset, stats)
   }
 
+  /**
+   * Stop the group threads
+   */
+  def shutdown() {
+    groupExecutor.foreach(_.shutdownNow())
+  }
+
+  private def groupSize(group: Seq[LogSegment]): Long = group.map(_.size.toLong).sum
+
+  /**
+   * Clean each group of segments into a single replacement segment. If there are group threads the groups are taken
+   * from a shared queue by the group threads and this thread, and if any of them fails the groups which have not been
+   * started are skipped and the first failure is rethrown once the groups being cleaned are done.
+   *
+   * @param log The log being cleaned
+   * @param groups The groups of segments to clean
+   * @param deleteHorizonMs The time to retain delete tombstones
+   * @param stats Collector for cleaning statistics
+   */
+  private def cleanGroups(log: Log, groups: Seq[Seq[LogSegment]], deleteHorizonMs: Long, stats: CleanerStats) {
+    def cleanPending(cleaner: Cleaner, pending: java.util.Queue[Seq[LogSegment]], map: OffsetMap, stats: CleanerStats) {
+      var group = pending.poll()
+      while (group != null) {
+        val size = groupSize(group)
+        cleaner.cleanSegments(log, group, map, deleteHorizonMs, stats)
+        onGroupRecopied(log.topicPartition, size)
+        group = pending.poll()
+      }
+    }
+
+    val pending = new ConcurrentLinkedQueue[Seq[LogSegment]](groups.asJava)
+    groupExecutor match {
+      case Some(executor) if groups.size > 1 =>
+        val helpers = groupCleaners.take(groups.size - 1).map { cleaner =>
+          val helperStats = new CleanerStats(time)
+          val future = executor.submit(new Runnable {
+            def run(): Unit = cleanPending(cleaner, pending, offsetMap.readOnlyView(), helperStats)
+          })
+          (future, helperStats)
+        }
+        val result = Try(cleanPending(this, pending, offsetMap, stats))
+        pending.clear()
+        val helperResults = helpers.map { case (future, helperStats) =>
+          Try(future.get()).map(_ => stats.add(helperStats)).recoverWith {
+            case e: ExecutionException => Failure(e.getCause)
+          }
+        }
+        (result +: helperResults).foreach(_.get)
+      case _ =>
+        cleanPending(this, pending, offsetMap, stats)
+    }
+  }
+
   /**
    * Clean a group of segments into a single replacement segment
    *
@@ -418,10 +502,12 @@ private[log] class Cleaner(val id: Int,
 
     val startOffset = segments.head.baseOffset
     val records = FileRecords.open(logFile, false, log.initFileSize(), log.config.preallocate)
-    val index = new OffsetIndex(indexFile, startOffset, segments.head.index.maxIndexSize)
-    val timeIndex = new TimeIndex(timeIndexFile, startOffset, segments.head.timeIndex.maxIndexSize)
+    val lazyIndex = LazyIndex.forOffset(indexFile, startOffset, segments.head.index.maxIndexSize)
+    val lazyTimeIndex = LazyIndex.forTime(timeIndexFile, startOffset, segments.head.timeIndex.maxIndexSize)
+    val index = lazyIndex.get
+    val timeIndex = lazyTimeIndex.get
     val txnIndex = new TransactionIndex(startOffset, txnIndexFile)
-    val cleaned = new LogSegment(records, index, timeIndex, txnIndex, startOffset,
+    val cleaned = new LogSegment(records, lazyIndex, lazyTimeIndex, txnIndex, startOffset,
       segments.head.indexIntervalBytes, log.config.randomSegmentJitter, time)
 
     try {
@@ -458,6 +544,9 @@ private[log] class Cleaner(val id: Int,
       // trim time index
       timeIndex.trimToValidSize()
 
+      // the cleaned segment is never appended to
+      log.indexCache.foreach(cleaned.makeIndexesEvictable)
+
       // flush new segment to disk before swap
       cleaned.flush()
 
@@ -728,7 +817,7 @@ private[log] class Cleaner(val id: Int,
                                        maxLogMessageSize: Int,
                                        transactionMetadata: CleanedTransactionMetadata,
                                        stats: CleanerStats): Boolean = {
-    var position = segment.index.lookup(startOffset).position
+    var position = segment.lazyOffsetIndex.read(_.lookup(startOffset)).position
     val maxDesiredMapSize = (map.slots * this.dupBufferLoadFactor).toInt
     while (position < segment.log.sizeInBytes) {
       checkDone(topicPartition)
@@ -823,6 +912,17 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     endTime = time.milliseconds
   }
 
+  /**
+   * Add the recopy statistics collected by a group thread cleaning the same log
+   */
+  def add(other: CleanerStats) {
+    bytesRead += other.bytesRead
+    messagesRead += other.messagesRead
+    invalidMessagesRead += other.invalidMessagesRead
+    bytesWritten += other.bytesWritten
+    messagesWritten += other.messagesWritten
+  }
+
   def elapsedSecs = (endTime - startTime)/1000.0
 
   def elapsedIndexSecs = (mapCompleteTime - startTime)/1000.0
@@ -19,6 +19,7 @@ package kafka.log
 
 import java.io.File
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 import java.util.concurrent.locks.ReentrantLock
 
 import com.yammer.metrics.core.Gauge
@@ -74,6 +75,11 @@ private[log] class LogCleanerManager(val logDirs: Array[File], val logs: Pool[To
   @volatile private var timeOfLastRun : Long = Time.SYSTEM.milliseconds
   newGauge("time-since-last-run-ms", new Gauge[Long] { def value = Time.SYSTEM.milliseconds - timeOfLastRun })
 
+  /* the segment groups and bytes left to recopy for each log being cleaned */
+  private val recopyProgress = new Pool[TopicPartition, RecopyProgress]
+  newGauge("segment-groups-to-recopy", new Gauge[Int] { def value = recopyProgress.values.map(_.groupsRemaining.get).sum })
+  newGauge("bytes-to-recopy", new Gauge[Long] { def value = recopyProgress.values.map(_.bytesRemaining.get).sum })
+
   /**
    * @return the position processed for all logs.
    */
@@ -234,10 +240,27 @@ private[log] class LogCleanerManager(val logDirs: Array[File], val logs: Pool[To
     }
   }
 
+  /**
+   * Record that the offset map of a log being cleaned has been built, and that the given number of segment groups
+   * holding the given number of bytes are about to be recopied.
+   */
+  def recopyStarted(topicPartition: TopicPartition, groups: Int, bytes: Long) {
+    recopyProgress.put(topicPartition, new RecopyProgress(groups, bytes))
+  }
+
+  /**
+   * Record that a segment group of the given size has been recopied. Groups of one log may be recopied by several
+   * threads at once.
+   */
+  def groupRecopied(topicPartition: TopicPartition, bytes: Long) {
+    Option(recopyProgress.get(topicPartition)).foreach(_.recopied(bytes))
+  }
+
   /**
    * Save out the endOffset and remove the given log from the in-progress set, if not aborted.
    */
   def doneCleaning(topicPartition: TopicPartition, dataDir: File, endOffset: Long) {
+    recopyProgress.remove(topicPartition)
     inLock(lock) {
       inProgress(topicPartition) match {
         case LogCleaningInProgress =>
@@ -259,6 +282,19 @@ private[log] class LogCleanerManager(val logDirs: Array[File], val logs: Pool[To
   }
 }
 
+/**
+ * The segment groups and bytes of a log that are left to recopy in the current cleaning
+ */
+private[log] class RecopyProgress(groups: Int, bytes: Long) {
+  val groupsRemaining = new AtomicInteger(groups)
+  val bytesRemaining = new AtomicLong(bytes)
+
+  def recopied(bytes: Long) {
+    groupsRemaining.decrementAndGet()
+    bytesRemaining.addAndGet(-bytes)
+  }
+}
+
 private[log] object LogCleanerManager extends Logging {
 
   def isCompactAndDelete(log: Log): Boolean = {
@@ -24,8 +24,8 @@ import kafka.api.ApiVersion
 import kafka.message.{BrokerCompressionCodec, Message}
 import kafka.server.{KafkaConfig, ThrottledReplicaListValidator}
 import org.apache.kafka.common.errors.InvalidConfigurationException
-import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, TopicConfig}
-import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, ConfigException, TopicConfig}
+import org.apache.kafka.common.record.{CompressionDictionary, TimestampType}
 import org.apache.kafka.common.utils.Utils
 
 import scala.collection.mutable
@@ -56,6 +56,7 @@ object Defaults {
   val MessageTimestampDifferenceMaxMs = kafka.server.Defaults.LogMessageTimestampDifferenceMaxMs
   val LeaderReplicationThrottledReplicas = Collections.emptyList[String]()
   val FollowerReplicationThrottledReplicas = Collections.emptyList[String]()
+  val CompressionDictionary = Collections.emptyList[String]()
   val MaxIdMapSnapshots = kafka.server.Defaults.MaxIdMapSnapshots
 }
 
@@ -89,6 +90,10 @@ case class LogConfig(props: java.util.Map[_, _]) extends AbstractConfig(LogConfi
   val messageTimestampDifferenceMaxMs = getLong(LogConfig.MessageTimestampDifferenceMaxMsProp).longValue
   val LeaderReplicationThrottledReplicas = getList(LogConfig.LeaderReplicationThrottledReplicasProp)
   val FollowerReplicationThrottledReplicas = getList(LogConfig.FollowerReplicationThrottledReplicasProp)
+  // the first one is used when the broker recompresses, LogManager registers all of them for the logs using this
+  // config so that batches written with any of them can be decompressed
+  val compressionDictionaries: Seq[CompressionDictionary] =
+    CompressionDictionary.parseAll(getList(LogConfig.CompressionDictionaryProp)).asScala
 
   def randomSegmentJitter: Long =
     if (segmentJitterMs == 0) 0 else Utils.abs(scala.util.Random.nextInt()) % math.min(segmentJitterMs, segmentMs)
@@ -124,6 +129,7 @@ object LogConfig {
   val MessageFormatVersionProp = TopicConfig.MESSAGE_FORMAT_VERSION_CONFIG
   val MessageTimestampTypeProp = TopicConfig.MESSAGE_TIMESTAMP_TYPE_CONFIG
   val MessageTimestampDifferenceMaxMsProp = TopicConfig.MESSAGE_TIMESTAMP_DIFFERENCE_MAX_MS_CONFIG
+  val CompressionDictionaryProp = TopicConfig.COMPRESSION_DICTIONARY_CONFIG
 
   // Leave these out of TopicConfig for now as they are replication quota configs
   val LeaderReplicationThrottledReplicasProp = "leader.replication.throttled.replicas"
@@ -151,6 +157,7 @@ object LogConfig {
   val MessageFormatVersionDoc = TopicConfig.MESSAGE_FORMAT_VERSION_DOC
   val MessageTimestampTypeDoc = TopicConfig.MESSAGE_TIMESTAMP_TYPE_DOC
   val MessageTimestampDifferenceMaxMsDoc = TopicConfig.MESSAGE_TIMESTAMP_DIFFERENCE_MAX_MS_DOC
+  val CompressionDictionaryDoc = TopicConfig.COMPRESSION_DICTIONARY_DOC
 
   val LeaderReplicationThrottledReplicasDoc = "A list of replicas for which log replication should be throttled on " +
     "the leader side. The list should describe a set of replicas in the form " +
@@ -255,6 +262,20 @@ object LogConfig {
         LeaderReplicationThrottledReplicasDoc, LeaderReplicationThrottledReplicasProp)
       .define(FollowerReplicationThrottledReplicasProp, LIST, Defaults.FollowerReplicationThrottledReplicas, ThrottledReplicaListValidator, MEDIUM,
         FollowerReplicationThrottledReplicasDoc, FollowerReplicationThrottledReplicasProp)
+      .define(CompressionDictionaryProp, LIST, Defaults.CompressionDictionary, CompressionDictionaryValidator, LOW,
+        CompressionDictionaryDoc, CompressionDictionaryProp)
+  }
+
+  private object CompressionDictionaryValidator extends Validator {
+    override def ensureValid(name: String, value: Any): Unit = {
+      try CompressionDictionary.parseAll(value.asInstanceOf[java.util.List[String]])
+      catch {
+        case e: IllegalArgumentException =>
+          throw new ConfigException(name, value, s"$name must be a list of base64 encoded ZStandard dictionaries: ${e.getMessage}")
+      }
+    }
+
+    override def toString: String = "[base64 dictionary],[base64 dictionary],..."
   }
 
   def apply(): LogConfig = LogConfig(new Properties())
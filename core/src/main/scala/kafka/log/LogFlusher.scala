@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util
+
+import kafka.utils.{Logging, ShutdownableThread, threadsafe}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Flushes logs on a background thread per log directory, so that neither segment rolls nor the log flusher task wait
+ * for fsyncs. Appends which reach flush.messages still flush inline, since their messages must be on disk before they
+ * are acknowledged.
+ *
+ * A flush requested for a log which is already waiting to be flushed is merged into the pending flush, which then goes up
+ * to the highest requested offset, and each thread flushes all the waiting logs of its directory at once.
+ *
+ * Logs outside of the given directories, and all logs before the flusher is started or once it is shut down, are
+ * flushed by the requesting thread.
+ */
+@threadsafe
+class LogFlusher(logDirs: Seq[File]) extends Logging {
+
+  private val dirFlushers = logDirs.map(dir => dir.toString -> new DirFlusher(dir)).toMap
+
+  @volatile private var started = false
+
+  def startup(): Unit = {
+    dirFlushers.values.foreach(_.start())
+    started = true
+  }
+
+  /**
+   * Flush the log up to the given offset, unless a flush up to a higher offset is already pending
+   */
+  def requestFlush(log: Log, offset: Long): Unit = {
+    val enqueued = started && dirFlushers.get(log.dir.getParent).exists(_.enqueue(log, offset))
+    if (!enqueued)
+      log.flush(offset)
+  }
+
+  /**
+   * Stop the flusher threads, completing the flushes which are still pending
+   */
+  def shutdown(): Unit = {
+    if (started) {
+      dirFlushers.values.foreach(_.initiateShutdown())
+      dirFlushers.values.foreach { flusher =>
+        flusher.awaitShutdown()
+        flusher.flushPending()
+      }
+    }
+  }
+
+  private class DirFlusher(dir: File) extends ShutdownableThread(s"kafka-log-flusher-$dir", isInterruptible = false) {
+
+    // the logs waiting to be flushed and the offsets to flush them up to, guarded by itself
+    private val pending = new util.LinkedHashMap[Log, java.lang.Long]
+
+    /**
+     * Add a flush to the pending flushes, returning false if the flusher is shutting down
+     */
+    def enqueue(log: Log, offset: Long): Boolean = pending synchronized {
+      if (!isRunning.get)
+        false
+      else {
+        val pendingOffset = pending.get(log)
+        if (pendingOffset == null || pendingOffset < offset)
+          pending.put(log, offset)
+        pending.notify()
+        true
+      }
+    }
+
+    override def initiateShutdown(): Boolean = {
+      val initiated = super.initiateShutdown()
+      pending synchronized pending.notify()
+      initiated
+    }
+
+    override def doWork(): Unit = {
+      val batch = pending synchronized {
+        while (pending.isEmpty && isRunning.get)
+          pending.wait()
+        takePending()
+      }
+      flush(batch)
+    }
+
+    def flushPending(): Unit = flush(pending synchronized takePending())
+
+    private def takePending(): Seq[(Log, java.lang.Long)] = {
+      val batch = pending.asScala.toVector
+      pending.clear()
+      batch
+    }
+
+    private def flush(batch: Seq[(Log, java.lang.Long)]): Unit = {
+      if (batch.nonEmpty)
+        debug(s"Flushing ${batch.size} logs in $dir")
+      batch.foreach { case (log, offset) =>
+        try log.flush(offset)
+        catch {
+          case e: Throwable => error(s"Error flushing log ${log.name} up to offset $offset", e)
+        }
+      }
+    }
+  }
+
+}
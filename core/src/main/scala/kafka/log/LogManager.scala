@@ -27,6 +27,7 @@ import kafka.server.checkpoints.OffsetCheckpointFile
 import kafka.server.{BrokerState, RecoveringFromUncleanShutdown, _}
 import kafka.utils._
 import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.CompressionDictionary
 import org.apache.kafka.common.utils.Time
 
 import scala.collection.JavaConverters._
@@ -48,11 +49,13 @@ class LogManager(val logDirs: Array[File],
                  val defaultConfig: LogConfig,
                  val cleanerConfig: CleanerConfig,
                  ioThreads: Int,
+                 recoveryThreadsPerLog: Int,
                  val flushCheckMs: Long,
                  val flushRecoveryOffsetCheckpointMs: Long,
                  val flushStartOffsetCheckpointMs: Long,
                  val retentionCheckMs: Long,
                  val maxPidExpirationMs: Int,
+                 maxLoadedIndexes: Int,
                  scheduler: Scheduler,
                  val brokerState: BrokerState,
                  brokerTopicStats: BrokerTopicStats,
@@ -70,6 +73,9 @@ class LogManager(val logDirs: Array[File],
   private val dirLocks = lockLogDirs(logDirs)
   private val recoveryPointCheckpoints = logDirs.map(dir => (dir, new OffsetCheckpointFile(new File(dir, RecoveryPointCheckpointFile)))).toMap
   private val logStartOffsetCheckpoints = logDirs.map(dir => (dir, new OffsetCheckpointFile(new File(dir, LogStartOffsetCheckpointFile)))).toMap
+  private val logFlusher = new LogFlusher(logDirs)
+  // an unbounded cache would never unload an index, so the indexes are not tracked at all then
+  val indexCache = if (maxLoadedIndexes == Int.MaxValue) None else Some(new IndexCache(maxLoadedIndexes))
   loadLogs()
 
   // public, so we can access this from kafka.admin.DeleteTopicTest
@@ -169,7 +175,8 @@ class LogManager(val logDirs: Array[File],
           val logRecoveryPoint = recoveryPoints.getOrElse(topicPartition, 0L)
           val logStartOffset = logStartOffsets.getOrElse(topicPartition, 0L)
 
-          val current = Log(
+          registerCompressionDictionaries(topicPartition, config)
+          val current = try Log(
             dir = logDir,
             config = config,
             logStartOffset = logStartOffset,
@@ -177,8 +184,18 @@ class LogManager(val logDirs: Array[File],
             maxProducerIdExpirationMs = maxPidExpirationMs,
             scheduler = scheduler,
             time = time,
-            brokerTopicStats = brokerTopicStats)
+            brokerTopicStats = brokerTopicStats,
+            recoveryThreads = recoveryThreadsPerLog,
+            logFlusher = Some(logFlusher),
+            indexCache = indexCache)
+          catch {
+            case e: Throwable =>
+              unregisterCompressionDictionaries(config)
+              throw e
+          }
           if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
+            // the log is only deleted, which does not read its batches
+            unregisterCompressionDictionaries(current.config)
             this.logsToBeDeleted.add(current)
           } else {
             val previous = this.logs.put(topicPartition, current)
@@ -224,6 +241,7 @@ class LogManager(val logDirs: Array[File],
                          delay = InitialTaskDelayMs,
                          period = retentionCheckMs,
                          TimeUnit.MILLISECONDS)
+      logFlusher.startup()
       info("Starting log flusher with a default period of %d ms.".format(flushCheckMs))
       scheduler.schedule("kafka-log-flusher",
                          flushDirtyLogs _,
@@ -264,6 +282,8 @@ class LogManager(val logDirs: Array[File],
       CoreUtils.swallow(cleaner.shutdown())
     }
 
+    CoreUtils.swallow(logFlusher.shutdown())
+
     // close logs in each dir
     for (dir <- this.logDirs) {
       debug("Flushing and closing logs at " + dir)
@@ -278,6 +298,7 @@ class LogManager(val logDirs: Array[File],
           // flush the log to ensure latest possible recovery point
           log.flush()
           log.close()
+          unregisterCompressionDictionaries(log.config)
         }
       }
 
@@ -307,6 +328,7 @@ class LogManager(val logDirs: Array[File],
       threadPools.foreach(_.shutdown())
       // regardless of whether the close succeeded, we need to unlock the data directories
       dirLocks.foreach(_.destroy())
+      indexCache.foreach(_.shutdown())
     }
 
     info("Shutdown complete.")
@@ -413,7 +435,8 @@ class LogManager(val logDirs: Array[File],
         val dir = new File(dataDir, topicPartition.topic + "-" + topicPartition.partition)
         Files.createDirectories(dir.toPath)
 
-        val log = Log(
+        registerCompressionDictionaries(topicPartition, config)
+        val log = try Log(
           dir = dir,
           config = config,
           logStartOffset = 0L,
@@ -421,7 +444,14 @@ class LogManager(val logDirs: Array[File],
           maxProducerIdExpirationMs = maxPidExpirationMs,
           scheduler = scheduler,
           time = time,
-          brokerTopicStats = brokerTopicStats)
+          brokerTopicStats = brokerTopicStats,
+          logFlusher = Some(logFlusher),
+          indexCache = indexCache)
+        catch {
+          case e: Throwable =>
+            unregisterCompressionDictionaries(config)
+            throw e
+        }
         logs.put(topicPartition, log)
         info("Created log for partition [%s,%d] in %s with properties {%s}."
           .format(topicPartition.topic,
@@ -433,6 +463,51 @@ class LogManager(val logDirs: Array[File],
     }
   }
 
+  /**
+   * Replace the config of a log. The compression dictionaries of the new config are registered before the log uses
+   * it, and those of the old config are unregistered afterwards. Nothing is done for a log which has been deleted.
+   *
+   * @throws org.apache.kafka.common.KafkaException if a dictionary of the new config clashes with a registered one,
+   *                                                in which case the log keeps its old config
+   */
+  def updateConfig(log: Log, config: LogConfig): Unit = {
+    logCreationOrDeletionLock synchronized {
+      if (logs.get(log.topicPartition) eq log) {
+        registerCompressionDictionaries(log.topicPartition, config)
+        val previous = log.config
+        log.config = config
+        unregisterCompressionDictionaries(previous)
+      }
+    }
+  }
+
+  /**
+   * Register the compression dictionaries of the config of a log, so that the batches written with them can be
+   * decompressed. The registrations are undone by [[unregisterCompressionDictionaries]] once the log no longer uses
+   * the config.
+   *
+   * @throws org.apache.kafka.common.KafkaException if a different dictionary is already registered with the id of one
+   *                                                of the dictionaries, since batches compressed with either one would
+   *                                                be decompressed with the wrong one
+   */
+  private def registerCompressionDictionaries(topicPartition: TopicPartition, config: LogConfig): Unit = {
+    val registered = mutable.ArrayBuffer.empty[CompressionDictionary]
+    try {
+      config.compressionDictionaries.foreach { dictionary =>
+        CompressionDictionary.register(dictionary)
+        registered += dictionary
+      }
+    } catch {
+      case e: org.apache.kafka.common.KafkaException =>
+        registered.foreach(CompressionDictionary.unregister)
+        throw new org.apache.kafka.common.KafkaException(
+          s"Failed to register the compression dictionaries of partition $topicPartition", e)
+    }
+  }
+
+  private def unregisterCompressionDictionaries(config: LogConfig): Unit =
+    config.compressionDictionaries.foreach(CompressionDictionary.unregister)
+
   /**
    *  Delete logs marked for deletion.
    */
@@ -477,6 +552,7 @@ class LogManager(val logDirs: Array[File],
       }
       val dirName = Log.logDeleteDirName(removedLog.name)
       removedLog.close()
+      unregisterCompressionDictionaries(removedLog.config)
       val renamedDir = new File(removedLog.dir.getParent, dirName)
       val renameSuccessful = removedLog.dir.renameTo(renamedDir)
       if (renameSuccessful) {
@@ -551,7 +627,7 @@ class LogManager(val logDirs: Array[File],
   }
 
   /**
-   * Flush any log which has exceeded its flush interval and has unwritten messages.
+   * Request a flush of any log which has exceeded its flush interval and has unwritten messages.
    */
   private def flushDirtyLogs() = {
     debug("Checking for dirty logs to flush...")
@@ -562,7 +638,7 @@ class LogManager(val logDirs: Array[File],
         debug("Checking if flush is needed on " + topicPartition.topic + " flush interval  " + log.config.flushMs +
               " last flushed " + log.lastFlushTime + " time since last flush: " + timeSinceLastFlush)
         if(timeSinceLastFlush >= log.config.flushMs)
-          log.flush
+          logFlusher.requestFlush(log, log.logEndOffset)
       } catch {
         case e: Throwable =>
           error("Error flushing topic " + topicPartition.topic, e)
@@ -593,18 +669,22 @@ object LogManager {
       maxMessageSize = config.messageMaxBytes,
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
-      enableCleaner = config.logCleanerEnable)
+      enableCleaner = config.logCleanerEnable,
+      hashAlgorithm = config.logCleanerHashAlgorithm,
+      numGroupThreads = config.logCleanerGroupThreads)
 
     new LogManager(logDirs = config.logDirs.map(new File(_)).toArray,
       topicConfigs = topicConfigs,
       defaultConfig = defaultLogConfig,
       cleanerConfig = cleanerConfig,
       ioThreads = config.numRecoveryThreadsPerDataDir,
+      recoveryThreadsPerLog = config.numRecoveryThreadsPerLog,
       flushCheckMs = config.logFlushSchedulerIntervalMs,
       flushRecoveryOffsetCheckpointMs = config.logFlushOffsetCheckpointIntervalMs,
       flushStartOffsetCheckpointMs = config.logFlushStartOffsetCheckpointIntervalMs,
       retentionCheckMs = config.logCleanupIntervalMs,
       maxPidExpirationMs = config.transactionIdExpirationMs,
+      maxLoadedIndexes = config.logIndexCacheSize,
       scheduler = kafkaScheduler,
       brokerState = brokerState,
       time = time,
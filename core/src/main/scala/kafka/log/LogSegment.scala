@@ -42,17 +42,19 @@ import scala.math._
  *
  * A segment with a base offset of [base_offset] would be stored in two files, a [base_offset].index and a [base_offset].log file.
  *
+ * The offset and time indexes of a segment are only memory mapped once they are used, see [[LazyIndex]].
+ *
  * @param log The message set containing log entries
- * @param index The offset index
- * @param timeIndex The timestamp index
+ * @param lazyOffsetIndex The offset index
+ * @param lazyTimeIndex The timestamp index
  * @param baseOffset A lower bound on the offsets in this segment
  * @param indexIntervalBytes The approximate number of bytes between entries in the index
  * @param time The time instance
  */
 @nonthreadsafe
 class LogSegment(val log: FileRecords,
-                 val index: OffsetIndex,
-                 val timeIndex: TimeIndex,
+                 val lazyOffsetIndex: LazyIndex[OffsetIndex],
+                 val lazyTimeIndex: LazyIndex[TimeIndex],
                  val txnIndex: TransactionIndex,
                  val baseOffset: Long,
                  val indexIntervalBytes: Int,
@@ -67,21 +69,52 @@ class LogSegment(val log: FileRecords,
   /* The timestamp we used for time based log rolling */
   private var rollingBasedTimestamp: Option[Long] = None
 
-  /* The maximum timestamp we see so far */
-  @volatile private var maxTimestampSoFar: Long = timeIndex.lastEntry.timestamp
-  @volatile private var offsetOfMaxTimestamp: Long = timeIndex.lastEntry.offset
+  /* The maximum timestamp we see so far and the offset of the message with it, read from the time index when first needed */
+  @volatile private var _maxTimestampSoFar: Option[Long] = None
+  @volatile private var _offsetOfMaxTimestamp: Option[Long] = None
+
+  def this(log: FileRecords, index: OffsetIndex, timeIndex: TimeIndex, txnIndex: TransactionIndex, baseOffset: Long,
+           indexIntervalBytes: Int, rollJitterMs: Long, time: Time) =
+    this(log, LazyIndex.loaded(index), LazyIndex.loaded(timeIndex), txnIndex, baseOffset, indexIntervalBytes,
+         rollJitterMs, time)
 
+  /**
+   * Open the segment with the given base offset in the given directory. The indexes of an existing segment are loaded
+   * when they are first used, the indexes of a new segment are created right away.
+   */
   def this(dir: File, startOffset: Long, indexIntervalBytes: Int, maxIndexSize: Int, rollJitterMs: Long, time: Time,
            fileAlreadyExists: Boolean = false, initFileSize: Int = 0, preallocate: Boolean = false) =
     this(FileRecords.open(Log.logFile(dir, startOffset), fileAlreadyExists, initFileSize, preallocate),
-         new OffsetIndex(Log.offsetIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize),
-         new TimeIndex(Log.timeIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize),
+         LogSegment.maybeLoad(LazyIndex.forOffset(Log.offsetIndexFile(dir, startOffset), baseOffset = startOffset,
+           maxIndexSize = maxIndexSize), load = !fileAlreadyExists),
+         LogSegment.maybeLoad(LazyIndex.forTime(Log.timeIndexFile(dir, startOffset), baseOffset = startOffset,
+           maxIndexSize = maxIndexSize), load = !fileAlreadyExists),
          new TransactionIndex(startOffset, Log.transactionIndexFile(dir, startOffset)),
          startOffset,
          indexIntervalBytes,
          rollJitterMs,
          time)
 
+  def index: OffsetIndex = lazyOffsetIndex.get
+
+  def timeIndex: TimeIndex = lazyTimeIndex.get
+
+  private def maxTimestampSoFar_=(timestamp: Long): Unit = _maxTimestampSoFar = Some(timestamp)
+
+  private def maxTimestampSoFar: Long = {
+    if (_maxTimestampSoFar.isEmpty)
+      _maxTimestampSoFar = Some(lazyTimeIndex.read(_.lastEntry).timestamp)
+    _maxTimestampSoFar.get
+  }
+
+  private def offsetOfMaxTimestamp_=(offset: Long): Unit = _offsetOfMaxTimestamp = Some(offset)
+
+  private def offsetOfMaxTimestamp: Long = {
+    if (_offsetOfMaxTimestamp.isEmpty)
+      _offsetOfMaxTimestamp = Some(lazyTimeIndex.read(_.lastEntry).offset)
+    _offsetOfMaxTimestamp.get
+  }
+
   /* Return the size in bytes of this log segment */
   def size: Int = log.sizeInBytes()
 
@@ -172,7 +205,7 @@ class LogSegment(val log: FileRecords,
    */
   @threadsafe
   private[log] def translateOffset(offset: Long, startingFilePosition: Int = 0): LogOffsetPosition = {
-    val mapping = index.lookup(offset)
+    val mapping = lazyOffsetIndex.read(_.lookup(offset))
     log.searchForOffsetWithSize(offset, max(mapping.position, startingFilePosition))
   }
 
@@ -239,7 +272,7 @@ class LogSegment(val log: FileRecords,
   }
 
    def fetchUpperBoundOffset(startOffsetPosition: OffsetPosition, fetchSize: Int): Option[Long] =
-     index.fetchUpperBoundOffset(startOffsetPosition, fetchSize).map(_.offset)
+     lazyOffsetIndex.read(_.fetchUpperBoundOffset(startOffsetPosition, fetchSize)).map(_.offset)
 
   /**
    * Run recovery on the given segment. This will rebuild the index from the log file and lop off any invalid bytes
@@ -252,11 +285,26 @@ class LogSegment(val log: FileRecords,
    */
   @nonthreadsafe
   def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochCache] = None): Int = {
+    txnIndex.truncate()
+    recoverIndexes(batch => replayBatch(batch, producerStateManager, leaderEpochCache))
+  }
+
+  /**
+   * The first step of recovery, which validates the batches of the log file, rebuilds the offset and time indexes
+   * and lops off any invalid bytes from the end of the log and indexes. It does not depend on the preceding segments,
+   * so the segments of a log can go through this step concurrently.
+   *
+   * @return The number of bytes truncated from the log
+   */
+  @nonthreadsafe
+  def recoverIndexes(): Int = recoverIndexes(_ => ())
+
+  private def recoverIndexes(onValidBatch: RecordBatch => Unit): Int = {
+    pinIndexes()
     index.truncate()
     index.resize(index.maxIndexSize)
     timeIndex.truncate()
     timeIndex.resize(timeIndex.maxIndexSize)
-    txnIndex.truncate()
     var validBytes = 0
     var lastIndexEntry = 0
     maxTimestampSoFar = RecordBatch.NO_TIMESTAMP
@@ -278,14 +326,7 @@ class LogSegment(val log: FileRecords,
           lastIndexEntry = validBytes
         }
         validBytes += batch.sizeInBytes()
-
-        if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
-          leaderEpochCache.foreach { cache =>
-            if (batch.partitionLeaderEpoch > cache.latestEpoch()) // this is to avoid unnecessary warning in cache.assign()
-              cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
-          }
-          updateProducerState(producerStateManager, batch)
-        }
+        onValidBatch(batch)
       }
     } catch {
       case e: CorruptRecordException =>
@@ -304,13 +345,41 @@ class LogSegment(val log: FileRecords,
     truncated
   }
 
+  /**
+   * The second step of recovery, which rebuilds the transaction index and replays the batches of the segment into
+   * the producer state and the leader epoch cache. The batches must have been validated by [[recoverIndexes]], and
+   * the segments of a log must go through this step in order.
+   *
+   * @param producerStateManager Producer state corresponding to the segment's base offset
+   * @param leaderEpochCache Optionally a cache for updating the leader epoch during recovery.
+   */
+  @nonthreadsafe
+  def recoverProducerState(producerStateManager: ProducerStateManager,
+                           leaderEpochCache: Option[LeaderEpochCache] = None): Unit = {
+    txnIndex.truncate()
+    for (batch <- log.batches.asScala)
+      replayBatch(batch, producerStateManager, leaderEpochCache)
+  }
+
+  private def replayBatch(batch: RecordBatch,
+                          producerStateManager: ProducerStateManager,
+                          leaderEpochCache: Option[LeaderEpochCache]): Unit = {
+    if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
+      leaderEpochCache.foreach { cache =>
+        if (batch.partitionLeaderEpoch > cache.latestEpoch()) // this is to avoid unnecessary warning in cache.assign()
+          cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
+      }
+      updateProducerState(producerStateManager, batch)
+    }
+  }
+
   private def loadLargestTimestamp() {
     // Get the last time index entry. If the time index is empty, it will return (-1, baseOffset)
-    val lastTimeIndexEntry = timeIndex.lastEntry
+    val lastTimeIndexEntry = lazyTimeIndex.read(_.lastEntry)
     maxTimestampSoFar = lastTimeIndexEntry.timestamp
     offsetOfMaxTimestamp = lastTimeIndexEntry.offset
 
-    val offsetPosition = index.lookup(lastTimeIndexEntry.offset)
+    val offsetPosition = lazyOffsetIndex.read(_.lookup(lastTimeIndexEntry.offset))
     // Scan the rest of the messages to see if there is a larger timestamp after the last time index entry.
     val maxTimestampOffsetAfterLastEntry = log.largestTimestampAfter(offsetPosition.position)
     if (maxTimestampOffsetAfterLastEntry.timestamp > lastTimeIndexEntry.timestamp) {
@@ -336,6 +405,7 @@ class LogSegment(val log: FileRecords,
     val mapping = translateOffset(offset)
     if (mapping == null)
       return 0
+    pinIndexes()
     index.truncateTo(offset)
     timeIndex.truncateTo(offset)
     txnIndex.truncateTo(offset)
@@ -375,8 +445,8 @@ class LogSegment(val log: FileRecords,
   def flush() {
     LogFlushStats.logFlushTimer.time {
       log.flush()
-      index.flush()
-      timeIndex.flush()
+      lazyOffsetIndex.flush()
+      lazyTimeIndex.flush()
       txnIndex.flush()
     }
   }
@@ -387,8 +457,8 @@ class LogSegment(val log: FileRecords,
    */
   def updateDir(dir: File): Unit = {
     log.setFile(new File(dir, log.file.getName))
-    index.file = new File(dir, index.file.getName)
-    timeIndex.file = new File(dir, timeIndex.file.getName)
+    lazyOffsetIndex.file = new File(dir, lazyOffsetIndex.file.getName)
+    lazyTimeIndex.file = new File(dir, lazyTimeIndex.file.getName)
     txnIndex.file = new File(dir, txnIndex.file.getName)
   }
 
@@ -404,11 +474,11 @@ class LogSegment(val log: FileRecords,
     catch {
       case e: IOException => throw kafkaStorageException("log", e)
     }
-    try index.renameTo(new File(CoreUtils.replaceSuffix(index.file.getPath, oldSuffix, newSuffix)))
+    try lazyOffsetIndex.renameTo(new File(CoreUtils.replaceSuffix(lazyOffsetIndex.file.getPath, oldSuffix, newSuffix)))
     catch {
       case e: IOException => throw kafkaStorageException("index", e)
     }
-    try timeIndex.renameTo(new File(CoreUtils.replaceSuffix(timeIndex.file.getPath, oldSuffix, newSuffix)))
+    try lazyTimeIndex.renameTo(new File(CoreUtils.replaceSuffix(lazyTimeIndex.file.getPath, oldSuffix, newSuffix)))
     catch {
       case e: IOException => throw kafkaStorageException("timeindex", e)
     }
@@ -426,6 +496,24 @@ class LogSegment(val log: FileRecords,
     timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true)
   }
 
+  /**
+   * Let the index cache unload the offset and time indexes of this segment when they have not been used recently.
+   * This must only be called once the indexes have been trimmed and will not be appended to, see
+   * [[LazyIndex.makeEvictable]].
+   */
+  def makeIndexesEvictable(indexCache: IndexCache) {
+    lazyOffsetIndex.makeEvictable(indexCache)
+    lazyTimeIndex.makeEvictable(indexCache)
+  }
+
+  /**
+   * Keep the offset and time indexes of this segment loaded, before they are written to again
+   */
+  def pinIndexes() {
+    lazyOffsetIndex.pin()
+    lazyTimeIndex.pin()
+  }
+
   /**
    * The time this segment has waited to be rolled.
    * If the first message batch has a timestamp we use its timestamp to determine when to roll a segment. A segment
@@ -471,8 +559,8 @@ class LogSegment(val log: FileRecords,
    */
   def findOffsetByTimestamp(timestamp: Long, startingOffset: Long = baseOffset): Option[TimestampOffset] = {
     // Get the index entry with a timestamp less than or equal to the target timestamp
-    val timestampOffset = timeIndex.lookup(timestamp)
-    val position = index.lookup(math.max(timestampOffset.offset, startingOffset)).position
+    val timestampOffset = lazyTimeIndex.read(_.lookup(timestamp))
+    val position = lazyOffsetIndex.read(_.lookup(math.max(timestampOffset.offset, startingOffset))).position
 
     // Search the timestamp
     Option(log.searchForTimestamp(timestamp, position, startingOffset)).map { timestampAndOffset =>
@@ -484,9 +572,11 @@ class LogSegment(val log: FileRecords,
    * Close this log segment
    */
   def close() {
-    CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
-    CoreUtils.swallow(index.close())
-    CoreUtils.swallow(timeIndex.close())
+    // the time index of a segment is only missing entries if it has been used
+    if (lazyTimeIndex.isLoaded)
+      CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
+    CoreUtils.swallow(lazyOffsetIndex.close())
+    CoreUtils.swallow(lazyTimeIndex.close())
     CoreUtils.swallow(log.close())
     CoreUtils.swallow(txnIndex.close())
   }
@@ -498,15 +588,15 @@ class LogSegment(val log: FileRecords,
    */
   def delete() {
     val deletedLog = log.delete()
-    val deletedIndex = index.delete()
-    val deletedTimeIndex = timeIndex.delete()
+    val deletedIndex = lazyOffsetIndex.delete()
+    val deletedTimeIndex = lazyTimeIndex.delete()
     val deletedTxnIndex = txnIndex.delete()
     if (!deletedLog && log.file.exists)
       throw new KafkaStorageException("Delete of log " + log.file.getName + " failed.")
-    if (!deletedIndex && index.file.exists)
-      throw new KafkaStorageException("Delete of index " + index.file.getName + " failed.")
-    if (!deletedTimeIndex && timeIndex.file.exists)
-      throw new KafkaStorageException("Delete of time index " + timeIndex.file.getName + " failed.")
+    if (!deletedIndex && lazyOffsetIndex.file.exists)
+      throw new KafkaStorageException("Delete of index " + lazyOffsetIndex.file.getName + " failed.")
+    if (!deletedTimeIndex && lazyTimeIndex.file.exists)
+      throw new KafkaStorageException("Delete of time index " + lazyTimeIndex.file.getName + " failed.")
     if (!deletedTxnIndex && txnIndex.file.exists)
       throw new KafkaStorageException("Delete of transaction index " + txnIndex.file.getName + " failed.")
   }
@@ -527,9 +617,19 @@ class LogSegment(val log: FileRecords,
   def lastModified_=(ms: Long) = {
     val fileTime = FileTime.fromMillis(ms)
     Files.setLastModifiedTime(log.file.toPath, fileTime)
-    Files.setLastModifiedTime(index.file.toPath, fileTime)
-    Files.setLastModifiedTime(timeIndex.file.toPath, fileTime)
+    Files.setLastModifiedTime(lazyOffsetIndex.file.toPath, fileTime)
+    Files.setLastModifiedTime(lazyTimeIndex.file.toPath, fileTime)
+  }
+}
+
+object LogSegment {
+
+  private def maybeLoad[T <: AbstractIndex[_, _]](index: LazyIndex[T], load: Boolean): LazyIndex[T] = {
+    if (load)
+      index.get
+    index
   }
+
 }
 
 object LogFlushStats extends KafkaMetricsGroup {
@@ -19,7 +19,7 @@ package kafka.log
 import java.nio.ByteBuffer
 
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, NoCompressionCodec}
+import kafka.message.{CompressionCodec, NoCompressionCodec, ZStdCompressionCodec}
 import kafka.utils.Logging
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
@@ -54,7 +54,8 @@ private[kafka] object LogValidator extends Logging {
                                                       timestampType: TimestampType,
                                                       timestampDiffMaxMs: Long,
                                                       partitionLeaderEpoch: Int,
-                                                      isFromClient: Boolean): ValidationAndOffsetAssignResult = {
+                                                      isFromClient: Boolean,
+                                                      compressionDictionary: Option[CompressionDictionary] = None): ValidationAndOffsetAssignResult = {
     if (sourceCodec == NoCompressionCodec && targetCodec == NoCompressionCodec) {
       // check the magic value
       if (!records.hasMatchingMagic(magic))
@@ -66,7 +67,7 @@ private[kafka] object LogValidator extends Logging {
           partitionLeaderEpoch, isFromClient, magic)
     } else {
       validateMessagesAndAssignOffsetsCompressed(records, offsetCounter, now, sourceCodec, targetCodec, compactedTopic,
-        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, isFromClient)
+        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, isFromClient, compressionDictionary)
     }
   }
 
@@ -88,6 +89,9 @@ private[kafka] object LogValidator extends Logging {
 
     if (batch.hasProducerId && toMagic < RecordBatch.MAGIC_VALUE_V2)
       throw new UnsupportedForMessageFormatException(s"Idempotent records cannot be used with magic version $toMagic")
+
+    if (batch.compressionType == CompressionType.ZSTD && batch.magic < RecordBatch.MAGIC_VALUE_V2)
+      throw new InvalidRecordException(s"ZStandard compressed records cannot be written with magic version ${batch.magic}")
   }
 
   private def validateRecord(batch: RecordBatch, record: Record, now: Long, timestampType: TimestampType,
@@ -223,7 +227,11 @@ private[kafka] object LogValidator extends Logging {
                                                  timestampType: TimestampType,
                                                  timestampDiffMaxMs: Long,
                                                  partitionLeaderEpoch: Int,
-                                                 isFromClient: Boolean): ValidationAndOffsetAssignResult = {
+                                                 isFromClient: Boolean,
+                                                 compressionDictionary: Option[CompressionDictionary] = None): ValidationAndOffsetAssignResult = {
+
+      if (targetCodec == ZStdCompressionCodec && toMagic < RecordBatch.MAGIC_VALUE_V2)
+        throw new UnsupportedForMessageFormatException(s"ZStandard compression cannot be used with magic version $toMagic")
 
       // No in place assignment situation 1 and 2
       var inPlaceAssignment = sourceCodec == targetCodec && toMagic > RecordBatch.MAGIC_VALUE_V0
@@ -269,7 +277,10 @@ private[kafka] object LogValidator extends Logging {
           val first = records.batches.asScala.head
           (first.producerId, first.producerEpoch, first.baseSequence, first.isTransactional)
         }
-        buildRecordsAndAssignOffsets(toMagic, offsetCounter, timestampType, CompressionType.forId(targetCodec.codec), now,
+        val compressionType = CompressionType.forId(targetCodec.codec)
+        // dictionaries are only supported by ZStandard
+        val dictionary = if (compressionType == CompressionType.ZSTD) compressionDictionary.orNull else null
+        buildRecordsAndAssignOffsets(toMagic, offsetCounter, timestampType, compressionType, dictionary, now,
           validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch)
       } else {
         // we can update the batch only and write the compressed payload as is
@@ -298,6 +309,7 @@ private[kafka] object LogValidator extends Logging {
                                            offsetCounter: LongRef,
                                            timestampType: TimestampType,
                                            compressionType: CompressionType,
+                                           compressionDictionary: CompressionDictionary,
                                            logAppendTime: Long,
                                            validatedRecords: Seq[Record],
                                            producerId: Long,
@@ -308,8 +320,8 @@ private[kafka] object LogValidator extends Logging {
     val estimatedSize = AbstractRecords.estimateSizeInBytes(magic, offsetCounter.value, compressionType,
       validatedRecords.asJava)
     val buffer = ByteBuffer.allocate(estimatedSize)
-    val builder = MemoryRecords.builder(buffer, magic, compressionType, timestampType, offsetCounter.value,
-      logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
+    val builder = MemoryRecords.builder(buffer, magic, compressionType, compressionDictionary, timestampType,
+      offsetCounter.value, logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
 
     validatedRecords.foreach { record =>
       builder.appendWithOffset(offsetCounter.getAndIncrement(), record)
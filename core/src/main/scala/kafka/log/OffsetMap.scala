@@ -32,36 +32,47 @@ trait OffsetMap {
   def size: Int
   def utilization: Double = size.toDouble / slots
   def latestOffset: Long
+
+  /**
+   * A map that can look up keys in this map concurrently with lookups on this map and on other views, as long as
+   * nothing is put into this map and it is not cleared while the view is in use. Maps which are safe for concurrent
+   * reads can return themselves.
+   */
+  def readOnlyView(): OffsetMap = this
+}
+
+object SkimpyOffsetMap {
+  /** The name of the non-cryptographic 128-bit MurmurHash3 algorithm, see [[kafka.utils.Murmur3]] */
+  val Murmur3HashAlgorithm = "MURMUR3"
+
+  /**
+   * The number of bytes in the hashes of the given algorithm
+   * @throws java.security.NoSuchAlgorithmException If the algorithm is not available
+   */
+  def hashSize(hashAlgorithm: String): Int =
+    if (hashAlgorithm.equalsIgnoreCase(Murmur3HashAlgorithm)) Murmur3.HashSize
+    else MessageDigest.getInstance(hashAlgorithm).getDigestLength
 }
 
 /**
- * An hash table used for deduplicating the log. This hash table uses a cryptographicly secure hash of the key as a proxy for the key
+ * An hash table used for deduplicating the log. This hash table uses a 128-bit or longer hash of the key as a proxy for the key
  * for comparisons and to save space on object overhead. Collisions are resolved by probing. This hash table does not support deletes.
  * @param memory The amount of memory this map can use
- * @param hashAlgorithm The hash algorithm instance to use: MD2, MD5, SHA-1, SHA-256, SHA-384, SHA-512
+ * @param hashAlgorithm The hash algorithm instance to use: MURMUR3, MD2, MD5, SHA-1, SHA-256, SHA-384, SHA-512
  */
 @nonthreadsafe
 class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extends OffsetMap {
   private val bytes = ByteBuffer.allocate(memory)
   
-  /* the hash algorithm instance to use, default is MD5 */
-  private val digest = MessageDigest.getInstance(hashAlgorithm)
+  /* the hashing and probing state of this map, each read-only view has its own */
+  private val lookup = new Lookup
   
   /* the number of bytes for this hash algorithm */
-  private val hashSize = digest.getDigestLength
-  
-  /* create some hash buffers to avoid reallocating each time */
-  private val hash1 = new Array[Byte](hashSize)
-  private val hash2 = new Array[Byte](hashSize)
+  private val hashSize = lookup.hashSize
+  require(hashSize >= 16, s"The hash algorithm $hashAlgorithm produces $hashSize byte hashes, but at least 16 bytes are needed")
   
   /* number of entries put into the map */
   private var entries = 0
-  
-  /* number of lookups on the map */
-  private var lookups = 0L
-  
-  /* the number of probes for all lookups */
-  private var probes = 0L
 
   /* the latest offset written into the map */
   private var lastOffset = -1L
@@ -83,26 +94,24 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    */
   override def put(key: ByteBuffer, offset: Long) {
     require(entries < slots, "Attempt to add a new entry to a full offset map.")
-    lookups += 1
-    hashInto(key, hash1)
+    lookup.lookups += 1
+    lookup.hashInto(key)
     // probe until we find the first empty slot
     var attempt = 0
-    var pos = positionOf(hash1, attempt)  
+    var pos = lookup.positionOf(attempt)
     while(!isEmpty(pos)) {
-      bytes.position(pos)
-      bytes.get(hash2)
-      if(Arrays.equals(hash1, hash2)) {
+      if(lookup.hashMatches(pos)) {
         // we found an existing entry, overwrite it and return (size does not change)
-        bytes.putLong(offset)
+        bytes.putLong(pos + hashSize, offset)
         lastOffset = offset
         return
       }
       attempt += 1
-      pos = positionOf(hash1, attempt)
+      pos = lookup.positionOf(attempt)
     }
     // found an empty slot, update it--size grows by 1
     bytes.position(pos)
-    bytes.put(hash1)
+    bytes.put(lookup.hash)
     bytes.putLong(offset)
     lastOffset = offset
     entries += 1
@@ -119,35 +128,15 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    * @param key The key
    * @return The offset associated with this key or -1 if the key is not found
    */
-  override def get(key: ByteBuffer): Long = {
-    lookups += 1
-    hashInto(key, hash1)
-    // search for the hash of this key by repeated probing until we find the hash we are looking for or we find an empty slot
-    var attempt = 0
-    var pos = 0
-    //we need to guard against attempt integer overflow if the map is full
-    //limit attempt to number of slots once positionOf(..) enters linear search mode
-    val maxAttempts = slots + hashSize - 4
-    do {
-     if(attempt >= maxAttempts)
-        return -1L
-      pos = positionOf(hash1, attempt)
-      bytes.position(pos)
-      if(isEmpty(pos))
-        return -1L
-      bytes.get(hash2)
-      attempt += 1
-    } while(!Arrays.equals(hash1, hash2))
-    bytes.getLong()
-  }
+  override def get(key: ByteBuffer): Long = lookup.get(key)
   
   /**
    * Change the salt used for key hashing making all existing keys unfindable.
    */
   override def clear() {
     this.entries = 0
-    this.lookups = 0L
-    this.probes = 0L
+    this.lookup.lookups = 0L
+    this.lookup.probes = 0L
     this.lastOffset = -1L
     Arrays.fill(bytes.array, bytes.arrayOffset, bytes.arrayOffset + bytes.limit, 0.toByte)
   }
@@ -161,7 +150,7 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    * The rate of collisions in the lookups
    */
   def collisionRate: Double = 
-    (this.probes - this.lookups) / this.lookups.toDouble
+    (this.lookup.probes - this.lookup.lookups) / this.lookup.lookups.toDouble
 
   /**
    * The latest offset put into the map
@@ -173,29 +162,106 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   }
 
   /**
-   * Calculate the ith probe position. We first try reading successive integers from the hash itself
-   * then if all of those fail we degrade to linear probing.
-   * @param hash The hash of the key to find the position for
-   * @param attempt The ith probe
-   * @return The byte offset in the buffer at which the ith probing for the given hash would reside
+   * A view sharing the entries of this map, with its own hash buffer and digest so that several threads can look up
+   * keys at the same time.
    */
-  private def positionOf(hash: Array[Byte], attempt: Int): Int = {
-    val probe = CoreUtils.readInt(hash, math.min(attempt, hashSize - 4)) + math.max(0, attempt - hashSize + 4)
-    val slot = Utils.abs(probe) % slots
-    this.probes += 1
-    slot * bytesPerEntry
+  override def readOnlyView(): OffsetMap = {
+    val viewLookup = new Lookup
+    new OffsetMap {
+      override def slots: Int = SkimpyOffsetMap.this.slots
+      override def put(key: ByteBuffer, offset: Long): Unit = throw new UnsupportedOperationException("Read-only offset map")
+      override def get(key: ByteBuffer): Long = viewLookup.get(key)
+      override def updateLatestOffset(offset: Long): Unit = throw new UnsupportedOperationException("Read-only offset map")
+      override def clear(): Unit = throw new UnsupportedOperationException("Read-only offset map")
+      override def size: Int = SkimpyOffsetMap.this.size
+      override def latestOffset: Long = SkimpyOffsetMap.this.latestOffset
+    }
   }
-  
+
   /**
-   * The offset at which we have stored the given key
-   * @param key The key to hash
-   * @param buffer The buffer to store the hash into
+   * The hash buffer, digest and lookup statistics of one user of the map. These are not thread safe, but the entries
+   * in the map can be read through several of them at once.
    */
-  private def hashInto(key: ByteBuffer, buffer: Array[Byte]) {
-    key.mark()
-    digest.update(key)
-    key.reset()
-    digest.digest(buffer, 0, hashSize)
+  private class Lookup {
+    /* the hash algorithm instance to use, default is MD5, and none for MurmurHash3 */
+    private val digest =
+      if (hashAlgorithm.equalsIgnoreCase(SkimpyOffsetMap.Murmur3HashAlgorithm)) None
+      else Some(MessageDigest.getInstance(hashAlgorithm))
+
+    val hashSize = digest.map(_.getDigestLength).getOrElse(Murmur3.HashSize)
+
+    /* create a hash buffer to avoid reallocating each time */
+    val hash = new Array[Byte](hashSize)
+
+    /* number of lookups on the map */
+    var lookups = 0L
+
+    /* the number of probes for all lookups */
+    var probes = 0L
+
+    def get(key: ByteBuffer): Long = {
+      lookups += 1
+      hashInto(key)
+      // search for the hash of this key by repeated probing until we find the hash we are looking for or we find an empty slot
+      var attempt = 0
+      var pos = 0
+      //we need to guard against attempt integer overflow if the map is full
+      //limit attempt to number of slots once positionOf(..) enters linear search mode
+      val maxAttempts = slots + hashSize - 4
+      do {
+       if(attempt >= maxAttempts)
+          return -1L
+        pos = positionOf(attempt)
+        if(isEmpty(pos))
+          return -1L
+        attempt += 1
+      } while(!hashMatches(pos))
+      bytes.getLong(pos + hashSize)
+    }
+
+    /**
+     * Check that the entry at the given position has the hash in the hash buffer, comparing in place to avoid copying
+     * the hash
+     */
+    def hashMatches(position: Int): Boolean = {
+      val array = bytes.array
+      var i = 0
+      while (i < hashSize) {
+        if (array(position + i) != hash(i))
+          return false
+        i += 1
+      }
+      true
+    }
+
+    /**
+     * Calculate the ith probe position for the hash in the hash buffer. We first try reading successive integers from
+     * the hash itself then if all of those fail we degrade to linear probing.
+     * @param attempt The ith probe
+     * @return The byte offset in the buffer at which the ith probing for the hash would reside
+     */
+    def positionOf(attempt: Int): Int = {
+      val probe = CoreUtils.readInt(hash, math.min(attempt, hashSize - 4)) + math.max(0, attempt - hashSize + 4)
+      val slot = Utils.abs(probe) % slots
+      this.probes += 1
+      slot * bytesPerEntry
+    }
+
+    /**
+     * Hash the given key into the hash buffer
+     * @param key The key to hash
+     */
+    def hashInto(key: ByteBuffer) {
+      digest match {
+        case Some(messageDigest) =>
+          key.mark()
+          messageDigest.update(key)
+          key.reset()
+          messageDigest.digest(hash, 0, hashSize)
+        case None =>
+          Murmur3.hash128(key, 0L, hash)
+      }
+    }
   }
   
 }
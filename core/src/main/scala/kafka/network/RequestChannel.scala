@@ -210,9 +210,20 @@ object RequestChannel extends Logging {
       apply(request, response.toSend(request.connectionId, request.header))
     }
 
+    def apply(request: Request, response: AbstractResponse, throttleTimeMs: Int): Response = {
+      require(request != null, "request should be non null")
+      require(response != null, "response should be non null")
+      new Response(request, Some(response.toSend(request.connectionId, request.header)), SendAction, throttleTimeMs)
+    }
+
   }
 
-  case class Response(request: Request, responseSend: Option[Send], responseAction: ResponseAction) {
+  /**
+   * @param throttleTimeMs How long the network thread keeps the connection muted after the response, for clients which
+   *                       back off for the throttle time in their response on their own instead of waiting for it
+   */
+  case class Response(request: Request, responseSend: Option[Send], responseAction: ResponseAction,
+                      throttleTimeMs: Int = 0) {
     request.responseCompleteTimeNanos = Time.SYSTEM.nanoseconds
     if (request.apiLocalCompleteTimeNanos == -1L) request.apiLocalCompleteTimeNanos = Time.SYSTEM.nanoseconds
 
@@ -225,9 +236,27 @@ object RequestChannel extends Logging {
   case object CloseConnectionAction extends ResponseAction
 }
 
-class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMetricsGroup {
+/**
+ * Requests are held in `numQueues` bounded queues, each sized for its share of `queueSize`. A request goes to the queue
+ * of the processor which read it and each handler prefers one queue, taking requests from the others when its own is
+ * empty. With more than one queue, handlers and processors mostly contend on different locks.
+ *
+ * Requests received on one of the `controlPlaneListenerNames` are instead held in a separate control plane queue,
+ * which has its own handlers, so that they are not delayed behind client requests.
+ */
+class RequestChannel(val numProcessors: Int,
+                     val queueSize: Int,
+                     val numQueues: Int = 1,
+                     val controlPlaneListenerNames: Set[ListenerName] = Set.empty) extends KafkaMetricsGroup {
+  require(numQueues >= 1, s"The number of request queues must be positive, but was $numQueues")
   private var responseListeners: List[(Int) => Unit] = Nil
-  private val requestQueue = new ArrayBlockingQueue[RequestChannel.Request](queueSize)
+  private val requestQueues = Array.fill(numQueues)(
+    new ArrayBlockingQueue[RequestChannel.Request](math.max(1, (queueSize + numQueues - 1) / numQueues)))
+  // one permit per queued request, so that handlers can wait for a request in any of the queues
+  private val queuedRequests = new Semaphore(0)
+  private val controlPlaneRequestQueue =
+    if (controlPlaneListenerNames.isEmpty) None
+    else Some(new ArrayBlockingQueue[RequestChannel.Request](queueSize))
   private val responseQueues = new Array[BlockingQueue[RequestChannel.Response]](numProcessors)
   for(i <- 0 until numProcessors)
     responseQueues(i) = new LinkedBlockingQueue[RequestChannel.Response]()
@@ -235,10 +264,31 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   newGauge(
     "RequestQueueSize",
     new Gauge[Int] {
-      def value = requestQueue.size
+      def value = requestQueues.foldLeft(0) {(total, q) => total + q.size()}
     }
   )
 
+  controlPlaneRequestQueue.foreach { queue =>
+    newGauge("ControlPlaneRequestQueueSize",
+      new Gauge[Int] {
+        def value = queue.size
+      }
+    )
+  }
+
+  private val requestQueueTimeHists = if (numQueues > 1) {
+    for (i <- 0 until numQueues) yield {
+      val tags = Map("queue" -> i.toString)
+      newGauge("RequestQueueSize",
+        new Gauge[Int] {
+          def value = requestQueues(i).size()
+        },
+        tags
+      )
+      newHistogram("RequestQueueTimeMs", biased = true, tags)
+    }
+  } else IndexedSeq.empty
+
   newGauge("ResponseQueueSize", new Gauge[Int]{
     def value = responseQueues.foldLeft(0) {(total, q) => total + q.size()}
   })
@@ -254,7 +304,25 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
 
   /** Send a request to be handled, potentially blocking until there is room in the queue for the request */
   def sendRequest(request: RequestChannel.Request) {
-    requestQueue.put(request)
+    if (controlPlaneRequestQueue.isDefined && controlPlaneListenerNames.contains(request.listenerName))
+      sendControlPlaneRequest(request)
+    else if (numQueues == 1)
+      requestQueues(0).put(request)
+    else {
+      requestQueues(request.processor % numQueues).put(request)
+      queuedRequests.release()
+    }
+  }
+
+  /**
+   * Send a request to be handled by the control plane handlers, potentially blocking until there is room in the queue
+   * for the request
+   */
+  def sendControlPlaneRequest(request: RequestChannel.Request) {
+    controlPlaneRequestQueue match {
+      case Some(queue) => queue.put(request)
+      case None => throw new IllegalStateException("No control plane listeners are configured")
+    }
   }
 
   /** Send a response back to the socket server to be sent over the network */
@@ -265,12 +333,60 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   }
 
   /** Get the next request or block until specified time has elapsed */
-  def receiveRequest(timeout: Long): RequestChannel.Request =
-    requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+  def receiveRequest(timeout: Long): RequestChannel.Request = receiveRequest(timeout, 0)
+
+  /**
+   * Get the next request or block until specified time has elapsed. The queue with index `handler` modulo the number
+   * of queues is checked first.
+   */
+  def receiveRequest(timeout: Long, handler: Int): RequestChannel.Request = {
+    if (numQueues == 1)
+      requestQueues(0).poll(timeout, TimeUnit.MILLISECONDS)
+    else if (queuedRequests.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+      pollAny(handler % numQueues)
+    else
+      null
+  }
+
+  /** Get the next control plane request or block until specified time has elapsed */
+  def receiveControlPlaneRequest(timeout: Long): RequestChannel.Request = {
+    controlPlaneRequestQueue match {
+      case Some(queue) => queue.poll(timeout, TimeUnit.MILLISECONDS)
+      case None => throw new IllegalStateException("No control plane listeners are configured")
+    }
+  }
 
   /** Get the next request or block until there is one */
-  def receiveRequest(): RequestChannel.Request =
-    requestQueue.take()
+  def receiveRequest(): RequestChannel.Request = {
+    if (numQueues == 1)
+      requestQueues(0).take()
+    else {
+      queuedRequests.acquire()
+      pollAny(0)
+    }
+  }
+
+  /**
+   * Take a request from the home queue, or else from the first non-empty queue after it. Must only be called after
+   * acquiring a permit, which guarantees that one of the queues holds a request for us.
+   */
+  private def pollAny(home: Int): RequestChannel.Request = {
+    var i = 0
+    while (true) {
+      val index = (home + i) % numQueues
+      val request = requestQueues(index).poll()
+      if (request != null) {
+        if (request ne RequestChannel.AllDone) {
+          val queueTimeNanos = Time.SYSTEM.nanoseconds - request.startTimeNanos
+          requestQueueTimeHists(index).update(TimeUnit.NANOSECONDS.toMillis(queueTimeNanos))
+        }
+        return request
+      }
+      // another handler may have taken a request from a later queue while one was added to a queue we already checked
+      i += 1
+    }
+    null
+  }
 
   /** Get a response for the given processor if there is one */
   def receiveResponse(processor: Int): RequestChannel.Response = {
@@ -285,7 +401,9 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   }
 
   def shutdown() {
-    requestQueue.clear()
+    requestQueues.foreach(_.clear())
+    queuedRequests.drainPermits()
+    controlPlaneRequestQueue.foreach(_.clear())
   }
 }
 
@@ -52,16 +52,17 @@ import scala.util.control.{ControlThrowable, NonFatal}
 class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time, val credentialProvider: CredentialProvider) extends Logging with KafkaMetricsGroup {
 
   private val endpoints = config.listeners.map(l => l.listenerName -> l).toMap
-  private val numProcessorThreads = config.numNetworkThreads
   private val maxQueuedRequests = config.queuedMaxRequests
-  private val totalProcessorThreads = numProcessorThreads * endpoints.size
+  private val numRequestQueues = math.min(config.numRequestQueues, config.numIoThreads)
+  private val totalProcessorThreads = config.listeners.map(endpoint => config.numNetworkThreads(endpoint.listenerName)).sum
 
   private val maxConnectionsPerIp = config.maxConnectionsPerIp
   private val maxConnectionsPerIpOverrides = config.maxConnectionsPerIpOverrides
 
   this.logIdent = "[Socket Server on Broker " + config.brokerId + "], "
 
-  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests)
+  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests, numRequestQueues,
+    config.controlPlaneListenerNames)
   private val processors = new Array[Processor](totalProcessorThreads)
 
   private[network] val acceptors = mutable.Map[EndPoint, Acceptor]()
@@ -83,7 +84,7 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
       config.listeners.foreach { endpoint =>
         val listenerName = endpoint.listenerName
         val securityProtocol = endpoint.securityProtocol
-        val processorEndIndex = processorBeginIndex + numProcessorThreads
+        val processorEndIndex = processorBeginIndex + config.numNetworkThreads(listenerName)
 
         for (i <- processorBeginIndex until processorEndIndex)
           processors(i) = newProcessor(i, connectionQuotas, listenerName, securityProtocol)
@@ -397,6 +398,8 @@ private[kafka] class Processor(val id: Int,
 
   private val newConnections = new ConcurrentLinkedQueue[SocketChannel]()
   private val inflightResponses = mutable.Map[String, RequestChannel.Response]()
+  // connections muted for the throttle time of their last response, with the time at which they are unmuted
+  private val throttledConnections = mutable.Map[String, Long]()
   private[kafka] val metricTags = mutable.LinkedHashMap(
     "listener" -> listenerName.value,
     "networkProcessor" -> id.toString
@@ -432,6 +435,7 @@ private[kafka] class Processor(val id: Int,
         configureNewConnections()
         // register any new responses for writing
         processNewResponses()
+        unmuteThrottledConnections()
         poll()
         processCompletedReceives()
         processCompletedSends()
@@ -462,9 +466,7 @@ private[kafka] class Processor(val id: Int,
             // that are sitting in the server's socket buffer
             updateRequestMetrics(curr.request)
             trace("Socket server received empty response to send, registering for read: " + curr)
-            val channelId = curr.request.connectionId
-            if (selector.channel(channelId) != null || selector.closingChannel(channelId) != null)
-                selector.unmute(channelId)
+            unmuteAfterThrottle(curr.request.connectionId, curr.throttleTimeMs)
           case RequestChannel.SendAction =>
             val responseSend = curr.responseSend.getOrElse(
               throw new IllegalStateException(s"responseSend must be defined for SendAction, response: $curr"))
@@ -496,8 +498,32 @@ private[kafka] class Processor(val id: Int,
     }
   }
 
+  /**
+   * Unmute a connection to read its next request, or keep it muted for the throttle time of its last response first
+   */
+  private def unmuteAfterThrottle(connectionId: String, throttleTimeMs: Int) {
+    if (throttleTimeMs > 0)
+      throttledConnections += (connectionId -> (time.milliseconds + throttleTimeMs))
+    else if (selector.channel(connectionId) != null || selector.closingChannel(connectionId) != null)
+      selector.unmute(connectionId)
+  }
+
+  private def unmuteThrottledConnections() {
+    if (throttledConnections.nonEmpty) {
+      val now = time.milliseconds
+      throttledConnections.filter { case (_, unmuteTimeMs) => unmuteTimeMs <= now }.keys.foreach { connectionId =>
+        throttledConnections.remove(connectionId)
+        unmuteAfterThrottle(connectionId, 0)
+      }
+    }
+  }
+
   private def poll() {
-    try selector.poll(300)
+    // wake up in time to unmute the throttled connections
+    val timeoutMs =
+      if (throttledConnections.isEmpty) 300L
+      else math.max(0L, math.min(300L, throttledConnections.values.min - time.milliseconds))
+    try selector.poll(timeoutMs)
     catch {
       case e @ (_: IllegalStateException | _: IOException) =>
         error(s"Closing processor $id due to illegal state or IO exception")
@@ -535,7 +561,7 @@ private[kafka] class Processor(val id: Int,
         throw new IllegalStateException(s"Send for ${send.destination} completed, but not in `inflightResponses`")
       }
       updateRequestMetrics(resp.request)
-      selector.unmute(send.destination)
+      unmuteAfterThrottle(send.destination, resp.throttleTimeMs)
     }
   }
 
@@ -552,6 +578,7 @@ private[kafka] class Processor(val id: Int,
         throw new IllegalStateException(s"connectionId has unexpected format: $connectionId")
       }.remoteHost
       inflightResponses.remove(connectionId).foreach(response => updateRequestMetrics(response.request))
+      throttledConnections.remove(connectionId)
       // the channel has been closed by the selector but the quotas still need to be updated
       connectionQuotas.dec(InetAddress.getByName(remoteHost))
     }
@@ -578,6 +605,8 @@ private[kafka] class Processor(val id: Int,
         val remoteHost = channel.socket().getInetAddress.getHostAddress
         val remotePort = channel.socket().getPort
         val connectionId = ConnectionId(localHost, localPort, remoteHost, remotePort).toString
+        // a closed connection with the same id may still be throttled
+        throttledConnections.remove(connectionId)
         selector.register(connectionId, channel)
       } catch {
         // We explicitly catch all non fatal exceptions and close the socket to avoid a socket leak. The other
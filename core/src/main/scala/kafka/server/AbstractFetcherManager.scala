@@ -27,10 +27,16 @@ import com.yammer.metrics.core.Gauge
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.utils.Utils
 
-abstract class AbstractFetcherManager(protected val name: String, clientId: String, numFetchers: Int = 1)
+/**
+ * Manages the fetcher threads of the partitions fetched from each source broker. The partitions of a source broker are
+ * spread over `numFetchers` fetchers by their hash. When `maxFetchers` is larger, fetchers are added and removed by
+ * [[rescaleFetchers]] with the lag of the partitions.
+ */
+abstract class AbstractFetcherManager(protected val name: String, clientId: String, numFetchers: Int = 1,
+                                      maxFetchers: Int = 0, scaleLagThreshold: Long = 0L)
   extends Logging with KafkaMetricsGroup {
   // map of (source broker_id, fetcher_id per source broker) => fetcher
-  private val fetcherThreadMap = new mutable.HashMap[BrokerIdAndFetcherId, AbstractFetcherThread]
+  private[server] val fetcherThreadMap = new mutable.HashMap[BrokerIdAndFetcherId, AbstractFetcherThread]
   private val mapLock = new Object
   this.logIdent = "[" + name + "] "
 
@@ -71,16 +77,20 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
   // to be defined in subclass to create a specific fetcher
   def createFetcherThread(fetcherId: Int, sourceBroker: BrokerEndPoint): AbstractFetcherThread
 
+  private def addAndStartFetcherThread(brokerAndFetcherId: BrokerAndFetcherId, brokerIdAndFetcherId: BrokerIdAndFetcherId) {
+    val fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
+    fetcherThreadMap.put(brokerIdAndFetcherId, fetcherThread)
+    fetcherThread.start
+  }
+
   def addFetcherForPartitions(partitionAndOffsets: Map[TopicPartition, BrokerAndInitialOffset]) {
     mapLock synchronized {
       val partitionsPerFetcher = partitionAndOffsets.groupBy { case(topicPartition, brokerAndInitialOffset) =>
         BrokerAndFetcherId(brokerAndInitialOffset.broker, getFetcherId(topicPartition.topic, topicPartition.partition))}
 
-      def addAndStartFetcherThread(brokerAndFetcherId: BrokerAndFetcherId, brokerIdAndFetcherId: BrokerIdAndFetcherId) {
-        val fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
-        fetcherThreadMap.put(brokerIdAndFetcherId, fetcherThread)
-        fetcherThread.start
-      }
+      // the partitions may have been moved to an added fetcher while they were fetched before
+      for ((key, fetcher) <- fetcherThreadMap if key.fetcherId >= numFetchers)
+        fetcher.removePartitions(partitionAndOffsets.keySet)
 
       for ((brokerAndFetcherId, partitionAndOffsets) <- partitionsPerFetcher) {
         val brokerIdAndFetcherId = BrokerIdAndFetcherId(brokerAndFetcherId.broker.id, brokerAndFetcherId.fetcherId)
@@ -112,6 +122,50 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
     info("Removed fetcher for partitions %s".format(partitions.mkString(",")))
   }
 
+  /**
+   * Add a fetcher for a source broker whose partitions lag by more than `scaleLagThreshold` messages, or remove the
+   * added fetchers of a source broker once none of its partitions lag anymore. The added fetcher takes over half of the
+   * lagging partitions of the fetcher with the most of them, so that they are fetched over another connection, and
+   * the partitions of the removed fetchers go back to the fetchers they hash to. At most one fetcher is added per
+   * source broker at a time, so that the lag of the partitions can be measured again before adding the next one.
+   */
+  def rescaleFetchers(): Unit = {
+    mapLock synchronized {
+      for ((brokerId, fetchers) <- fetcherThreadMap.toMap.groupBy { case (key, _) => key.brokerId }) {
+        val laggingPartitions = fetchers.map { case (key, fetcher) =>
+          key -> fetcher.partitionLags.collect { case (tp, lag) if lag > scaleLagThreshold => tp }.toSet
+        }
+        if (laggingPartitions.values.exists(_.nonEmpty)) {
+          val (busiestKey, busiestLagging) = laggingPartitions.maxBy { case (_, partitions) => partitions.size }
+          val newFetcherId = (numFetchers until maxFetchers).find(id => !fetchers.contains(BrokerIdAndFetcherId(brokerId, id)))
+          // a fetcher with a single lagging partition is not split, since that partition would still be fetched alone
+          if (busiestLagging.size > 1 && newFetcherId.isDefined) {
+            val busiest = fetchers(busiestKey)
+            val fetchOffsets = busiest.removeAndGetFetchOffsets(busiestLagging.take(busiestLagging.size / 2))
+            val key = BrokerIdAndFetcherId(brokerId, newFetcherId.get)
+            addAndStartFetcherThread(BrokerAndFetcherId(busiest.sourceBroker, key.fetcherId), key)
+            fetcherThreadMap(key).addPartitions(fetchOffsets)
+            info(s"Added fetcher $key for ${fetchOffsets.size} lagging partitions of fetcher $busiestKey")
+          }
+        } else {
+          for ((key, fetcher) <- fetchers if key.fetcherId >= numFetchers) {
+            fetcher.initiateShutdown()
+            val fetchOffsets = fetcher.removeAndGetFetchOffsets(fetcher.partitionLags.keySet)
+            fetcher.shutdown()
+            fetcherThreadMap.remove(key)
+            for ((fetcherId, partitions) <- fetchOffsets.groupBy { case (tp, _) => getFetcherId(tp.topic, tp.partition) }) {
+              val homeKey = BrokerIdAndFetcherId(brokerId, fetcherId)
+              if (!fetcherThreadMap.contains(homeKey))
+                addAndStartFetcherThread(BrokerAndFetcherId(fetcher.sourceBroker, fetcherId), homeKey)
+              fetcherThreadMap(homeKey).addPartitions(partitions)
+            }
+            info(s"Removed fetcher $key since the partitions of broker $brokerId caught up")
+          }
+        }
+      }
+    }
+  }
+
   def shutdownIdleFetcherThreads() {
     mapLock synchronized {
       val keysToBeRemoved = new mutable.HashSet[BrokerIdAndFetcherId]
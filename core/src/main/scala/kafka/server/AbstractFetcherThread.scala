@@ -292,6 +292,30 @@ abstract class AbstractFetcherThread(name: String,
     } finally partitionMapLock.unlock()
   }
 
+  /**
+   * Remove partitions and return their fetch offsets, so that another fetcher can continue fetching them
+   */
+  def removeAndGetFetchOffsets(topicPartitions: Set[TopicPartition]): Map[TopicPartition, Long] = {
+    partitionMapLock.lockInterruptibly()
+    try {
+      val fetchOffsets = topicPartitions.flatMap { topicPartition =>
+        Option(partitionStates.stateValue(topicPartition)).map(topicPartition -> _.fetchOffset)
+      }.toMap
+      removePartitions(fetchOffsets.keySet)
+      fetchOffsets
+    } finally partitionMapLock.unlock()
+  }
+
+  /**
+   * The lag of each partition of this fetcher behind the high watermark of its leader, or -1 if it is not known yet
+   */
+  def partitionLags: Map[TopicPartition, Long] = inLock(partitionMapLock) {
+    partitionStates.partitionStates.asScala.map { state =>
+      val topicPartition = state.topicPartition
+      topicPartition -> fetcherLagStats.lag(topicPartition.topic, topicPartition.partition)
+    }.toMap
+  }
+
   def partitionCount() = {
     partitionMapLock.lockInterruptibly()
     try partitionStates.size
@@ -356,6 +380,11 @@ class FetcherLagStats(metricId: ClientIdAndBroker) {
     stats.getAndMaybePut(new ClientIdTopicPartition(metricId.clientId, topic, partitionId))
   }
 
+  def lag(topic: String, partitionId: Int): Long = {
+    val fetcherLagMetrics = stats.get(new ClientIdTopicPartition(metricId.clientId, topic, partitionId))
+    if (fetcherLagMetrics != null) fetcherLagMetrics.lag else -1L
+  }
+
   def isReplicaInSync(topic: String, partitionId: Int): Boolean = {
     val fetcherLagMetrics = stats.get(new ClientIdTopicPartition(metricId.clientId, topic, partitionId))
     if (fetcherLagMetrics != null)
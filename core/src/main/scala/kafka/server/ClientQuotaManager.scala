@@ -189,24 +189,42 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
   }
 
   def recordAndThrottleOnQuotaViolation(clientSensors: ClientSensors, value: Double, callback: Int => Unit): Int = {
-    var throttleTimeMs = 0
-    try {
-      clientSensors.quotaSensor.record(value)
+    val throttleTimeMs = recordAndGetThrottleTimeMs(clientSensors, value)
+    if (throttleTimeMs > 0) {
+      // If delayed, add the element to the delayQueue
+      delayQueue.add(new ThrottledResponse(time, throttleTimeMs, callback))
+      delayQueueSensor.record()
+    } else {
       // trigger the callback immediately if quota is not violated
       callback(0)
+    }
+    throttleTimeMs
+  }
+
+  /**
+   * Records that a user/clientId changed some metric being throttled, like [[recordAndMaybeThrottle]], without delaying
+   * anything. This is for clients which back off for the throttle time returned in their response on their own.
+   * @return Number of milliseconds to throttle the client for in case of Quota violation. Zero otherwise
+   */
+  def recordAndGetThrottleTimeMs(sanitizedUser: String, clientId: String, value: Double): Int = {
+    val clientSensors = getOrCreateQuotaSensors(sanitizedUser, clientId)
+    recordAndGetThrottleTimeMs(clientSensors, value)
+  }
+
+  def recordAndGetThrottleTimeMs(clientSensors: ClientSensors, value: Double): Int = {
+    try {
+      clientSensors.quotaSensor.record(value)
+      0
     } catch {
       case _: QuotaViolationException =>
         // Compute the delay
         val clientQuotaEntity = clientSensors.quotaEntity
         val clientMetric = metrics.metrics().get(clientRateMetricName(clientQuotaEntity.sanitizedUser, clientQuotaEntity.clientId))
-        throttleTimeMs = throttleTime(clientMetric, getQuotaMetricConfig(clientQuotaEntity.quota)).round.toInt
+        val throttleTimeMs = throttleTime(clientMetric, getQuotaMetricConfig(clientQuotaEntity.quota)).round.toInt
         clientSensors.throttleTimeSensor.record(throttleTimeMs)
-        // If delayed, add the element to the delayQueue
-        delayQueue.add(new ThrottledResponse(time, throttleTimeMs, callback))
-        delayQueueSensor.record()
         logger.debug("Quota violated for sensor (%s). Delay time: (%d)".format(clientSensors.quotaSensor.name(), throttleTimeMs))
+        throttleTimeMs
     }
-    throttleTimeMs
   }
 
   /**
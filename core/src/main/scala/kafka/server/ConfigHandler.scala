@@ -66,7 +66,7 @@ class TopicConfigHandler(private val logManager: LogManager, kafkaConfig: KafkaC
         warn(s"${LogConfig.RetentionMsProp} for topic $topic is set to ${logConfig.retentionMs}. It is smaller than " + 
           s"${LogConfig.MessageTimestampDifferenceMaxMsProp}'s value ${logConfig.messageTimestampDifferenceMaxMs}. " +
           s"This may result in frequent log rolling.")
-      logs.foreach(_.config = logConfig)
+      logs.foreach(logManager.updateConfig(_, logConfig))
     }
 
     def updateThrottledList(prop: String, quotaManager: ReplicationQuotaManager) = {
@@ -26,6 +26,7 @@ import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
 import kafka.utils._
 import kafka.utils.timer._
+import org.apache.kafka.common.utils.Utils
 
 import scala.collection._
 import scala.collection.mutable.ListBuffer
@@ -120,28 +121,34 @@ object DelayedOperationPurgatory {
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000,
                                    reaperEnabled: Boolean = true,
-                                   timerEnabled: Boolean = true): DelayedOperationPurgatory[T] = {
+                                   timerEnabled: Boolean = true,
+                                   numShards: Int = 1): DelayedOperationPurgatory[T] = {
     val timer = new SystemTimer(purgatoryName)
-    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled)
+    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled,
+      numShards)
   }
 
 }
 
 /**
  * A helper purgatory class for bookkeeping delayed operations with a timeout, and expiring timed out operations.
+ *
+ * The watch lists are split by key into `numShards` shards, each with its own map and lock, so that watching,
+ * completing, and purging operations of keys in different shards do not contend with each other.
  */
 final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
                                                              timeoutTimer: Timer,
                                                              brokerId: Int = 0,
                                                              purgeInterval: Int = 1000,
                                                              reaperEnabled: Boolean = true,
-                                                             timerEnabled: Boolean = true)
+                                                             timerEnabled: Boolean = true,
+                                                             numShards: Int = 1)
         extends Logging with KafkaMetricsGroup {
 
-  /* a list of operation watching keys */
-  private val watchersForKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
+  require(numShards > 0, s"The number of shards must be positive, but it is $numShards")
 
-  private val removeWatchersLock = new ReentrantReadWriteLock()
+  /* the watch lists of the keys, sharded by key */
+  private val watcherLists = Array.tabulate(numShards)(new WatcherList(_))
 
   // the number of estimated total operations in the purgatory
   private[this] val estimatedTotalOperations = new AtomicInteger(0)
@@ -167,6 +174,18 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     metricsTags
   )
 
+  if (numShards > 1) {
+    watcherLists.foreach { watcherList =>
+      newGauge(
+        "PurgatorySize",
+        new Gauge[Int] {
+          def value: Int = watcherList.watched
+        },
+        metricsTags + ("shard" -> watcherList.shard.toString)
+      )
+    }
+  }
+
   if (reaperEnabled)
     expirationReaper.start()
 
@@ -237,7 +256,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * @return the number of completed operations during this process
    */
   def checkAndComplete(key: Any): Int = {
-    val watchers = inReadLock(removeWatchersLock) { watchersForKey.get(key) }
+    val watcherList = watcherListForKey(key)
+    val watchers = inReadLock(watcherList.removeWatchersLock) { watcherList.watchersByKey.get(key) }
     if(watchers == null)
       0
     else
@@ -249,7 +269,7 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * on multiple lists, and some of its watched entries may still be in the watch lists
    * even when it has been completed, this number may be larger than the number of real operations watched
    */
-  def watched: Int = allWatchers.map(_.countWatched).sum
+  def watched: Int = watcherLists.map(_.watched).sum
 
   /**
    * Return the number of delayed operations in the expiry queue
@@ -260,27 +280,26 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     * Cancel watching on any delayed operations for the given key. Note the operation will not be completed
     */
   def cancelForKey(key: Any): List[T] = {
-    inWriteLock(removeWatchersLock) {
-      val watchers = watchersForKey.remove(key)
+    val watcherList = watcherListForKey(key)
+    inWriteLock(watcherList.removeWatchersLock) {
+      val watchers = watcherList.watchersByKey.remove(key)
       if (watchers != null)
         watchers.cancel()
       else
         Nil
     }
   }
-  /*
-   * Return all the current watcher lists,
-   * note that the returned watchers may be removed from the list by other threads
-   */
-  private def allWatchers = inReadLock(removeWatchersLock) { watchersForKey.values }
+
+  private def watcherListForKey(key: Any): WatcherList = watcherLists(Utils.abs(key.hashCode) % numShards)
 
   /*
    * Return the watch list of the given key, note that we need to
    * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
    */
   private def watchForOperation(key: Any, operation: T) {
-    inReadLock(removeWatchersLock) {
-      val watcher = watchersForKey.getAndMaybePut(key)
+    val watcherList = watcherListForKey(key)
+    inReadLock(watcherList.removeWatchersLock) {
+      val watcher = watcherList.watchersByKey.getAndMaybePut(key)
       watcher.watch(operation)
     }
   }
@@ -289,13 +308,14 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * Remove the key from watcher lists if its list is empty
    */
   private def removeKeyIfEmpty(key: Any, watchers: Watchers) {
-    inWriteLock(removeWatchersLock) {
+    val watcherList = watcherListForKey(key)
+    inWriteLock(watcherList.removeWatchersLock) {
       // if the current key is no longer correlated to the watchers to remove, skip
-      if (watchersForKey.get(key) != watchers)
+      if (watcherList.watchersByKey.get(key) != watchers)
         return
 
       if (watchers != null && watchers.isEmpty) {
-        watchersForKey.remove(key)
+        watcherList.watchersByKey.remove(key)
       }
     }
   }
@@ -309,6 +329,26 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     timeoutTimer.shutdown()
   }
 
+  /**
+   * One shard of the watch lists, with its own lock
+   */
+  private class WatcherList(val shard: Int) {
+    val watchersByKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
+
+    val removeWatchersLock = new ReentrantReadWriteLock()
+
+    /*
+     * Return all the current watcher lists,
+     * note that the returned watchers may be removed from the list by other threads
+     */
+    def allWatchers: Iterable[Watchers] = inReadLock(removeWatchersLock) { watchersByKey.values }
+
+    def watched: Int = allWatchers.map(_.countWatched).sum
+
+    // purge the operations completed by others from the watch lists of this shard
+    def purgeCompleted(): Int = allWatchers.map(_.purgeCompleted()).sum
+  }
+
   /**
    * A linked list of watched delayed operations based on some key
    */
@@ -391,7 +431,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
       // a little overestimated total number of operations.
       estimatedTotalOperations.getAndSet(delayed)
       debug("Begin purging watch lists")
-      val purged = allWatchers.map(_.purgeCompleted()).sum
+      // the shards are purged one at a time, so that the other shards are not locked while one is being purged
+      val purged = watcherLists.map(_.purgeCompleted()).sum
       debug("Purged %d elements from watch lists.".format(purged))
     }
   }
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
+
+import com.yammer.metrics.core.Gauge
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.{Logging, threadsafe}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.apache.kafka.common.requests.FetchMetadata.{INITIAL_EPOCH, INVALID_SESSION_ID, nextEpoch}
+import org.apache.kafka.common.utils.Time
+
+import scala.collection.JavaConverters._
+
+/**
+ * A partition of a fetch session: its fetch parameters from the last request which listed it, and the offsets which
+ * were last sent for it, so that incremental responses can leave it out when nothing changed.
+ */
+private[server] class CachedPartition(val topicPartition: TopicPartition, var fetchData: FetchRequest.PartitionData) {
+  private var highWatermark = FetchResponse.INVALID_HIGHWATERMARK
+  private var lastStableOffset = FetchResponse.INVALID_LAST_STABLE_OFFSET
+  private var logStartOffset = FetchResponse.INVALID_LOG_START_OFFSET
+
+  /**
+   * Record the response data of the partition and return whether it must be sent in an incremental response, which
+   * is when it has records or an error, or when one of its offsets changed
+   */
+  def maybeUpdateResponseData(data: FetchResponse.PartitionData): Boolean = {
+    val offsetsChanged = highWatermark != data.highWatermark || lastStableOffset != data.lastStableOffset ||
+      logStartOffset != data.logStartOffset
+    highWatermark = data.highWatermark
+    lastStableOffset = data.lastStableOffset
+    logStartOffset = data.logStartOffset
+    offsetsChanged || data.error != Errors.NONE || data.records.sizeInBytes > 0
+  }
+
+  override def toString: String = s"CachedPartition($topicPartition, $fetchData)"
+}
+
+/**
+ * The partitions fetched by the incremental fetch requests of a fetcher, in the order they are fetched. The epoch is
+ * the epoch of the next incremental request. A session is only modified while holding its lock.
+ *
+ * @param privileged Whether the session belongs to a follower, whose sessions may evict the sessions of consumers
+ */
+private[server] class FetchSession(val id: Int,
+                                   val privileged: Boolean,
+                                   val partitionMap: util.LinkedHashMap[TopicPartition, CachedPartition],
+                                   val creationMs: Long,
+                                   @volatile var lastUsedMs: Long,
+                                   var epoch: Int) {
+
+  def size: Int = synchronized(partitionMap.size)
+
+  /**
+   * Add or update the partitions of an incremental fetch request and remove the partitions it forgets
+   */
+  def update(fetchData: util.Map[TopicPartition, FetchRequest.PartitionData], toForget: util.List[TopicPartition]): Unit =
+    synchronized {
+      fetchData.asScala.foreach { case (tp, data) =>
+        val cached = partitionMap.get(tp)
+        if (cached == null)
+          partitionMap.put(tp, new CachedPartition(tp, data))
+        else
+          cached.fetchData = data
+      }
+      toForget.asScala.foreach(partitionMap.remove)
+    }
+
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)] = synchronized {
+    partitionMap.values.asScala.map(partition => partition.topicPartition -> partition.fetchData).toBuffer
+  }
+
+  override def toString: String = s"FetchSession(id=$id, privileged=$privileged, partitions=$size, epoch=$epoch)"
+}
+
+/**
+ * The partitions fetched by a fetch request, and how its response is built from their fetched data
+ */
+sealed trait FetchContext {
+
+  /**
+   * The partitions to fetch and their fetch parameters, in the order they should be fetched
+   */
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)]
+
+  /**
+   * Build the response from the fetched data of the partitions of this context
+   */
+  def updateAndGenerateResponse(updates: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]): FetchResponse
+}
+
+/**
+ * A fetch request which failed because of its fetch session, so that no partitions are fetched
+ */
+class SessionErrorContext(val error: Errors) extends FetchContext {
+
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)] = Seq.empty
+
+  def updateAndGenerateResponse(updates: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]): FetchResponse =
+    new FetchResponse(error, new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData], 0, INVALID_SESSION_ID)
+}
+
+/**
+ * A full fetch request, which creates a new fetch session with its partitions if `createSession` is set
+ */
+class FullFetchContext(time: Time,
+                       cache: FetchSessionCache,
+                       requestData: util.Map[TopicPartition, FetchRequest.PartitionData],
+                       isFromFollower: Boolean,
+                       createSession: Boolean) extends FetchContext {
+
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)] = requestData.asScala.toSeq
+
+  def updateAndGenerateResponse(updates: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]): FetchResponse = {
+    val sessionId =
+      if (createSession) {
+        val partitionMap = new util.LinkedHashMap[TopicPartition, CachedPartition]
+        updates.asScala.foreach { case (tp, data) =>
+          val cached = new CachedPartition(tp, requestData.get(tp))
+          cached.maybeUpdateResponseData(data)
+          partitionMap.put(tp, cached)
+        }
+        cache.maybeCreateSession(time.milliseconds, isFromFollower, partitionMap)
+      } else
+        INVALID_SESSION_ID
+    new FetchResponse(Errors.NONE, updates, 0, sessionId)
+  }
+}
+
+/**
+ * An incremental fetch request of an existing fetch session, whose response only contains the partitions with
+ * records, errors or changed offsets
+ */
+class IncrementalFetchContext(session: FetchSession) extends FetchContext {
+
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)] = session.fetchData
+
+  def updateAndGenerateResponse(updates: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]): FetchResponse =
+    session.synchronized {
+      val responseData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+      updates.asScala.foreach { case (tp, data) =>
+        val cached = session.partitionMap.get(tp)
+        // a later request of the session may have forgotten the partition already
+        if (cached != null && cached.maybeUpdateResponseData(data)) {
+          responseData.put(tp, data)
+          // the partitions which returned records are fetched last by the next request, so that the response size
+          // limit does not keep the other partitions from being fetched
+          if (data.records.sizeInBytes > 0) {
+            session.partitionMap.remove(tp)
+            session.partitionMap.put(tp, cached)
+          }
+        }
+      }
+      new FetchResponse(Errors.NONE, responseData, 0, session.id)
+    }
+}
+
+/**
+ * The fetch sessions of a broker, bounded to `maxEntries`. When the cache is full, a new session evicts the least
+ * recently used session if it has not been used for `evictionMs`. The sessions of followers may also evict the least
+ * recently used session of a consumer, since replication matters more than consumption.
+ */
+@threadsafe
+class FetchSessionCache(private val maxEntries: Int,
+                        private val evictionMs: Long) extends Logging with KafkaMetricsGroup {
+
+  // the sessions, in the order they were last used
+  private val sessions = new util.LinkedHashMap[Int, FetchSession](16, 0.75f, true)
+
+  private val evictionsMeter = newMeter("IncrementalFetchSessionEvictionsPerSec", "evictions", TimeUnit.SECONDS)
+
+  newGauge("NumIncrementalFetchSessions", new Gauge[Int] { def value = size })
+  newGauge("NumIncrementalFetchPartitionsCached", new Gauge[Long] { def value = totalPartitions })
+
+  def size: Int = synchronized(sessions.size)
+
+  def totalPartitions: Long = synchronized(sessions.values.asScala.map(_.size.toLong).sum)
+
+  /**
+   * Get a session, marking it as used now
+   */
+  def get(sessionId: Int, now: Long): Option[FetchSession] = synchronized {
+    val session = Option(sessions.get(sessionId))
+    session.foreach(_.lastUsedMs = now)
+    session
+  }
+
+  def remove(sessionId: Int): Option[FetchSession] = synchronized(Option(sessions.remove(sessionId)))
+
+  /**
+   * Create a session with the given partitions if there is room for it, evicting another session if needed.
+   *
+   * @return the id of the new session, or INVALID_SESSION_ID if the session was not created
+   */
+  def maybeCreateSession(now: Long, privileged: Boolean,
+                         partitionMap: util.LinkedHashMap[TopicPartition, CachedPartition]): Int = synchronized {
+    if (sessions.size < maxEntries || tryEvict(now, privileged)) {
+      var id = INVALID_SESSION_ID
+      while (id == INVALID_SESSION_ID || sessions.containsKey(id))
+        id = ThreadLocalRandom.current.nextInt()
+      val session = new FetchSession(id, privileged, partitionMap, now, now, nextEpoch(INITIAL_EPOCH))
+      sessions.put(id, session)
+      debug(s"Created fetch session $session")
+      id
+    } else {
+      debug(s"No fetch session created for ${partitionMap.size} partitions since the cache is full")
+      INVALID_SESSION_ID
+    }
+  }
+
+  private def tryEvict(now: Long, privileged: Boolean): Boolean = {
+    val iterator = sessions.values.iterator
+    var searching = true
+    var evicted = false
+    while (searching && iterator.hasNext) {
+      val session = iterator.next()
+      if (now - session.lastUsedMs >= evictionMs || (privileged && !session.privileged)) {
+        iterator.remove()
+        evictionsMeter.mark()
+        debug(s"Evicted fetch session $session")
+        evicted = true
+        searching = false
+      } else if (!privileged) {
+        // the sessions which follow have been used more recently
+        searching = false
+      }
+    }
+    evicted
+  }
+}
+
+object FetchSessionCache {
+  val EvictionMs = 120000L
+}
+
+/**
+ * Creates the fetch context of each fetch request from its fetch session metadata
+ */
+class FetchManager(private val time: Time, private val cache: FetchSessionCache) extends Logging {
+
+  def newContext(metadata: JFetchMetadata,
+                 fetchData: util.Map[TopicPartition, FetchRequest.PartitionData],
+                 toForget: util.List[TopicPartition],
+                 isFromFollower: Boolean): FetchContext = {
+    if (metadata.isFull) {
+      // a full request closes the session of the fetcher, if it had one
+      if (metadata.sessionId != INVALID_SESSION_ID)
+        cache.remove(metadata.sessionId)
+      new FullFetchContext(time, cache, fetchData, isFromFollower, createSession = metadata.epoch == INITIAL_EPOCH)
+    } else {
+      cache.get(metadata.sessionId, time.milliseconds) match {
+        case None =>
+          debug(s"Incremental fetch request with $metadata failed since the session was not found")
+          new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND)
+        case Some(session) => session.synchronized {
+          if (session.epoch != metadata.epoch) {
+            debug(s"Incremental fetch request with $metadata failed since the next epoch of the session is ${session.epoch}")
+            new SessionErrorContext(Errors.INVALID_FETCH_SESSION_EPOCH)
+          } else {
+            session.update(fetchData, toForget)
+            session.epoch = nextEpoch(session.epoch)
+            new IncrementalFetchContext(session)
+          }
+        }
+      }
+    }
+  }
+}
@@ -25,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
 
 import kafka.admin.{AdminUtils, RackAwareMode}
-import kafka.api.{ApiVersion, ControlledShutdownRequest, ControlledShutdownResponse, KAFKA_0_11_0_IV0}
+import kafka.api.{ApiVersion, ControlledShutdownRequest, ControlledShutdownResponse, KAFKA_0_11_0_IV0, KAFKA_0_11_1_IV1}
 import kafka.cluster.Partition
 import kafka.common.{KafkaStorageException, OffsetAndMetadata, OffsetMetadata, TopicAndPartition}
 import kafka.server.QuotaFactory.{QuotaManagers, UnboundedQuota}
@@ -33,6 +33,7 @@ import kafka.controller.KafkaController
 import kafka.coordinator.group.{GroupCoordinator, JoinGroupResult}
 import kafka.coordinator.transaction.{InitProducerIdResult, TransactionCoordinator}
 import kafka.log.{Log, LogManager, TimestampOffset}
+import kafka.message.ZStdCompressionCodec
 import kafka.network.{RequestChannel, RequestOrResponseSend}
 import kafka.security.SecurityUtils
 import kafka.security.auth._
@@ -43,7 +44,7 @@ import org.apache.kafka.common.internals.Topic.{GROUP_METADATA_TOPIC_NAME, TRANS
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, Protocol}
-import org.apache.kafka.common.record.{ControlRecordType, EndTransactionMarker, MemoryRecords, RecordBatch}
+import org.apache.kafka.common.record.{CompressionType, ControlRecordType, EndTransactionMarker, MemoryRecords, RecordBatch}
 import org.apache.kafka.common.requests.CreateAclsResponse.AclCreationResponse
 import org.apache.kafka.common.requests.DeleteAclsResponse.{AclDeletionResult, AclFilterResponse}
 import org.apache.kafka.common.requests.{Resource => RResource, ResourceType => RResourceType, _}
@@ -75,6 +76,7 @@ class KafkaApis(val requestChannel: RequestChannel,
                 val metrics: Metrics,
                 val authorizer: Option[Authorizer],
                 val quotas: QuotaManagers,
+                val fetchManager: FetchManager,
                 brokerTopicStats: BrokerTopicStats,
                 val clusterId: String,
                 time: Time) extends Logging {
@@ -399,10 +401,18 @@ class KafkaApis(val requestChannel: RequestChannel,
       case (tp, _) => authorize(request.session, Write, new Resource(Topic, tp.topic))
     }
 
+    // ZStandard compressed batches need a produce request of version 7, which clients only send if they support
+    // them, and an inter-broker protocol version with which the followers can fetch them
+    val zstdAllowed = request.header.apiVersion >= 7 && config.interBrokerProtocolVersion >= KAFKA_0_11_1_IV1
+    val (unsupportedCompressionRequestInfo, appendableRequestInfo) = authorizedRequestInfo.partition {
+      case (_, records) => !zstdAllowed && records.batches.asScala.exists(_.compressionType == CompressionType.ZSTD)
+    }
+
     // the callback for sending a produce response
     def sendResponseCallback(responseStatus: Map[TopicPartition, PartitionResponse]) {
 
       val mergedResponseStatus = responseStatus ++
+        unsupportedCompressionRequestInfo.mapValues(_ => new PartitionResponse(Errors.UNSUPPORTED_COMPRESSION_TYPE)) ++
         unauthorizedForWriteRequestInfo.mapValues(_ => new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED)) ++
         nonExistingOrUnauthorizedForDescribeTopics.mapValues(_ => new PartitionResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION))
 
@@ -436,24 +446,32 @@ class KafkaApis(val requestChannel: RequestChannel,
             )
             RequestChannel.CloseConnectionAction
           } else RequestChannel.NoOpAction
-          sendResponseExemptThrottle(new RequestChannel.Response(request, None, action))
+          sendResponseExemptThrottle(new RequestChannel.Response(request, None, action,
+            connectionThrottleTimeMs(request, bandwidthThrottleTimeMs)))
         } else {
-          sendResponseMaybeThrottle(request, requestThrottleMs =>
-            new ProduceResponse(mergedResponseStatus.asJava, bandwidthThrottleTimeMs + requestThrottleMs))
+          sendResponseMaybeThrottle(request, request.header.clientId, { requestThrottleMs =>
+            val throttleTimeMs = bandwidthThrottleTimeMs + requestThrottleMs
+            requestChannel.sendResponse(RequestChannel.Response(request,
+              new ProduceResponse(mergedResponseStatus.asJava, throttleTimeMs), connectionThrottleTimeMs(request, throttleTimeMs)))
+          })
         }
       }
 
       // When this callback is triggered, the remote API call has completed
       request.apiRemoteCompleteTimeNanos = time.nanoseconds
 
-      quotas.produce.recordAndMaybeThrottle(
-        request.session.sanitizedUser,
-        request.header.clientId,
-        numBytesAppended,
-        produceResponseCallback)
+      if (backsOffOnThrottle(request))
+        produceResponseCallback(quotas.produce.recordAndGetThrottleTimeMs(request.session.sanitizedUser,
+          request.header.clientId, numBytesAppended))
+      else
+        quotas.produce.recordAndMaybeThrottle(
+          request.session.sanitizedUser,
+          request.header.clientId,
+          numBytesAppended,
+          produceResponseCallback)
     }
 
-    if (authorizedRequestInfo.isEmpty)
+    if (appendableRequestInfo.isEmpty)
       sendResponseCallback(Map.empty)
     else {
       val internalTopicsAllowed = request.header.clientId == AdminUtils.AdminClientId
@@ -464,7 +482,7 @@ class KafkaApis(val requestChannel: RequestChannel,
         requiredAcks = produceRequest.acks,
         internalTopicsAllowed = internalTopicsAllowed,
         isFromClient = true,
-        entriesPerPartition = authorizedRequestInfo,
+        entriesPerPartition = appendableRequestInfo,
         responseCallback = sendResponseCallback)
 
       // if the request is put into the purgatory, it will have a held reference and hence cannot be garbage collected;
@@ -480,8 +498,10 @@ class KafkaApis(val requestChannel: RequestChannel,
     val fetchRequest = request.body[FetchRequest]
     val versionId = request.header.apiVersion
     val clientId = request.header.clientId
+    val fetchContext = fetchManager.newContext(fetchRequest.metadata, fetchRequest.fetchData, fetchRequest.toForget,
+      fetchRequest.isFromFollower)
 
-    val (existingAndAuthorizedForDescribeTopics, nonExistingOrUnauthorizedForDescribeTopics) = fetchRequest.fetchData.asScala.toSeq.partition {
+    val (existingAndAuthorizedForDescribeTopics, nonExistingOrUnauthorizedForDescribeTopics) = fetchContext.fetchData.partition {
       case (tp, _) => authorize(request.session, Describe, new Resource(Topic, tp.topic)) && metadataCache.contains(tp.topic)
     }
 
@@ -499,6 +519,13 @@ class KafkaApis(val requestChannel: RequestChannel,
         FetchResponse.INVALID_HIGHWATERMARK, FetchResponse.INVALID_LAST_STABLE_OFFSET, FetchResponse.INVALID_LOG_START_OFFSET, null, MemoryRecords.EMPTY))
     }
 
+    // Consumers only read ZStandard compressed batches from fetch request version 10. Followers fetch them whatever the
+    // version, as produce requests only append them once the inter-broker protocol version allows it. Like the message
+    // format check below, this is decided from the log config, so the fetched batches are not iterated for every fetch.
+    def hasUnsupportedCompression(tp: TopicPartition): Boolean =
+      versionId < 10 && !fetchRequest.isFromFollower &&
+        replicaManager.getLogConfig(tp).exists(_.compressionType == ZStdCompressionCodec.name)
+
     def convertedPartitionData(tp: TopicPartition, data: FetchResponse.PartitionData) = {
 
       // Down-conversion of the fetched records is needed when the stored magic version is
@@ -551,14 +578,24 @@ class KafkaApis(val requestChannel: RequestChannel,
         fetchedPartitionData.put(topicPartition, data)
       }
 
+      // the partitions of an incremental fetch are left out of the response if nothing changed for them
+      val unconvertedResponse = fetchContext.updateAndGenerateResponse(fetchedPartitionData)
+
       // fetch response callback invoked after any throttling
       def fetchResponseCallback(bandwidthThrottleTimeMs: Int) {
         def createResponse(requestThrottleTimeMs: Int): RequestChannel.Response = {
           val convertedData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
-          fetchedPartitionData.asScala.foreach { case (tp, partitionData) =>
-            convertedData.put(tp, convertedPartitionData(tp, partitionData))
+          unconvertedResponse.responseData.asScala.foreach { case (tp, partitionData) =>
+            if (hasUnsupportedCompression(tp)) {
+              debug(s"Fetch request with correlation id ${request.header.correlationId} from client $clientId " +
+                s"of version $versionId cannot read partition $tp, which is ZStandard compressed")
+              convertedData.put(tp, new FetchResponse.PartitionData(Errors.UNSUPPORTED_COMPRESSION_TYPE,
+                FetchResponse.INVALID_HIGHWATERMARK, FetchResponse.INVALID_LAST_STABLE_OFFSET,
+                FetchResponse.INVALID_LOG_START_OFFSET, null, MemoryRecords.EMPTY))
+            } else
+              convertedData.put(tp, convertedPartitionData(tp, partitionData))
           }
-          val response = new FetchResponse(convertedData, 0)
+          val response = new FetchResponse(unconvertedResponse.error, convertedData, 0, unconvertedResponse.sessionId)
           val responseStruct = response.toStruct(versionId)
 
           trace(s"Sending fetch response to client $clientId of ${responseStruct.sizeOf} bytes.")
@@ -567,9 +604,10 @@ class KafkaApis(val requestChannel: RequestChannel,
             brokerTopicStats.updateBytesOut(topicPartition.topic, fetchRequest.isFromFollower, data.records.sizeInBytes)
           }
 
-          val responseSend = response.toSend(responseStruct, bandwidthThrottleTimeMs + requestThrottleTimeMs,
-            request.connectionId, request.header)
-          RequestChannel.Response(request, responseSend)
+          val throttleTimeMs = bandwidthThrottleTimeMs + requestThrottleTimeMs
+          val responseSend = response.toSend(responseStruct, throttleTimeMs, request.connectionId, request.header)
+          new RequestChannel.Response(request, Some(responseSend), RequestChannel.SendAction,
+            connectionThrottleTimeMs(request, throttleTimeMs))
         }
 
         if (fetchRequest.isFromFollower)
@@ -585,17 +623,20 @@ class KafkaApis(val requestChannel: RequestChannel,
 
       if (fetchRequest.isFromFollower) {
         // We've already evaluated against the quota and are good to go. Just need to record it now.
-        val responseSize = sizeOfThrottledPartitions(versionId, fetchRequest, mergedPartitionData, quotas.leader)
+        val responseSize = sizeOfThrottledPartitions(versionId, unconvertedResponse, quotas.leader)
         quotas.leader.record(responseSize)
         fetchResponseCallback(bandwidthThrottleTimeMs = 0)
       } else {
         // Fetch size used to determine throttle time is calculated before any down conversions.
         // This may be slightly different from the actual response size. But since down conversions
         // result in data being loaded into memory, it is better to do this after throttling to avoid OOM.
-        val response = new FetchResponse(fetchedPartitionData, 0)
-        val responseStruct = response.toStruct(versionId)
-        quotas.fetch.recordAndMaybeThrottle(request.session.sanitizedUser, clientId, responseStruct.sizeOf,
-          fetchResponseCallback)
+        val responseStruct = unconvertedResponse.toStruct(versionId)
+        if (backsOffOnThrottle(request))
+          fetchResponseCallback(quotas.fetch.recordAndGetThrottleTimeMs(request.session.sanitizedUser, clientId,
+            responseStruct.sizeOf))
+        else
+          quotas.fetch.recordAndMaybeThrottle(request.session.sanitizedUser, clientId, responseStruct.sizeOf,
+            fetchResponseCallback)
       }
     }
 
@@ -617,11 +658,10 @@ class KafkaApis(val requestChannel: RequestChannel,
   }
 
   private def sizeOfThrottledPartitions(versionId: Short,
-                                        fetchRequest: FetchRequest,
-                                        mergedPartitionData: Seq[(TopicPartition, FetchResponse.PartitionData)],
+                                        unconvertedResponse: FetchResponse,
                                         quota: ReplicationQuotaManager): Int = {
     val partitionData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
-    mergedPartitionData.foreach { case (tp, data) =>
+    unconvertedResponse.responseData.asScala.foreach { case (tp, data) =>
       if (quota.isThrottled(tp))
         partitionData.put(tp, data)
     }
@@ -964,9 +1004,33 @@ class KafkaApis(val requestChannel: RequestChannel,
         unauthorizedForDescribeTopics.map(topic =>
           new MetadataResponse.TopicMetadata(Errors.UNKNOWN_TOPIC_OR_PARTITION, topic, false, java.util.Collections.emptyList()))
 
+    // the responses which only depend on the metadata cache are serialized once per metadata update
+    val serializedResponse =
+      if (unauthorizedForCreateTopicMetadata.isEmpty && unauthorizedForDescribeTopicMetadata.isEmpty)
+        metadataCache.getSerializedMetadataResponse(authorizedTopics, request.listenerName, requestVersion, clusterId)
+      else
+        None
+
+    serializedResponse match {
+      case Some(body) =>
+        trace("Sending cached metadata response with topics %s for correlation id %d to client %s".format(
+          authorizedTopics.mkString(","), request.header.correlationId, request.header.clientId))
+        sendResponseMaybeThrottle(request, request.header.clientId, { requestThrottleMs =>
+          requestChannel.sendResponse(RequestChannel.Response(request, MetadataResponse.toSend(request.connectionId,
+            requestVersion, request.header.toResponseHeader, body, requestThrottleMs)))
+        })
+      case None =>
+        sendMetadataResponse(request, metadataRequest, authorizedTopics, unauthorizedForCreateTopicMetadata ++
+          unauthorizedForDescribeTopicMetadata)
+    }
+  }
+
+  private def sendMetadataResponse(request: RequestChannel.Request, metadataRequest: MetadataRequest,
+                                   authorizedTopics: Set[String],
+                                   unauthorizedTopicMetadata: Set[MetadataResponse.TopicMetadata]) {
     // In version 0, we returned an error when brokers with replicas were unavailable,
     // while in higher versions we simply don't include the broker in the returned broker list
-    val errorUnavailableEndpoints = requestVersion == 0
+    val errorUnavailableEndpoints = request.header.apiVersion == 0
     val topicMetadata =
       if (authorizedTopics.isEmpty)
         Seq.empty[MetadataResponse.TopicMetadata]
@@ -974,7 +1038,7 @@ class KafkaApis(val requestChannel: RequestChannel,
         getTopicMetadata(metadataRequest.allowAutoTopicCreation, authorizedTopics, request.listenerName,
           errorUnavailableEndpoints)
 
-    val completeTopicMetadata = topicMetadata ++ unauthorizedForCreateTopicMetadata ++ unauthorizedForDescribeTopicMetadata
+    val completeTopicMetadata = topicMetadata ++ unauthorizedTopicMetadata
 
     val brokers = metadataCache.getAliveBrokers
 
@@ -1995,7 +2059,8 @@ class KafkaApis(val requestChannel: RequestChannel,
 
   private def sendResponseMaybeThrottle(request: RequestChannel.Request, createResponse: Int => AbstractResponse) {
     sendResponseMaybeThrottle(request, request.header.clientId, { requestThrottleMs =>
-      sendResponse(request, createResponse(requestThrottleMs))
+      requestChannel.sendResponse(RequestChannel.Response(request, createResponse(requestThrottleMs),
+        connectionThrottleTimeMs(request, requestThrottleMs)))
     })
   }
 
@@ -2011,12 +2076,33 @@ class KafkaApis(val requestChannel: RequestChannel,
     }
     request.recordNetworkThreadTimeCallback = Some(recordNetworkThreadTimeNanos)
 
-    quotas.request.recordAndThrottleOnQuotaViolation(
-        quotaSensors,
-        nanosToPercentage(request.requestThreadTimeNanos),
-        sendResponseCallback)
+    if (backsOffOnThrottle(request))
+      sendResponseCallback(quotas.request.recordAndGetThrottleTimeMs(quotaSensors,
+        nanosToPercentage(request.requestThreadTimeNanos)))
+    else
+      quotas.request.recordAndThrottleOnQuotaViolation(
+          quotaSensors,
+          nanosToPercentage(request.requestThreadTimeNanos),
+          sendResponseCallback)
   }
 
+  /**
+   * Whether the client may back off for the throttle time in the response on its own, which clients do from produce
+   * request version 6 and fetch request version 8 (KIP-219). The response is then sent right away, rather than after
+   * the throttle time, and the connection is muted for the throttle time instead.
+   */
+  private def backsOffOnThrottle(request: RequestChannel.Request): Boolean = {
+    val version = request.header.apiVersion
+    ApiKeys.forId(request.requestId) match {
+      case ApiKeys.PRODUCE => version >= 6
+      case ApiKeys.FETCH => version >= 8
+      case _ => false
+    }
+  }
+
+  private def connectionThrottleTimeMs(request: RequestChannel.Request, throttleTimeMs: Int): Int =
+    if (backsOffOnThrottle(request)) throttleTimeMs else 0
+
   private def sendResponseExemptThrottle(response: RequestChannel.Response) {
     sendResponseExemptThrottle(response.request, () => requestChannel.sendResponse(response))
   }
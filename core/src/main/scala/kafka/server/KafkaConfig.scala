@@ -24,6 +24,7 @@ import kafka.cluster.EndPoint
 import kafka.consumer.ConsumerConfig
 import kafka.coordinator.group.OffsetConfig
 import kafka.coordinator.transaction.{TransactionLog, TransactionStateManager}
+import kafka.log.SkimpyOffsetMap
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, Message, MessageSet}
 import kafka.utils.CoreUtils
 import org.apache.kafka.clients.CommonClientConfigs
@@ -36,6 +37,7 @@ import org.apache.kafka.common.record.TimestampType
 
 import scala.collection.JavaConverters._
 import scala.collection.Map
+import scala.util.Try
 
 object Defaults {
   /** ********* Zookeeper Configuration ***********/
@@ -52,6 +54,9 @@ object Defaults {
   val NumIoThreads = 8
   val BackgroundThreads = 10
   val QueuedMaxRequests = 500
+  val NumRequestQueues = 1
+  val MetadataResponseCacheSize = 100
+  val MaxIncrementalFetchSessionCacheSlots = 1000
 
   /************* Authorizer Configuration ***********/
   val AuthorizerClassName = ""
@@ -70,6 +75,9 @@ object Defaults {
   val MaxConnectionsPerIp: Int = Int.MaxValue
   val MaxConnectionsPerIpOverrides: String = ""
   val ConnectionsMaxIdleMs = 10 * 60 * 1000L
+  val NumNetworkThreadsPerListener: String = ""
+  val ControlPlaneListenerNames: String = ""
+  val ControlPlaneNumIoThreads = 2
   val RequestTimeoutMs = 30000
 
   /** ********* Log Configuration ***********/
@@ -95,7 +103,10 @@ object Defaults {
   val LogCleanerEnable = true
   val LogCleanerDeleteRetentionMs = 24 * 60 * 60 * 1000L
   val LogCleanerMinCompactionLagMs = 0L
+  val LogCleanerHashAlgorithm = "MD5"
+  val LogCleanerGroupThreads = 1
   val LogIndexSizeMaxBytes = 10 * 1024 * 1024
+  val LogIndexCacheSize = Int.MaxValue
   val LogIndexIntervalBytes = 4096
   val LogFlushIntervalMessages = Long.MaxValue
   val LogDeleteDelayMs = 60000
@@ -108,6 +119,7 @@ object Defaults {
   val LogMessageTimestampType = "CreateTime"
   val LogMessageTimestampDifferenceMaxMs = Long.MaxValue
   val NumRecoveryThreadsPerDataDir = 1
+  val NumRecoveryThreadsPerLog = 1
   val AutoCreateTopicsEnable = true
   val MinInSyncReplicas = 1
 
@@ -123,11 +135,14 @@ object Defaults {
   val ReplicaFetchMinBytes = 1
   val ReplicaFetchResponseMaxBytes = 10 * 1024 * 1024
   val NumReplicaFetchers = 1
+  val NumReplicaFetchersMax = 0
+  val ReplicaFetcherScaleLagMessages = 10000L
   val ReplicaFetchBackoffMs = 1000
   val ReplicaHighWatermarkCheckpointIntervalMs = 5000L
   val FetchPurgatoryPurgeIntervalRequests = 1000
   val ProducerPurgatoryPurgeIntervalRequests = 1000
   val DeleteRecordsPurgatoryPurgeIntervalRequests = 1
+  val NumPurgatoryShards = 1
   val AutoLeaderRebalanceEnable = true
   val LeaderImbalancePerBrokerPercentage = 10
   val LeaderImbalanceCheckIntervalSeconds = 300
@@ -236,6 +251,9 @@ object KafkaConfig {
   val NumIoThreadsProp = "num.io.threads"
   val BackgroundThreadsProp = "background.threads"
   val QueuedMaxRequestsProp = "queued.max.requests"
+  val NumRequestQueuesProp = "num.request.queues"
+  val MetadataResponseCacheSizeProp = "metadata.response.cache.size"
+  val MaxIncrementalFetchSessionCacheSlotsProp = "max.incremental.fetch.session.cache.slots"
   val RequestTimeoutMsProp = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameProp = "authorizer.class.name"
@@ -253,6 +271,9 @@ object KafkaConfig {
   val MaxConnectionsPerIpProp = "max.connections.per.ip"
   val MaxConnectionsPerIpOverridesProp = "max.connections.per.ip.overrides"
   val ConnectionsMaxIdleMsProp = "connections.max.idle.ms"
+  val NumNetworkThreadsPerListenerProp = "num.network.threads.per.listener"
+  val ControlPlaneListenerNamesProp = "control.plane.listener.names"
+  val ControlPlaneNumIoThreadsProp = "control.plane.num.io.threads"
   /***************** rack configuration *************/
   val RackProp = "broker.rack"
   /** ********* Log Configuration ***********/
@@ -284,7 +305,10 @@ object KafkaConfig {
   val LogCleanerEnableProp = "log.cleaner.enable"
   val LogCleanerDeleteRetentionMsProp = "log.cleaner.delete.retention.ms"
   val LogCleanerMinCompactionLagMsProp = "log.cleaner.min.compaction.lag.ms"
+  val LogCleanerHashAlgorithmProp = "log.cleaner.hash.algorithm"
+  val LogCleanerGroupThreadsProp = "log.cleaner.group.threads"
   val LogIndexSizeMaxBytesProp = "log.index.size.max.bytes"
+  val LogIndexCacheSizeProp = "log.index.cache.size"
   val LogIndexIntervalBytesProp = "log.index.interval.bytes"
   val LogFlushIntervalMessagesProp = "log.flush.interval.messages"
   val LogDeleteDelayMsProp = "log.segment.delete.delay.ms"
@@ -298,6 +322,7 @@ object KafkaConfig {
   val LogMessageTimestampDifferenceMaxMsProp = LogConfigPrefix + "message.timestamp.difference.max.ms"
   val LogMaxIdMapSnapshotsProp = LogConfigPrefix + "max.id.map.snapshots"
   val NumRecoveryThreadsPerDataDirProp = "num.recovery.threads.per.data.dir"
+  val NumRecoveryThreadsPerLogProp = "num.recovery.threads.per.log"
   val AutoCreateTopicsEnableProp = "auto.create.topics.enable"
   val MinInSyncReplicasProp = "min.insync.replicas"
   val CreateTopicPolicyClassNameProp = "create.topic.policy.class.name"
@@ -314,10 +339,13 @@ object KafkaConfig {
   val ReplicaFetchResponseMaxBytesProp = "replica.fetch.response.max.bytes"
   val ReplicaFetchBackoffMsProp = "replica.fetch.backoff.ms"
   val NumReplicaFetchersProp = "num.replica.fetchers"
+  val NumReplicaFetchersMaxProp = "num.replica.fetchers.max"
+  val ReplicaFetcherScaleLagMessagesProp = "replica.fetcher.scale.lag.messages"
   val ReplicaHighWatermarkCheckpointIntervalMsProp = "replica.high.watermark.checkpoint.interval.ms"
   val FetchPurgatoryPurgeIntervalRequestsProp = "fetch.purgatory.purge.interval.requests"
   val ProducerPurgatoryPurgeIntervalRequestsProp = "producer.purgatory.purge.interval.requests"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsProp = "delete.records.purgatory.purge.interval.requests"
+  val NumPurgatoryShardsProp = "num.purgatory.shards"
   val AutoLeaderRebalanceEnableProp = "auto.leader.rebalance.enable"
   val LeaderImbalancePerBrokerPercentageProp = "leader.imbalance.per.broker.percentage"
   val LeaderImbalanceCheckIntervalSecondsProp = "leader.imbalance.check.interval.seconds"
@@ -420,6 +448,16 @@ object KafkaConfig {
   val NumIoThreadsDoc = "The number of threads that the server uses for processing requests, which may include disk I/O"
   val BackgroundThreadsDoc = "The number of threads to use for various background processing tasks"
   val QueuedMaxRequestsDoc = "The number of queued requests allowed before blocking the network threads"
+  val NumRequestQueuesDoc = "The number of queues that requests wait in before being processed. Each network thread " +
+    "adds requests to one queue and each I/O thread prefers one queue, taking requests from the others when it is empty, " +
+    s"so several queues reduce lock contention on brokers with many threads. <code>$QueuedMaxRequestsProp</code> is " +
+    s"divided between the queues, and there are never more queues than <code>$NumIoThreadsProp</code>."
+  val MetadataResponseCacheSizeDoc = "The maximum number of serialized metadata responses that the broker keeps to " +
+    "send again to clients which request the same topics with the same listener and version. The responses are dropped " +
+    "whenever the metadata of the broker is updated. Set it to 0 to serialize every response."
+  val MaxIncrementalFetchSessionCacheSlotsDoc = "The maximum number of fetch sessions that the broker keeps. A fetch " +
+    "session lets a consumer or a follower send only the partitions which changed since its previous fetch request, and " +
+    "lets the broker leave out of the response the partitions which have no new data. Set it to 0 to disable fetch sessions."
   val RequestTimeoutMsDoc = CommonClientConfigs.REQUEST_TIMEOUT_MS_DOC
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameDoc = "The authorizer class that should be used for authorization"
@@ -463,6 +501,15 @@ object KafkaConfig {
   val MaxConnectionsPerIpDoc = "The maximum number of connections we allow from each ip address"
   val MaxConnectionsPerIpOverridesDoc = "Per-ip or hostname overrides to the default maximum number of connections"
   val ConnectionsMaxIdleMsDoc = "Idle connections timeout: the server socket processor threads close the connections that idle more than this"
+  val NumNetworkThreadsPerListenerDoc = s"Per-listener overrides to <code>$NumNetworkThreadsProp</code>, as a comma-separated " +
+    "list of listener names and thread counts separated by a colon. For example, <code>CONTROLLER:1,REPLICATION:4</code>."
+  val ControlPlaneListenerNamesDoc = "Names of the listeners whose requests are handled on the control plane. Control " +
+    "plane requests wait in their own queue and are processed by their own I/O threads, so that requests from the " +
+    "controller and from replica fetchers are not delayed behind client requests when the broker is overloaded. " +
+    s"To use it, list the listener used by the controller and by replication, usually <code>$InterBrokerListenerNameProp</code>, " +
+    "and have clients connect to the other listeners."
+  val ControlPlaneNumIoThreadsDoc = s"The number of threads that the server uses for processing requests received on " +
+    s"the listeners in <code>$ControlPlaneListenerNamesProp</code>"
   /************* Rack Configuration **************/
   val RackDoc = "Rack of the broker. This will be used in rack aware replication assignment for fault tolerance. Examples: `RACK1`, `us-east-1d`"
   /** ********* Log Configuration ***********/
@@ -494,7 +541,19 @@ object KafkaConfig {
   val LogCleanerEnableDoc = "Enable the log cleaner process to run on the server. Should be enabled if using any topics with a cleanup.policy=compact including the internal offsets topic. If disabled those topics will not be compacted and continually grow in size."
   val LogCleanerDeleteRetentionMsDoc = "How long are delete records retained?"
   val LogCleanerMinCompactionLagMsDoc = "The minimum time a message will remain uncompacted in the log. Only applicable for logs that are being compacted."
+  val LogCleanerHashAlgorithmDoc = "The hash algorithm the log cleaner uses to deduplicate keys. Either a message digest " +
+    "algorithm with hashes of at least 16 bytes, such as MD5 or SHA-256, or MURMUR3 for the 128-bit MurmurHash3. MURMUR3 " +
+    "is much cheaper to compute, but it is not a cryptographic hash, so keys deliberately crafted to collide with other " +
+    "keys can cause the records of those keys to be removed."
+  val LogCleanerGroupThreadsDoc = "The number of threads each log cleaner thread uses to recopy the segments of the log " +
+    "it is cleaning, including the cleaner thread itself. The segments are recopied in groups, and with more than one " +
+    "thread several groups of the same log are recopied at once, so that a single large log is cleaned faster. The " +
+    "I/O buffer memory is divided between all of the threads."
   val LogIndexSizeMaxBytesDoc = "The maximum size in bytes of the offset index"
+  val LogIndexCacheSizeDoc = "The maximum number of offset and time indexes of inactive log segments that the broker " +
+    "keeps memory mapped. Beyond this number, indexes which have not been read recently are unmapped and mapped again " +
+    "when they are next read, which keeps the number of memory maps of a broker with many segments below " +
+    "vm.max_map_count. The index which was mapped last is always kept mapped. With the default, indexes are never unmapped."
   val LogIndexIntervalBytesDoc = "The interval with which we add an entry to the offset index"
   val LogFlushIntervalMessagesDoc = "The number of messages accumulated on a log partition before messages are flushed to disk "
   val LogDeleteDelayMsDoc = "The amount of time to wait before deleting a file from the filesystem"
@@ -516,6 +575,9 @@ object KafkaConfig {
     "if the difference in timestamp exceeds this threshold. This configuration is ignored if log.message.timestamp.type=LogAppendTime." +
     "The maximum timestamp difference allowed should be no greater than log.retention.ms to avoid unnecessarily frequent log rolling."
   val NumRecoveryThreadsPerDataDirDoc = "The number of threads per data directory to be used for log recovery at startup and flushing at shutdown"
+  val NumRecoveryThreadsPerLogDoc = "The number of threads used to validate the unflushed segments of a single log and " +
+    "rebuild their indexes during recovery after an unclean shutdown. The producer state is still rebuilt one segment " +
+    "at a time. Each of the " + NumRecoveryThreadsPerDataDirProp + " threads recovering a log may use this many threads."
   val AutoCreateTopicsEnableDoc = "Enable auto creation of topic on the server"
   val MinInSyncReplicasDoc = "When a producer sets acks to \"all\" (or \"-1\"), " +
     "min.insync.replicas specifies the minimum number of replicas that must acknowledge " +
@@ -554,11 +616,21 @@ object KafkaConfig {
     "<code>max.message.bytes</code> (topic config)."
   val NumReplicaFetchersDoc = "Number of fetcher threads used to replicate messages from a source broker. " +
   "Increasing this value can increase the degree of I/O parallelism in the follower broker."
+  val NumReplicaFetchersMaxDoc = "The maximum number of fetcher threads used to replicate messages from a source broker. " +
+    s"When it is larger than <code>$NumReplicaFetchersProp</code>, a source broker gets another fetcher thread, which " +
+    s"takes over half of the lagging partitions of its busiest fetcher, whenever its partitions lag by more than " +
+    s"<code>$ReplicaFetcherScaleLagMessagesProp</code>. The added fetcher threads are removed once no partition of the " +
+    "source broker lags anymore. The default of 0 keeps the number of fetcher threads fixed."
+  val ReplicaFetcherScaleLagMessagesDoc = "The number of messages by which a partition must lag behind the high watermark " +
+    s"of its leader for another fetcher thread to be added, up to <code>$NumReplicaFetchersMaxProp</code>."
   val ReplicaFetchBackoffMsDoc = "The amount of time to sleep when fetch partition error occurs."
   val ReplicaHighWatermarkCheckpointIntervalMsDoc = "The frequency with which the high watermark is saved out to disk"
   val FetchPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the fetch request purgatory"
   val ProducerPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the producer request purgatory"
   val DeleteRecordsPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the delete records request purgatory"
+  val NumPurgatoryShardsDoc = "The number of shards the watch lists of the fetch, producer and delete records request " +
+    "purgatories are split into. Each shard has its own lock, so more shards reduce the contention between request " +
+    "handler threads completing delayed requests when there are many of them."
   val AutoLeaderRebalanceEnableDoc = "Enables auto leader balancing. A background thread checks and triggers leader balance if required at regular intervals"
   val LeaderImbalancePerBrokerPercentageDoc = "The ratio of leader imbalance allowed per broker. The controller would trigger a leader balance if it goes above this value per broker. The value is specified in percentage."
   val LeaderImbalanceCheckIntervalSecondsDoc = "The frequency with which the partition rebalance check is triggered by the controller"
@@ -622,7 +694,7 @@ object KafkaConfig {
 
   val DeleteTopicEnableDoc = "Enables delete topic. Delete topic through the admin tool will have no effect if this config is turned off"
   val CompressionTypeDoc = "Specify the final compression type for a given topic. This configuration accepts the standard compression codecs " +
-  "('gzip', 'snappy', 'lz4'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
+  "('gzip', 'snappy', 'lz4', 'zstd'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
   "'producer' which means retain the original compression codec set by the producer."
 
   /** ********* Kafka Metrics Configuration ***********/
@@ -684,6 +756,9 @@ object KafkaConfig {
       .define(NumIoThreadsProp, INT, Defaults.NumIoThreads, atLeast(1), HIGH, NumIoThreadsDoc)
       .define(BackgroundThreadsProp, INT, Defaults.BackgroundThreads, atLeast(1), HIGH, BackgroundThreadsDoc)
       .define(QueuedMaxRequestsProp, INT, Defaults.QueuedMaxRequests, atLeast(1), HIGH, QueuedMaxRequestsDoc)
+      .define(NumRequestQueuesProp, INT, Defaults.NumRequestQueues, atLeast(1), LOW, NumRequestQueuesDoc)
+      .define(MetadataResponseCacheSizeProp, INT, Defaults.MetadataResponseCacheSize, atLeast(0), LOW, MetadataResponseCacheSizeDoc)
+      .define(MaxIncrementalFetchSessionCacheSlotsProp, INT, Defaults.MaxIncrementalFetchSessionCacheSlots, atLeast(0), MEDIUM, MaxIncrementalFetchSessionCacheSlotsDoc)
       .define(RequestTimeoutMsProp, INT, Defaults.RequestTimeoutMs, HIGH, RequestTimeoutMsDoc)
 
       /************* Authorizer Configuration ***********/
@@ -703,6 +778,9 @@ object KafkaConfig {
       .define(MaxConnectionsPerIpProp, INT, Defaults.MaxConnectionsPerIp, atLeast(1), MEDIUM, MaxConnectionsPerIpDoc)
       .define(MaxConnectionsPerIpOverridesProp, STRING, Defaults.MaxConnectionsPerIpOverrides, MEDIUM, MaxConnectionsPerIpOverridesDoc)
       .define(ConnectionsMaxIdleMsProp, LONG, Defaults.ConnectionsMaxIdleMs, MEDIUM, ConnectionsMaxIdleMsDoc)
+      .define(NumNetworkThreadsPerListenerProp, STRING, Defaults.NumNetworkThreadsPerListener, LOW, NumNetworkThreadsPerListenerDoc)
+      .define(ControlPlaneListenerNamesProp, LIST, Defaults.ControlPlaneListenerNames, LOW, ControlPlaneListenerNamesDoc)
+      .define(ControlPlaneNumIoThreadsProp, INT, Defaults.ControlPlaneNumIoThreads, atLeast(1), LOW, ControlPlaneNumIoThreadsDoc)
 
       /************ Rack Configuration ******************/
       .define(RackProp, STRING, null, MEDIUM, RackDoc)
@@ -736,7 +814,10 @@ object KafkaConfig {
       .define(LogCleanerEnableProp, BOOLEAN, Defaults.LogCleanerEnable, MEDIUM, LogCleanerEnableDoc)
       .define(LogCleanerDeleteRetentionMsProp, LONG, Defaults.LogCleanerDeleteRetentionMs, MEDIUM, LogCleanerDeleteRetentionMsDoc)
       .define(LogCleanerMinCompactionLagMsProp, LONG, Defaults.LogCleanerMinCompactionLagMs, MEDIUM, LogCleanerMinCompactionLagMsDoc)
+      .define(LogCleanerHashAlgorithmProp, STRING, Defaults.LogCleanerHashAlgorithm, LOW, LogCleanerHashAlgorithmDoc)
+      .define(LogCleanerGroupThreadsProp, INT, Defaults.LogCleanerGroupThreads, atLeast(1), LOW, LogCleanerGroupThreadsDoc)
       .define(LogIndexSizeMaxBytesProp, INT, Defaults.LogIndexSizeMaxBytes, atLeast(4), MEDIUM, LogIndexSizeMaxBytesDoc)
+      .define(LogIndexCacheSizeProp, INT, Defaults.LogIndexCacheSize, atLeast(0), LOW, LogIndexCacheSizeDoc)
       .define(LogIndexIntervalBytesProp, INT, Defaults.LogIndexIntervalBytes, atLeast(0), MEDIUM, LogIndexIntervalBytesDoc)
       .define(LogFlushIntervalMessagesProp, LONG, Defaults.LogFlushIntervalMessages, atLeast(1), HIGH, LogFlushIntervalMessagesDoc)
       .define(LogDeleteDelayMsProp, LONG, Defaults.LogDeleteDelayMs, atLeast(0), HIGH, LogDeleteDelayMsDoc)
@@ -746,6 +827,7 @@ object KafkaConfig {
       .define(LogFlushStartOffsetCheckpointIntervalMsProp, INT, Defaults.LogFlushStartOffsetCheckpointIntervalMs, atLeast(0), HIGH, LogFlushStartOffsetCheckpointIntervalMsDoc)
       .define(LogPreAllocateProp, BOOLEAN, Defaults.LogPreAllocateEnable, MEDIUM, LogPreAllocateEnableDoc)
       .define(NumRecoveryThreadsPerDataDirProp, INT, Defaults.NumRecoveryThreadsPerDataDir, atLeast(1), HIGH, NumRecoveryThreadsPerDataDirDoc)
+      .define(NumRecoveryThreadsPerLogProp, INT, Defaults.NumRecoveryThreadsPerLog, atLeast(1), LOW, NumRecoveryThreadsPerLogDoc)
       .define(AutoCreateTopicsEnableProp, BOOLEAN, Defaults.AutoCreateTopicsEnable, HIGH, AutoCreateTopicsEnableDoc)
       .define(MinInSyncReplicasProp, INT, Defaults.MinInSyncReplicas, atLeast(1), HIGH, MinInSyncReplicasDoc)
       .define(LogMessageFormatVersionProp, STRING, Defaults.LogMessageFormatVersion, MEDIUM, LogMessageFormatVersionDoc)
@@ -766,10 +848,13 @@ object KafkaConfig {
       .define(ReplicaFetchMinBytesProp, INT, Defaults.ReplicaFetchMinBytes, HIGH, ReplicaFetchMinBytesDoc)
       .define(ReplicaFetchResponseMaxBytesProp, INT, Defaults.ReplicaFetchResponseMaxBytes, atLeast(0), MEDIUM, ReplicaFetchResponseMaxBytesDoc)
       .define(NumReplicaFetchersProp, INT, Defaults.NumReplicaFetchers, HIGH, NumReplicaFetchersDoc)
+      .define(NumReplicaFetchersMaxProp, INT, Defaults.NumReplicaFetchersMax, atLeast(0), MEDIUM, NumReplicaFetchersMaxDoc)
+      .define(ReplicaFetcherScaleLagMessagesProp, LONG, Defaults.ReplicaFetcherScaleLagMessages, atLeast(0), LOW, ReplicaFetcherScaleLagMessagesDoc)
       .define(ReplicaHighWatermarkCheckpointIntervalMsProp, LONG, Defaults.ReplicaHighWatermarkCheckpointIntervalMs, HIGH, ReplicaHighWatermarkCheckpointIntervalMsDoc)
       .define(FetchPurgatoryPurgeIntervalRequestsProp, INT, Defaults.FetchPurgatoryPurgeIntervalRequests, MEDIUM, FetchPurgatoryPurgeIntervalRequestsDoc)
       .define(ProducerPurgatoryPurgeIntervalRequestsProp, INT, Defaults.ProducerPurgatoryPurgeIntervalRequests, MEDIUM, ProducerPurgatoryPurgeIntervalRequestsDoc)
       .define(DeleteRecordsPurgatoryPurgeIntervalRequestsProp, INT, Defaults.DeleteRecordsPurgatoryPurgeIntervalRequests, MEDIUM, DeleteRecordsPurgatoryPurgeIntervalRequestsDoc)
+      .define(NumPurgatoryShardsProp, INT, Defaults.NumPurgatoryShards, atLeast(1), LOW, NumPurgatoryShardsDoc)
       .define(AutoLeaderRebalanceEnableProp, BOOLEAN, Defaults.AutoLeaderRebalanceEnable, HIGH, AutoLeaderRebalanceEnableDoc)
       .define(LeaderImbalancePerBrokerPercentageProp, INT, Defaults.LeaderImbalancePerBrokerPercentage, HIGH, LeaderImbalancePerBrokerPercentageDoc)
       .define(LeaderImbalanceCheckIntervalSecondsProp, LONG, Defaults.LeaderImbalanceCheckIntervalSeconds, HIGH, LeaderImbalanceCheckIntervalSecondsDoc)
@@ -900,6 +985,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val numNetworkThreads = getInt(KafkaConfig.NumNetworkThreadsProp)
   val backgroundThreads = getInt(KafkaConfig.BackgroundThreadsProp)
   val queuedMaxRequests = getInt(KafkaConfig.QueuedMaxRequestsProp)
+  val numRequestQueues = getInt(KafkaConfig.NumRequestQueuesProp)
+  val metadataResponseCacheSize = getInt(KafkaConfig.MetadataResponseCacheSizeProp)
+  val maxIncrementalFetchSessionCacheSlots = getInt(KafkaConfig.MaxIncrementalFetchSessionCacheSlotsProp)
   val numIoThreads = getInt(KafkaConfig.NumIoThreadsProp)
   val messageMaxBytes = getInt(KafkaConfig.MessageMaxBytesProp)
   val requestTimeoutMs = getInt(KafkaConfig.RequestTimeoutMsProp)
@@ -920,6 +1008,17 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val maxConnectionsPerIpOverrides: Map[String, Int] =
     getMap(KafkaConfig.MaxConnectionsPerIpOverridesProp, getString(KafkaConfig.MaxConnectionsPerIpOverridesProp)).map { case (k, v) => (k, v.toInt)}
   val connectionsMaxIdleMs = getLong(KafkaConfig.ConnectionsMaxIdleMsProp)
+  val numNetworkThreadsPerListener: Map[ListenerName, Int] =
+    getMap(KafkaConfig.NumNetworkThreadsPerListenerProp, getString(KafkaConfig.NumNetworkThreadsPerListenerProp)).map {
+      case (listenerName, threads) => ListenerName.normalised(listenerName) -> threads.toInt
+    }
+  val controlPlaneListenerNames: Set[ListenerName] =
+    getList(KafkaConfig.ControlPlaneListenerNamesProp).asScala.map(ListenerName.normalised).toSet
+  val controlPlaneNumIoThreads = getInt(KafkaConfig.ControlPlaneNumIoThreadsProp)
+
+  /** The number of network threads for the given listener */
+  def numNetworkThreads(listenerName: ListenerName): Int =
+    numNetworkThreadsPerListener.getOrElse(listenerName, numNetworkThreads)
 
   /***************** rack configuration **************/
   val rack = Option(getString(KafkaConfig.RackProp))
@@ -932,6 +1031,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logFlushIntervalMessages = getLong(KafkaConfig.LogFlushIntervalMessagesProp)
   val logCleanerThreads = getInt(KafkaConfig.LogCleanerThreadsProp)
   val numRecoveryThreadsPerDataDir = getInt(KafkaConfig.NumRecoveryThreadsPerDataDirProp)
+  val numRecoveryThreadsPerLog = getInt(KafkaConfig.NumRecoveryThreadsPerLogProp)
   val logFlushSchedulerIntervalMs = getLong(KafkaConfig.LogFlushSchedulerIntervalMsProp)
   val logFlushOffsetCheckpointIntervalMs = getInt(KafkaConfig.LogFlushOffsetCheckpointIntervalMsProp).toLong
   val logFlushStartOffsetCheckpointIntervalMs = getInt(KafkaConfig.LogFlushStartOffsetCheckpointIntervalMsProp).toLong
@@ -949,7 +1049,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logCleanerBackoffMs = getLong(KafkaConfig.LogCleanerBackoffMsProp)
   val logCleanerMinCleanRatio = getDouble(KafkaConfig.LogCleanerMinCleanRatioProp)
   val logCleanerEnable = getBoolean(KafkaConfig.LogCleanerEnableProp)
+  val logCleanerHashAlgorithm = getString(KafkaConfig.LogCleanerHashAlgorithmProp)
+  val logCleanerGroupThreads = getInt(KafkaConfig.LogCleanerGroupThreadsProp)
   val logIndexSizeMaxBytes = getInt(KafkaConfig.LogIndexSizeMaxBytesProp)
+  val logIndexCacheSize = getInt(KafkaConfig.LogIndexCacheSizeProp)
   val logIndexIntervalBytes = getInt(KafkaConfig.LogIndexIntervalBytesProp)
   val logDeleteDelayMs = getLong(KafkaConfig.LogDeleteDelayMsProp)
   val logRollTimeMillis: java.lang.Long = Option(getLong(KafkaConfig.LogRollTimeMillisProp)).getOrElse(60 * 60 * 1000L * getInt(KafkaConfig.LogRollTimeHoursProp))
@@ -977,10 +1080,13 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val replicaFetchResponseMaxBytes = getInt(KafkaConfig.ReplicaFetchResponseMaxBytesProp)
   val replicaFetchBackoffMs = getInt(KafkaConfig.ReplicaFetchBackoffMsProp)
   val numReplicaFetchers = getInt(KafkaConfig.NumReplicaFetchersProp)
+  val numReplicaFetchersMax = getInt(KafkaConfig.NumReplicaFetchersMaxProp)
+  val replicaFetcherScaleLagMessages = getLong(KafkaConfig.ReplicaFetcherScaleLagMessagesProp)
   val replicaHighWatermarkCheckpointIntervalMs = getLong(KafkaConfig.ReplicaHighWatermarkCheckpointIntervalMsProp)
   val fetchPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.FetchPurgatoryPurgeIntervalRequestsProp)
   val producerPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.ProducerPurgatoryPurgeIntervalRequestsProp)
   val deleteRecordsPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.DeleteRecordsPurgatoryPurgeIntervalRequestsProp)
+  val numPurgatoryShards = getInt(KafkaConfig.NumPurgatoryShardsProp)
   val autoLeaderRebalanceEnable = getBoolean(KafkaConfig.AutoLeaderRebalanceEnableProp)
   val leaderImbalancePerBrokerPercentage = getInt(KafkaConfig.LeaderImbalancePerBrokerPercentageProp)
   val leaderImbalanceCheckIntervalSeconds = getLong(KafkaConfig.LeaderImbalanceCheckIntervalSecondsProp)
@@ -1165,6 +1271,8 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
     require(logRetentionTimeMillis >= 1 || logRetentionTimeMillis == -1, "log.retention.ms must be unlimited (-1) or, equal or greater than 1")
     require(logDirs.nonEmpty, "At least one log directory must be defined via log.dirs or log.dir.")
     require(logCleanerDedupeBufferSize / logCleanerThreads > 1024 * 1024, "log.cleaner.dedupe.buffer.size must be at least 1MB per cleaner thread.")
+    require(Try(SkimpyOffsetMap.hashSize(logCleanerHashAlgorithm)).toOption.exists(_ >= 16),
+      s"log.cleaner.hash.algorithm $logCleanerHashAlgorithm is not available or produces hashes of less than 16 bytes.")
     require(replicaFetchWaitMaxMs <= replicaSocketTimeoutMs, "replica.socket.timeout.ms should always be at least replica.fetch.wait.max.ms" +
       " to prevent unnecessary socket timeouts")
     require(replicaFetchWaitMaxMs <= replicaLagTimeMaxMs, "replica.fetch.wait.max.ms should always be at least replica.lag.time.max.ms" +
@@ -1184,6 +1292,16 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
       s"Found ${advertisedListenerNames.map(_.value).mkString(",")}. The valid options based on the current configuration " +
       s"are ${listenerNames.map(_.value).mkString(",")}"
     )
+    require(controlPlaneListenerNames.subsetOf(listenerNames),
+      s"${KafkaConfig.ControlPlaneListenerNamesProp} must be a subset of the listener names defined in ${KafkaConfig.ListenersProp}. " +
+      s"Found ${controlPlaneListenerNames.map(_.value).mkString(",")}. The valid options based on the current configuration " +
+      s"are ${listenerNames.map(_.value).mkString(",")}")
+    require(numNetworkThreadsPerListener.keySet.subsetOf(listenerNames),
+      s"${KafkaConfig.NumNetworkThreadsPerListenerProp} must only contain listener names defined in ${KafkaConfig.ListenersProp}. " +
+      s"Found ${numNetworkThreadsPerListener.keys.map(_.value).mkString(",")}. The valid options based on the current " +
+      s"configuration are ${listenerNames.map(_.value).mkString(",")}")
+    require(numNetworkThreadsPerListener.values.forall(_ >= 1),
+      s"${KafkaConfig.NumNetworkThreadsPerListenerProp} thread counts must be positive")
     require(interBrokerProtocolVersion >= logMessageFormatVersion,
       s"log.message.format.version $logMessageFormatVersionString cannot be used when inter.broker.protocol.version is set to $interBrokerProtocolVersionString")
     val interBrokerUsesSasl = interBrokerSecurityProtocol == SecurityProtocol.SASL_PLAINTEXT || interBrokerSecurityProtocol == SecurityProtocol.SASL_SSL
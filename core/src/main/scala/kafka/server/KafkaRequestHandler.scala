@@ -35,8 +35,10 @@ class KafkaRequestHandler(id: Int,
                           val totalHandlerThreads: Int,
                           val requestChannel: RequestChannel,
                           apis: KafkaApis,
-                          time: Time) extends Runnable with Logging {
-  this.logIdent = "[Kafka Request Handler " + id + " on Broker " + brokerId + "], "
+                          time: Time,
+                          controlPlane: Boolean = false) extends Runnable with Logging {
+  this.logIdent = (if (controlPlane) "[Kafka Control Plane Request Handler " else "[Kafka Request Handler ") + id +
+    " on Broker " + brokerId + "], "
   private val latch = new CountDownLatch(1)
 
   def run() {
@@ -49,7 +51,9 @@ class KafkaRequestHandler(id: Int,
           // time_window is independent of the number of threads, each recorded idle
           // time should be discounted by # threads.
           val startSelectTime = time.nanoseconds
-          req = requestChannel.receiveRequest(300)
+          req =
+            if (controlPlane) requestChannel.receiveControlPlaneRequest(300)
+            else requestChannel.receiveRequest(300, id)
           val endTime = time.nanoseconds
           if (req != null)
             req.requestDequeueTimeNanos = endTime
@@ -73,7 +77,12 @@ class KafkaRequestHandler(id: Int,
     }
   }
 
-  def initiateShutdown(): Unit = requestChannel.sendRequest(RequestChannel.AllDone)
+  def initiateShutdown(): Unit = {
+    if (controlPlane)
+      requestChannel.sendControlPlaneRequest(RequestChannel.AllDone)
+    else
+      requestChannel.sendRequest(RequestChannel.AllDone)
+  }
 
   def awaitShutdown(): Unit = latch.await()
 
@@ -83,16 +92,22 @@ class KafkaRequestHandlerPool(val brokerId: Int,
                               val requestChannel: RequestChannel,
                               val apis: KafkaApis,
                               time: Time,
-                              numThreads: Int) extends Logging with KafkaMetricsGroup {
+                              numThreads: Int,
+                              controlPlane: Boolean = false) extends Logging with KafkaMetricsGroup {
+
+  private val prefix = if (controlPlane) "ControlPlane" else ""
 
   /* a meter to track the average free capacity of the request handlers */
-  private val aggregateIdleMeter = newMeter("RequestHandlerAvgIdlePercent", "percent", TimeUnit.NANOSECONDS)
+  private val aggregateIdleMeter = newMeter(prefix + "RequestHandlerAvgIdlePercent", "percent", TimeUnit.NANOSECONDS)
 
-  this.logIdent = "[Kafka Request Handler on Broker " + brokerId + "], "
+  this.logIdent = (if (controlPlane) "[Kafka Control Plane Request Handler on Broker " else "[Kafka Request Handler on Broker ") +
+    brokerId + "], "
   val runnables = new Array[KafkaRequestHandler](numThreads)
   for(i <- 0 until numThreads) {
-    runnables(i) = new KafkaRequestHandler(i, brokerId, aggregateIdleMeter, numThreads, requestChannel, apis, time)
-    Utils.daemonThread("kafka-request-handler-" + i, runnables(i)).start()
+    runnables(i) = new KafkaRequestHandler(i, brokerId, aggregateIdleMeter, numThreads, requestChannel, apis, time,
+      controlPlane)
+    val threadName = (if (controlPlane) "kafka-control-plane-request-handler-" else "kafka-request-handler-") + i
+    Utils.daemonThread(threadName, runnables(i)).start()
   }
 
   def shutdown() {
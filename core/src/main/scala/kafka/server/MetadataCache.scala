@@ -17,15 +17,15 @@
 
 package kafka.server
 
-import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
 
-import scala.collection.{Seq, Set, mutable}
+import scala.collection.{Map, Seq, Set, mutable}
 import scala.collection.JavaConverters._
 import kafka.cluster.{Broker, EndPoint}
 import kafka.api._
 import kafka.common.{BrokerEndPointNotAvailableException, TopicAndPartition}
 import kafka.controller.{KafkaController, LeaderIsrAndControllerEpoch}
-import kafka.utils.CoreUtils._
 import kafka.utils.Logging
 import org.apache.kafka.common.internals.Topic
 import org.apache.kafka.common.{Node, TopicPartition}
@@ -36,159 +36,76 @@ import org.apache.kafka.common.requests.{MetadataResponse, PartitionState, Updat
 /**
  *  A cache for the state (e.g., current leader) of each partition. This cache is updated through
  *  UpdateMetadataRequest from the controller. Every broker maintains the same cache, asynchronously.
+ *
+ *  The state is kept in an immutable [[MetadataSnapshot]] which each update replaces, so reads do not take a lock and
+ *  always see the state of a single update. The topic metadata of a snapshot is built once per listener, when it is
+ *  first requested, and reused by every metadata request until the next update. So are the serialized metadata
+ *  responses, up to `maxSerializedResponses` of them.
  */
-class MetadataCache(brokerId: Int) extends Logging {
+class MetadataCache(brokerId: Int, maxSerializedResponses: Int = Defaults.MetadataResponseCacheSize) extends Logging {
   private val stateChangeLogger = KafkaController.stateChangeLogger
-  private val cache = mutable.Map[String, mutable.Map[Int, PartitionStateInfo]]()
-  private var controllerId: Option[Int] = None
-  private val aliveBrokers = mutable.Map[Int, Broker]()
-  private val aliveNodes = mutable.Map[Int, collection.Map[ListenerName, Node]]()
-  private val partitionMetadataLock = new ReentrantReadWriteLock()
+  private val partitionMetadataLock = new Object
+  @volatile private var metadataSnapshot = new MetadataSnapshot(Map.empty, None, Map.empty, Map.empty)
 
   this.logIdent = s"[Kafka Metadata Cache on broker $brokerId] "
 
-  // This method is the main hotspot when it comes to the performance of metadata requests,
-  // we should be careful about adding additional logic here.
-  // filterUnavailableEndpoints exists to support v0 MetadataResponses
-  private def getEndpoints(brokers: Iterable[Int], listenerName: ListenerName, filterUnavailableEndpoints: Boolean): Seq[Node] = {
-    val result = new mutable.ArrayBuffer[Node](math.min(aliveBrokers.size, brokers.size))
-    brokers.foreach { brokerId =>
-      val endpoint = getAliveEndpoint(brokerId, listenerName) match {
-        case None => if (!filterUnavailableEndpoints) Some(new Node(brokerId, "", -1)) else None
-        case Some(node) => Some(node)
-      }
-      endpoint.foreach(result +=)
-    }
-    result
-  }
-
-  // errorUnavailableEndpoints exists to support v0 MetadataResponses
-  private def getPartitionMetadata(topic: String, listenerName: ListenerName, errorUnavailableEndpoints: Boolean): Option[Iterable[MetadataResponse.PartitionMetadata]] = {
-    cache.get(topic).map { partitions =>
-      partitions.map { case (partitionId, partitionState) =>
-        val topicPartition = TopicAndPartition(topic, partitionId)
-
-        val leaderAndIsr = partitionState.leaderIsrAndControllerEpoch.leaderAndIsr
-        val maybeLeader = getAliveEndpoint(leaderAndIsr.leader, listenerName)
-
-        val replicas = partitionState.allReplicas
-        val replicaInfo = getEndpoints(replicas, listenerName, errorUnavailableEndpoints)
-
-        maybeLeader match {
-          case None =>
-            debug(s"Error while fetching metadata for $topicPartition: leader not available")
-            new MetadataResponse.PartitionMetadata(Errors.LEADER_NOT_AVAILABLE, partitionId, Node.noNode(),
-              replicaInfo.asJava, java.util.Collections.emptyList())
-
-          case Some(leader) =>
-            val isr = leaderAndIsr.isr
-            val isrInfo = getEndpoints(isr, listenerName, errorUnavailableEndpoints)
-
-            if (replicaInfo.size < replicas.size) {
-              debug(s"Error while fetching metadata for $topicPartition: replica information not available for " +
-                s"following brokers ${replicas.filterNot(replicaInfo.map(_.id).contains).mkString(",")}")
-
-              new MetadataResponse.PartitionMetadata(Errors.REPLICA_NOT_AVAILABLE, partitionId, leader,
-                replicaInfo.asJava, isrInfo.asJava)
-            } else if (isrInfo.size < isr.size) {
-              debug(s"Error while fetching metadata for $topicPartition: in sync replica information not available for " +
-                s"following brokers ${isr.filterNot(isrInfo.map(_.id).contains).mkString(",")}")
-              new MetadataResponse.PartitionMetadata(Errors.REPLICA_NOT_AVAILABLE, partitionId, leader,
-                replicaInfo.asJava, isrInfo.asJava)
-            } else {
-              new MetadataResponse.PartitionMetadata(Errors.NONE, partitionId, leader, replicaInfo.asJava,
-                isrInfo.asJava)
-            }
-        }
-      }
-    }
-  }
-
   def getAliveEndpoint(brokerId: Int, listenerName: ListenerName): Option[Node] =
-    aliveNodes.get(brokerId).map { nodeMap =>
-      nodeMap.getOrElse(listenerName,
-        throw new BrokerEndPointNotAvailableException(s"Broker `$brokerId` does not have listener with name `$listenerName`"))
-    }
+    metadataSnapshot.getAliveEndpoint(brokerId, listenerName)
 
   // errorUnavailableEndpoints exists to support v0 MetadataResponses
   def getTopicMetadata(topics: Set[String], listenerName: ListenerName, errorUnavailableEndpoints: Boolean = false): Seq[MetadataResponse.TopicMetadata] = {
-    inReadLock(partitionMetadataLock) {
-      topics.toSeq.flatMap { topic =>
-        getPartitionMetadata(topic, listenerName, errorUnavailableEndpoints).map { partitionMetadata =>
-          new MetadataResponse.TopicMetadata(Errors.NONE, topic, Topic.isInternal(topic), partitionMetadata.toBuffer.asJava)
-        }
-      }
-    }
+    val snapshot = metadataSnapshot
+    topics.toSeq.flatMap(snapshot.getTopicMetadata(_, listenerName, errorUnavailableEndpoints))
   }
 
-  def getAllTopics(): Set[String] = {
-    inReadLock(partitionMetadataLock) {
-      cache.keySet.toSet
-    }
-  }
+  /**
+   * The serialized body of the metadata response with the given topics, all of which must exist, for the given
+   * listener and version. Returns None if one of the topics does not exist, since the response then depends on
+   * whether the topic is created.
+   */
+  def getSerializedMetadataResponse(topics: Set[String], listenerName: ListenerName, version: Short,
+                                    clusterId: String): Option[ByteBuffer] =
+    metadataSnapshot.getSerializedMetadataResponse(topics, listenerName, version, clusterId, maxSerializedResponses)
 
-  def getNonExistingTopics(topics: Set[String]): Set[String] = {
-    inReadLock(partitionMetadataLock) {
-      topics -- cache.keySet
-    }
-  }
+  def getAllTopics(): Set[String] = metadataSnapshot.partitionStates.keySet
 
-  def isBrokerAlive(brokerId: Int): Boolean = {
-    inReadLock(partitionMetadataLock) {
-      aliveBrokers.contains(brokerId)
-    }
-  }
+  def getNonExistingTopics(topics: Set[String]): Set[String] = topics -- metadataSnapshot.partitionStates.keySet
 
-  def getAliveBrokers: Seq[Broker] = {
-    inReadLock(partitionMetadataLock) {
-      aliveBrokers.values.toBuffer
-    }
-  }
+  def isBrokerAlive(brokerId: Int): Boolean = metadataSnapshot.aliveBrokers.contains(brokerId)
 
-  private def addOrUpdatePartitionInfo(topic: String,
-                                       partitionId: Int,
-                                       stateInfo: PartitionStateInfo) {
-    inWriteLock(partitionMetadataLock) {
-      val infos = cache.getOrElseUpdate(topic, mutable.Map())
-      infos(partitionId) = stateInfo
-    }
-  }
+  def getAliveBrokers: Seq[Broker] = metadataSnapshot.aliveBrokers.values.toBuffer
 
-  def getPartitionInfo(topic: String, partitionId: Int): Option[PartitionStateInfo] = {
-    inReadLock(partitionMetadataLock) {
-      cache.get(topic).flatMap(_.get(partitionId))
-    }
-  }
+  def getPartitionInfo(topic: String, partitionId: Int): Option[PartitionStateInfo] =
+    metadataSnapshot.partitionStates.get(topic).flatMap(_.get(partitionId))
 
   // if the leader is not known, return None;
   // if the leader is known and corresponding node is available, return Some(node)
   // if the leader is known but corresponding node with the listener name is not available, return Some(NO_NODE)
   def getPartitionLeaderEndpoint(topic: String, partitionId: Int, listenerName: ListenerName): Option[Node] = {
-    inReadLock(partitionMetadataLock) {
-      cache.get(topic).flatMap(_.get(partitionId)) map { partitionInfo =>
-        val leaderId = partitionInfo.leaderIsrAndControllerEpoch.leaderAndIsr.leader
-
-        aliveNodes.get(leaderId) match {
-          case Some(nodeMap) =>
-            nodeMap.getOrElse(listenerName, Node.noNode)
-          case None =>
-            Node.noNode
-        }
+    val snapshot = metadataSnapshot
+    snapshot.partitionStates.get(topic).flatMap(_.get(partitionId)) map { partitionInfo =>
+      val leaderId = partitionInfo.leaderIsrAndControllerEpoch.leaderAndIsr.leader
+
+      snapshot.aliveNodes.get(leaderId) match {
+        case Some(nodeMap) =>
+          nodeMap.getOrElse(listenerName, Node.noNode)
+        case None =>
+          Node.noNode
       }
     }
   }
 
-  def getControllerId: Option[Int] = controllerId
+  def getControllerId: Option[Int] = metadataSnapshot.controllerId
 
   // This method returns the deleted TopicPartitions received from UpdateMetadataRequest
   def updateCache(correlationId: Int, updateMetadataRequest: UpdateMetadataRequest): Seq[TopicPartition] = {
-    inWriteLock(partitionMetadataLock) {
-      controllerId = updateMetadataRequest.controllerId match {
+    partitionMetadataLock synchronized {
+      val controllerId = updateMetadataRequest.controllerId match {
           case id if id < 0 => None
           case id => Some(id)
         }
-      aliveNodes.clear()
-      aliveBrokers.clear()
+      val aliveNodes = Map.newBuilder[Int, collection.Map[ListenerName, Node]]
+      val aliveBrokers = Map.newBuilder[Int, Broker]
       updateMetadataRequest.liveBrokers.asScala.foreach { broker =>
         // `aliveNodes` is a hot path for metadata requests for large clusters, so we use java.util.HashMap which
         // is a bit faster than scala.collection.mutable.HashMap. When we drop support for Scala 2.10, we could
@@ -199,26 +116,29 @@ class MetadataCache(brokerId: Int) extends Logging {
           endPoints += EndPoint(ep.host, ep.port, ep.listenerName, ep.securityProtocol)
           nodes.put(ep.listenerName, new Node(broker.id, ep.host, ep.port))
         }
-        aliveBrokers(broker.id) = Broker(broker.id, endPoints, Option(broker.rack))
-        aliveNodes(broker.id) = nodes.asScala
+        aliveBrokers += broker.id -> Broker(broker.id, endPoints, Option(broker.rack))
+        aliveNodes += broker.id -> nodes.asScala
       }
 
+      // the partition states of the topics which are not in the request are shared with the previous snapshot
+      var partitionStates = metadataSnapshot.partitionStates
       val deletedPartitions = new mutable.ArrayBuffer[TopicPartition]
       updateMetadataRequest.partitionStates.asScala.foreach { case (tp, info) =>
         val controllerId = updateMetadataRequest.controllerId
         val controllerEpoch = updateMetadataRequest.controllerEpoch
         if (info.leader == LeaderAndIsr.LeaderDuringDelete) {
-          removePartitionInfo(tp.topic, tp.partition)
+          partitionStates = removePartitionInfo(partitionStates, tp.topic, tp.partition)
           stateChangeLogger.trace(s"Broker $brokerId deleted partition $tp from metadata cache in response to UpdateMetadata " +
             s"request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
           deletedPartitions += tp
         } else {
           val partitionInfo = partitionStateToPartitionStateInfo(info)
-          addOrUpdatePartitionInfo(tp.topic, tp.partition, partitionInfo)
+          partitionStates = addOrUpdatePartitionInfo(partitionStates, tp.topic, tp.partition, partitionInfo)
           stateChangeLogger.trace(s"Broker $brokerId cached leader info $partitionInfo for partition $tp in response to " +
             s"UpdateMetadata request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
         }
       }
+      metadataSnapshot = new MetadataSnapshot(partitionStates, controllerId, aliveBrokers.result(), aliveNodes.result())
       deletedPartitions
     }
   }
@@ -229,20 +149,153 @@ class MetadataCache(brokerId: Int) extends Logging {
     PartitionStateInfo(leaderInfo, partitionState.replicas.asScala.map(_.toInt))
   }
 
-  def contains(topic: String): Boolean = {
-    inReadLock(partitionMetadataLock) {
-      cache.contains(topic)
+  def contains(topic: String): Boolean = metadataSnapshot.partitionStates.contains(topic)
+
+  def contains(tp: TopicPartition): Boolean = getPartitionInfo(tp.topic, tp.partition).isDefined
+
+  private def addOrUpdatePartitionInfo(partitionStates: Map[String, Map[Int, PartitionStateInfo]],
+                                       topic: String,
+                                       partitionId: Int,
+                                       stateInfo: PartitionStateInfo): Map[String, Map[Int, PartitionStateInfo]] = {
+    val infos = partitionStates.getOrElse(topic, Map.empty[Int, PartitionStateInfo])
+    partitionStates.updated(topic, infos.updated(partitionId, stateInfo))
+  }
+
+  private def removePartitionInfo(partitionStates: Map[String, Map[Int, PartitionStateInfo]],
+                                  topic: String,
+                                  partitionId: Int): Map[String, Map[Int, PartitionStateInfo]] = {
+    partitionStates.get(topic) match {
+      case Some(infos) =>
+        val remaining = infos - partitionId
+        if (remaining.isEmpty) partitionStates - topic
+        else partitionStates.updated(topic, remaining)
+      case None => partitionStates
     }
   }
 
-  def contains(tp: TopicPartition): Boolean = getPartitionInfo(tp.topic, tp.partition).isDefined
+}
+
+/**
+ * The state of the metadata cache after an UpdateMetadataRequest. A snapshot is never modified; it only memoizes the
+ * topic metadata built from it.
+ */
+private[server] class MetadataSnapshot(val partitionStates: Map[String, Map[Int, PartitionStateInfo]],
+                                       val controllerId: Option[Int],
+                                       val aliveBrokers: Map[Int, Broker],
+                                       val aliveNodes: Map[Int, collection.Map[ListenerName, Node]]) extends Logging {
+
+  // the topic metadata of each listener, for metadata requests with and without errorUnavailableEndpoints
+  private val topicMetadata = new ConcurrentHashMap[(ListenerName, Boolean), ConcurrentHashMap[String, MetadataResponse.TopicMetadata]]
+
+  // the serialized metadata response bodies by listener, version and topics
+  private val serializedResponses = new ConcurrentHashMap[(ListenerName, Short, Set[String]), ByteBuffer]
+
+  def getAliveEndpoint(brokerId: Int, listenerName: ListenerName): Option[Node] =
+    aliveNodes.get(brokerId).map { nodeMap =>
+      nodeMap.getOrElse(listenerName,
+        throw new BrokerEndPointNotAvailableException(s"Broker `$brokerId` does not have listener with name `$listenerName`"))
+    }
+
+  // errorUnavailableEndpoints exists to support v0 MetadataResponses
+  def getTopicMetadata(topic: String, listenerName: ListenerName,
+                       errorUnavailableEndpoints: Boolean): Option[MetadataResponse.TopicMetadata] = {
+    partitionStates.get(topic).map { partitions =>
+      val key = (listenerName, errorUnavailableEndpoints)
+      var listenerTopicMetadata = topicMetadata.get(key)
+      if (listenerTopicMetadata == null) {
+        val created = new ConcurrentHashMap[String, MetadataResponse.TopicMetadata]
+        listenerTopicMetadata = Option(topicMetadata.putIfAbsent(key, created)).getOrElse(created)
+      }
+      var metadata = listenerTopicMetadata.get(topic)
+      if (metadata == null) {
+        // concurrent requests may build the same metadata, which is cheaper than making them wait for each other
+        metadata = new MetadataResponse.TopicMetadata(Errors.NONE, topic, Topic.isInternal(topic),
+          getPartitionMetadata(topic, partitions, listenerName, errorUnavailableEndpoints).toBuffer.asJava)
+        listenerTopicMetadata.put(topic, metadata)
+      }
+      metadata
+    }
+  }
+
+  def getSerializedMetadataResponse(topics: Set[String], listenerName: ListenerName, version: Short, clusterId: String,
+                                    maxSerializedResponses: Int): Option[ByteBuffer] = {
+    if (!topics.forall(partitionStates.contains))
+      None
+    else {
+      val key = (listenerName, version, topics)
+      val cached = serializedResponses.get(key)
+      if (cached != null)
+        Some(cached)
+      else {
+        // In version 0, we returned an error when brokers with replicas were unavailable
+        val errorUnavailableEndpoints = version == 0
+        val topicMetadata = topics.toSeq.flatMap(getTopicMetadata(_, listenerName, errorUnavailableEndpoints))
+        val brokers = aliveBrokers.values.map(_.getNode(listenerName))
+        val response = new MetadataResponse(brokers.toBuffer.asJava, clusterId,
+          controllerId.getOrElse(MetadataResponse.NO_CONTROLLER_ID), topicMetadata.asJava)
+        val body = response.serializeBody(version)
+        // the bound is not exact when responses are cached concurrently, which is fine
+        if (serializedResponses.size < maxSerializedResponses)
+          serializedResponses.putIfAbsent(key, body)
+        Some(body)
+      }
+    }
+  }
 
-  private def removePartitionInfo(topic: String, partitionId: Int): Boolean = {
-    cache.get(topic).map { infos =>
-      infos.remove(partitionId)
-      if (infos.isEmpty) cache.remove(topic)
-      true
-    }.getOrElse(false)
+  // This method is the main hotspot when it comes to the performance of metadata requests,
+  // we should be careful about adding additional logic here.
+  // filterUnavailableEndpoints exists to support v0 MetadataResponses
+  private def getEndpoints(brokers: Iterable[Int], listenerName: ListenerName, filterUnavailableEndpoints: Boolean): Seq[Node] = {
+    val result = new mutable.ArrayBuffer[Node](math.min(aliveBrokers.size, brokers.size))
+    brokers.foreach { brokerId =>
+      val endpoint = getAliveEndpoint(brokerId, listenerName) match {
+        case None => if (!filterUnavailableEndpoints) Some(new Node(brokerId, "", -1)) else None
+        case Some(node) => Some(node)
+      }
+      endpoint.foreach(result +=)
+    }
+    result
+  }
+
+  // errorUnavailableEndpoints exists to support v0 MetadataResponses
+  private def getPartitionMetadata(topic: String, partitions: Map[Int, PartitionStateInfo], listenerName: ListenerName,
+                                   errorUnavailableEndpoints: Boolean): Iterable[MetadataResponse.PartitionMetadata] = {
+    partitions.map { case (partitionId, partitionState) =>
+      val topicPartition = TopicAndPartition(topic, partitionId)
+
+      val leaderAndIsr = partitionState.leaderIsrAndControllerEpoch.leaderAndIsr
+      val maybeLeader = getAliveEndpoint(leaderAndIsr.leader, listenerName)
+
+      val replicas = partitionState.allReplicas
+      val replicaInfo = getEndpoints(replicas, listenerName, errorUnavailableEndpoints)
+
+      maybeLeader match {
+        case None =>
+          debug(s"Error while fetching metadata for $topicPartition: leader not available")
+          new MetadataResponse.PartitionMetadata(Errors.LEADER_NOT_AVAILABLE, partitionId, Node.noNode(),
+            replicaInfo.asJava, java.util.Collections.emptyList())
+
+        case Some(leader) =>
+          val isr = leaderAndIsr.isr
+          val isrInfo = getEndpoints(isr, listenerName, errorUnavailableEndpoints)
+
+          if (replicaInfo.size < replicas.size) {
+            debug(s"Error while fetching metadata for $topicPartition: replica information not available for " +
+              s"following brokers ${replicas.filterNot(replicaInfo.map(_.id).contains).mkString(",")}")
+
+            new MetadataResponse.PartitionMetadata(Errors.REPLICA_NOT_AVAILABLE, partitionId, leader,
+              replicaInfo.asJava, isrInfo.asJava)
+          } else if (isrInfo.size < isr.size) {
+            debug(s"Error while fetching metadata for $topicPartition: in sync replica information not available for " +
+              s"following brokers ${isr.filterNot(isrInfo.map(_.id).contains).mkString(",")}")
+            new MetadataResponse.PartitionMetadata(Errors.REPLICA_NOT_AVAILABLE, partitionId, leader,
+              replicaInfo.asJava, isrInfo.asJava)
+          } else {
+            new MetadataResponse.PartitionMetadata(Errors.NONE, partitionId, leader, replicaInfo.asJava,
+              isrInfo.asJava)
+          }
+      }
+    }
   }
 
 }
@@ -25,7 +25,7 @@ import kafka.api._
 import kafka.cluster.{Partition, Replica}
 import kafka.common.KafkaStorageException
 import kafka.controller.KafkaController
-import kafka.log.{Log, LogAppendInfo, LogManager}
+import kafka.log.{Log, LogAppendInfo, LogConfig, LogManager}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.QuotaFactory.UnboundedQuota
 import kafka.server.checkpoints.OffsetCheckpointFile
@@ -155,13 +155,13 @@ class ReplicaManager(val config: KafkaConfig,
       quotaManager, brokerTopicStats, metadataCache,
       DelayedOperationPurgatory[DelayedProduce](
         purgatoryName = "Produce", brokerId = config.brokerId,
-        purgeInterval = config.producerPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.producerPurgatoryPurgeIntervalRequests, numShards = config.numPurgatoryShards),
       DelayedOperationPurgatory[DelayedFetch](
         purgatoryName = "Fetch", brokerId = config.brokerId,
-        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests, numShards = config.numPurgatoryShards),
       DelayedOperationPurgatory[DelayedDeleteRecords](
         purgatoryName = "DeleteRecords", brokerId = config.brokerId,
-        purgeInterval = config.deleteRecordsPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.deleteRecordsPurgatoryPurgeIntervalRequests, numShards = config.numPurgatoryShards),
       threadNamePrefix)
   }
 
@@ -277,6 +277,10 @@ class ReplicaManager(val config: KafkaConfig,
     // A follower can lag behind leader for up to config.replicaLagTimeMaxMs x 1.5 before it is removed from ISR
     scheduler.schedule("isr-expiration", maybeShrinkIsr _, period = config.replicaLagTimeMaxMs / 2, unit = TimeUnit.MILLISECONDS)
     scheduler.schedule("isr-change-propagation", maybePropagateIsrChanges _, period = 2500L, unit = TimeUnit.MILLISECONDS)
+    // the lag of the followers is checked as often as they may fall out of the ISR
+    if (config.numReplicaFetchersMax > config.numReplicaFetchers)
+      scheduler.schedule("replica-fetcher-rescale", replicaFetcherManager.rescaleFetchers _,
+        period = config.replicaLagTimeMaxMs, unit = TimeUnit.MILLISECONDS)
   }
 
   def stopReplica(topicPartition: TopicPartition, deletePartition: Boolean): Errors  = {
@@ -378,7 +382,8 @@ class ReplicaManager(val config: KafkaConfig,
         topicPartition ->
                 ProducePartitionStatus(
                   result.info.lastOffset + 1, // required offset
-                  new PartitionResponse(result.error, result.info.firstOffset, result.info.logAppendTime)) // response status
+                  new PartitionResponse(result.error, result.info.firstOffset, result.info.logAppendTime,
+                    result.info.logStartOffset)) // response status
       }
 
       if (delayedProduceRequestRequired(requiredAcks, entriesPerPartition, localProduceResults)) {
@@ -684,6 +689,9 @@ class ReplicaManager(val config: KafkaConfig,
           s"remaining response limit $limitBytes" +
           (if (minOneMessage) s", ignoring response/partition size limits" else ""))
 
+        // fetchers send the leader epoch they know from fetch request version 9
+        validateCurrentLeaderEpoch(tp, fetchInfo.currentLeaderEpoch)
+
         // decide whether to only fetch from leader
         val localReplica = if (fetchOnlyFromLeader)
           getLeaderReplicaIfLocal(tp)
@@ -746,6 +754,8 @@ class ReplicaManager(val config: KafkaConfig,
         // is supposed to indicate un-expected failure of a broker in handling a fetch request
         case e@ (_: UnknownTopicOrPartitionException |
                  _: NotLeaderForPartitionException |
+                 _: FencedLeaderEpochException |
+                 _: UnknownLeaderEpochException |
                  _: ReplicaNotAvailableException |
                  _: OffsetOutOfRangeException) =>
           LogReadResult(info = FetchDataInfo(LogOffsetMetadata.UnknownOffsetMetadata, MemoryRecords.EMPTY),
@@ -788,6 +798,24 @@ class ReplicaManager(val config: KafkaConfig,
     result
   }
 
+  /**
+   * Fence a fetch which was sent for another leader epoch than the current epoch of the partition. A fetcher which has
+   * an older epoch must refresh its metadata, while this broker has not learned about a newer one yet.
+   */
+  private def validateCurrentLeaderEpoch(topicPartition: TopicPartition, currentLeaderEpoch: Int): Unit = {
+    if (currentLeaderEpoch != RecordBatch.NO_PARTITION_LEADER_EPOCH) {
+      getPartition(topicPartition).foreach { partition =>
+        val leaderEpoch = partition.getLeaderEpoch
+        if (currentLeaderEpoch < leaderEpoch)
+          throw new FencedLeaderEpochException(s"Leader epoch $currentLeaderEpoch of partition $topicPartition in the " +
+            s"request is older than the current leader epoch $leaderEpoch on broker $localBrokerId")
+        else if (currentLeaderEpoch > leaderEpoch)
+          throw new UnknownLeaderEpochException(s"Leader epoch $currentLeaderEpoch of partition $topicPartition in the " +
+            s"request is newer than the current leader epoch $leaderEpoch on broker $localBrokerId")
+      }
+    }
+  }
+
   /**
    *  To avoid ISR thrashing, we only throttle a replica on the leader if it's in the throttled replica list,
    *  the quota is exceeded and the replica is not in sync.
@@ -802,6 +830,9 @@ class ReplicaManager(val config: KafkaConfig,
   def getMagic(topicPartition: TopicPartition): Option[Byte] =
     getReplica(topicPartition).flatMap(_.log.map(_.config.messageFormatVersion.messageFormatVersion))
 
+  def getLogConfig(topicPartition: TopicPartition): Option[LogConfig] =
+    getReplica(topicPartition).flatMap(_.log.map(_.config))
+
   def maybeUpdateMetadataCache(correlationId: Int, updateMetadataRequest: UpdateMetadataRequest) : Seq[TopicPartition] =  {
     replicaStateChangeLock synchronized {
       if(updateMetadataRequest.controllerEpoch < controllerEpoch) {
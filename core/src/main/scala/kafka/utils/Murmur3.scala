@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.utils
+
+import java.lang.Long.{reverseBytes, rotateLeft}
+import java.nio.{ByteBuffer, ByteOrder}
+
+/**
+ * The 128-bit x64 variant of MurmurHash3. It is fast and distributes well, but it is not a cryptographic hash: keys
+ * which collide can be constructed deliberately.
+ */
+object Murmur3 {
+
+  /** The number of bytes in a hash */
+  val HashSize = 16
+
+  private val C1 = 0x87c37b91114253d5L
+  private val C2 = 0x4cf5ad432745937fL
+
+  /**
+   * Hash the remaining bytes of the buffer without changing its position, and write the 16 bytes of the hash to the
+   * given array. The first 8 bytes are the big-endian encoding of the first half of the hash, so that the hash of
+   * "foo" with seed 0 is e271865701f54561 followed by 7eaf87e42bba7d87.
+   */
+  def hash128(buffer: ByteBuffer, seed: Long, out: Array[Byte]): Unit = {
+    val start = buffer.position
+    val length = buffer.remaining
+    val bigEndian = buffer.order == ByteOrder.BIG_ENDIAN
+    var h1 = seed
+    var h2 = seed
+
+    val blocksEnd = start + (length & ~15)
+    var i = start
+    while (i < blocksEnd) {
+      var k1 = buffer.getLong(i)
+      var k2 = buffer.getLong(i + 8)
+      if (bigEndian) {
+        k1 = reverseBytes(k1)
+        k2 = reverseBytes(k2)
+      }
+
+      k1 *= C1; k1 = rotateLeft(k1, 31); k1 *= C2; h1 ^= k1
+      h1 = rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729
+
+      k2 *= C2; k2 = rotateLeft(k2, 33); k2 *= C1; h2 ^= k2
+      h2 = rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5
+
+      i += 16
+    }
+
+    val tail = length & 15
+    if (tail > 8) {
+      var k2 = 0L
+      var j = tail - 1
+      while (j >= 8) {
+        k2 ^= (buffer.get(blocksEnd + j) & 0xffL) << ((j - 8) * 8)
+        j -= 1
+      }
+      k2 *= C2; k2 = rotateLeft(k2, 33); k2 *= C1; h2 ^= k2
+    }
+    if (tail > 0) {
+      var k1 = 0L
+      var j = math.min(tail, 8) - 1
+      while (j >= 0) {
+        k1 ^= (buffer.get(blocksEnd + j) & 0xffL) << (j * 8)
+        j -= 1
+      }
+      k1 *= C1; k1 = rotateLeft(k1, 31); k1 *= C2; h1 ^= k1
+    }
+
+    h1 ^= length
+    h2 ^= length
+    h1 += h2
+    h2 += h1
+    h1 = fmix64(h1)
+    h2 = fmix64(h2)
+    h1 += h2
+    h2 += h1
+
+    writeLong(h1, out, 0)
+    writeLong(h2, out, 8)
+  }
+
+  private def fmix64(k: Long): Long = {
+    var h = k
+    h ^= h >>> 33
+    h *= 0xff51afd7ed558ccdL
+    h ^= h >>> 33
+    h *= 0xc4ceb9fe1a85ec53L
+    h ^= h >>> 33
+    h
+  }
+
+  private def writeLong(value: Long, out: Array[Byte], offset: Int): Unit = {
+    var i = 0
+    while (i < 8) {
+      out(offset + i) = (value >>> (56 - i * 8)).toByte
+      i += 1
+    }
+  }
+
+}
@@ -142,6 +142,8 @@ class LogCleanerIntegrationTest(compressionCodec: String) extends AbstractLogCle
 
   @Test
   def testCleanerWithMessageFormatV0(): Unit = {
+    // ZStandard compression requires message format v2
+    Assume.assumeTrue(codec != CompressionType.ZSTD)
     val largeMessageKey = 20
     val (largeMessageValue, largeMessageSet) = createLargeSingleMessageSet(largeMessageKey, RecordBatch.MAGIC_VALUE_V0)
     val maxMessageSize = codec match {
@@ -192,6 +194,8 @@ class LogCleanerIntegrationTest(compressionCodec: String) extends AbstractLogCle
 
   @Test
   def testCleaningNestedMessagesWithMultipleVersions(): Unit = {
+    // ZStandard compression requires message format v2
+    Assume.assumeTrue(codec != CompressionType.ZSTD)
     val maxMessageSize = 192
     cleaner = makeCleaner(partitions = topicPartitions, maxMessageSize = maxMessageSize)
 
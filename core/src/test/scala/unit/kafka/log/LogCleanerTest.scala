@@ -21,6 +21,8 @@ import java.io.File
 import java.nio._
 import java.nio.file.Paths
 import java.util.Properties
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import kafka.common._
 import kafka.server.BrokerTopicStats
@@ -782,6 +784,96 @@ class LogCleanerTest extends JUnitSuite {
     }
   }
 
+  /**
+   * Test that recopying the segment groups of a log on several threads keeps the latest record of each key
+   */
+  @Test
+  def testCleanSegmentGroupsInParallel(): Unit = {
+    var groupsToRecopy = 0
+    var bytesToRecopy = 0L
+    val groupsRecopied = new AtomicInteger
+    val bytesRecopied = new AtomicLong
+    val cleaner = new Cleaner(id = 0,
+                              offsetMap = new SkimpyOffsetMap(memory = 64 * 1024),
+                              ioBufferSize = 64 * 1024,
+                              maxIoBufferSize = 64 * 1024,
+                              dupBufferLoadFactor = 0.75,
+                              throttler = throttler,
+                              time = time,
+                              checkDone = noOpCheckDone,
+                              groupThreads = 3,
+                              onRecopyStarted = (_, groups, bytes) => { groupsToRecopy = groups; bytesToRecopy = bytes },
+                              onGroupRecopied = (_, bytes) => { groupsRecopied.incrementAndGet(); bytesRecopied.addAndGet(bytes) })
+    try {
+      val log = makeLog()
+
+      // append messages with overwritten keys until we have ten segments
+      while (log.numberOfSegments < 10)
+        log.appendAsLeader(record(log.logEndOffset.toInt % 20, log.logEndOffset.toInt), leaderEpoch = 0)
+      val latestValues = valuesBefore(log, log.activeSegment.baseOffset)
+      val dirtyBytes = log.logSegments(0, log.activeSegment.baseOffset).map(_.size.toLong).sum
+
+      val (endOffset, stats) = cleaner.clean(LogToClean(new TopicPartition("test", 0), log, 0, log.activeSegment.baseOffset))
+      assertEquals(log.activeSegment.baseOffset, endOffset)
+      assertEquals(latestValues, valuesBefore(log, endOffset))
+      assertEquals(dirtyBytes, stats.bytesRead)
+      assertTrue("Several segment groups should have been cleaned", groupsToRecopy > 1)
+      assertEquals(groupsToRecopy, groupsRecopied.get)
+      assertEquals(dirtyBytes, bytesToRecopy)
+      assertEquals(dirtyBytes, bytesRecopied.get)
+    } finally {
+      cleaner.shutdown()
+    }
+  }
+
+  /**
+   * Test that an abort on a group thread is thrown from the cleaning thread
+   */
+  @Test
+  def testCleanSegmentGroupsInParallelWithAbort(): Unit = {
+    @volatile var recopying = false
+    val groupThreadAborted = new CountDownLatch(1)
+    def checkDone(topicPartition: TopicPartition): Unit = {
+      if (Thread.currentThread.getName.contains("-group-")) {
+        groupThreadAborted.countDown()
+        abortCheckDone(topicPartition)
+      } else if (recopying) {
+        // leave a group for the group thread
+        groupThreadAborted.await(5, TimeUnit.SECONDS)
+      }
+    }
+    val cleaner = new Cleaner(id = 0,
+                              offsetMap = new FakeOffsetMap(Int.MaxValue),
+                              ioBufferSize = 64 * 1024,
+                              maxIoBufferSize = 64 * 1024,
+                              dupBufferLoadFactor = 0.75,
+                              throttler = throttler,
+                              time = time,
+                              checkDone = checkDone,
+                              groupThreads = 2,
+                              onRecopyStarted = (_, _, _) => recopying = true)
+    try {
+      val log = makeLog()
+      while (log.numberOfSegments < 4)
+        log.appendAsLeader(record(log.logEndOffset.toInt, log.logEndOffset.toInt), leaderEpoch = 0)
+      intercept[LogCleaningAbortedException] {
+        cleaner.clean(LogToClean(new TopicPartition("test", 0), log, 0, log.activeSegment.baseOffset))
+      }
+      assertEquals(0, groupThreadAborted.getCount)
+    } finally {
+      cleaner.shutdown()
+    }
+  }
+
+  /* the latest value of each key in the segments before the given offset */
+  private def valuesBefore(log: Log, offset: Long): Map[Int, Int] = {
+    val records = for (segment <- log.logSegments(0, offset);
+                       batch <- segment.log.batches.asScala;
+                       record <- batch.asScala)
+      yield TestUtils.readString(record.key).toInt -> TestUtils.readString(record.value).toInt
+    records.toMap
+  }
+
   /**
    * Validate the logic for grouping log segments together for cleaning
    */
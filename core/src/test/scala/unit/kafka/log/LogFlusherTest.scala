@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.Properties
+
+import kafka.server.BrokerTopicStats
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.utils.Utils
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+class LogFlusherTest {
+
+  private val tmpDir = TestUtils.tempDir()
+  private val time = new MockTime()
+  private val brokerTopicStats = new BrokerTopicStats
+  private val flusher = new LogFlusher(Seq(tmpDir))
+
+  @After
+  def tearDown(): Unit = {
+    flusher.shutdown()
+    brokerTopicStats.close()
+    Utils.delete(tmpDir)
+  }
+
+  @Test
+  def testFlushBeforeStartup(): Unit = {
+    val log = createLog()
+    flusher.requestFlush(log, 5L)
+    assertEquals(5L, log.recoveryPoint)
+  }
+
+  @Test
+  def testFlushInBackground(): Unit = {
+    val log = createLog()
+    flusher.startup()
+    flusher.requestFlush(log, 3L)
+    flusher.requestFlush(log, 7L)
+    flusher.requestFlush(log, 5L)
+    TestUtils.waitUntilTrue(() => log.recoveryPoint == 7L, "Failed waiting for the log to be flushed")
+  }
+
+  @Test
+  def testShutdownCompletesPendingFlushes(): Unit = {
+    val logs = (0 until 10).map(createLog)
+    flusher.startup()
+    logs.foreach(log => flusher.requestFlush(log, log.logEndOffset))
+    flusher.shutdown()
+    logs.foreach(log => assertEquals(10L, log.recoveryPoint))
+
+    // logs are flushed by the requesting thread once the flusher is shut down
+    logs.head.appendAsLeader(TestUtils.singletonRecords("test".getBytes), leaderEpoch = 0)
+    flusher.requestFlush(logs.head, logs.head.logEndOffset)
+    assertEquals(11L, logs.head.recoveryPoint)
+  }
+
+  private def createLog(partition: Int = 0): Log = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+    val dir = new File(tmpDir, s"topic-$partition")
+    dir.mkdirs()
+    val log = Log(dir, LogConfig(logProps), scheduler = time.scheduler, brokerTopicStats = brokerTopicStats, time = time,
+      logFlusher = Some(flusher))
+    for (_ <- 0 until 10)
+      log.appendAsLeader(TestUtils.singletonRecords("test".getBytes), leaderEpoch = 0)
+    log
+  }
+
+}
@@ -19,18 +19,23 @@ package kafka.log
 
 import java.io._
 import java.util.Properties
+import javax.xml.bind.DatatypeConverter
 
+import com.github.luben.zstd.ZstdDictTrainer
 import kafka.common._
 import kafka.server.FetchDataInfo
 import kafka.server.checkpoints.OffsetCheckpointFile
 import kafka.utils._
 import org.apache.kafka.common.TopicPartition
-import org.apache.kafka.common.errors.OffsetOutOfRangeException
+import org.apache.kafka.common.errors.{OffsetOutOfRangeException, UnknownCompressionDictionaryException}
+import org.apache.kafka.common.record.CompressionDictionary
 import org.apache.kafka.common.requests.IsolationLevel
 import org.apache.kafka.common.utils.Utils
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
 
+import scala.util.Random
+
 class LogManagerTest {
 
   val time: MockTime = new MockTime()
@@ -213,7 +218,105 @@ class LogManagerTest {
       log.appendAsLeader(set, leaderEpoch = 0)
     }
     time.sleep(logManager.InitialTaskDelayMs)
-    assertTrue("Time based flush should have been triggered triggered", lastFlush != log.lastFlushTime)
+    // the flush is done by the log flusher thread of the log directory
+    TestUtils.waitUntilTrue(() => lastFlush != log.lastFlushTime, "Time based flush should have been triggered")
+  }
+
+  /**
+   * Test that logs with too many unflushed messages are flushed before the append returns, even with a log flusher
+   */
+  @Test
+  def testMessageCountBasedFlush() {
+    logManager.shutdown()
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, 10: java.lang.Integer)
+    // no segment is rolled, so the log flusher never advances the recovery point behind the appends
+    logProps.put(LogConfig.SegmentBytesProp, 1024 * 1024: java.lang.Integer)
+    val config = LogConfig.fromProps(logConfig.originals, logProps)
+
+    logManager = createLogManager()
+    logManager.startup()
+    val log = logManager.createLog(new TopicPartition(name, 0), config)
+    for (i <- 1 to 25) {
+      log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+      assertEquals("Message count based flush should have been done by the append", i / 10 * 10, log.recoveryPoint)
+    }
+  }
+
+  /**
+   * Test that the compression dictionaries of a log config are registered while a log uses the config
+   */
+  @Test
+  def testCompressionDictionariesRegisteredWhileUsed() {
+    val oldDictionary = trainDictionary(1)
+    val newDictionary = trainDictionary(2)
+    val topicPartition = new TopicPartition(name, 0)
+    val log = logManager.createLog(topicPartition, configWithDictionaries(oldDictionary))
+    assertArrayEquals(oldDictionary.bytes, CompressionDictionary.forId(oldDictionary.id).bytes)
+
+    logManager.updateConfig(log, configWithDictionaries(newDictionary))
+    assertArrayEquals(newDictionary.bytes, CompressionDictionary.forId(newDictionary.id).bytes)
+    assertNotRegistered(oldDictionary)
+
+    logManager.asyncDelete(topicPartition)
+    assertNotRegistered(newDictionary)
+  }
+
+  /**
+   * Test that a log config whose dictionary clashes with a registered one is rejected
+   */
+  @Test
+  def testClashingCompressionDictionaryRejected() {
+    val dictionary = trainDictionary(3)
+    val bytes = dictionary.bytes.clone()
+    bytes(bytes.length - 1) = (bytes(bytes.length - 1) + 1).toByte
+    val clashing = CompressionDictionary.parse(bytes)
+    val topicPartition = new TopicPartition(name, 0)
+    val log = logManager.createLog(topicPartition, configWithDictionaries(dictionary))
+
+    try {
+      logManager.createLog(new TopicPartition(name, 1), configWithDictionaries(clashing))
+      fail("Creating a log with a clashing compression dictionary should fail")
+    } catch {
+      case _: org.apache.kafka.common.KafkaException => // this is good
+    }
+    assertEquals(None, logManager.getLog(new TopicPartition(name, 1)))
+
+    val config = log.config
+    try {
+      logManager.updateConfig(log, configWithDictionaries(clashing))
+      fail("Updating a log to a clashing compression dictionary should fail")
+    } catch {
+      case _: org.apache.kafka.common.KafkaException => // this is good
+    }
+    assertSame(config, log.config)
+    assertArrayEquals(dictionary.bytes, CompressionDictionary.forId(dictionary.id).bytes)
+
+    logManager.asyncDelete(topicPartition)
+    assertNotRegistered(dictionary)
+  }
+
+  private def trainDictionary(seed: Long): CompressionDictionary = {
+    val random = new Random(seed)
+    val trainer = new ZstdDictTrainer(1024 * 1024, 4096)
+    for (_ <- 0 until 2000)
+      trainer.addSample(Utils.utf8(s"""{"user":"user-${random.nextInt(1000)}","page":"/products/${random.nextInt(100)}"}"""))
+    CompressionDictionary.parse(trainer.trainSamples())
+  }
+
+  private def configWithDictionaries(dictionaries: CompressionDictionary*): LogConfig = {
+    val props = new Properties()
+    props.put(LogConfig.CompressionDictionaryProp, dictionaries.map(d => DatatypeConverter.printBase64Binary(d.bytes)).mkString(","))
+    LogConfig.fromProps(logConfig.originals, props)
+  }
+
+  private def assertNotRegistered(dictionary: CompressionDictionary): Unit = {
+    try {
+      CompressionDictionary.forId(dictionary.id)
+      fail(s"Compression dictionary $dictionary should not be registered")
+    } catch {
+      case _: UnknownCompressionDictionaryException => // this is good
+    }
   }
 
   /**
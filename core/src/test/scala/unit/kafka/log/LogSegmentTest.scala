@@ -392,6 +392,155 @@ class LogSegmentTest {
     seg
   }
 
+  @Test
+  def testIndexesOfExistingSegmentLoadedOnFirstUse() {
+    val tempDir = TestUtils.tempDir()
+    val seg = new LogSegment(tempDir, 40, 10, 1000, 0, Time.SYSTEM)
+    assertTrue(seg.lazyOffsetIndex.isLoaded)
+    assertTrue(seg.lazyTimeIndex.isLoaded)
+    seg.append(50, 51, 1000L, 50L, records(50, "hello", "there"))
+    seg.append(60, 61, 2000L, 60L, records(60, "alpha", "beta"))
+    seg.close()
+
+    val segReopen = new LogSegment(tempDir, 40, 10, 1000, 0, Time.SYSTEM, fileAlreadyExists = true)
+    segments += segReopen
+    assertFalse(segReopen.lazyOffsetIndex.isLoaded)
+    assertFalse(segReopen.lazyTimeIndex.isLoaded)
+
+    val read = segReopen.read(startOffset = 55, maxSize = 200, maxOffset = None)
+    assertEquals(60L, read.records.batches.iterator.next().baseOffset)
+    assertTrue(segReopen.lazyOffsetIndex.isLoaded)
+    assertFalse(segReopen.lazyTimeIndex.isLoaded)
+
+    assertEquals(2000L, segReopen.largestTimestamp)
+    assertTrue(segReopen.lazyTimeIndex.isLoaded)
+  }
+
+  @Test
+  def testRenameAndDeleteSegmentWithUnloadedIndexes() {
+    val tempDir = TestUtils.tempDir()
+    val seg = new LogSegment(tempDir, 40, 10, 1000, 0, Time.SYSTEM)
+    seg.append(50, 51, 1000L, 50L, records(50, "hello", "there"))
+    seg.close()
+
+    val segReopen = new LogSegment(tempDir, 40, 10, 1000, 0, Time.SYSTEM, fileAlreadyExists = true)
+    val indexFile = segReopen.lazyOffsetIndex.file
+    val timeIndexFile = segReopen.lazyTimeIndex.file
+    segReopen.changeFileSuffixes("", Log.DeletedFileSuffix)
+    assertFalse(segReopen.lazyOffsetIndex.isLoaded)
+    assertFalse(segReopen.lazyTimeIndex.isLoaded)
+    assertFalse(indexFile.exists)
+    assertFalse(timeIndexFile.exists)
+    assertTrue(segReopen.lazyOffsetIndex.file.getName.endsWith(Log.DeletedFileSuffix))
+    assertTrue(segReopen.lazyTimeIndex.file.getName.endsWith(Log.DeletedFileSuffix))
+
+    segReopen.delete()
+    assertFalse(segReopen.lazyOffsetIndex.file.exists)
+    assertFalse(segReopen.lazyTimeIndex.file.exists)
+  }
+
+  @Test
+  def testUnusedIndexesUnloaded() {
+    val tempDir = TestUtils.tempDir()
+    for (baseOffset <- Seq(0L, 100L)) {
+      val seg = new LogSegment(tempDir, baseOffset, 10, 1000, 0, Time.SYSTEM)
+      seg.append(baseOffset + 10, baseOffset + 11, baseOffset, baseOffset + 10, records(baseOffset + 10, "hello", "there"))
+      seg.append(baseOffset + 20, baseOffset + 21, baseOffset + 1, baseOffset + 20, records(baseOffset + 20, "alpha", "beta"))
+      seg.close()
+    }
+    val first = new LogSegment(tempDir, 0L, 10, 1000, 0, Time.SYSTEM, fileAlreadyExists = true)
+    val second = new LogSegment(tempDir, 100L, 10, 1000, 0, Time.SYSTEM, fileAlreadyExists = true)
+    segments += first
+    segments += second
+    val indexCache = new IndexCache(maxLoadedIndexes = 2)
+    try {
+      first.makeIndexesEvictable(indexCache)
+      second.makeIndexesEvictable(indexCache)
+
+      first.read(startOffset = 20, maxSize = 200, maxOffset = None)
+      val firstOffsetIndex = first.index
+      second.read(startOffset = 120, maxSize = 200, maxOffset = None)
+      assertEquals(2L, indexCache.misses)
+      assertTrue(first.lazyOffsetIndex.isLoaded)
+      assertTrue(second.lazyOffsetIndex.isLoaded)
+
+      // loading a third index unloads one which has not been used since the cache last looked at it
+      second.read(startOffset = 120, maxSize = 200, maxOffset = None)
+      assertEquals(2L, indexCache.misses)
+      assertEquals(1L, first.lazyTimeIndex.get.lastEntry.timestamp)
+      assertTrue(first.lazyTimeIndex.isLoaded)
+      assertFalse(first.lazyOffsetIndex.isLoaded)
+      assertTrue(second.lazyOffsetIndex.isLoaded)
+
+      // the unloaded index has been unmapped, reading it fails rather than crashing the JVM
+      try {
+        firstOffsetIndex.lookup(20)
+        fail("Reading an unmapped index should fail")
+      } catch {
+        case _: IllegalStateException => // this is good
+      }
+
+      // an unloaded index is loaded again from its file
+      val read = first.read(startOffset = 15, maxSize = 200, maxOffset = None)
+      assertEquals(20L, read.records.batches.iterator.next().baseOffset)
+      assertTrue(first.lazyOffsetIndex.isLoaded)
+      assertFalse(second.lazyOffsetIndex.isLoaded)
+      assertEquals(4L, indexCache.misses)
+      assertEquals(2, indexCache.loadedIndexes)
+    } finally {
+      indexCache.shutdown()
+    }
+  }
+
+  @Test
+  def testReadOfUnloadedIndexLoadsItAgain() {
+    val tempDir = TestUtils.tempDir()
+    val created = new LogSegment(tempDir, 0L, 10, 1000, 0, Time.SYSTEM)
+    created.append(10, 11, 0L, 10, records(10, "hello", "there"))
+    created.append(20, 21, 1L, 20, records(20, "alpha", "beta"))
+    created.close()
+    val seg = new LogSegment(tempDir, 0L, 10, 1000, 0, Time.SYSTEM, fileAlreadyExists = true)
+    segments += seg
+    val indexCache = new IndexCache(maxLoadedIndexes = 1)
+    try {
+      seg.makeIndexesEvictable(indexCache)
+      var reads = 0
+      val position = seg.lazyOffsetIndex.read { index =>
+        reads += 1
+        // the index cache unloads the index after the read got it
+        if (reads == 1)
+          seg.lazyOffsetIndex.unload()
+        index.lookup(20)
+      }
+      assertEquals(2, reads)
+      assertEquals(seg.index.lookup(20), position)
+      assertTrue(seg.lazyOffsetIndex.isLoaded)
+      assertEquals(2L, indexCache.misses)
+    } finally {
+      indexCache.shutdown()
+    }
+  }
+
+  @Test
+  def testTruncatedSegmentPinsItsIndexes() {
+    val seg = new LogSegment(TestUtils.tempDir(), 40, 10, 1000, 0, Time.SYSTEM)
+    segments += seg
+    seg.append(50, 51, 1000L, 50L, records(50, "hello", "there"))
+    seg.append(60, 61, 2000L, 60L, records(60, "alpha", "beta"))
+    seg.index.trimToValidSize()
+    seg.timeIndex.trimToValidSize()
+    val indexCache = new IndexCache(maxLoadedIndexes = Int.MaxValue)
+    seg.makeIndexesEvictable(indexCache)
+    assertTrue(seg.lazyOffsetIndex.isEvictable)
+    assertTrue(seg.lazyTimeIndex.isEvictable)
+
+    seg.truncateTo(60)
+    assertFalse(seg.lazyOffsetIndex.isEvictable)
+    assertFalse(seg.lazyTimeIndex.isEvictable)
+    assertEquals(0, indexCache.loadedIndexes)
+    indexCache.shutdown()
+  }
+
   /* create a segment with   pre allocate, put message to it and verify */
   @Test
   def testCreateWithInitFileSizeAppendMessage() {
@@ -2038,6 +2038,32 @@ class LogTest {
     cleanShutdownFile.delete()
   }
 
+  @Test
+  def testIndexesLoadedLazilyAfterCleanShutdown() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1000: java.lang.Integer)
+    logProps.put(LogConfig.IndexIntervalBytesProp, 1: java.lang.Integer)
+    val config = LogConfig(logProps)
+    var log = Log(logDir, config, 0L, 0L, time.scheduler, brokerTopicStats, time)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = time.milliseconds), leaderEpoch = 0)
+    assertTrue("There should be several segments", log.numberOfSegments > 2)
+    log.close()
+
+    val cleanShutdownFile = createCleanShutdownFile()
+    log = Log(logDir, config, 0L, log.logEndOffset, time.scheduler, brokerTopicStats, time)
+    cleanShutdownFile.delete()
+    val inactiveSegments = log.logSegments.filterNot(_ == log.activeSegment)
+    assertTrue(inactiveSegments.forall(segment => !segment.lazyOffsetIndex.isLoaded && !segment.lazyTimeIndex.isLoaded))
+    assertTrue(log.activeSegment.lazyOffsetIndex.isLoaded)
+
+    // reading a segment loads its offset index
+    val firstSegment = log.logSegments.head
+    assertEquals(5L, log.read(5L, 1000, isolationLevel = IsolationLevel.READ_UNCOMMITTED).records.batches.iterator.next().baseOffset)
+    assertTrue(firstSegment.lazyOffsetIndex.isLoaded)
+    assertEquals(100L, log.logEndOffset)
+  }
+
   @Test
   def testParseTopicPartitionName() {
     val topic = "test_topic"
@@ -2709,6 +2735,69 @@ class LogTest {
     assertEquals(List(new AbortedTxn(pid1, 0L, 29L, 8L), new AbortedTxn(pid2, 8L, 74L, 36L)), abortedTransactions)
   }
 
+  @Test
+  def testTransactionIndexRecoveryOnSeveralThreads(): Unit = {
+    val log = createLog(256, messagesPerSegment = 1)
+    val epoch = 0.toShort
+
+    val pid1 = 1L
+    val pid2 = 2L
+    val pid3 = 3L
+
+    val appendPid1 = appendTransactionalAsLeader(log, pid1, epoch)
+    val appendPid2 = appendTransactionalAsLeader(log, pid2, epoch)
+    val appendPid3 = appendTransactionalAsLeader(log, pid3, epoch)
+
+    appendPid1(5) // nextOffset: 5
+    appendNonTransactionalAsLeader(log, 3) // 8
+    appendPid2(2) // 10
+    appendPid1(4) // 14
+    appendPid3(3) // 17
+    appendEndTxnMarkerAsLeader(log, pid1, epoch, ControlRecordType.ABORT) // 18
+    appendPid2(6) // 24
+    appendNonTransactionalAsLeader(log, 10) // 34
+    appendEndTxnMarkerAsLeader(log, pid3, epoch, ControlRecordType.COMMIT) // 35
+    appendPid2(7) // 42
+    appendEndTxnMarkerAsLeader(log, pid2, epoch, ControlRecordType.ABORT) // 43
+    appendNonTransactionalAsLeader(log, 10) // 53
+    assertTrue(log.numberOfSegments > 4)
+
+    // delete all the offset and transaction index files and the snapshots to force a full recovery
+    log.logSegments.foreach { segment =>
+      segment.index.delete()
+      segment.txnIndex.delete()
+    }
+    log.close()
+    log.producerStateManager.deleteSnapshotsBefore(Long.MaxValue)
+
+    val reloadedLog = createLog(1024, recoveryThreads = 4)
+    assertEquals(List(new AbortedTxn(pid1, 0L, 17L, 8L), new AbortedTxn(pid2, 8L, 42L, 43L)),
+      allAbortedTransactions(reloadedLog))
+    assertEquals(53L, reloadedLog.logEndOffset)
+    assertEquals(Set(pid1, pid2, pid3), reloadedLog.activeProducers.keySet)
+    reloadedLog.logSegments.foreach { segment =>
+      assertEquals(segment.baseOffset, segment.read(segment.baseOffset, None, Int.MaxValue).records.batches.iterator.next().baseOffset)
+    }
+  }
+
+  @Test
+  def testCorruptSegmentRecoveredOnSeveralThreads(): Unit = {
+    def createRecords = TestUtils.singletonRecords(value = "test".getBytes, timestamp = time.milliseconds)
+    val log = createLog(createRecords.sizeInBytes, messagesPerSegment = 5)
+    for (_ <- 0 until 30)
+      log.appendAsLeader(createRecords, leaderEpoch = 0)
+    assertEquals(6, log.numberOfSegments)
+    val corruptSegment = log.logSegments.toSeq(2)
+    log.close()
+
+    // the segments after the corrupt one are deleted, even though they were valid
+    TestUtils.appendNonsenseToFile(corruptSegment.log.file, 10)
+    val recoveredLog = createLog(createRecords.sizeInBytes, messagesPerSegment = 5, recoveryThreads = 4)
+    assertEquals(15L, recoveredLog.logEndOffset)
+    assertEquals(3, recoveredLog.numberOfSegments)
+    assertEquals(corruptSegment.baseOffset, recoveredLog.activeSegment.baseOffset)
+  }
+
   @Test
   def testRecoverOnlyLastSegment(): Unit = {
     val log = createLog(128)
@@ -3018,7 +3107,7 @@ class LogTest {
   private def createLog(messageSizeInBytes: Int, retentionMs: Int = -1, retentionBytes: Int = -1,
                         cleanupPolicy: String = "delete", messagesPerSegment: Int = 5,
                         maxPidExpirationMs: Int = 300000, pidExpirationCheckIntervalMs: Int = 30000,
-                        recoveryPoint: Long = 0L, logStartOffset: Long = 0L): Log = {
+                        recoveryPoint: Long = 0L, logStartOffset: Long = 0L, recoveryThreads: Int = 1): Log = {
     val logProps = new Properties()
     logProps.put(LogConfig.SegmentBytesProp, messageSizeInBytes * messagesPerSegment: Integer)
     logProps.put(LogConfig.RetentionMsProp, retentionMs: Integer)
@@ -3034,7 +3123,8 @@ class LogTest {
       brokerTopicStats = brokerTopicStats,
       time = time,
       maxProducerIdExpirationMs = maxPidExpirationMs,
-      producerIdExpirationCheckIntervalMs = pidExpirationCheckIntervalMs)
+      producerIdExpirationCheckIntervalMs = pidExpirationCheckIntervalMs,
+      recoveryThreads = recoveryThreads)
   }
 
   private def allAbortedTransactions(log: Log) = log.logSegments.flatMap(_.txnIndex.allAbortedTxns)
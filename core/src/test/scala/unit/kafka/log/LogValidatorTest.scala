@@ -18,10 +18,12 @@ package kafka.log
 
 import java.nio.ByteBuffer
 
+import com.github.luben.zstd.ZstdDictTrainer
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, DefaultCompressionCodec, GZIPCompressionCodec, NoCompressionCodec, SnappyCompressionCodec}
+import kafka.message.{CompressionCodec, DefaultCompressionCodec, GZIPCompressionCodec, NoCompressionCodec, SnappyCompressionCodec, ZStdCompressionCodec}
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
+import org.apache.kafka.common.utils.Utils
 import org.apache.kafka.test.TestUtils
 import org.junit.Assert._
 import org.junit.Test
@@ -394,6 +396,82 @@ class LogValidatorTest {
     checkCompressed(RecordBatch.MAGIC_VALUE_V2)
   }
 
+  @Test(expected = classOf[UnsupportedForMessageFormatException])
+  def testZStdCompressedWithDownConversionToV1() {
+    val records = createRecords(magicValue = RecordBatch.MAGIC_VALUE_V2, codec = CompressionType.ZSTD)
+    LogValidator.validateMessagesAndAssignOffsets(
+      records,
+      offsetCounter = new LongRef(0),
+      now = System.currentTimeMillis(),
+      sourceCodec = ZStdCompressionCodec,
+      targetCodec = ZStdCompressionCodec,
+      compactedTopic = false,
+      magic = RecordBatch.MAGIC_VALUE_V1,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 1000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      isFromClient = true)
+  }
+
+  @Test
+  def testZStdRecompressionToGzipWithDownConversionToV1() {
+    val records = createRecords(magicValue = RecordBatch.MAGIC_VALUE_V2, codec = CompressionType.ZSTD)
+    val validatedRecords = LogValidator.validateMessagesAndAssignOffsets(
+      records,
+      offsetCounter = new LongRef(0),
+      now = System.currentTimeMillis(),
+      sourceCodec = ZStdCompressionCodec,
+      targetCodec = GZIPCompressionCodec,
+      compactedTopic = false,
+      magic = RecordBatch.MAGIC_VALUE_V1,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 1000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      isFromClient = true).validatedRecords
+
+    for (batch <- validatedRecords.batches.asScala) {
+      assertEquals(RecordBatch.MAGIC_VALUE_V1, batch.magic)
+      assertEquals(CompressionType.GZIP, batch.compressionType)
+    }
+    assertEquals(Seq("hello", "there", "beautiful"),
+      validatedRecords.records.asScala.map(record => Utils.utf8(record.value, record.valueSize)).toSeq)
+  }
+
+  @Test
+  def testRecompressionToZStdWithDictionary() {
+    val samples = (0 until 2000).map(i => s"""{"user":"user-${i % 997}","event":"page_view","page":"/products/${i % 89}"}""")
+    val trainer = new ZstdDictTrainer(1024 * 1024, 4096)
+    samples.foreach(sample => trainer.addSample(Utils.utf8(sample)))
+    val dictionary = CompressionDictionary.register(CompressionDictionary.parse(trainer.trainSamples()))
+
+    val now = System.currentTimeMillis()
+    def recompress(dictionary: Option[CompressionDictionary]): MemoryRecords = {
+      val builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2, CompressionType.GZIP,
+        TimestampType.CREATE_TIME, 0L)
+      samples.take(3).foreach(sample => builder.append(now, null, Utils.utf8(sample)))
+      LogValidator.validateMessagesAndAssignOffsets(
+        builder.build(),
+        offsetCounter = new LongRef(0),
+        now = now,
+        sourceCodec = GZIPCompressionCodec,
+        targetCodec = ZStdCompressionCodec,
+        compactedTopic = false,
+        magic = RecordBatch.MAGIC_VALUE_V2,
+        timestampType = TimestampType.CREATE_TIME,
+        timestampDiffMaxMs = 1000L,
+        partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+        isFromClient = true,
+        compressionDictionary = dictionary).validatedRecords
+    }
+
+    val withDictionary = recompress(Some(dictionary))
+    assertTrue(withDictionary.sizeInBytes < recompress(None).sizeInBytes)
+    for (batch <- withDictionary.batches.asScala)
+      assertEquals(CompressionType.ZSTD, batch.compressionType)
+    assertEquals(samples.take(3),
+      withDictionary.records.asScala.map(record => Utils.utf8(record.value, record.valueSize)).toSeq)
+  }
+
   @Test(expected = classOf[InvalidTimestampException])
   def testInvalidCreateTimeNonCompressedV1() {
     val now = System.currentTimeMillis()
@@ -34,6 +34,27 @@ class OffsetMapTest extends JUnitSuite {
     validateMap(5000)
   }
   
+  @Test
+  def testBasicValidationWithMurmur3() {
+    validateMap(10, hashAlgorithm = SkimpyOffsetMap.Murmur3HashAlgorithm)
+    validateMap(1000, hashAlgorithm = SkimpyOffsetMap.Murmur3HashAlgorithm)
+    validateMap(5000, loadFactor = 0.9, hashAlgorithm = SkimpyOffsetMap.Murmur3HashAlgorithm)
+  }
+
+  @Test
+  def testUpdateExistingKey() {
+    for (hashAlgorithm <- Seq("MD5", "SHA-1", SkimpyOffsetMap.Murmur3HashAlgorithm)) {
+      val map = new SkimpyOffsetMap(4000, hashAlgorithm)
+      for (i <- 0 until 10)
+        map.put(key(i), i)
+      for (i <- 0 until 10)
+        map.put(key(i), i + 100)
+      assertEquals(10, map.size)
+      for (i <- 0 until 10)
+        assertEquals(i + 100L, map.get(key(i)))
+    }
+  }
+
   @Test
   def testClear() {
     val map = new SkimpyOffsetMap(4000)
@@ -48,20 +69,41 @@ class OffsetMapTest extends JUnitSuite {
   
   @Test
   def testGetWhenFull() {
-    val map = new SkimpyOffsetMap(4096)
-    var i = 37L  //any value would do
-    while (map.size < map.slots) {
-      map.put(key(i), i)
-      i = i + 1L
+    for (hashAlgorithm <- Seq("MD5", SkimpyOffsetMap.Murmur3HashAlgorithm)) {
+      val map = new SkimpyOffsetMap(4096, hashAlgorithm)
+      var i = 37L  //any value would do
+      while (map.size < map.slots) {
+        map.put(key(i), i)
+        i = i + 1L
+      }
+      assertEquals(map.get(key(i)), -1L)
+      assertEquals(map.get(key(i-1L)), i-1L)
     }
-    assertEquals(map.get(key(i)), -1L)
-    assertEquals(map.get(key(i-1L)), i-1L)
   }
 
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
   
-  def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
-    val map = new SkimpyOffsetMap((items/loadFactor * 24).toInt)
+  @Test
+  def testReadOnlyView() {
+    for (hashAlgorithm <- Seq("MD5", SkimpyOffsetMap.Murmur3HashAlgorithm)) {
+      val map = validateMap(1000, hashAlgorithm = hashAlgorithm)
+      val views = Seq(map.readOnlyView(), map.readOnlyView())
+      for (view <- views; i <- 0 until 1000)
+        assertEquals(i.toLong, view.get(key(i)))
+      for (view <- views) {
+        assertEquals(-1L, view.get(key(1000)))
+        assertEquals(map.size, view.size)
+        assertEquals(map.slots, view.slots)
+        assertEquals(map.latestOffset, view.latestOffset)
+        intercept[UnsupportedOperationException] {
+          view.put(key(0), 0)
+        }
+      }
+    }
+  }
+
+  def validateMap(items: Int, loadFactor: Double = 0.5, hashAlgorithm: String = "MD5"): SkimpyOffsetMap = {
+    val map = new SkimpyOffsetMap((items/loadFactor * 24).toInt, hashAlgorithm)
     for(i <- 0 until items)
       map.put(key(i), i)
     for(i <- 0 until items)
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.network
+
+import java.net.InetAddress
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit}
+
+import kafka.network.RequestChannel.{Request, Session}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.{ApiKeys, SecurityProtocol}
+import org.apache.kafka.common.record.{MemoryRecords, RecordBatch}
+import org.apache.kafka.common.requests.{ProduceRequest, RequestHeader}
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+import org.apache.kafka.common.utils.Time
+import org.junit.Assert._
+import org.junit.Test
+
+class RequestChannelTest {
+
+  @Test
+  def testHandlerPrefersItsOwnQueue() {
+    val channel = new RequestChannel(numProcessors = 4, queueSize = 8, numQueues = 4)
+    val first = request(processor = 0, correlationId = 0)
+    val second = request(processor = 1, correlationId = 1)
+    channel.sendRequest(first)
+    channel.sendRequest(second)
+    assertSame(second, channel.receiveRequest(100, 1))
+    assertSame(first, channel.receiveRequest(100, 1))
+    assertNull(channel.receiveRequest(10, 1))
+  }
+
+  @Test
+  def testHandlerTakesRequestsFromOtherQueues() {
+    val channel = new RequestChannel(numProcessors = 4, queueSize = 8, numQueues = 2)
+    val fromOtherQueue = request(processor = 3, correlationId = 0)
+    channel.sendRequest(fromOtherQueue)
+    assertSame(fromOtherQueue, channel.receiveRequest(100, 0))
+    assertNull(channel.receiveRequest(10, 0))
+  }
+
+  @Test
+  def testWaitingHandlerReceivesRequestForOtherQueue() {
+    val channel = new RequestChannel(numProcessors = 2, queueSize = 8, numQueues = 2)
+    val received = new CountDownLatch(1)
+    val handler = new Thread() {
+      override def run() {
+        if (channel.receiveRequest(5000, 0) != null)
+          received.countDown()
+      }
+    }
+    handler.start()
+    channel.sendRequest(request(processor = 1, correlationId = 0))
+    assertTrue("The waiting handler should take the request", received.await(5, TimeUnit.SECONDS))
+    handler.join()
+  }
+
+  @Test
+  def testEveryRequestIsReceivedOnce() {
+    val numHandlers = 4
+    val numProcessors = 3
+    val requestsPerProcessor = 1000
+    val channel = new RequestChannel(numProcessors, queueSize = 16, numQueues = numHandlers)
+    val received = Collections.newSetFromMap(new ConcurrentHashMap[Int, java.lang.Boolean])
+    val duplicates = new AtomicInteger
+    val handlers = (0 until numHandlers).map { id =>
+      new Thread() {
+        override def run() {
+          var req = channel.receiveRequest(5000, id)
+          while (req != null && (req ne RequestChannel.AllDone)) {
+            if (!received.add(req.header.correlationId))
+              duplicates.incrementAndGet()
+            req = channel.receiveRequest(5000, id)
+          }
+        }
+      }
+    }
+    handlers.foreach(_.start())
+    val processors = (0 until numProcessors).map { processor =>
+      new Thread() {
+        override def run() {
+          for (i <- 0 until requestsPerProcessor)
+            channel.sendRequest(request(processor, processor * requestsPerProcessor + i))
+        }
+      }
+    }
+    processors.foreach(_.start())
+    processors.foreach(_.join())
+    handlers.foreach(_ => channel.sendRequest(RequestChannel.AllDone))
+    handlers.foreach(_.join())
+    assertEquals(numProcessors * requestsPerProcessor, received.size)
+    assertEquals(0, duplicates.get)
+  }
+
+  @Test
+  def testControlPlaneRequestsHaveTheirOwnQueue() {
+    val controlPlaneListener = new ListenerName("CONTROLLER")
+    val channel = new RequestChannel(numProcessors = 2, queueSize = 8, controlPlaneListenerNames = Set(controlPlaneListener))
+    val clientRequest = request(processor = 0, correlationId = 0)
+    val controlPlaneRequest = request(processor = 1, correlationId = 1, controlPlaneListener)
+    channel.sendRequest(clientRequest)
+    channel.sendRequest(controlPlaneRequest)
+    assertSame(controlPlaneRequest, channel.receiveControlPlaneRequest(100))
+    assertNull(channel.receiveControlPlaneRequest(10))
+    assertSame(clientRequest, channel.receiveRequest(100))
+    assertNull(channel.receiveRequest(10))
+  }
+
+  private def request(processor: Int, correlationId: Int,
+                      listenerName: ListenerName = new ListenerName("PLAINTEXT")): Request = {
+    val produceRequest = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, 1, 0,
+      Collections.emptyMap[TopicPartition, MemoryRecords]).build()
+    val header = new RequestHeader(ApiKeys.PRODUCE.id, produceRequest.version, "", correlationId)
+    Request(processor, connectionId = "connection", Session(KafkaPrincipal.ANONYMOUS, InetAddress.getLocalHost),
+      buffer = produceRequest.serialize(header), startTimeNanos = Time.SYSTEM.nanoseconds,
+      listenerName = listenerName, securityProtocol = SecurityProtocol.PLAINTEXT)
+  }
+
+}
@@ -27,7 +27,7 @@ import com.yammer.metrics.core.Gauge
 import com.yammer.metrics.{Metrics => YammerMetrics}
 import kafka.security.CredentialProvider
 import kafka.server.KafkaConfig
-import kafka.utils.TestUtils
+import kafka.utils.{MockTime, TestUtils}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.{ListenerName, NetworkSend, Send}
@@ -270,6 +270,64 @@ class SocketServerTest extends JUnitSuite {
     }
   }
 
+  @Test
+  def testConnectionMutedForThrottleTimeOfResponse() {
+    val time = new MockTime()
+    val serverMetrics = new Metrics
+    val overrideServer = new SocketServer(config, serverMetrics, time, credentialProvider)
+    try {
+      overrideServer.startup()
+      val socket = connect(overrideServer)
+      val serializedBytes = producerRequestBytes
+      sendRequest(socket, serializedBytes)
+      val request = overrideServer.requestChannel.receiveRequest(2000)
+      assertNotNull("receiveRequest timed out", request)
+      val byteBuffer = request.body[AbstractRequest].serialize(request.header)
+      byteBuffer.rewind()
+      overrideServer.requestChannel.sendResponse(new RequestChannel.Response(request,
+        Some(new NetworkSend(request.connectionId, byteBuffer)), RequestChannel.SendAction, throttleTimeMs = 100))
+      // the response is sent right away
+      assertEquals(serializedBytes.toSeq, receiveResponse(socket).toSeq)
+
+      // but the next request is only read once the throttle time has passed
+      sendRequest(socket, serializedBytes)
+      assertNull(overrideServer.requestChannel.receiveRequest(300))
+      time.sleep(100)
+      assertNotNull("receiveRequest timed out", overrideServer.requestChannel.receiveRequest(2000))
+    } finally {
+      overrideServer.shutdown()
+      serverMetrics.close()
+    }
+  }
+
+  @Test
+  def testControlPlaneListener() {
+    val overrideProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    overrideProps.put(KafkaConfig.ListenersProp, "PLAINTEXT://localhost:0,TRACE://localhost:0")
+    overrideProps.put(KafkaConfig.ControlPlaneListenerNamesProp, "TRACE")
+    overrideProps.put(KafkaConfig.NumNetworkThreadsPerListenerProp, "TRACE:1")
+    val serverMetrics = new Metrics
+    val overrideServer = new SocketServer(KafkaConfig.fromProps(overrideProps), serverMetrics, Time.SYSTEM, credentialProvider)
+    try {
+      overrideServer.startup()
+      val serializedBytes = producerRequestBytes
+      val controlPlaneSocket = connect(overrideServer, SecurityProtocol.TRACE)
+      sendRequest(controlPlaneSocket, serializedBytes)
+      assertNull(overrideServer.requestChannel.receiveRequest(100))
+      val request = overrideServer.requestChannel.receiveControlPlaneRequest(2000)
+      assertNotNull("receiveControlPlaneRequest timed out", request)
+      processRequest(overrideServer.requestChannel, request)
+      assertEquals(serializedBytes.toSeq, receiveResponse(controlPlaneSocket).toSeq)
+
+      sendRequest(connect(overrideServer), serializedBytes)
+      assertNotNull(overrideServer.requestChannel.receiveRequest(2000))
+      assertNull(overrideServer.requestChannel.receiveControlPlaneRequest(100))
+    } finally {
+      overrideServer.shutdown()
+      serverMetrics.close()
+    }
+  }
+
   @Test
   def testSslSocketServer() {
     val trustStoreFile = File.createTempFile("truststore", ".jks")
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import com.yammer.metrics.Metrics
+import kafka.cluster.BrokerEndPoint
+import kafka.server.AbstractFetcherThread.{FetchRequest, PartitionData}
+import kafka.utils.TestUtils
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.MemoryRecords
+import org.apache.kafka.common.requests.EpochEndOffset
+import org.junit.Assert.assertEquals
+import org.junit.{After, Before, Test}
+
+import scala.collection.JavaConverters._
+import scala.collection.Map
+
+class AbstractFetcherManagerTest {
+
+  private val broker = new BrokerEndPoint(0, "localhost", 9092)
+  private val partitions = (0 until 4).map(new TopicPartition("topic", _))
+
+  @volatile private var highWatermark = 0L
+
+  private val manager = new AbstractFetcherManager("manager", "client", numFetchers = 1, maxFetchers = 3,
+    scaleLagThreshold = 100L) {
+    override def createFetcherThread(fetcherId: Int, sourceBroker: BrokerEndPoint): AbstractFetcherThread =
+      new LaggingFetcherThread(s"fetcher-$fetcherId", sourceBroker)
+  }
+
+  @Before
+  def cleanMetricRegistry(): Unit = {
+    for (metricName <- Metrics.defaultRegistry().allMetrics().keySet().asScala)
+      Metrics.defaultRegistry().removeMetric(metricName)
+  }
+
+  @After
+  def tearDown(): Unit = {
+    manager.closeAllFetchers()
+  }
+
+  @Test
+  def testRescaleFetchers(): Unit = {
+    highWatermark = 1000L
+    manager.addFetcherForPartitions(partitions.map(_ -> BrokerAndInitialOffset(broker, 0L)).toMap)
+    awaitLags(1000L)
+
+    // half of the lagging partitions move to a new fetcher, one fetcher at a time
+    manager.rescaleFetchers()
+    assertEquals(Map(0 -> 2, 1 -> 2), partitionCounts)
+    awaitLags(1000L)
+    manager.rescaleFetchers()
+    assertEquals(3, partitionCounts.size)
+    assertEquals(4, partitionCounts.values.sum)
+    awaitLags(1000L)
+    manager.rescaleFetchers()
+    assertEquals(3, partitionCounts.size)
+
+    // once the partitions caught up, they go back to the fetcher they hash to
+    highWatermark = 0L
+    awaitLags(0L)
+    manager.rescaleFetchers()
+    assertEquals(Map(0 -> 4), partitionCounts)
+  }
+
+  @Test
+  def testSingleLaggingPartitionIsNotSplit(): Unit = {
+    highWatermark = 1000L
+    manager.addFetcherForPartitions(Map(partitions.head -> BrokerAndInitialOffset(broker, 0L)))
+    awaitLags(1000L)
+    manager.rescaleFetchers()
+    assertEquals(Map(0 -> 1), partitionCounts)
+  }
+
+  private def partitionCounts: Map[Int, Int] =
+    manager.fetcherThreadMap.map { case (key, fetcher) => key.fetcherId -> fetcher.partitionCount }
+
+  private def awaitLags(lag: Long): Unit =
+    TestUtils.waitUntilTrue(() => manager.fetcherThreadMap.values.forall(_.partitionLags.values.forall(_ == lag)),
+      s"Failed waiting for the lag of all partitions to be $lag")
+
+  class TestFetchRequest(val offsets: Map[TopicPartition, Long]) extends FetchRequest {
+    override def isEmpty: Boolean = offsets.isEmpty
+
+    override def offset(topicPartition: TopicPartition): Long = offsets(topicPartition)
+  }
+
+  class TestPartitionData(override val highWatermark: Long) extends PartitionData {
+    override def error: Errors = Errors.NONE
+
+    override def toRecords: MemoryRecords = MemoryRecords.EMPTY
+
+    override def exception: Option[Throwable] = None
+  }
+
+  /**
+   * A fetcher whose partitions never get records, so that they lag by the current high watermark
+   */
+  class LaggingFetcherThread(name: String, sourceBroker: BrokerEndPoint)
+    extends AbstractFetcherThread(name, name, sourceBroker, isInterruptible = true, includeLogTruncation = false) {
+
+    type REQ = TestFetchRequest
+    type PD = PartitionData
+
+    override def processPartitionData(topicPartition: TopicPartition, fetchOffset: Long,
+                                      partitionData: PartitionData): Unit = {}
+
+    override def handleOffsetOutOfRange(topicPartition: TopicPartition): Long = 0L
+
+    override def handlePartitionsWithErrors(partitions: Iterable[TopicPartition]): Unit = {}
+
+    override protected def fetch(fetchRequest: TestFetchRequest): Seq[(TopicPartition, TestPartitionData)] = {
+      Thread.sleep(1)
+      fetchRequest.offsets.mapValues(_ => new TestPartitionData(highWatermark)).toSeq
+    }
+
+    override protected def buildFetchRequest(partitionMap: Seq[(TopicPartition, PartitionFetchState)]): TestFetchRequest =
+      new TestFetchRequest(partitionMap.map { case (tp, state) => tp -> state.fetchOffset }.toMap)
+
+    override def buildLeaderEpochRequest(allPartitions: Seq[(TopicPartition, PartitionFetchState)]): Map[TopicPartition, Int] = Map()
+
+    override def fetchEpochsFromLeader(partitions: Map[TopicPartition, Int]): Map[TopicPartition, EpochEndOffset] = Map()
+
+    override def maybeTruncate(fetchedEpochs: Map[TopicPartition, EpochEndOffset]): Map[TopicPartition, Long] = Map()
+  }
+
+}
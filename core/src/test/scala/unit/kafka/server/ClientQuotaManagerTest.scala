@@ -268,6 +268,26 @@ class ClientQuotaManagerTest {
     }
   }
 
+  @Test
+  def testQuotaViolationWithoutDelay() {
+    val metrics = newMetrics
+    val clientMetrics = new ClientQuotaManager(config, metrics, QuotaType.Fetch, time)
+    val queueSizeMetric = metrics.metrics().get(metrics.metricName("queue-size", "Fetch", ""))
+    try {
+      for (_ <- 0 until 10) {
+        assertEquals(0, clientMetrics.recordAndGetThrottleTimeMs("ANONYMOUS", "unknown", 400))
+        time.sleep(1000)
+      }
+
+      // the same spike as in testQuotaViolation is throttled for as long, but nothing is delayed
+      time.sleep(500)
+      assertEquals("Should be throttled", 2100, clientMetrics.recordAndGetThrottleTimeMs("ANONYMOUS", "unknown", 2300))
+      assertEquals(0, queueSizeMetric.value().toInt)
+    } finally {
+      clientMetrics.shutdown()
+    }
+  }
+
   @Test
   def testRequestPercentageQuotaViolation() {
     val metrics = newMetrics
@@ -117,6 +117,40 @@ class DelayedOperationTest {
     assertEquals(Nil, cancelledOperations)
   }
 
+  @Test
+  def testShardedWatchLists() {
+    val sharded = DelayedOperationPurgatory[MockDelayedOperation](purgatoryName = "mock-sharded", purgeInterval = 0,
+      reaperEnabled = false, numShards = 4)
+    try {
+      // every operation is watched on two keys, which are usually in different shards
+      val operations = (0 until 10).map { i =>
+        val operation = new MockDelayedOperation(100000L)
+        assertFalse(sharded.tryCompleteElseWatch(operation, Seq(s"key$i", s"key${(i + 1) % 10}")))
+        operation
+      }
+      assertEquals(10, sharded.delayed)
+      assertEquals(20, sharded.watched)
+
+      operations(0).completable = true
+      assertEquals(1, sharded.checkAndComplete("key1"))
+      assertEquals(19, sharded.watched)
+
+      // operations completed by others are purged from the watch lists of every shard
+      operations.slice(1, 5).foreach { operation =>
+        operation.completable = true
+        operation.tryComplete()
+      }
+      assertEquals(5, sharded.delayed)
+      sharded.advanceClock(0L)
+      assertEquals(10, sharded.watched)
+
+      assertEquals(Set(operations(8), operations(9)), sharded.cancelForKey("key9").toSet)
+      assertEquals(Nil, sharded.cancelForKey("key9"))
+    } finally {
+      sharded.shutdown()
+    }
+  }
+
 
 
   class MockDelayedOperation(delayMs: Long) extends DelayedOperation(delayMs) {
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.Collections
+
+import kafka.utils.MockTime
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.requests.{FetchMetadata => JFetchMetadata, FetchRequest, FetchResponse}
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+
+class FetchSessionTest {
+
+  private val time = new MockTime
+  private val tp0 = new TopicPartition("foo", 0)
+  private val tp1 = new TopicPartition("foo", 1)
+  private val tp2 = new TopicPartition("bar", 0)
+
+  @Test
+  def testIncrementalFetches(): Unit = {
+    val fetchManager = new FetchManager(time, new FetchSessionCache(10, 1000))
+    val context = fetchManager.newContext(JFetchMetadata.INITIAL, requestData(tp0 -> 0L, tp1 -> 0L),
+      Collections.emptyList(), isFromFollower = false)
+    assertEquals(Seq(tp0, tp1), context.fetchData.map(_._1))
+    val response = context.updateAndGenerateResponse(responseData(tp0 -> 10L, tp1 -> 10L))
+    assertEquals(Errors.NONE, response.error)
+    assertEquals(Seq(tp0, tp1), response.responseData.keySet.asScala.toSeq)
+    val sessionId = response.sessionId
+    assertNotEquals(JFetchMetadata.INVALID_SESSION_ID, sessionId)
+
+    // the partitions of the session are fetched with their latest offsets, and only the changed ones are returned
+    val context2 = fetchManager.newContext(new JFetchMetadata(sessionId, 1), requestData(tp1 -> 5L, tp2 -> 0L),
+      Collections.emptyList(), isFromFollower = false)
+    assertEquals(Seq(tp0 -> 0L, tp1 -> 5L, tp2 -> 0L), context2.fetchData.map { case (tp, data) => tp -> data.fetchOffset })
+    val response2 = context2.updateAndGenerateResponse(responseData(tp0 -> 10L, tp1 -> 12L, tp2 -> 3L))
+    assertEquals(sessionId, response2.sessionId)
+    assertEquals(Seq(tp1, tp2), response2.responseData.keySet.asScala.toSeq)
+
+    // partitions which returned records are fetched after the others
+    val context3 = fetchManager.newContext(new JFetchMetadata(sessionId, 2), requestData(),
+      Collections.singletonList(tp2), isFromFollower = false)
+    assertEquals(Seq(tp0, tp1), context3.fetchData.map(_._1))
+    assertEquals(Seq(tp0), context3.updateAndGenerateResponse(responseData(Seq(tp0 -> 10L, tp1 -> 12L), Set(tp0)))
+      .responseData.keySet.asScala.toSeq)
+    val context4 = fetchManager.newContext(new JFetchMetadata(sessionId, 3), requestData(),
+      Collections.emptyList(), isFromFollower = false)
+    assertEquals(Seq(tp1, tp0), context4.fetchData.map(_._1))
+  }
+
+  @Test
+  def testSessionErrors(): Unit = {
+    val cache = new FetchSessionCache(10, 1000)
+    val fetchManager = new FetchManager(time, cache)
+    val context = fetchManager.newContext(new JFetchMetadata(123, 1), requestData(tp0 -> 0L), Collections.emptyList(),
+      isFromFollower = false)
+    assertTrue(context.fetchData.isEmpty)
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND, context.updateAndGenerateResponse(responseData()).error)
+
+    val sessionId = fetchManager.newContext(JFetchMetadata.INITIAL, requestData(tp0 -> 0L), Collections.emptyList(),
+      isFromFollower = false).updateAndGenerateResponse(responseData(tp0 -> 10L)).sessionId
+    val context2 = fetchManager.newContext(new JFetchMetadata(sessionId, 2), requestData(), Collections.emptyList(),
+      isFromFollower = false)
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH, context2.updateAndGenerateResponse(responseData()).error)
+
+    // a full request closes the session
+    val context3 = fetchManager.newContext(new JFetchMetadata(sessionId, JFetchMetadata.FINAL_EPOCH),
+      requestData(tp0 -> 0L), Collections.emptyList(), isFromFollower = false)
+    val response3 = context3.updateAndGenerateResponse(responseData(tp0 -> 10L))
+    assertEquals(JFetchMetadata.INVALID_SESSION_ID, response3.sessionId)
+    assertEquals(0, cache.size)
+  }
+
+  @Test
+  def testSessionEviction(): Unit = {
+    val cache = new FetchSessionCache(2, 1000)
+    val consumer1 = cache.maybeCreateSession(time.milliseconds, privileged = false, partitions(tp0))
+    time.sleep(10)
+    val consumer2 = cache.maybeCreateSession(time.milliseconds, privileged = false, partitions(tp0, tp1))
+    assertEquals(2, cache.size)
+    assertEquals(3, cache.totalPartitions)
+
+    // a consumer does not evict a session which has been used recently
+    time.sleep(10)
+    assertEquals(JFetchMetadata.INVALID_SESSION_ID,
+      cache.maybeCreateSession(time.milliseconds, privileged = false, partitions(tp2)))
+
+    // a follower evicts the least recently used session of a consumer
+    assertTrue(cache.get(consumer1, time.milliseconds).isDefined)
+    val follower = cache.maybeCreateSession(time.milliseconds, privileged = true, partitions(tp2))
+    assertNotEquals(JFetchMetadata.INVALID_SESSION_ID, follower)
+    assertTrue(cache.get(consumer2, time.milliseconds).isEmpty)
+    assertTrue(cache.get(consumer1, time.milliseconds).isDefined)
+
+    // a stale session is evicted by anyone
+    time.sleep(1000)
+    assertTrue(cache.get(consumer1, time.milliseconds).isDefined)
+    assertNotEquals(JFetchMetadata.INVALID_SESSION_ID,
+      cache.maybeCreateSession(time.milliseconds, privileged = false, partitions(tp0)))
+    assertTrue(cache.get(follower, time.milliseconds).isEmpty)
+    assertEquals(2, cache.size)
+  }
+
+  private def requestData(partitions: (TopicPartition, Long)*): util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData] = {
+    val data = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    partitions.foreach { case (tp, offset) => data.put(tp, new FetchRequest.PartitionData(offset, 0L, 1000)) }
+    data
+  }
+
+  private def responseData(partitions: (TopicPartition, Long)*): util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] =
+    responseData(partitions, Set.empty[TopicPartition])
+
+  private def responseData(partitions: Seq[(TopicPartition, Long)],
+                           records: Set[TopicPartition]): util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] = {
+    val data = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+    partitions.foreach { case (tp, highWatermark) =>
+      val partitionRecords =
+        if (records.contains(tp)) MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("value".getBytes))
+        else MemoryRecords.EMPTY
+      data.put(tp, new FetchResponse.PartitionData(Errors.NONE, highWatermark, highWatermark, 0L, null, partitionRecords))
+    }
+    data
+  }
+
+  private def partitions(tps: TopicPartition*): util.LinkedHashMap[TopicPartition, CachedPartition] = {
+    val partitionMap = new util.LinkedHashMap[TopicPartition, CachedPartition]
+    tps.foreach(tp => partitionMap.put(tp, new CachedPartition(tp, new FetchRequest.PartitionData(0L, 0L, 1000))))
+    partitionMap
+  }
+
+}
@@ -21,7 +21,7 @@ import java.lang.{Long => JLong}
 import java.net.InetAddress
 import java.util
 
-import kafka.api.{ApiVersion, KAFKA_0_10_2_IV0}
+import kafka.api.{ApiVersion, KAFKA_0_10_2_IV0, KAFKA_0_11_1_IV0}
 import kafka.cluster.Replica
 import kafka.controller.KafkaController
 import kafka.coordinator.group.GroupCoordinator
@@ -38,7 +38,7 @@ import org.apache.kafka.common.errors.UnsupportedVersionException
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, SecurityProtocol}
-import org.apache.kafka.common.record.RecordBatch
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, RecordBatch, SimpleRecord}
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry
 import org.apache.kafka.common.requests._
@@ -71,6 +71,7 @@ class KafkaApisTest {
   private val brokerTopicStats = new BrokerTopicStats
   private val clusterId = "clusterId"
   private val time = new MockTime
+  private val fetchManager = new FetchManager(time, new FetchSessionCache(1000, FetchSessionCache.EvictionMs))
 
   def createKafkaApis(interBrokerProtocolVersion: ApiVersion = ApiVersion.latestVersion): KafkaApis = {
     val properties = TestUtils.createBrokerConfig(brokerId, "zk")
@@ -89,6 +90,7 @@ class KafkaApisTest {
       metrics,
       authorizer,
       quotas,
+      fetchManager,
       brokerTopicStats,
       clusterId,
       time
@@ -384,6 +386,45 @@ class KafkaApisTest {
     assertEquals(ListOffsetResponse.UNKNOWN_TIMESTAMP, partitionData.timestamp)
   }
 
+  @Test
+  def shouldRespondWithUnsupportedCompressionTypeForZStdBatchesInProduceRequestOlderThanVersion7(): Unit = {
+    testZStdProduceRequestRejected(ApiVersion.latestVersion, 6)
+  }
+
+  @Test
+  def shouldRespondWithUnsupportedCompressionTypeForZStdBatchesWhenInterBrokerProtocolNotSupported(): Unit = {
+    testZStdProduceRequestRejected(KAFKA_0_11_1_IV0, 7)
+  }
+
+  private def testZStdProduceRequestRejected(interBrokerProtocolVersion: ApiVersion, version: Short): Unit = {
+    val tp = new TopicPartition("t", 0)
+    val records = MemoryRecords.withRecords(CompressionType.ZSTD, new SimpleRecord("value".getBytes))
+    // the builder refuses ZStandard compressed batches in older versions, which have the same layout as version 7
+    val produceRequest = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, 1, 5000,
+      Map(tp -> records).asJava).build(7)
+    val request = buildRequest(ApiKeys.PRODUCE, produceRequest, version)
+
+    val capturedResponse = EasyMock.newCapture[RequestChannel.Response]()
+    val capturedProduceCallback = EasyMock.newCapture[Int => Unit]()
+    val capturedThrottleCallback = EasyMock.newCapture[Int => Unit]()
+    EasyMock.expect(metadataCache.contains(tp.topic)).andReturn(true)
+    EasyMock.expect(clientQuotaManager.recordAndMaybeThrottle(EasyMock.anyString, EasyMock.anyString,
+      EasyMock.anyDouble, EasyMock.capture(capturedProduceCallback))).andAnswer(new IAnswer[Int] {
+        override def answer(): Int = {
+          capturedProduceCallback.getValue.apply(0)
+          0
+        }
+      })
+    expectThrottleCallbackAndInvoke(capturedThrottleCallback)
+    EasyMock.expect(requestChannel.sendResponse(EasyMock.capture(capturedResponse)))
+    EasyMock.replay(replicaManager, metadataCache, clientQuotaManager, clientRequestQuotaManager, requestChannel)
+
+    createKafkaApis(interBrokerProtocolVersion).handleProduceRequest(request)
+
+    val response = readResponse(ApiKeys.PRODUCE, produceRequest, capturedResponse).asInstanceOf[ProduceResponse]
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE, response.responses.get(tp).error)
+  }
+
   private def createWriteTxnMarkersRequest(partitions: util.List[TopicPartition]) = {
     val requestBuilder = new WriteTxnMarkersRequest.Builder(Utils.mkList(
       new TxnMarkerEntry(1, 1.toShort, 0, TransactionResult.COMMIT, partitions)))
@@ -392,10 +433,14 @@ class KafkaApisTest {
 
   private def buildRequest[T <: AbstractRequest](builder: AbstractRequest.Builder[T]): (T, RequestChannel.Request) = {
     val request = builder.build()
-    val header = new RequestHeader(builder.apiKey.id, request.version, "", 0)
+    (request, buildRequest(builder.apiKey, request, request.version))
+  }
+
+  private def buildRequest(apiKey: ApiKeys, request: AbstractRequest, version: Short): RequestChannel.Request = {
+    val header = new RequestHeader(apiKey.id, version, "", 0)
     val buffer = request.serialize(header)
     val session = Session(KafkaPrincipal.ANONYMOUS, InetAddress.getLocalHost)
-    (request, RequestChannel.Request(1, "1", session, buffer, 0, new ListenerName(""), SecurityProtocol.PLAINTEXT))
+    RequestChannel.Request(1, "1", session, buffer, 0, new ListenerName(""), SecurityProtocol.PLAINTEXT)
   }
 
   private def readResponse(api: ApiKeys, request: AbstractRequest, capturedResponse: Capture[RequestChannel.Response]): AbstractResponse = {
@@ -16,6 +16,7 @@
   */
 package kafka.server
 
+import java.nio.ByteBuffer
 import java.util
 import util.Arrays.asList
 
@@ -23,7 +24,7 @@ import kafka.common.BrokerEndPointNotAvailableException
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, SecurityProtocol}
-import org.apache.kafka.common.requests.{PartitionState, UpdateMetadataRequest}
+import org.apache.kafka.common.requests.{MetadataResponse, PartitionState, UpdateMetadataRequest}
 import org.apache.kafka.common.requests.UpdateMetadataRequest.{Broker, EndPoint}
 import org.junit.Test
 import org.junit.Assert._
@@ -330,4 +331,73 @@ class MetadataCacheTest {
     assertEquals(initialBrokerIds, aliveBrokersFromCache.map(_.id).toSet)
   }
 
+  @Test
+  def getTopicMetadataShouldReflectTheLatestUpdate() {
+    val topic = "topic"
+    val cache = new MetadataCache(1)
+    val securityProtocol = SecurityProtocol.PLAINTEXT
+    val listenerName = ListenerName.forSecurityProtocol(securityProtocol)
+    val brokers = (0 to 1).map { brokerId =>
+      new Broker(brokerId, Seq(new EndPoint("foo", 9092, securityProtocol, listenerName)).asJava, null)
+    }.toSet
+
+    def updateCache(leader: Int) {
+      val partitionStates = Map(
+        new TopicPartition(topic, 0) -> new PartitionState(1, leader, leader, asList(0, 1), 3, asList(0, 1)))
+      val version = ApiKeys.UPDATE_METADATA_KEY.latestVersion
+      val updateMetadataRequest = new UpdateMetadataRequest.Builder(version, 2, 1, partitionStates.asJava,
+        brokers.asJava).build()
+      cache.updateCache(15, updateMetadataRequest)
+    }
+
+    def leader: Int = cache.getTopicMetadata(Set(topic), listenerName).head.partitionMetadata.get(0).leader.id
+
+    updateCache(leader = 0)
+    assertEquals(0, leader)
+    // the metadata built for the first request is reused until the cache is updated
+    assertSame(cache.getTopicMetadata(Set(topic), listenerName).head, cache.getTopicMetadata(Set(topic), listenerName).head)
+
+    updateCache(leader = 1)
+    assertEquals(1, leader)
+    assertEquals(Some(1), cache.getPartitionLeaderEndpoint(topic, 0, listenerName).map(_.id))
+  }
+
+  @Test
+  def getSerializedMetadataResponse() {
+    val topic = "topic"
+    val cache = new MetadataCache(1)
+    val securityProtocol = SecurityProtocol.PLAINTEXT
+    val listenerName = ListenerName.forSecurityProtocol(securityProtocol)
+    val brokers = (0 to 1).map { brokerId =>
+      new Broker(brokerId, Seq(new EndPoint(s"foo-$brokerId", 9092, securityProtocol, listenerName)).asJava, null)
+    }.toSet
+
+    def updateCache(leader: Int) {
+      val partitionStates = Map(
+        new TopicPartition(topic, 0) -> new PartitionState(1, leader, leader, asList(0, 1), 3, asList(0, 1)))
+      val version = ApiKeys.UPDATE_METADATA_KEY.latestVersion
+      val updateMetadataRequest = new UpdateMetadataRequest.Builder(version, 2, 1, partitionStates.asJava,
+        brokers.asJava).build()
+      cache.updateCache(15, updateMetadataRequest)
+    }
+
+    def serializedResponse(version: Short): ByteBuffer =
+      cache.getSerializedMetadataResponse(Set(topic), listenerName, version, "cluster").get
+
+    updateCache(leader = 0)
+    assertEquals(None, cache.getSerializedMetadataResponse(Set(topic, "unknown"), listenerName, 1, "cluster"))
+
+    for (version <- ApiKeys.METADATA.oldestVersion to ApiKeys.METADATA.latestVersion) {
+      val body = serializedResponse(version.toShort)
+      assertSame(body, serializedResponse(version.toShort))
+      val response = MetadataResponse.parse(body.duplicate(), version.toShort)
+      assertEquals(Set(0, 1), response.brokers.asScala.map(_.id).toSet)
+      assertEquals(0, response.topicMetadata.asScala.head.partitionMetadata.get(0).leader.id)
+    }
+
+    updateCache(leader = 1)
+    val response = MetadataResponse.parse(serializedResponse(1).duplicate(), 1)
+    assertEquals(1, response.topicMetadata.asScala.head.partitionMetadata.get(0).leader.id)
+  }
+
 }
@@ -264,6 +264,35 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testFetchWithOtherLeaderEpochFenced(): Unit = {
+    val timer = new MockTimer
+    val replicaManager = setupReplicaManagerWithMockedPurgatories(timer)
+
+    try {
+      val brokerList = Seq[Integer](0, 1).asJava
+      val tp = new TopicPartition(topic, 0)
+      val partition = replicaManager.getOrCreatePartition(tp)
+      partition.getOrCreateReplica(0)
+
+      // Make this replica the leader in epoch 5
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(0, 0,
+        collection.immutable.Map(tp -> new PartitionState(0, 0, 5, brokerList, 0, brokerList)).asJava,
+        Set(new Node(0, "host1", 0), new Node(1, "host2", 1)).asJava).build()
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+
+      def fetchError(currentLeaderEpoch: Int): Errors =
+        fetchAsConsumer(replicaManager, tp, new PartitionData(0, 0, 100000, currentLeaderEpoch)).assertFired.error
+
+      assertEquals(Errors.NONE, fetchError(RecordBatch.NO_PARTITION_LEADER_EPOCH))
+      assertEquals(Errors.NONE, fetchError(5))
+      assertEquals(Errors.FENCED_LEADER_EPOCH, fetchError(4))
+      assertEquals(Errors.UNKNOWN_LEADER_EPOCH, fetchError(6))
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
   @Test
   def testDelayedFetchIncludesAbortedTransactions(): Unit = {
     val timer = new MockTimer
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.utils
+
+import java.nio.{ByteBuffer, ByteOrder}
+import java.nio.charset.StandardCharsets
+
+import org.junit.Assert._
+import org.junit.Test
+
+class Murmur3Test {
+
+  @Test
+  def testKnownHashes() {
+    assertEquals("00000000000000000000000000000000", hash(""))
+    assertEquals("e271865701f545617eaf87e42bba7d87", hash("foo"))
+    assertEquals("cbd8a7b341bd9b025b1e906a48ae1d19", hash("hello"))
+    assertEquals("e34bbc7bbc071b6c7a433ca9c49a9347", hash("The quick brown fox jumps over the lazy dog"))
+    assertEquals("740dcf93fe0bd5d7c4546cf4ec705c8f", hash("The quick brown fox jumps over the lazy dog", seed = 42))
+    assertEquals("f02aa77dfa1b8523d1016610da11cbb9", hash("", seed = 42))
+  }
+
+  @Test
+  def testHashOfRemainingBytes() {
+    // the bytes 0 to 30, surrounded by other bytes
+    val bytes = Array.fill(4)(-1.toByte) ++ (0 until 31).map(_.toByte) ++ Array.fill(5)(-1.toByte)
+    val buffer = ByteBuffer.wrap(bytes)
+    buffer.position(4).limit(35)
+    val slice = buffer.slice()
+    assertEquals("053dd3e1a32cd0949ee59aefb4005490", hash(ByteBuffer.wrap(bytes, 4, 31)))
+    assertEquals("053dd3e1a32cd0949ee59aefb4005490", hash(slice))
+    assertEquals("053dd3e1a32cd0949ee59aefb4005490", hash(slice.order(ByteOrder.LITTLE_ENDIAN)))
+    assertEquals(0, slice.position)
+  }
+
+  private def hash(s: String, seed: Long = 0L): String =
+    hash(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)), seed)
+
+  private def hash(buffer: ByteBuffer): String = hash(buffer, 0L)
+
+  private def hash(buffer: ByteBuffer, seed: Long): String = {
+    val out = new Array[Byte](Murmur3.HashSize)
+    Murmur3.hash128(buffer, seed, out)
+    out.map(b => "%02x".format(b)).mkString
+  }
+
+}
@@ -1014,11 +1014,13 @@ object TestUtils extends Logging {
                    defaultConfig = defaultConfig,
                    cleanerConfig = cleanerConfig,
                    ioThreads = 4,
+                   recoveryThreadsPerLog = 1,
                    flushCheckMs = 1000L,
                    flushRecoveryOffsetCheckpointMs = 10000L,
                    flushStartOffsetCheckpointMs = 10000L,
                    retentionCheckMs = 1000L,
                    maxPidExpirationMs = 60 * 60 * 1000,
+                   maxLoadedIndexes = Int.MaxValue,
                    scheduler = time.scheduler,
                    time = time,
                    brokerState = BrokerState(),
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.SkimpyOffsetMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the offset map operations done by a log cleaner thread for every record of a compacted log:
+ * a put while building the map from the dirty section, and a get while recopying the log.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OffsetMapBenchmark {
+
+    private static final int NUM_KEYS = 100000;
+
+    @Param(value = {"MD5", "MURMUR3"})
+    private String hashAlgorithm = "MD5";
+
+    @Param(value = {"16", "128", "1024"})
+    private int keySize = 16;
+
+    private ByteBuffer[] keys;
+    private SkimpyOffsetMap map;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        keys = new ByteBuffer[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            byte[] key = new byte[keySize];
+            random.nextBytes(key);
+            keys[i] = ByteBuffer.wrap(key);
+        }
+        // the cleaner fills the map up to the default dedupe buffer load factor of 0.9
+        int bytesPerEntry = SkimpyOffsetMap.hashSize(hashAlgorithm) + 8;
+        map = new SkimpyOffsetMap((int) (NUM_KEYS / 0.9 * bytesPerEntry), hashAlgorithm);
+        for (int i = 0; i < NUM_KEYS; i++)
+            map.put(keys[i], i);
+    }
+
+    @Benchmark
+    public void put() {
+        int i = nextIndex();
+        map.put(keys[i], i);
+    }
+
+    @Benchmark
+    public long get() {
+        return map.get(keys[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        int i = index;
+        index = i + 1 == NUM_KEYS ? 0 : i + 1;
+        return i;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.network;
+
+import kafka.network.RequestChannel;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.SecurityProtocol;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.requests.ProduceRequest;
+import org.apache.kafka.common.requests.RequestHeader;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of handing requests from network threads to request handler threads. Every benchmark thread
+ * acts as both a network thread and a handler thread, adding a request and then taking one, so the queues never fill
+ * up. A queue count of 1 is the single shared queue used by default.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+public class RequestChannelBenchmark {
+
+    private static final int NUM_PROCESSORS = 16;
+
+    @Param(value = {"1", "4", "16"})
+    private int numQueues = 1;
+
+    private RequestChannel channel;
+    private final AtomicInteger nextThreadId = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int handlerId;
+        private RequestChannel.Request request;
+
+        @Setup
+        public void setup(RequestChannelBenchmark benchmark) throws UnknownHostException {
+            int id = benchmark.nextThreadId.getAndIncrement();
+            handlerId = id;
+            request = request(id % NUM_PROCESSORS);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        channel = new RequestChannel(NUM_PROCESSORS, 500, numQueues);
+    }
+
+    @Benchmark
+    public RequestChannel.Request sendAndReceive(ThreadState state) {
+        channel.sendRequest(state.request);
+        return channel.receiveRequest(Long.MAX_VALUE, state.handlerId);
+    }
+
+    private static RequestChannel.Request request(int processor) throws UnknownHostException {
+        ProduceRequest produceRequest = new ProduceRequest.Builder(RecordBatch.CURRENT_MAGIC_VALUE, (short) 1, 0,
+                Collections.<TopicPartition, MemoryRecords>emptyMap()).build();
+        RequestHeader header = new RequestHeader(ApiKeys.PRODUCE.id, produceRequest.version(), "", 0);
+        return new RequestChannel.Request(processor, "connection",
+                new RequestChannel.Session(KafkaPrincipal.ANONYMOUS, InetAddress.getLocalHost()),
+                produceRequest.serialize(header), System.nanoTime(), new ListenerName("PLAINTEXT"),
+                SecurityProtocol.PLAINTEXT);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.BufferPool;
+import org.apache.kafka.clients.producer.internals.StripedBufferPool;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of allocating and deallocating batch buffers from many threads at once, which is what
+ * application threads calling send do. A stripe count of 1 uses the single-lock {@link BufferPool}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(32)
+public class BufferPoolBenchmark {
+
+    private static final int BATCH_SIZE = 16384;
+
+    @Param(value = {"1", "8", "32"})
+    private int stripes = 1;
+
+    private Metrics metrics;
+    private BufferPool pool;
+
+    @Setup
+    public void setup() {
+        metrics = new Metrics();
+        // enough memory for every thread to hold a buffer, so that throughput rather than blocking is measured
+        long totalMemory = 64L * BATCH_SIZE;
+        if (stripes > 1)
+            pool = new StripedBufferPool(totalMemory, BATCH_SIZE, stripes, metrics, Time.SYSTEM, "producer-metrics");
+        else
+            pool = new BufferPool(totalMemory, BATCH_SIZE, metrics, Time.SYSTEM, "producer-metrics");
+    }
+
+    @TearDown
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Benchmark
+    public ByteBuffer allocateAndDeallocate() throws InterruptedException {
+        ByteBuffer buffer = pool.allocate(BATCH_SIZE, Long.MAX_VALUE);
+        pool.deallocate(buffer);
+        return buffer;
+    }
+
+}
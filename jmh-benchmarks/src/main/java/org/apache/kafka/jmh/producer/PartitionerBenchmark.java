@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.StickyPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and the latency distribution of sending records without keys through a partitioner and the
+ * record accumulator, as the application threads of a producer do, while a sender thread drains the batches which are
+ * ready once per millisecond, which stands in for the round trip of a produce request. Run with
+ * <code>-bm sample</code>, the p0.99 of the sample time is the p99 latency of a send.
+ *
+ * The default partitioner spreads consecutive records over all partitions, so every drain picks up many small batches.
+ * The sticky partitioner fills the batch of one partition before it moves on to another one.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class PartitionerBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_SIZE = 16384;
+    private static final long TOTAL_MEMORY = 32 * 1024 * 1024L;
+    private static final byte[] VALUE = new byte[100];
+    private static final Header[] HEADERS = new Header[0];
+
+    @Param(value = {"default", "sticky"})
+    private String partitionerType = "default";
+
+    @Param(value = {"16", "128"})
+    private int numPartitions = 16;
+
+    @Param(value = {"0", "5"})
+    private long lingerMs = 0;
+
+    private Metrics metrics;
+    private Cluster cluster;
+    private Partitioner partitioner;
+    private RecordAccumulator accumulator;
+    private Thread sender;
+    private volatile boolean running;
+
+    @Setup
+    public void setup() {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            nodes.add(new Node(i, "localhost", 9092 + i));
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            Node leader = nodes.get(i % nodes.size());
+            partitions.add(new PartitionInfo(TOPIC, i, leader, new Node[] {leader}, new Node[] {leader}));
+        }
+        cluster = new Cluster("benchmark", nodes, partitions, Collections.<String>emptySet(),
+                Collections.<String>emptySet());
+
+        switch (partitionerType) {
+            case "default":
+                partitioner = new DefaultPartitioner();
+                break;
+            case "sticky":
+                partitioner = new StickyPartitioner();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown partitioner " + partitionerType);
+        }
+
+        metrics = new Metrics();
+        accumulator = new RecordAccumulator(BATCH_SIZE, TOTAL_MEMORY, CompressionType.NONE, lingerMs, 100L, metrics,
+                Time.SYSTEM, new ApiVersions(), null);
+
+        running = true;
+        sender = new Thread("benchmark-sender") {
+            @Override
+            public void run() {
+                while (running) {
+                    long now = Time.SYSTEM.milliseconds();
+                    RecordAccumulator.ReadyCheckResult ready = accumulator.ready(cluster, now);
+                    Map<Integer, List<ProducerBatch>> drained = accumulator.drain(cluster, ready.readyNodes,
+                            Integer.MAX_VALUE, now);
+                    for (List<ProducerBatch> batches : drained.values()) {
+                        for (ProducerBatch batch : batches)
+                            accumulator.deallocate(batch);
+                    }
+                    Time.SYSTEM.sleep(1);
+                }
+            }
+        };
+        sender.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        sender.join();
+        metrics.close();
+    }
+
+    @Benchmark
+    public RecordAccumulator.RecordAppendResult send() throws InterruptedException {
+        int partition = partitioner.partition(TOPIC, null, null, null, VALUE, cluster);
+        boolean sticky = partitioner instanceof StickyPartitioner;
+        RecordAccumulator.RecordAppendResult result = accumulator.append(new TopicPartition(TOPIC, partition), 0L,
+                null, VALUE, HEADERS, null, Long.MAX_VALUE, sticky);
+        if (result.abortForNewBatch) {
+            ((StickyPartitioner) partitioner).onNewBatch(TOPIC, cluster, partition);
+            partition = partitioner.partition(TOPIC, null, null, null, VALUE, cluster);
+            result = accumulator.append(new TopicPartition(TOPIC, partition), 0L, null, VALUE, HEADERS, null,
+                    Long.MAX_VALUE, false);
+        }
+        return result;
+    }
+
+}
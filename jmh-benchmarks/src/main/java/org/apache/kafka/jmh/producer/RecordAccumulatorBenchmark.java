@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how appending records to the {@link RecordAccumulator} scales with the number of application threads calling
+ * send, while a sender thread checks which partitions are ready and drains their batches in a loop. With few partitions
+ * every thread appends to the same few open batches, which is where the appends contend with each other and with the
+ * sender.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordAccumulatorBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_SIZE = 16384;
+    private static final long TOTAL_MEMORY = 32 * 1024 * 1024L;
+    private static final byte[] VALUE = new byte[100];
+    private static final Header[] HEADERS = new Header[0];
+
+    @Param(value = {"1", "4", "64"})
+    private int numPartitions = 1;
+
+    private Metrics metrics;
+    private Cluster cluster;
+    private TopicPartition[] partitions;
+    private RecordAccumulator accumulator;
+    private Thread sender;
+    private volatile boolean running;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random();
+    }
+
+    @Setup
+    public void setup() {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitionInfos = new ArrayList<>();
+        partitions = new TopicPartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitionInfos.add(new PartitionInfo(TOPIC, i, node, new Node[] {node}, new Node[] {node}));
+            partitions[i] = new TopicPartition(TOPIC, i);
+        }
+        cluster = new Cluster("benchmark", Collections.singletonList(node), partitionInfos,
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+
+        metrics = new Metrics();
+        accumulator = new RecordAccumulator(BATCH_SIZE, TOTAL_MEMORY, CompressionType.NONE, 0L, 100L, metrics,
+                Time.SYSTEM, new ApiVersions(), null);
+
+        running = true;
+        sender = new Thread("benchmark-sender") {
+            @Override
+            public void run() {
+                while (running) {
+                    long now = Time.SYSTEM.milliseconds();
+                    RecordAccumulator.ReadyCheckResult ready = accumulator.ready(cluster, now);
+                    Map<Integer, List<ProducerBatch>> drained = accumulator.drain(cluster, ready.readyNodes,
+                            Integer.MAX_VALUE, now);
+                    for (List<ProducerBatch> batches : drained.values()) {
+                        for (ProducerBatch batch : batches)
+                            accumulator.deallocate(batch);
+                    }
+                }
+            }
+        };
+        sender.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        sender.join();
+        metrics.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public RecordAccumulator.RecordAppendResult append(ThreadState state) throws InterruptedException {
+        return appendToRandomPartition(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public RecordAccumulator.RecordAppendResult append4Threads(ThreadState state) throws InterruptedException {
+        return appendToRandomPartition(state);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public RecordAccumulator.RecordAppendResult append16Threads(ThreadState state) throws InterruptedException {
+        return appendToRandomPartition(state);
+    }
+
+    private RecordAccumulator.RecordAppendResult appendToRandomPartition(ThreadState state) throws InterruptedException {
+        TopicPartition partition = partitions[state.random.nextInt(partitions.length)];
+        return accumulator.append(partition, 0L, null, VALUE, HEADERS, null, Long.MAX_VALUE);
+    }
+
+}
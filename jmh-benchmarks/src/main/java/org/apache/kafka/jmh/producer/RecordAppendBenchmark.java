@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.FutureRecordMetadata;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.SerializationBuffer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing a record with a string key and value and appending it to a producer batch, the per record work
+ * of a send on the application thread, either through serialized byte arrays or through the reused buffers which
+ * serializers that write to an output use. Run it with the allocation profiler ({@code -prof gc}) to see the bytes
+ * allocated per record: with the reused buffers, what is left is the future and callback of the record and the batches,
+ * whose cost is spread over the records they hold.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordAppendBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_SIZE = 16384;
+
+    @Param(value = {"10", "1000"})
+    private int valueSize = 10;
+
+    @Param(value = {"0", "2"})
+    private int numHeaders = 0;
+
+    private final TopicPartition partition = new TopicPartition(TOPIC, 0);
+    private final StringSerializer serializer = new StringSerializer();
+    private final SerializationBuffer keyBuffer = new SerializationBuffer(BATCH_SIZE);
+    private final SerializationBuffer valueBuffer = new SerializationBuffer(BATCH_SIZE);
+    private final ByteBuffer batchBuffer = ByteBuffer.allocate(BATCH_SIZE);
+    private String key;
+    private String value;
+    private RecordHeaders recordHeaders;
+    private Header[] headers;
+    private ProducerBatch batch;
+
+    @Setup
+    public void setup() {
+        key = "key-0123456789";
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+        recordHeaders = new RecordHeaders();
+        for (int i = 0; i < numHeaders; i++)
+            recordHeaders.add(new RecordHeader("header-" + i, new byte[10]));
+        headers = recordHeaders.toArray();
+        batch = newBatch();
+    }
+
+    @Benchmark
+    public FutureRecordMetadata appendSerializedArrays() {
+        byte[] serializedKey = serializer.serialize(TOPIC, recordHeaders, key);
+        byte[] serializedValue = serializer.serialize(TOPIC, recordHeaders, value);
+        FutureRecordMetadata future = batch.tryAppend(0L, serializedKey, serializedValue, headers, null, 0L);
+        if (future == null) {
+            batch = newBatch();
+            future = batch.tryAppend(0L, serializedKey, serializedValue, headers, null, 0L);
+        }
+        return future;
+    }
+
+    @Benchmark
+    public FutureRecordMetadata appendSerializationBuffers() {
+        ByteBuffer serializedKey = keyBuffer.serialize(serializer, TOPIC, recordHeaders, key);
+        ByteBuffer serializedValue = valueBuffer.serialize(serializer, TOPIC, recordHeaders, value);
+        FutureRecordMetadata future = batch.tryAppend(0L, serializedKey, serializedValue, headers, null, 0L);
+        if (future == null) {
+            batch = newBatch();
+            future = batch.tryAppend(0L, serializedKey, serializedValue, headers, null, 0L);
+        }
+        return future;
+    }
+
+    private ProducerBatch newBatch() {
+        batchBuffer.clear();
+        return new ProducerBatch(partition, MemoryRecords.builder(batchBuffer, CompressionType.NONE,
+                TimestampType.CREATE_TIME, 0L), 0L);
+    }
+
+}
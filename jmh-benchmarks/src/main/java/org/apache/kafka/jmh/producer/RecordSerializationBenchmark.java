@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.SerializationBuffer;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of serializing a string value, either into a byte array of its own or into the reused buffer
+ * of a {@link SerializationBuffer}. It complements {@link RecordAppendBenchmark}, which is meant to be run with the
+ * allocation profiler: writing to the reused buffer must not trade the allocations it saves for slower encoding.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordSerializationBenchmark {
+
+    private static final String TOPIC = "benchmark";
+
+    @Param(value = {"10", "1000"})
+    private int valueSize = 10;
+
+    @Param(value = {"true", "false"})
+    private boolean ascii = true;
+
+    private final StringSerializer serializer = new StringSerializer();
+    private final SerializationBuffer buffer = new SerializationBuffer(16384);
+    private final RecordHeaders headers = new RecordHeaders();
+    private String value;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, ascii ? 'v' : '\u00ea');
+        value = new String(chars);
+    }
+
+    @Benchmark
+    public byte[] serializeToArray() {
+        return serializer.serialize(TOPIC, headers, value);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeToBuffer() {
+        return buffer.serialize(serializer, TOPIC, headers, value);
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the cost of compressing and decompressing a v2 record batch with each of the supported codecs. The
+ * compression ratio achieved for the generated payload is reported on stdout during setup so that ratio and CPU
+ * cost can be compared side by side.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+public class CompressionBenchmark {
+
+    private final Random random = new Random(0);
+
+    @Param(value = {"NONE", "GZIP", "SNAPPY", "LZ4", "ZSTD"})
+    private CompressionType compressionType = CompressionType.NONE;
+
+    @Param(value = {"100", "1000"})
+    private int messageSize = 100;
+
+    @Param(value = {"16384", "262144"})
+    private int batchSize = 16384;
+
+    private byte[][] values;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer compressedBatch;
+    private BufferSupplier bufferSupplier;
+
+    @Setup
+    public void init() {
+        bufferSupplier = BufferSupplier.create();
+
+        int recordCount = Math.max(1, batchSize / messageSize);
+        values = new byte[recordCount][];
+        for (int i = 0; i < recordCount; ++i)
+            values[i] = semiRandomValue();
+
+        writeBuffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytesUpperBound(RecordBatch.CURRENT_MAGIC_VALUE,
+                CompressionType.NONE, new byte[0], values[0], Record.EMPTY_HEADERS) * recordCount);
+        // copy the batch since writeBuffer is reused by measureCompression
+        ByteBuffer built = buildBatch().buffer();
+        compressedBatch = ByteBuffer.allocate(built.remaining());
+        compressedBatch.put(built).flip();
+    }
+
+    /**
+     * Values drawn from a small alphabet with repeated runs, a rough stand-in for text or JSON payloads. Purely random
+     * bytes would make every codec look the same.
+     */
+    private byte[] semiRandomValue() {
+        byte[] value = new byte[messageSize];
+        int i = 0;
+        while (i < messageSize) {
+            byte b = (byte) ('a' + random.nextInt(16));
+            int run = 1 + random.nextInt(8);
+            for (int j = 0; j < run && i < messageSize; ++j)
+                value[i++] = b;
+        }
+        return value;
+    }
+
+    private MemoryRecords buildBatch() {
+        writeBuffer.clear();
+        MemoryRecordsBuilder builder = MemoryRecords.builder(writeBuffer, RecordBatch.CURRENT_MAGIC_VALUE,
+                compressionType, TimestampType.CREATE_TIME, 0L);
+        for (byte[] value : values)
+            builder.append(0L, null, value);
+        return builder.build();
+    }
+
+    @Benchmark
+    public void measureCompression(Blackhole bh) {
+        bh.consume(buildBatch());
+    }
+
+    @Benchmark
+    public void measureDecompression(Blackhole bh) throws IOException {
+        for (RecordBatch batch : MemoryRecords.readableRecords(compressedBatch.duplicate()).batches()) {
+            try (CloseableIterator<Record> iterator = batch.streamingIterator(bufferSupplier)) {
+                while (iterator.hasNext())
+                    bh.consume(iterator.next());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.server;
+
+import kafka.server.DelayedOperation;
+import kafka.server.DelayedOperationPurgatory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a purgatory under watching, completing and expiring operations at once. Every benchmark
+ * thread watches a new operation on a random key and then completes the operation it watched before, while the
+ * operations which are not completed within their timeout are expired by the reaper thread. A shard count of 1 is the
+ * single watch list lock used by default. With the short timeout many operations expire before they are completed,
+ * with the long one none do. The uncontended benchmark runs a single thread, the other one 16 threads.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+public class DelayedOperationPurgatoryBenchmark {
+
+    @Param(value = {"1", "16"})
+    private int numShards = 1;
+
+    @Param(value = {"10000"})
+    private int numKeys = 10000;
+
+    @Param(value = {"5", "30000"})
+    private long timeoutMs = 5;
+
+    private DelayedOperationPurgatory<BenchmarkOperation> purgatory;
+    private List<Seq<Object>> watchKeys;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random();
+        private BenchmarkOperation previous;
+        private Object previousKey;
+    }
+
+    @Setup
+    public void setup() {
+        purgatory = DelayedOperationPurgatory.apply("benchmark", 0, 1000, true, true, numShards);
+        watchKeys = new ArrayList<>(numKeys);
+        for (int i = 0; i < numKeys; i++) {
+            List<Object> keys = Collections.<Object>singletonList("key-" + i);
+            watchKeys.add(JavaConverters.asScalaBufferConverter(keys).asScala());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        purgatory.shutdown();
+    }
+
+    @Benchmark
+    public int watchAndComplete(ThreadState state) {
+        return watchAndCompletePrevious(state);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int watchAndCompleteUncontended(ThreadState state) {
+        return watchAndCompletePrevious(state);
+    }
+
+    private int watchAndCompletePrevious(ThreadState state) {
+        int key = state.random.nextInt(numKeys);
+        BenchmarkOperation operation = new BenchmarkOperation(timeoutMs);
+        Seq<Object> keys = watchKeys.get(key);
+        purgatory.tryCompleteElseWatch(operation, keys);
+
+        int completed = 0;
+        if (state.previous != null) {
+            state.previous.completable = true;
+            completed = purgatory.checkAndComplete(state.previousKey);
+        }
+        state.previous = operation;
+        state.previousKey = keys.head();
+        return completed;
+    }
+
+    private static class BenchmarkOperation extends DelayedOperation {
+        private volatile boolean completable = false;
+
+        BenchmarkOperation(long delayMs) {
+            super(delayMs);
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return completable && forceComplete();
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+}
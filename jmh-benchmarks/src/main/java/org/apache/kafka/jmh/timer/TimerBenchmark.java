@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.timer;
+
+import kafka.server.DelayedOperation;
+import kafka.utils.timer.SystemTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of adding tasks to the timing wheel of a {@link SystemTimer} and cancelling them, which is
+ * what happens to most delayed produce and fetch requests, while a reaper thread advances the clock and expires the
+ * tasks which are due, like the expiration reaper of a purgatory. Every benchmark thread keeps a fixed number of tasks:
+ * it adds a task and cancels the oldest of its tasks, unless that one has expired already. The delays of the tasks
+ * are drawn from one of these distributions:
+ *
+ * <ul>
+ *     <li>constant: every task has a delay of 30 seconds, so the tasks go to few buckets of the same wheel</li>
+ *     <li>short: uniform up to the 20 ms of the innermost wheel, so that many tasks expire</li>
+ *     <li>uniform: uniform up to 30 seconds, the default request timeout, spread over the first three wheels</li>
+ *     <li>bimodal: mostly short delays with some long ones, like long-polling fetches next to produce requests</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerBenchmark {
+
+    private static final int PENDING_TASKS_PER_THREAD = 1000;
+
+    @Param(value = {"constant", "short", "uniform", "bimodal"})
+    private String delays = "constant";
+
+    private SystemTimer timer;
+    private Thread reaper;
+    private volatile boolean running;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random();
+        private final BenchmarkTask[] pending = new BenchmarkTask[PENDING_TASKS_PER_THREAD];
+        private int next = 0;
+
+        @Setup
+        public void setup(TimerBenchmark benchmark) {
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = new BenchmarkTask(benchmark.delayMs(random));
+                benchmark.timer.add(pending[i]);
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        timer = new SystemTimer("benchmark", 1, 20, System.nanoTime() / 1000000);
+        running = true;
+        reaper = new Thread("benchmark-reaper") {
+            @Override
+            public void run() {
+                while (running)
+                    timer.advanceClock(200L);
+            }
+        };
+        reaper.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        reaper.join();
+        timer.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int addAndCancel(ThreadState state) {
+        return addAndCancelOldest(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int addAndCancelConcurrently(ThreadState state) {
+        return addAndCancelOldest(state);
+    }
+
+    private int addAndCancelOldest(ThreadState state) {
+        BenchmarkTask task = new BenchmarkTask(delayMs(state.random));
+        timer.add(task);
+        state.pending[state.next].cancel();
+        state.pending[state.next] = task;
+        state.next = (state.next + 1) % state.pending.length;
+        return timer.size();
+    }
+
+    private long delayMs(Random random) {
+        switch (delays) {
+            case "constant":
+                return 30 * 1000;
+            case "short":
+                return random.nextInt(20);
+            case "uniform":
+                return random.nextInt(30 * 1000);
+            case "bimodal":
+                return random.nextInt(10) == 0 ? 30 * 1000 + random.nextInt(500) : random.nextInt(100);
+            default:
+                throw new IllegalArgumentException("Unknown delay distribution " + delays);
+        }
+    }
+
+    static class BenchmarkTask extends DelayedOperation {
+
+        BenchmarkTask(long delayMs) {
+            super(delayMs);
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return false;
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+}